@@ -0,0 +1,790 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package master;
+
+import beast.core.Description;
+import beast.core.Input;
+import beast.core.Runnable;
+import com.google.common.collect.Lists;
+import java.io.FileNotFoundException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import master.model.*;
+import master.outputs.ApproximateBayesianComputationOutput;
+import master.rng.RandomGenerator;
+import master.steppers.GillespieStepper;
+import master.steppers.Stepper;
+
+/**
+ * Approximate Bayesian computation (ABC) of the posterior distribution
+ * of reaction rates given observed time series, using sequential Monte
+ * Carlo with adaptively chosen thresholds.  The first generation draws
+ * rates from their priors; each later generation perturbs rates drawn
+ * from the previous weighted population using a Gaussian kernel with
+ * twice the population variance, and accepts those whose simulated
+ * statistics lie within a threshold equal to a quantile of the previous
+ * generation's distances.  The calculation ends once the final threshold
+ * or the maximum number of generations is reached, or when a generation
+ * would accept fewer than the minimum fraction of its simulations.
+ *
+ * The distance between a simulation and the observations is the root of
+ * the sum of squared scaled differences between simulated statistics
+ * and observed values, which is accumulated as the simulation reaches
+ * each observation time.  Since the partial sum can only grow, a
+ * simulation is abandoned as soon as it exceeds the square of the
+ * threshold, so that poor parameter sets cost only the simulation time
+ * needed to rule them out.
+ *
+ * Proposals are made in batches and simulated in parallel, each thread
+ * changing rates in its own copy of the assembled model, then
+ * considered in the order in which they were proposed.  Proposal n of
+ * generation g draws its parameters from stream g*2^40 + n of the random
+ * generator and simulates using stream g*2^40 + 2^39 + n, so that with a
+ * stream-capable generator each proposal is reproducible independently
+ * of the others and the results do not depend on the number of threads.
+ * Accepted parameter sets can be written to a tab-delimited log file as
+ * they are found.
+ *
+ * @author agent <agent@local>
+ */
+@Description("Approximate Bayesian computation of reaction rates given "
+        + "observed time series.")
+public class ApproximateBayesianComputation extends Runnable {
+
+    /*
+     * XML inputs:
+     */
+
+    // Spec parameters:
+    public Input<Integer> populationSizeInput = new Input<>(
+            "populationSize",
+            "Number of parameter sets accepted in each generation.",
+            Input.Validate.REQUIRED);
+    public Input<Integer> nGenerationsInput = new Input<>(
+            "nGenerations",
+            "Maximum number of generations. (Default 10.)", 10);
+    public Input<Double> quantileInput = new Input<>(
+            "quantile",
+            "Quantile of distances accepted in one generation used as the"
+                    + " threshold of the next. (Default 0.5.)", 0.5);
+    public Input<Double> minAcceptanceRateInput = new Input<>(
+            "minAcceptanceRate",
+            "Stop when a generation would accept less than this fraction"
+                    + " of its proposals. (Default 0.01.)", 0.01);
+    public Input<Double> finalThresholdInput = new Input<>(
+            "finalThreshold",
+            "Stop once the threshold reaches this distance. (Default 0.)",
+            0.0);
+    public Input<Integer> seedInput = new Input<>(
+            "seed",
+            "Seed for RNG.");
+
+    public Input<RandomGenerator> randomGeneratorInput = new Input<>(
+            "randomGenerator",
+            "Source of random variates. (Default BEAST Randomizer.)");
+    public Input<Stepper> stepperInput = new Input<>(
+            "stepper",
+            "State stepping algorithm to use. (Default Gillespie.)");
+
+    public Input<Integer> nThreadsInput = new Input<>(
+            "nThreads",
+            "Number of threads used to simulate proposals.  More than one"
+                    + " thread requires a random generator with independent"
+                    + " streams. (Default 1.)", 1);
+
+    public Input<Integer> verbosityInput = new Input<>(
+            "verbosity", "Level of verbosity to use (0-3).", 1);
+
+    // Model:
+    public Input<Model> modelInput = new Input<>("model",
+            "The specific model to simulate.",
+            Input.Validate.REQUIRED);
+
+    // Initial state:
+    public Input<InitState> initialStateInput = new Input<>("initialState",
+            "Initial state of system.",
+            Input.Validate.REQUIRED);
+
+    // Parameters:
+    public Input<List<RatePrior>> ratePriorsInput = new Input<>(
+            "ratePrior",
+            "Prior of reaction rate to infer.",
+            new ArrayList<>());
+
+    // Observations:
+    public Input<List<Observations>> observationsInput = new Input<>(
+            "observations",
+            "Observed time series together with its simulated statistic.",
+            new ArrayList<>());
+
+    // Accepted parameter log:
+    public Input<String> logFileNameInput = new Input<>(
+            "logFileName",
+            "Name of file to which accepted parameter sets are written as"
+                    + " they are found.");
+
+    // Outputs to write:
+    public Input<List<ApproximateBayesianComputationOutput>> outputsInput
+            = new Input<>(
+            "output",
+            "Output writer used to write results to disk.",
+            new ArrayList<>());
+
+    // ABC specification:
+    ApproximateBayesianComputationSpec spec;
+
+    // Distinct observation times over all time series:
+    double[] obsTimes;
+
+    // For each time series, index of each observation time in the
+    // series (-1 if the series has no observation at that time):
+    int[][] obsIndices;
+
+    // Offset of each time series in the vector of statistics:
+    int[] statOffsets;
+
+    // Threads simulating proposals and the model, stepper, generator,
+    // observations and state used by each (those of the spec for
+    // worker 0):
+    WorkerPool workers;
+    Model[] workerModels;
+    Stepper[] workerSteppers;
+    RandomGenerator[] workerRngs;
+    List<List<Observations>> workerObservations;
+    PopulationState[] workerStates;
+
+    /*
+     * Buffers:
+     */
+
+    double[] kernelScales, logKernelTerms;
+
+    // Parameters, log prior densities, simulated statistics and
+    // distances of each proposal in a batch, and whether its simulation
+    // was abandoned before the final observation time:
+    double[][] batchProposals, batchStatistics;
+    double[] batchLogPriors, batchDistances;
+    boolean[] batchAborted;
+
+    /*
+     * Results:
+     */
+
+    // Accepted parameter sets, their distances and normalised weights:
+    double[][] parameters;
+    double[] distances, weights;
+
+    // Threshold, number of proposals and number of simulations
+    // abandoned early in each completed generation:
+    List<Double> thresholds;
+    List<Long> nProposals, nAborted;
+
+    public ApproximateBayesianComputation() { }
+
+    @Override
+    public void initAndValidate() {
+
+        spec = new ApproximateBayesianComputationSpec();
+
+        // Incorporate model:
+        spec.setModel(modelInput.get());
+
+        // Default to Gillespie stepper
+        if (stepperInput.get() != null)
+            spec.setStepper(stepperInput.get());
+        else
+            spec.setStepper(new GillespieStepper());
+
+        spec.setPopulationSize(populationSizeInput.get());
+        spec.setnGenerations(nGenerationsInput.get());
+        spec.setQuantile(quantileInput.get());
+        spec.setMinAcceptanceRate(minAcceptanceRateInput.get());
+        spec.setFinalThreshold(finalThresholdInput.get());
+
+        if ((double)spec.getPopulationSize()/spec.getMinAcceptanceRate()
+                >= (double)(1L << 39))
+            throw new IllegalArgumentException("Minimum acceptance rate is"
+                    + " too small for the random streams available to each"
+                    + " generation.");
+
+        // Assemble initial state:
+        PopulationState initState = new PopulationState();
+        for (PopulationSize popSize : initialStateInput.get().popSizesInput.get()) {
+            popSize.computePopulationSizes(modelInput.get());
+            for (Population pop : popSize.getPopSizes().keySet())
+                initState.set(pop, popSize.getPopSizes().get(pop));
+        }
+        spec.setInitPopulationState(initState);
+
+        // Incorporate parameters:
+        if (ratePriorsInput.get().isEmpty())
+            throw new IllegalArgumentException("ApproximateBayesianComputation"
+                    + " doesn't specify any rate priors!");
+
+        for (RatePrior ratePrior : ratePriorsInput.get()) {
+            ratePrior.initialise(modelInput.get());
+            spec.addRatePrior(ratePrior);
+        }
+
+        // Incorporate observations:
+        if (observationsInput.get().isEmpty())
+            throw new IllegalArgumentException("ApproximateBayesianComputation"
+                    + " doesn't specify any observations!");
+
+        for (Observations obs : observationsInput.get()) {
+            if (!obs.hasStatistic())
+                throw new IllegalArgumentException("Observations used by"
+                        + " ApproximateBayesianComputation must specify a"
+                        + " statistic.");
+
+            obs.initialise(modelInput.get());
+            spec.addObservations(obs);
+        }
+
+        // Set seed if provided, otherwise use default BEAST seed:
+        if (seedInput.get()!=null)
+            spec.setSeed(seedInput.get());
+
+        // Use alternative source of random variates if provided:
+        if (randomGeneratorInput.get()!=null)
+            spec.setRandomGenerator(randomGeneratorInput.get());
+
+        // Set the level of verbosity:
+        spec.setVerbosity(verbosityInput.get());
+
+        // Merge observation times of all series:
+        List<Observations> observations = spec.getObservations();
+        obsTimes = Observations.mergeTimes(observations);
+        obsIndices = Observations.getTimeIndices(observations, obsTimes);
+        spec.setSimulationTime(obsTimes[obsTimes.length-1]);
+
+        statOffsets = new int[observations.size()];
+        int nStats = 0;
+        for (int s=0; s<observations.size(); s++) {
+            statOffsets[s] = nStats;
+            nStats += observations.get(s).getTimes().length;
+        }
+
+        // Set up copies of the model, stepper and observations for each
+        // additional thread.  Copies of the model are made after the rate
+        // priors have been initialised, as required by RatePrior:
+        workers = new WorkerPool(nThreadsInput.get());
+        int nThreads = workers.getThreadCount();
+        if (nThreads>1 && !spec.getRandomGenerator().hasStreams())
+            throw new IllegalArgumentException("Simulating proposals using"
+                    + " multiple threads requires a random generator with"
+                    + " independent streams.");
+
+        workerModels = new Model[nThreads];
+        workerSteppers = new Stepper[nThreads];
+        workerRngs = new RandomGenerator[nThreads];
+        workerObservations = Lists.newArrayList();
+        workerStates = new PopulationState[nThreads];
+        workerModels[0] = spec.getModel();
+        workerSteppers[0] = spec.getStepper();
+        workerRngs[0] = spec.getRandomGenerator();
+        workerObservations.add(observations);
+        for (int w=0; w<nThreads; w++) {
+            workerStates[w] = new PopulationState(initState);
+            if (w == 0)
+                continue;
+
+            workerModels[w] = spec.getModel().getCopy();
+            workerSteppers[w] = spec.getStepper().getCopy();
+
+            List<Observations> observationsCopy = Lists.newArrayList();
+            for (Observations obs : observations) {
+                Observations obsCopy = obs.getCopy();
+                obsCopy.initialise(workerModels[w]);
+                observationsCopy.add(obsCopy);
+            }
+            workerObservations.add(observationsCopy);
+        }
+
+        // Allocate buffers.  Batches hold at most the population size or
+        // one proposal for each thread:
+        int nParams = spec.getRatePriors().size();
+        int popSize = spec.getPopulationSize();
+        int maxBatchSize = Math.max(popSize, nThreads);
+        kernelScales = new double[nParams];
+        logKernelTerms = new double[popSize];
+        batchProposals = new double[maxBatchSize][nParams];
+        batchStatistics = new double[maxBatchSize][nStats];
+        batchLogPriors = new double[maxBatchSize];
+        batchDistances = new double[maxBatchSize];
+        batchAborted = new boolean[maxBatchSize];
+    }
+
+    @Override
+    public void run() throws Exception {
+
+        // Record time at start of calculation:
+        double startTime = (new Date()).getTime();
+
+        sample();
+
+        // Record total time of calculation:
+        spec.setWallTime(((new Date()).getTime() - startTime)/1e3);
+
+        // Write outputs:
+        for (ApproximateBayesianComputationOutput output : outputsInput.get())
+            output.write(this);
+
+        System.out.println("Done.");
+    }
+
+    /**
+     * Sample the approximate posterior.  On return the accepted
+     * population of the final completed generation is available through
+     * getParameters() and related methods, and the model has its
+     * original rates.
+     *
+     * @throws FileNotFoundException if log file cannot be opened
+     */
+    public void sample() throws FileNotFoundException {
+
+        RandomGenerator rng = spec.getRandomGenerator();
+        List<RatePrior> ratePriors = spec.getRatePriors();
+        int popSize = spec.getPopulationSize();
+        int nParams = ratePriors.size();
+        long maxProposals = (long)Math.ceil(popSize/spec.getMinAcceptanceRate());
+
+        // Set seed if defined:
+        if (spec.seed>=0 && !spec.seedUsed) {
+            rng.setSeed(spec.seed);
+            spec.seedUsed = true;
+        }
+
+        // Additional threads use copies of the (now seeded) generator:
+        for (int w=1; w<workerRngs.length; w++)
+            workerRngs[w] = rng.getCopy();
+
+        PrintStream log = null;
+        if (logFileNameInput.get() != null) {
+            log = new PrintStream(logFileNameInput.get());
+            writeLogHeader(log);
+        }
+
+        thresholds = Lists.newArrayList();
+        nProposals = Lists.newArrayList();
+        nAborted = Lists.newArrayList();
+
+        parameters = null;
+        distances = null;
+        weights = null;
+
+        double[][] newParameters = new double[popSize][nParams];
+        double[] newDistances = new double[popSize];
+        double[] newLogWeights = new double[popSize];
+
+        double threshold = Double.POSITIVE_INFINITY;
+
+        for (int g=0; g<spec.getnGenerations(); g++) {
+
+            if (spec.getVerbosity()>0)
+                System.err.println("Generation " + g + ": threshold "
+                        + threshold);
+
+            if (g>0)
+                computeKernelScales();
+
+            long streamBase = (long)g << 40;
+            long nProposed = 0, nAbortedSim = 0;
+            int nAccepted = 0;
+
+            while (nAccepted<popSize && nProposed<maxProposals) {
+
+                // Each batch holds no more proposals than are still
+                // needed, unless there are more threads:
+                int batchSize = (int)Math.min(
+                        Math.max(popSize - nAccepted, workers.getThreadCount()),
+                        maxProposals - nProposed);
+
+                // Propose parameters.  Those with zero prior density are
+                // rejected without simulating:
+                for (int b=0; b<batchSize; b++) {
+                    rng.setStream(streamBase + nProposed + b);
+                    batchLogPriors[b] = propose(g>0, rng, batchProposals[b]);
+                }
+
+                final long simStreamBase = streamBase + (1L << 39) + nProposed;
+                final double batchThreshold = threshold;
+                workers.run(batchSize, (worker, from, to) -> {
+                    for (int b=from; b<to; b++) {
+                        if (batchLogPriors[b] > Double.NEGATIVE_INFINITY)
+                            simulate(worker, b, batchThreshold,
+                                    simStreamBase + b);
+                    }
+                });
+
+                // Consider proposals in order, discarding any remaining
+                // once the population is complete:
+                for (int b=0; b<batchSize && nAccepted<popSize; b++) {
+                    nProposed += 1;
+
+                    if (batchLogPriors[b] == Double.NEGATIVE_INFINITY)
+                        continue;
+
+                    if (batchAborted[b])
+                        nAbortedSim += 1;
+
+                    if (!(batchDistances[b]<=threshold))
+                        continue;
+
+                    double[] proposal = batchProposals[b];
+                    System.arraycopy(proposal, 0, newParameters[nAccepted], 0,
+                            nParams);
+                    newDistances[nAccepted] = batchDistances[b];
+                    newLogWeights[nAccepted] = g>0
+                            ? batchLogPriors[b] - getLogKernelDensity(proposal)
+                            : 0.0;
+
+                    if (log != null)
+                        writeLogLine(log, g, proposal, batchDistances[b],
+                                newLogWeights[nAccepted], batchStatistics[b]);
+
+                    nAccepted += 1;
+                }
+            }
+
+            if (nAccepted<popSize) {
+                if (spec.getVerbosity()>0)
+                    System.err.println("Acceptance rate fell below "
+                            + spec.getMinAcceptanceRate() + ": stopping.");
+                break;
+            }
+
+            thresholds.add(threshold);
+            nProposals.add(nProposed);
+            nAborted.add(nAbortedSim);
+
+            // Accepted population becomes the current population:
+            if (parameters == null) {
+                parameters = new double[popSize][nParams];
+                distances = new double[popSize];
+                weights = new double[popSize];
+            }
+            double[][] tmp = parameters;
+            parameters = newParameters;
+            newParameters = tmp;
+            System.arraycopy(newDistances, 0, distances, 0, popSize);
+            normaliseWeights(newLogWeights);
+
+            if (spec.getVerbosity()>0)
+                System.err.println("Accepted " + popSize + " of " + nProposed
+                        + " proposals (" + nAbortedSim
+                        + " simulations abandoned early).");
+
+            if (threshold<=spec.getFinalThreshold())
+                break;
+
+            threshold = Math.max(getDistanceQuantile(spec.getQuantile()),
+                    spec.getFinalThreshold());
+        }
+
+        if (log != null)
+            log.close();
+
+        // Restore original model:
+        for (RatePrior ratePrior : ratePriors)
+            ratePrior.restore();
+    }
+
+    /**
+     * Propose a parameter set, either from the priors or by perturbing a
+     * member of the current population.
+     *
+     * @param perturb if true, perturb a member of the current population
+     * @param rng source of random variates
+     * @param proposal array to fill with proposed parameters
+     * @return log prior density of proposal
+     */
+    private double propose(boolean perturb, RandomGenerator rng,
+            double[] proposal) {
+        List<RatePrior> ratePriors = spec.getRatePriors();
+
+        if (perturb) {
+            double u = rng.nextDouble();
+            int idx = 0;
+            while (idx<weights.length-1 && u>=weights[idx]) {
+                u -= weights[idx];
+                idx += 1;
+            }
+
+            for (int p=0; p<proposal.length; p++)
+                proposal[p] = parameters[idx][p]
+                        + kernelScales[p]*rng.nextGaussian();
+        } else {
+            for (int p=0; p<proposal.length; p++)
+                proposal[p] = ratePriors.get(p).sample(rng);
+        }
+
+        double logPrior = 0.0;
+        for (int p=0; p<proposal.length; p++)
+            logPrior += ratePriors.get(p).getLogDensity(proposal[p]);
+
+        return logPrior;
+    }
+
+    /**
+     * Simulate the model using the rates of a proposal in the current
+     * batch, comparing statistics with observations as each observation
+     * time is reached.  Sets the distance of the proposal from the
+     * observations, or positive infinity if the simulation was abandoned
+     * before the final observation time because the distance was
+     * certain to exceed the threshold.
+     *
+     * @param worker index of worker thread
+     * @param b index of proposal in batch
+     * @param threshold distance beyond which simulation is abandoned
+     * @param stream random stream used for simulation
+     */
+    void simulate(int worker, int b, double threshold, long stream) {
+        Model model = workerModels[worker];
+        Stepper stepper = workerSteppers[worker];
+        RandomGenerator rng = workerRngs[worker];
+        List<Observations> observations = workerObservations.get(worker);
+        PopulationState state = workerStates[worker];
+        double[] statistics = batchStatistics[b];
+
+        List<RatePrior> ratePriors = spec.getRatePriors();
+        for (int p=0; p<ratePriors.size(); p++)
+            ratePriors.get(p).setRate(model, batchProposals[b][p]);
+
+        rng.setStream(stream);
+
+        double maxSumSq = threshold*threshold;
+        double sumSq = 0.0;
+
+        state.copyFrom(spec.getInitPopulationState());
+        double t = 0.0;
+
+        batchAborted[b] = false;
+        for (int k=0; k<obsTimes.length; k++) {
+            double tObs = obsTimes[k];
+            while (t<tObs)
+                t += stepper.step(state, model, false, t, tObs-t, rng);
+
+            for (int s=0; s<observations.size(); s++) {
+                int idx = obsIndices[s][k];
+                if (idx<0)
+                    continue;
+
+                Observations obs = observations.get(s);
+                double stat = obs.getStatistic(state);
+                statistics[statOffsets[s] + idx] = stat;
+
+                double diff = (stat - obs.getValues()[idx])/obs.getScale();
+                sumSq += diff*diff;
+
+                obs.resetAccumulators(state);
+            }
+
+            if (k<obsTimes.length-1 && !(sumSq<=maxSumSq)) {
+                batchDistances[b] = Double.POSITIVE_INFINITY;
+                batchAborted[b] = true;
+                return;
+            }
+        }
+
+        batchDistances[b] = Math.sqrt(sumSq);
+    }
+
+    /**
+     * Compute the standard deviations of the perturbation kernel as
+     * twice the weighted variance of each parameter in the current
+     * population.
+     */
+    private void computeKernelScales() {
+        for (int p=0; p<kernelScales.length; p++) {
+            double mean = 0.0;
+            for (int i=0; i<weights.length; i++)
+                mean += weights[i]*parameters[i][p];
+
+            double var = 0.0;
+            for (int i=0; i<weights.length; i++) {
+                double diff = parameters[i][p] - mean;
+                var += weights[i]*diff*diff;
+            }
+
+            kernelScales[p] = Math.sqrt(2.0*var);
+        }
+    }
+
+    /**
+     * @param proposal proposed parameters
+     * @return log density (up to a constant) of proposing the parameters
+     * by perturbing the current population
+     */
+    private double getLogKernelDensity(double[] proposal) {
+        double[] logTerms = logKernelTerms;
+        double maxLogTerm = Double.NEGATIVE_INFINITY;
+        for (int i=0; i<weights.length; i++) {
+            double logTerm = Math.log(weights[i]);
+            for (int p=0; p<proposal.length; p++) {
+                if (kernelScales[p]>0.0) {
+                    double z = (proposal[p] - parameters[i][p])/kernelScales[p];
+                    logTerm -= 0.5*z*z;
+                }
+            }
+            logTerms[i] = logTerm;
+            maxLogTerm = Math.max(maxLogTerm, logTerm);
+        }
+
+        double sum = 0.0;
+        for (int i=0; i<weights.length; i++)
+            sum += Math.exp(logTerms[i] - maxLogTerm);
+
+        return maxLogTerm + Math.log(sum);
+    }
+
+    /**
+     * Set weights of current population from unnormalised log weights.
+     *
+     * @param logWeights unnormalised log weights
+     */
+    private void normaliseWeights(double[] logWeights) {
+        double maxLogWeight = Double.NEGATIVE_INFINITY;
+        for (double logWeight : logWeights)
+            maxLogWeight = Math.max(maxLogWeight, logWeight);
+
+        double weightSum = 0.0;
+        for (int i=0; i<logWeights.length; i++) {
+            weights[i] = Math.exp(logWeights[i] - maxLogWeight);
+            weightSum += weights[i];
+        }
+
+        for (int i=0; i<weights.length; i++)
+            weights[i] /= weightSum;
+    }
+
+    /**
+     * @param q quantile
+     * @return quantile of distances of current population
+     */
+    private double getDistanceQuantile(double q) {
+        double[] sorted = Arrays.copyOf(distances, distances.length);
+        Arrays.sort(sorted);
+        int idx = (int)Math.ceil(q*sorted.length) - 1;
+        return sorted[Math.max(idx, 0)];
+    }
+
+    /**
+     * Write column headings of accepted parameter log.
+     *
+     * @param log log file
+     */
+    private void writeLogHeader(PrintStream log) {
+        StringBuilder sb = new StringBuilder("generation");
+        for (RatePrior ratePrior : spec.getRatePriors())
+            sb.append("\t").append(ratePrior.getName());
+        sb.append("\tdistance\tlogWeight");
+
+        List<Observations> observations = spec.getObservations();
+        for (int s=0; s<observations.size(); s++) {
+            String name = observations.get(s).getID() != null
+                    ? observations.get(s).getID()
+                    : "obs" + s;
+            for (int i=0; i<observations.get(s).getTimes().length; i++)
+                sb.append("\t").append(name).append("_").append(i);
+        }
+
+        log.println(sb);
+    }
+
+    /**
+     * Write accepted parameter set to log.  The log weight is not
+     * normalised.
+     *
+     * @param log log file
+     * @param generation generation index
+     * @param params accepted parameters
+     * @param distance distance from observations
+     * @param logWeight unnormalised log weight
+     * @param statistics simulated statistics
+     */
+    private void writeLogLine(PrintStream log, int generation,
+            double[] params, double distance, double logWeight,
+            double[] statistics) {
+        StringBuilder sb = new StringBuilder(String.valueOf(generation));
+        for (double param : params)
+            sb.append("\t").append(param);
+        sb.append("\t").append(distance).append("\t").append(logWeight);
+        for (double stat : statistics)
+            sb.append("\t").append(stat);
+
+        log.println(sb);
+        log.flush();
+    }
+
+    /**
+     * @return specification of calculation
+     */
+    public ApproximateBayesianComputationSpec getSpec() {
+        return spec;
+    }
+
+    /**
+     * @return accepted parameter sets of final completed generation
+     * (null if no generation was completed), indexed by particle then
+     * rate prior
+     */
+    public double[][] getParameters() {
+        return parameters;
+    }
+
+    /**
+     * @return normalised weights of accepted parameter sets
+     */
+    public double[] getWeights() {
+        return weights;
+    }
+
+    /**
+     * @return distances of accepted parameter sets from observations
+     */
+    public double[] getDistances() {
+        return distances;
+    }
+
+    /**
+     * @return threshold used in each completed generation
+     */
+    public List<Double> getThresholds() {
+        return thresholds;
+    }
+
+    /**
+     * @return number of parameter sets proposed in each completed
+     * generation, including those rejected without simulation because
+     * of zero prior density
+     */
+    public List<Long> getProposalCounts() {
+        return nProposals;
+    }
+
+    /**
+     * @return number of simulations abandoned before reaching the final
+     * observation time in each completed generation
+     */
+    public List<Long> getAbortedCounts() {
+        return nAborted;
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package master;
+
+import com.fasterxml.jackson.annotation.JsonValue;
+import com.google.common.collect.Lists;
+import java.util.List;
+import java.util.Map;
+import master.model.Observations;
+import master.model.RatePrior;
+
+/**
+ * Specification for approximate Bayesian computation of the posterior
+ * distribution of reaction rates given time series observations.
+ *
+ * @author agent <agent@local>
+ */
+public class ApproximateBayesianComputationSpec extends TrajectorySpec {
+
+    // Number of accepted parameter sets per generation:
+    int populationSize;
+
+    // Maximum number of generations:
+    int nGenerations;
+
+    // Quantile of accepted distances used as the next threshold:
+    double quantile;
+
+    // Acceptance rate below which the calculation stops:
+    double minAcceptanceRate;
+
+    // Threshold at which the calculation stops:
+    double finalThreshold;
+
+    // Priors of reaction rates:
+    List<RatePrior> ratePriors;
+
+    // Observed time series:
+    List<Observations> observations;
+
+    public ApproximateBayesianComputationSpec() {
+        super();
+
+        ratePriors = Lists.newArrayList();
+        observations = Lists.newArrayList();
+    }
+
+    public int getPopulationSize() {
+        return populationSize;
+    }
+
+    public void setPopulationSize(int populationSize) {
+        if (populationSize<2)
+            throw new IllegalArgumentException("ABC population size must be"
+                    + " at least 2.");
+
+        this.populationSize = populationSize;
+    }
+
+    public int getnGenerations() {
+        return nGenerations;
+    }
+
+    public void setnGenerations(int nGenerations) {
+        if (nGenerations<1)
+            throw new IllegalArgumentException("ABC requires at least one"
+                    + " generation.");
+
+        this.nGenerations = nGenerations;
+    }
+
+    public double getQuantile() {
+        return quantile;
+    }
+
+    public void setQuantile(double quantile) {
+        if (!(quantile>0.0 && quantile<1.0))
+            throw new IllegalArgumentException("ABC threshold quantile must"
+                    + " be between 0 and 1.");
+
+        this.quantile = quantile;
+    }
+
+    public double getMinAcceptanceRate() {
+        return minAcceptanceRate;
+    }
+
+    public void setMinAcceptanceRate(double minAcceptanceRate) {
+        if (!(minAcceptanceRate>0.0 && minAcceptanceRate<=1.0))
+            throw new IllegalArgumentException("Minimum acceptance rate must"
+                    + " be greater than 0 and at most 1.");
+
+        this.minAcceptanceRate = minAcceptanceRate;
+    }
+
+    public double getFinalThreshold() {
+        return finalThreshold;
+    }
+
+    public void setFinalThreshold(double finalThreshold) {
+        if (finalThreshold<0.0)
+            throw new IllegalArgumentException("Final ABC threshold must be"
+                    + " non-negative.");
+
+        this.finalThreshold = finalThreshold;
+    }
+
+    /**
+     * Add prior of reaction rate.
+     *
+     * @param ratePrior
+     */
+    public void addRatePrior(RatePrior ratePrior) {
+        ratePriors.add(ratePrior);
+    }
+
+    public List<RatePrior> getRatePriors() {
+        return ratePriors;
+    }
+
+    /**
+     * Add observed time series.
+     *
+     * @param obs
+     */
+    public void addObservations(Observations obs) {
+        observations.add(obs);
+    }
+
+    public List<Observations> getObservations() {
+        return observations;
+    }
+
+    /**
+     * Construct representation of specification to use in assembling
+     * summary in JSON output file.
+     *
+     * @return Map from strings to other objects which have a JSON rep
+     */
+    @JsonValue
+    @Override
+    public Map<String, Object> getJsonValue() {
+
+        Map<String, Object> jsonObject = super.getJsonValue();
+
+        // Simulations are compared at observation times only:
+        jsonObject.remove("nSamples");
+
+        jsonObject.put("populationSize", getPopulationSize());
+        jsonObject.put("nGenerations", getnGenerations());
+        jsonObject.put("quantile", getQuantile());
+        jsonObject.put("minAcceptanceRate", getMinAcceptanceRate());
+        jsonObject.put("finalThreshold", getFinalThreshold());
+        jsonObject.put("ratePriors", getRatePriors());
+        jsonObject.put("observations", getObservations());
+        return jsonObject;
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package master;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Binary checkpoint file for ensemble calculations.  A checkpoint is
+ * taken between trajectories and records the number of trajectories
+ * completed, followed by whatever state the ensemble needs to continue
+ * from that point (generator state, moment accumulators, output file
+ * positions).
+ *
+ * Checkpoints are assembled in memory on the simulation thread and
+ * written to disk by a background thread, replacing the previous
+ * checkpoint atomically so that an interrupted write never leaves the
+ * file unusable.
+ *
+ * @author agent <agent@local>
+ */
+public class Checkpoint {
+
+    private static final String MAGIC = "MASTER checkpoint";
+    private static final int VERSION = 1;
+
+    private final File file;
+    private final String runnableName;
+    private final int nTraj;
+
+    private ExecutorService writer;
+    private ByteArrayOutputStream buffer;
+    private volatile IOException writeError;
+
+    /**
+     * Create checkpoint for an ensemble calculation.
+     *
+     * @param fileName name of checkpoint file
+     * @param runnableName name of class performing calculation
+     * @param nTraj total number of trajectories in calculation
+     */
+    public Checkpoint(String fileName, String runnableName, int nTraj) {
+        this.file = new File(fileName);
+        this.runnableName = runnableName;
+        this.nTraj = nTraj;
+    }
+
+    /**
+     * @return true if checkpoint file exists.
+     */
+    public boolean exists() {
+        return file.exists();
+    }
+
+    /**
+     * Read checkpoint file.  The returned stream is positioned at the
+     * state following the header, the first element of which is the
+     * number of completed trajectories.
+     *
+     * @return stream from which state can be read
+     * @throws IOException
+     */
+    public DataInputStream read() throws IOException {
+        DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(Files.readAllBytes(file.toPath())));
+
+        if (!in.readUTF().equals(MAGIC) || in.readInt() != VERSION)
+            throw new IOException(file + " is not a MASTER checkpoint file.");
+
+        if (!in.readUTF().equals(runnableName) || in.readInt() != nTraj)
+            throw new IllegalArgumentException("Checkpoint file " + file
+                    + " was not written by this calculation.");
+
+        return in;
+    }
+
+    /**
+     * Begin assembling a new checkpoint.  The state should be written to
+     * the returned stream and the checkpoint completed using commit().
+     *
+     * @param completedTraj number of completed trajectories
+     * @return stream to which state should be written
+     * @throws IOException
+     */
+    public DataOutputStream begin(int completedTraj) throws IOException {
+        buffer = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(buffer);
+
+        out.writeUTF(MAGIC);
+        out.writeInt(VERSION);
+        out.writeUTF(runnableName);
+        out.writeInt(nTraj);
+        out.writeInt(completedTraj);
+
+        return out;
+    }
+
+    /**
+     * Queue assembled checkpoint for writing to disk.
+     */
+    public void commit() {
+        checkWriteError();
+
+        if (writer == null)
+            writer = Executors.newSingleThreadExecutor(r -> {
+                Thread thread = new Thread(r, "MASTER checkpoint writer");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+        final byte[] bytes = buffer.toByteArray();
+        buffer = null;
+
+        writer.submit(() -> {
+            try {
+                Path tmpPath = new File(file.getPath() + ".tmp").toPath();
+                Files.write(tmpPath, bytes);
+                Files.move(tmpPath, file.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException ex) {
+                writeError = ex;
+            }
+        });
+    }
+
+    /**
+     * Wait for any queued checkpoints to be written.
+     */
+    public void close() {
+        if (writer != null) {
+            writer.shutdown();
+            try {
+                writer.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            writer = null;
+        }
+
+        checkWriteError();
+    }
+
+    /**
+     * Report failure of a background checkpoint write.
+     */
+    private void checkWriteError() {
+        if (writeError != null) {
+            System.err.println("Warning: failed to write checkpoint file "
+                    + file + ": " + writeError.getMessage());
+            writeError = null;
+        }
+    }
+}
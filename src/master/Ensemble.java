@@ -23,8 +23,12 @@ import master.model.PopulationSize;
 import master.model.Model;
 import master.steppers.Stepper;
 import beast.core.Input;
-import beast.util.Randomizer;
+import master.rng.RandomGenerator;
+import master.sampling.SamplingPolicy;
 import beast.core.Runnable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.*;
 import master.conditions.PostSimCondition;
 import master.outputs.EnsembleOutput;
@@ -55,6 +59,20 @@ public class Ensemble extends Runnable {
     public Input<Integer> nSamplesInput = new Input<>(
             "nSamples",
             "Number of evenly spaced time points to sample state at.");
+
+    public Input<SamplingPolicy> samplingPolicyInput = new Input<>(
+            "samplingPolicy",
+            "Policy used to thin unevenly spaced samples. (Default records"
+                    + " state following every step.)");
+
+    public Input<ReactionLog> reactionLogInput = new Input<>(
+            "reactionLog",
+            "Log to which individual reaction events are recorded.");
+
+    public Input<ReactionLog> replayLogInput = new Input<>(
+            "replayLog",
+            "Reaction log from which trajectories are reconstructed rather"
+                    + " than simulated.");
     
     public Input<Integer> nTrajInput = new Input<>(
             "nTraj",
@@ -64,6 +82,10 @@ public class Ensemble extends Runnable {
     public Input<Integer> seedInput = new Input<>(
             "seed",
             "Seed for RNG.");
+
+    public Input<RandomGenerator> randomGeneratorInput = new Input<>(
+            "randomGenerator",
+            "Source of random variates. (Default BEAST Randomizer.)");
     
     public Input<Stepper> stepperInput = new Input<>(
             "stepper",
@@ -94,6 +116,25 @@ public class Ensemble extends Runnable {
                     "A post-simulation condition.",
                     new ArrayList<>());
     
+    // Sharding:
+    public Input<Integer> nShardsInput = new Input<>(
+            "nShards",
+            "Number of shards (separate processes) the calculation is split"
+                    + " into. (Default 1.)", 1);
+
+    public Input<Integer> shardInput = new Input<>(
+            "shard",
+            "Index of shard to simulate. (Default 0.)", 0);
+
+    public Input<String> shardFileInput = new Input<>(
+            "shardFile",
+            "Base name of files holding partial results of each shard.");
+
+    public Input<Boolean> mergeShardsInput = new Input<>(
+            "mergeShards",
+            "Merge partial results of all shards and write outputs rather"
+                    + " than simulating. (Default false.)", false);
+
     // Outputs to write:
     public Input<List<EnsembleOutput>> outputsInput = new Input<>(
             "output",
@@ -126,6 +167,10 @@ public class Ensemble extends Runnable {
             spec.setEvenSampling(nSamplesInput.get());
         else
             spec.setUnevenSampling();
+
+        // Thin unevenly spaced samples if requested:
+        if (samplingPolicyInput.get() != null)
+            spec.setSamplingPolicy(samplingPolicyInput.get());
         
         // Set maximum simulation time:
         if (simulationTimeInput.get() != null)
@@ -156,16 +201,51 @@ public class Ensemble extends Runnable {
         // Set seed if provided, otherwise use default BEAST seed:
         if (seedInput.get()!=null)
             spec.setSeed(seedInput.get());
+
+        // Use alternative source of random variates if provided:
+        if (randomGeneratorInput.get()!=null)
+            spec.setRandomGenerator(randomGeneratorInput.get());
         
         // Set the level of verbosity:
         spec.setVerbosity(verbosityInput.get());
+
+        Shards.validate(shardInput.get(), nShardsInput.get(),
+                seedInput.get(), spec.getRandomGenerator());
+
+        if (nShardsInput.get()>1 && shardFileInput.get() == null)
+            throw new IllegalArgumentException("Sharded calculations require"
+                    + " shardFile to be specified.");
+
+        if (mergeShardsInput.get() && nShardsInput.get()==1)
+            throw new IllegalArgumentException("Merging requires nShards>1.");
+
+        // Record reaction events if requested:
+        if (reactionLogInput.get() != null)
+            spec.setReactionLog(reactionLogInput.get());
+
+        if ((reactionLogInput.get() != null || replayLogInput.get() != null)
+                && nShardsInput.get()>1)
+            throw new IllegalArgumentException("Reaction logs cannot be"
+                    + " used with sharded calculations.");
     }
     
     @Override
     public void run() throws Exception {
 
-        // Perform simulations.
-        simulate();
+        if (mergeShardsInput.get()) {
+            // Combine results of separate shards:
+            mergeShards();
+        } else {
+            // Perform simulations.
+            simulate();
+
+            // Leave outputs to be written once shards are merged:
+            if (nShardsInput.get()>1) {
+                writeShard();
+                System.out.println("Done.");
+                return;
+            }
+        }
         
         // Write outputs:
         for (EnsembleOutput output : outputsInput.get())
@@ -181,7 +261,7 @@ public class Ensemble extends Runnable {
         
         // Set RNG seed unless seed<0:
         if (spec.seed>=0 && !spec.seedUsed) {
-            Randomizer.setSeed(spec.seed);
+            spec.getRandomGenerator().setSeed(spec.seed);
             spec.seedUsed = true;
         }
 
@@ -191,8 +271,23 @@ public class Ensemble extends Runnable {
         // Record time at start of simulation:
         double startTime = (new Date()).getTime();
 
-        // Generate trajectories:
-        for (int traj = 0; traj<spec.nTraj; traj++) {
+        // Replay trajectories from log if requested:
+        if (replayLogInput.get() != null) {
+            try {
+                spec.setReplayReader(replayLogInput.get()
+                        .openReader(spec.getModel()));
+            } catch (IOException ex) {
+                throw new RuntimeException("Error reading reaction log: "
+                        + ex.getMessage());
+            }
+        }
+
+        // Generate trajectories belonging to this shard:
+        int startTraj = Shards.getFirstTraj(shardInput.get(),
+                nShardsInput.get(), spec.nTraj);
+        int endTraj = Shards.getFirstTraj(shardInput.get()+1,
+                nShardsInput.get(), spec.nTraj);
+        for (int traj = startTraj; traj<endTraj; traj++) {
             
             // Report ensemble progress if verbosity high enough:
             if (spec.verbosity>0)
@@ -200,15 +295,81 @@ public class Ensemble extends Runnable {
                         +String.valueOf(traj+1)+" of "
                         +String.valueOf(spec.nTraj));
 
+            // Each trajectory draws from its own stream where supported:
+            spec.getRandomGenerator().setStream(traj);
+
             Trajectory thisTraj = new Trajectory(spec);
             trajectories.add(thisTraj);
 
         }
+
+        if (spec.getReactionLog() != null)
+            spec.getReactionLog().close();
         
         // Record total time (in seconds) taken by calculation:
         spec.setWallTime(((new Date()).getTime() - startTime)/1e3);
     }
 
+    /**
+     * Write trajectories of this shard to its partial result file.
+     */
+    private void writeShard() {
+        String fileName = Shards.getFileName(shardFileInput.get(),
+                shardInput.get());
+        Checkpoint shardCheckpoint = new Checkpoint(fileName,
+                getClass().getSimpleName(), spec.nTraj);
+
+        try {
+            DataOutputStream out = shardCheckpoint.begin(shardInput.get());
+            out.writeInt(nShardsInput.get());
+            out.writeDouble(spec.getWallTime());
+            out.writeInt(trajectories.size());
+            for (Trajectory trajectory : trajectories)
+                trajectory.writeState(out);
+            shardCheckpoint.commit();
+        } catch (IOException ex) {
+            // Partial results are assembled in memory, so should never
+            // get here.
+            throw new RuntimeException(ex);
+        }
+        shardCheckpoint.close();
+
+        if (spec.verbosity>0)
+            System.err.println("Wrote partial results of shard "
+                    + shardInput.get() + " to " + fileName);
+    }
+
+    /**
+     * Collect trajectories written by each shard, in shard order.
+     */
+    private void mergeShards() {
+        trajectories = new ArrayList<>();
+
+        double wallTime = 0.0;
+        for (int shard=0; shard<nShardsInput.get(); shard++) {
+            String fileName = Shards.getFileName(shardFileInput.get(), shard);
+            try {
+                DataInputStream in = new Checkpoint(fileName,
+                        getClass().getSimpleName(), spec.nTraj).read();
+                if (in.readInt() != shard || in.readInt() != nShardsInput.get())
+                    throw new IllegalArgumentException("File " + fileName
+                            + " does not hold shard " + shard + " of "
+                            + nShardsInput.get() + ".");
+
+                wallTime += in.readDouble();
+                int nShardTraj = in.readInt();
+                for (int i=0; i<nShardTraj; i++)
+                    trajectories.add(new Trajectory(spec, in));
+            } catch (IOException ex) {
+                throw new IllegalArgumentException("Error reading partial"
+                        + " results of shard " + shard + ": "
+                        + ex.getMessage());
+            }
+        }
+
+        spec.setWallTime(wallTime);
+    }
+
     /**
      * Retrieve ensemble simulation specification.
      * 
@@ -22,11 +22,19 @@ import master.steppers.GillespieStepper;
 import master.steppers.Stepper;
 import beast.core.Input;
 import beast.core.Runnable;
-import beast.util.Randomizer;
+import master.rng.RandomGenerator;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import master.conditions.PostSimCondition;
+import master.estimators.LikelihoodReweighting;
+import master.estimators.MultilevelEstimator;
+import master.estimators.RareEventSplitting;
+import master.estimators.SequentialStopping;
+import master.estimators.VarianceReduction;
 import master.outputs.EnsembleSummaryOutput;
 
 /**
@@ -59,6 +67,10 @@ public class EnsembleSummary extends Runnable {
     public Input<Integer> seedInput = new Input<>(
             "seed",
             "Seed for RNG.");
+
+    public Input<RandomGenerator> randomGeneratorInput = new Input<>(
+            "randomGenerator",
+            "Source of random variates. (Default BEAST Randomizer.)");
     public Input<Stepper> stepperInput = new Input<>(
             "stepper",
             "State stepping algorithm to use.");
@@ -99,6 +111,89 @@ public class EnsembleSummary extends Runnable {
             "Moment group to estimate from birth-death process.",
             new ArrayList<>());
 
+    // First-passage events:
+    public Input<List<FirstPassage>> firstPassagesInput = new Input<>(
+            "firstPassage",
+            "Threshold event whose hitting times are to be summarised.",
+            new ArrayList<>());
+
+    // Multilevel Monte Carlo:
+    public Input<MultilevelEstimator> multilevelInput = new Input<>(
+            "multilevel",
+            "Estimate moments using multilevel Monte Carlo.  nTraj then"
+                    + " gives the number of pilot trajectories per level.");
+
+    // Variance reduction:
+    public Input<VarianceReduction> varianceReductionInput = new Input<>(
+            "varianceReduction",
+            "Variance reduction techniques to use when estimating moments.");
+
+    // Rare-event splitting:
+    public Input<RareEventSplitting> splittingInput = new Input<>(
+            "splitting",
+            "Estimate moments conditional on a rare event using multilevel"
+                    + " splitting.  nTraj then gives the number of root"
+                    + " trajectories.");
+
+    // Sequential stopping:
+    public Input<SequentialStopping> stoppingInput = new Input<>(
+            "stopping",
+            "Simulate trajectories until moment estimates reach a target"
+                    + " precision.  nTraj then gives the maximum number of"
+                    + " trajectories.");
+
+    // Reaction logs:
+    public Input<ReactionLog> reactionLogInput = new Input<>(
+            "reactionLog",
+            "Log to which individual reaction events are recorded.");
+
+    public Input<ReactionLog> replayLogInput = new Input<>(
+            "replayLog",
+            "Reaction log from which trajectories are reconstructed rather"
+                    + " than simulated.");
+
+    // Likelihood reweighting:
+    public Input<LikelihoodReweighting> reweightingInput = new Input<>(
+            "reweighting",
+            "Additionally estimate moments under alternative reaction rates"
+                    + " by reweighting the trajectories of a replayed"
+                    + " reaction log.");
+
+    // Checkpointing:
+    public Input<Integer> checkpointIntervalInput = new Input<>(
+            "checkpointInterval",
+            "Number of trajectories between checkpoints.  Requires a"
+                    + " random generator with per-trajectory streams, such"
+                    + " as PhiloxGenerator. (Default 0: no checkpointing.)", 0);
+
+    public Input<String> checkpointFileInput = new Input<>(
+            "checkpointFile",
+            "Name of checkpoint file. (Defaults to the BEAST state file.)");
+
+    public Input<Boolean> resumeInput = new Input<>(
+            "resume",
+            "Resume calculation from checkpoint file. (Also enabled by"
+                    + " BEAST's -resume option.)", false);
+
+    // Sharding:
+    public Input<Integer> nShardsInput = new Input<>(
+            "nShards",
+            "Number of shards (separate processes) the calculation is split"
+                    + " into. (Default 1.)", 1);
+
+    public Input<Integer> shardInput = new Input<>(
+            "shard",
+            "Index of shard to simulate. (Default 0.)", 0);
+
+    public Input<String> shardFileInput = new Input<>(
+            "shardFile",
+            "Base name of files holding partial results of each shard.");
+
+    public Input<Boolean> mergeShardsInput = new Input<>(
+            "mergeShards",
+            "Merge partial results of all shards and write outputs rather"
+                    + " than simulating. (Default false.)", false);
+
     // Outputs to write:
     public Input<List<EnsembleSummaryOutput>> outputsInput = new Input<>(
             "output",
@@ -111,6 +206,9 @@ public class EnsembleSummary extends Runnable {
     
     // Ensemble-averaged state summaries:
     StateSummary[] stateSummaries;
+
+    // First-passage summaries (one per event):
+    FirstPassageSummary[] firstPassageSummaries;
     
     public EnsembleSummary() { }
 
@@ -168,9 +266,159 @@ public class EnsembleSummary extends Runnable {
             spec.addMoment(moment);
         }
 
+        // First passages are only summarised by plain Monte Carlo
+        // calculations:
+        if (!firstPassagesInput.get().isEmpty()
+                && (multilevelInput.get() != null
+                || varianceReductionInput.get() != null
+                || splittingInput.get() != null
+                || reactionLogInput.get() != null
+                || replayLogInput.get() != null))
+            throw new IllegalArgumentException("First-passage summaries are"
+                    + " only supported for plain Monte Carlo estimation"
+                    + " without reaction logs.");
+
+        for (FirstPassage passage : firstPassagesInput.get())
+            spec.addFirstPassage(passage);
+
+        // Multilevel estimation uses its own steppers and cannot
+        // accommodate conditioning:
+        if (multilevelInput.get() != null) {
+            if (stepperInput.get() != null)
+                throw new IllegalArgumentException("Stepper cannot be"
+                        + " specified for multilevel estimation.");
+
+            if (!endConditionsInput.get().isEmpty()
+                    || !postSimConditionsInput.get().isEmpty())
+                throw new IllegalArgumentException("Conditioning is not"
+                        + " supported for multilevel estimation.");
+
+            for (Moment moment : momentsInput.get()) {
+                if (moment.getDistribution() != null)
+                    throw new IllegalArgumentException("Moment distributions"
+                            + " are not supported for multilevel estimation.");
+            }
+
+            spec.setStepper(null);
+            spec.setMultilevelEstimator(multilevelInput.get());
+        }
+
+        // Variance reduction relies on unconditioned trajectories:
+        if (varianceReductionInput.get() != null) {
+            if (multilevelInput.get() != null)
+                throw new IllegalArgumentException("Variance reduction cannot"
+                        + " be combined with multilevel estimation.");
+
+            if (!endConditionsInput.get().isEmpty()
+                    || !postSimConditionsInput.get().isEmpty())
+                throw new IllegalArgumentException("Conditioning is not"
+                        + " supported with variance reduction.");
+
+            varianceReductionInput.get().validateSpec(spec);
+            spec.setVarianceReduction(varianceReductionInput.get());
+        }
+
+        // Splitting replaces conditioning by rejection:
+        if (splittingInput.get() != null) {
+            if (multilevelInput.get() != null
+                    || varianceReductionInput.get() != null)
+                throw new IllegalArgumentException("Rare-event splitting cannot"
+                        + " be combined with multilevel estimation or"
+                        + " variance reduction.");
+
+            if (!endConditionsInput.get().isEmpty()
+                    || !postSimConditionsInput.get().isEmpty())
+                throw new IllegalArgumentException("End conditions and"
+                        + " post-simulation conditions are not supported"
+                        + " with rare-event splitting.");
+
+            spec.setRareEventSplitting(splittingInput.get());
+        }
+
+        // Checkpoints are only taken by plain Monte Carlo calculations:
+        if (checkpointIntervalInput.get()<0)
+            throw new IllegalArgumentException("Checkpoint interval must"
+                    + " not be negative.");
+
+        if (checkpointIntervalInput.get()>0
+                && (multilevelInput.get() != null
+                || varianceReductionInput.get() != null
+                || splittingInput.get() != null))
+            throw new IllegalArgumentException("Checkpointing is only"
+                    + " supported for plain Monte Carlo estimation.");
+
         // Set seed if provided, otherwise use default BEAST seed:
         if (seedInput.get()!=null)
             spec.setSeed(seedInput.get());
+
+        // Use alternative source of random variates if provided:
+        if (randomGeneratorInput.get()!=null)
+            spec.setRandomGenerator(randomGeneratorInput.get());
+
+        // Sharding is only supported by plain Monte Carlo calculations:
+        Shards.validate(shardInput.get(), nShardsInput.get(),
+                seedInput.get(), spec.getRandomGenerator());
+
+        // Resumed calculations must draw the same variates as uninterrupted
+        // ones, which generators without streams cannot guarantee:
+        if (checkpointIntervalInput.get()>0
+                && !spec.getRandomGenerator().hasStreams())
+            throw new IllegalArgumentException("Checkpointing requires a"
+                    + " random generator with independent per-trajectory"
+                    + " streams, such as PhiloxGenerator.");
+
+        if (nShardsInput.get()>1 && shardFileInput.get() == null)
+            throw new IllegalArgumentException("Sharded calculations require"
+                    + " shardFile to be specified.");
+
+        if (nShardsInput.get()>1
+                && (multilevelInput.get() != null
+                || varianceReductionInput.get() != null
+                || splittingInput.get() != null))
+            throw new IllegalArgumentException("Sharding is only supported"
+                    + " for plain Monte Carlo estimation.");
+
+        // Sequential stopping is only supported by unsharded plain Monte
+        // Carlo calculations:
+        if (stoppingInput.get() != null) {
+            if (multilevelInput.get() != null
+                    || varianceReductionInput.get() != null
+                    || splittingInput.get() != null
+                    || nShardsInput.get()>1)
+                throw new IllegalArgumentException("Sequential stopping is"
+                        + " only supported for unsharded plain Monte Carlo"
+                        + " estimation.");
+
+            spec.setSequentialStopping(stoppingInput.get());
+            stoppingInput.get().initialise(spec);
+        }
+
+        if (mergeShardsInput.get() && nShardsInput.get()==1)
+            throw new IllegalArgumentException("Merging requires nShards>1.");
+
+        // Reaction logs are only supported by plain Monte Carlo calculations:
+        if ((reactionLogInput.get() != null || replayLogInput.get() != null)
+                && (multilevelInput.get() != null
+                || varianceReductionInput.get() != null
+                || splittingInput.get() != null
+                || checkpointIntervalInput.get()>0
+                || nShardsInput.get()>1))
+            throw new IllegalArgumentException("Reaction logs are only"
+                    + " supported for plain Monte Carlo estimation without"
+                    + " checkpointing or sharding.");
+
+        if (reactionLogInput.get() != null)
+            spec.setReactionLog(reactionLogInput.get());
+
+        // Reweighting requires the exact paths held in a reaction log:
+        if (reweightingInput.get() != null) {
+            if (replayLogInput.get() == null)
+                throw new IllegalArgumentException("Likelihood reweighting"
+                        + " requires trajectories to be replayed from a"
+                        + " reaction log.");
+
+            spec.setLikelihoodReweighting(reweightingInput.get());
+        }
         
         // Set the level of verbosity:
         spec.setVerbosity(verbosityInput.get());
@@ -179,8 +427,19 @@ public class EnsembleSummary extends Runnable {
     @Override
     public void run() throws Exception {
 
-        // Perform simulations.
-        simulate();
+        if (mergeShardsInput.get()) {
+            // Combine results of separate shards:
+            mergeShards();
+        } else {
+            // Perform simulations.
+            simulate();
+
+            // Leave outputs to be written once shards are merged:
+            if (nShardsInput.get()>1) {
+                System.out.println("Done.");
+                return;
+            }
+        }
         
         // Write outputs:
         for (EnsembleSummaryOutput output : outputsInput.get())
@@ -196,13 +455,34 @@ public class EnsembleSummary extends Runnable {
 
         // Set seed if defined:
         if (spec.seed>=0 && !spec.seedUsed) {
-            Randomizer.setSeed(spec.seed);
+            spec.getRandomGenerator().setSeed(spec.seed);
             spec.seedUsed = true;
         }
         
         // Record time at start of calculation:
         double startTime = (new Date()).getTime();
 
+        // Multilevel Monte Carlo estimation:
+        if (spec.getMultilevelEstimator() != null) {
+            stateSummaries = spec.getMultilevelEstimator().estimate(spec);
+            spec.setWallTime(((new Date()).getTime() - startTime)/1e3);
+            return;
+        }
+
+        // Variance-reduced estimation:
+        if (spec.getVarianceReduction() != null) {
+            stateSummaries = spec.getVarianceReduction().estimate(spec);
+            spec.setWallTime(((new Date()).getTime() - startTime)/1e3);
+            return;
+        }
+
+        // Rare-event splitting estimation:
+        if (spec.getRareEventSplitting() != null) {
+            stateSummaries = spec.getRareEventSplitting().estimate(spec);
+            spec.setWallTime(((new Date()).getTime() - startTime)/1e3);
+            return;
+        }
+
         // Derived spec parameters:
         double sampleDt = spec.getSampleDt();
 
@@ -210,9 +490,41 @@ public class EnsembleSummary extends Runnable {
         stateSummaries = new StateSummary[spec.nSamples];
         for (int sidx = 0; sidx<spec.nSamples; sidx++)
             stateSummaries[sidx] = new StateSummary(spec.moments, spec.momentGroups);
+        firstPassageSummaries = createFirstPassageSummaries();
+
+        // Trajectories belonging to this shard:
+        int startTraj = Shards.getFirstTraj(shardInput.get(),
+                nShardsInput.get(), spec.nTraj);
+        int endTraj = Shards.getFirstTraj(shardInput.get()+1,
+                nShardsInput.get(), spec.nTraj);
+
+        // Continue from checkpoint if requested:
+        Checkpoint checkpoint = createCheckpoint();
+        if (checkpoint != null && (resumeInput.get() || restoreFromFile))
+            startTraj = restoreCheckpoint(checkpoint, startTraj);
+
+        // Replay trajectories from log if requested:
+        if (replayLogInput.get() != null) {
+            try {
+                spec.setReplayReader(replayLogInput.get()
+                        .openReader(spec.getModel()));
+            } catch (IOException ex) {
+                throw new RuntimeException("Error reading reaction log: "
+                        + ex.getMessage());
+            }
+
+            if (spec.getLikelihoodReweighting() != null)
+                spec.getLikelihoodReweighting().initialise(spec);
+        }
 
         // Loop over trajectories:
-        for (int traj = 0; traj<spec.nTraj; traj++) {
+        int traj;
+        for (traj = startTraj; traj<endTraj; traj++) {
+
+            // Stop once target precision is reached if requested:
+            if (spec.getSequentialStopping() != null
+                    && spec.getSequentialStopping().isMet(traj, stateSummaries))
+                break;
 
             // Report ensemble progress if verbosity high enough:
             if (spec.verbosity>0)
@@ -220,15 +532,33 @@ public class EnsembleSummary extends Runnable {
                         +String.valueOf(traj+1)+" of "
                         +String.valueOf(spec.nTraj));
 
+            // Reconstruct trajectory from log if requested:
+            if (spec.getReplayReader() != null) {
+                replayTrajectory(spec.getReplayReader(), sampleDt);
+                if (spec.getLikelihoodReweighting() != null)
+                    spec.getLikelihoodReweighting().accept(stateSummaries);
+                for (StateSummary summary : stateSummaries)
+                    summary.accept();
+                continue;
+            }
+
+            // Each trajectory draws from its own stream where supported:
+            spec.getRandomGenerator().setStream(traj);
+
             // Initialise system state:
             PopulationState currentState = new PopulationState(spec.initPopulationState);
+            startReactionLog(currentState);
             
             // Record initial sample
             stateSummaries[0].record(currentState);
 
+            // Number of samples recorded before any stopping event:
+            int nRecorded = startFirstPassages(currentState)
+                    ? 0 : spec.nSamples;
+
             // Integration loop:
             double t = 0.0;
-            for (int sidx = 1; sidx<spec.nSamples; sidx++) {
+            for (int sidx = 1; sidx<nRecorded; sidx++) {
                 
                 double nextSampTime = sidx*sampleDt;
                 
@@ -246,6 +576,9 @@ public class EnsembleSummary extends Runnable {
                                     + " at time " + t);
                         
                         currentState = new PopulationState(spec.initPopulationState);
+                        startReactionLog(currentState);
+                        if (startFirstPassages(currentState))
+                            nRecorded = 0;
                         t = 0;
                         sidx = 0;
                         endConditionMet = true;
@@ -263,27 +596,349 @@ public class EnsembleSummary extends Runnable {
                             +String.valueOf(spec.nSamples));
 
                 // Integrate to next sample time:
-                while (t<nextSampTime)
+                while (t<nextSampTime) {
                     t += spec.getStepper().step(currentState,
                             spec.getModel(), false,
-                            t, nextSampTime-t);
+                            t, nextSampTime-t,
+                            spec.getRandomGenerator());
+                    logReaction(t);
+
+                    if (checkFirstPassages(currentState, t)) {
+                        nRecorded = sidx;
+                        break;
+                    }
+                }
+                if (nRecorded == sidx)
+                    break;
                 
                 // Record sample:
                 stateSummaries[sidx].record(currentState);
             }
+
+            // Complete record of trajectory:
+            if (spec.getReactionLog() != null)
+                spec.getReactionLog().endTrajectory((spec.nSamples-1)*sampleDt);
             
-            for (StateSummary summary : stateSummaries)
+            for (int sidx = 0; sidx<nRecorded; sidx++)
+                stateSummaries[sidx].accept();
+
+            for (FirstPassageSummary summary : firstPassageSummaries)
                 summary.accept();
+
+            if (checkpoint != null && (traj+1)%checkpointIntervalInput.get() == 0
+                    && traj+1<endTraj)
+                writeCheckpoint(checkpoint, traj+1);
+        }
+
+        if (checkpoint != null)
+            checkpoint.close();
+
+        if (spec.getReactionLog() != null)
+            spec.getReactionLog().close();
+
+        if (spec.getSequentialStopping() != null) {
+            spec.getSequentialStopping().finish(traj, stateSummaries);
+
+            if (spec.verbosity>0)
+                System.err.println("Simulated " + traj + " trajectories.");
+        }
+
+        // Shards leave normalisation until partial results are merged:
+        if (nShardsInput.get()>1) {
+            spec.setWallTime(((new Date()).getTime() - startTime)/1e3);
+            writeShard();
+            return;
         }
 
         // Normalise state summaries:
         for (StateSummary summary : stateSummaries)
             summary.normalise();
+
+        for (FirstPassageSummary summary : firstPassageSummaries)
+            summary.normalise();
+
+        if (spec.getLikelihoodReweighting() != null)
+            spec.getLikelihoodReweighting().normalise();
         
         // Record total time of calculation:
         spec.setWallTime(((new Date()).getTime() - startTime)/1e3);
     }
 
+    /**
+     * @return checkpoint for calculation, or null if checkpointing is
+     * disabled.
+     */
+    private Checkpoint createCheckpoint() {
+        if (checkpointIntervalInput.get()==0)
+            return null;
+
+        String fileName = checkpointFileInput.get() != null
+                ? checkpointFileInput.get()
+                : stateFileName;
+        if (fileName == null)
+            throw new IllegalArgumentException("Checkpointing requires a"
+                    + " checkpoint file name.");
+
+        if (nShardsInput.get()>1)
+            fileName = Shards.getFileName(fileName, shardInput.get());
+
+        return new Checkpoint(fileName, getClass().getSimpleName(), spec.nTraj);
+    }
+
+    /**
+     * @return empty summaries of each first-passage event
+     */
+    private FirstPassageSummary[] createFirstPassageSummaries() {
+        FirstPassageSummary[] summaries =
+                new FirstPassageSummary[spec.getFirstPassages().size()];
+        for (int i=0; i<summaries.length; i++)
+            summaries[i] = new FirstPassageSummary(
+                    spec.getFirstPassages().get(i), spec.moments,
+                    spec.momentGroups, spec.nSamples, spec.getSampleDt());
+
+        return summaries;
+    }
+
+    /**
+     * Begin (or restart) tracking of first-passage events, checking
+     * whether any occur in the initial state.
+     *
+     * @param initState initial state of trajectory
+     * @return true if a stopping event occurs in the initial state
+     */
+    private boolean startFirstPassages(PopulationState initState) {
+        for (FirstPassageSummary summary : firstPassageSummaries)
+            summary.reset();
+
+        return checkFirstPassages(initState, 0.0);
+    }
+
+    /**
+     * Check for first passages following a step.
+     *
+     * @param currentState current state
+     * @param t current time
+     * @return true if an event which stops the trajectory has occurred
+     */
+    private boolean checkFirstPassages(PopulationState currentState, double t) {
+        boolean stop = false;
+        for (FirstPassageSummary summary : firstPassageSummaries) {
+            if (summary.check(currentState, t)
+                    && summary.getPassage().isStopping())
+                stop = true;
+        }
+
+        return stop;
+    }
+
+    /**
+     * Begin (or restart) recording of trajectory events, if requested.
+     *
+     * @param initState initial state of trajectory
+     */
+    private void startReactionLog(PopulationState initState) {
+        if (spec.getReactionLog() != null)
+            spec.getReactionLog().startTrajectory(spec.getModel(), initState);
+    }
+
+    /**
+     * Record reaction implemented by the most recent step, if any.
+     *
+     * @param t time following step
+     */
+    private void logReaction(double t) {
+        if (spec.getReactionLog() == null)
+            return;
+
+        int reactionIdx = ((GillespieStepper)spec.getStepper())
+                .getLastReactionIndex();
+        if (reactionIdx>=0)
+            spec.getReactionLog().recordReaction(t, reactionIdx);
+    }
+
+    /**
+     * Record the states of the next trajectory in a reaction log at each
+     * sample time, collecting the path statistics needed for likelihood
+     * reweighting if requested.
+     *
+     * @param reader reaction log reader
+     * @param sampleDt time between samples
+     */
+    private void replayTrajectory(ReactionLog.Reader reader, double sampleDt) {
+        try {
+            if (!reader.nextTrajectory())
+                throw new IllegalArgumentException("Reaction log contains"
+                        + " too few trajectories.");
+
+            LikelihoodReweighting reweighting = spec.getLikelihoodReweighting();
+            if (reweighting != null)
+                reweighting.startTrajectory();
+
+            PopulationState currentState = reader.getInitialState();
+            boolean haveEvent = reader.nextEvent();
+
+            for (int sidx = 0; sidx<spec.nSamples; sidx++) {
+                double sampTime = sidx*sampleDt;
+
+                while (haveEvent && reader.getEventTime()<=sampTime) {
+                    if (reweighting != null)
+                        reweighting.recordEvent(currentState,
+                                reader.getEventTime(),
+                                reader.getEventReactionIndex());
+                    reader.implementEvent(currentState);
+                    haveEvent = reader.nextEvent();
+                }
+
+                if (!haveEvent && sampTime>reader.getFinalTime()
+                        && reader.getFinalTime()<spec.getSimulationTime())
+                    throw new IllegalArgumentException("Trajectory in reaction"
+                            + " log ends before the final sample time.");
+
+                stateSummaries[sidx].record(currentState);
+            }
+
+            if (reweighting != null)
+                reweighting.finishTrajectory(currentState,
+                        (spec.nSamples-1)*sampleDt);
+        } catch (IOException ex) {
+            throw new RuntimeException("Error reading reaction log: "
+                    + ex.getMessage());
+        }
+    }
+
+    /**
+     * Restore generator state and moment accumulators from checkpoint.
+     *
+     * @param checkpoint checkpoint to restore from
+     * @param startTraj first trajectory to simulate if no checkpoint exists
+     * @return index of first trajectory still to be simulated
+     */
+    private int restoreCheckpoint(Checkpoint checkpoint, int startTraj) {
+        if (!checkpoint.exists()) {
+            System.err.println("No checkpoint found: starting calculation"
+                    + " from the beginning.");
+            return startTraj;
+        }
+
+        try {
+            DataInputStream in = checkpoint.read();
+            int completedTraj = in.readInt();
+            spec.getRandomGenerator().readState(in);
+            for (StateSummary summary : stateSummaries)
+                summary.readState(in);
+            for (FirstPassageSummary summary : firstPassageSummaries)
+                summary.readState(in);
+
+            if (spec.verbosity>0)
+                System.err.println("Resuming calculation after trajectory "
+                        + completedTraj + " of " + spec.nTraj);
+
+            return completedTraj;
+        } catch (IOException ex) {
+            throw new IllegalArgumentException("Error reading checkpoint: "
+                    + ex.getMessage());
+        }
+    }
+
+    /**
+     * Write generator state and moment accumulators to checkpoint.
+     *
+     * @param checkpoint checkpoint to write
+     * @param completedTraj number of trajectories completed
+     */
+    private void writeCheckpoint(Checkpoint checkpoint, int completedTraj) {
+        try {
+            DataOutputStream out = checkpoint.begin(completedTraj);
+            spec.getRandomGenerator().writeState(out);
+            for (StateSummary summary : stateSummaries)
+                summary.writeState(out);
+            for (FirstPassageSummary summary : firstPassageSummaries)
+                summary.writeState(out);
+            checkpoint.commit();
+        } catch (IOException ex) {
+            // Checkpoint is assembled in memory, so should never get here.
+            throw new RuntimeException(ex);
+        }
+    }
+
+    /**
+     * Write (unnormalised) moment accumulators of this shard to its
+     * partial result file.
+     */
+    private void writeShard() {
+        String fileName = Shards.getFileName(shardFileInput.get(),
+                shardInput.get());
+        Checkpoint shardCheckpoint = new Checkpoint(fileName,
+                getClass().getSimpleName(), spec.nTraj);
+
+        try {
+            DataOutputStream out = shardCheckpoint.begin(shardInput.get());
+            out.writeInt(nShardsInput.get());
+            out.writeDouble(spec.getWallTime());
+            for (StateSummary summary : stateSummaries)
+                summary.writeState(out);
+            for (FirstPassageSummary summary : firstPassageSummaries)
+                summary.writeState(out);
+            shardCheckpoint.commit();
+        } catch (IOException ex) {
+            // Partial results are assembled in memory, so should never
+            // get here.
+            throw new RuntimeException(ex);
+        }
+        shardCheckpoint.close();
+
+        if (spec.verbosity>0)
+            System.err.println("Wrote partial results of shard "
+                    + shardInput.get() + " to " + fileName);
+    }
+
+    /**
+     * Combine moment accumulators written by each shard, in shard order.
+     */
+    private void mergeShards() {
+        stateSummaries = new StateSummary[spec.nSamples];
+        for (int sidx = 0; sidx<spec.nSamples; sidx++)
+            stateSummaries[sidx] = new StateSummary(spec.moments, spec.momentGroups);
+
+        StateSummary partial = new StateSummary(spec.moments, spec.momentGroups);
+        firstPassageSummaries = createFirstPassageSummaries();
+        FirstPassageSummary[] partialPassages = createFirstPassageSummaries();
+        double wallTime = 0.0;
+        for (int shard=0; shard<nShardsInput.get(); shard++) {
+            String fileName = Shards.getFileName(shardFileInput.get(), shard);
+            try {
+                DataInputStream in = new Checkpoint(fileName,
+                        getClass().getSimpleName(), spec.nTraj).read();
+                if (in.readInt() != shard || in.readInt() != nShardsInput.get())
+                    throw new IllegalArgumentException("File " + fileName
+                            + " does not hold shard " + shard + " of "
+                            + nShardsInput.get() + ".");
+
+                wallTime += in.readDouble();
+                for (StateSummary summary : stateSummaries) {
+                    partial.readState(in);
+                    summary.add(partial);
+                }
+                for (int i=0; i<firstPassageSummaries.length; i++) {
+                    partialPassages[i].readState(in);
+                    firstPassageSummaries[i].add(partialPassages[i]);
+                }
+            } catch (IOException ex) {
+                throw new IllegalArgumentException("Error reading partial"
+                        + " results of shard " + shard + ": "
+                        + ex.getMessage());
+            }
+        }
+
+        for (StateSummary summary : stateSummaries)
+            summary.normalise();
+
+        for (FirstPassageSummary summary : firstPassageSummaries)
+            summary.normalise();
+
+        spec.setWallTime(wallTime);
+    }
+
     /**
      * Retrieve ensemble simulation specification.
      * 
@@ -301,4 +956,13 @@ public class EnsembleSummary extends Runnable {
     public StateSummary[] getStateSummaries() {
         return stateSummaries;
     }
+
+    /**
+     * Return array of first-passage summaries.
+     *
+     * @return FirstPassageSummary array (one per event).
+     */
+    public FirstPassageSummary[] getFirstPassageSummaries() {
+        return firstPassageSummaries;
+    }
 }
@@ -18,6 +18,12 @@ package master;
 
 import com.fasterxml.jackson.annotation.JsonValue;
 import master.conditions.PopulationEndCondition;
+import master.estimators.LikelihoodReweighting;
+import master.estimators.MultilevelEstimator;
+import master.estimators.RareEventSplitting;
+import master.estimators.SequentialStopping;
+import master.estimators.VarianceReduction;
+import master.model.FirstPassage;
 import master.model.MomentGroup;
 import master.model.Moment;
 import com.google.common.collect.Lists;
@@ -35,12 +41,32 @@ public class EnsembleSummarySpec extends EnsembleSpec {
     List<MomentGroup> momentGroups;
     List<Moment> moments;
 
+    // First-passage events to summarise:
+    List<FirstPassage> firstPassages;
+
+    // Multilevel Monte Carlo estimator (null for plain Monte Carlo):
+    MultilevelEstimator multilevelEstimator;
+
+    // Variance reduction techniques (null for plain Monte Carlo):
+    VarianceReduction varianceReduction;
+
+    // Rare-event splitting estimator (null for plain Monte Carlo):
+    RareEventSplitting rareEventSplitting;
+
+    // Sequential stopping rule (null if nTraj trajectories are always
+    // simulated):
+    SequentialStopping sequentialStopping;
+
+    // Reweighting to alternative reaction rates (null if not used):
+    LikelihoodReweighting likelihoodReweighting;
+
     public EnsembleSummarySpec() {
         super();
 
         // Create empty moment and moment group lists:
         momentGroups = Lists.newArrayList();
         moments = Lists.newArrayList();
+        firstPassages = Lists.newArrayList();
     }
 
     /**
@@ -61,6 +87,15 @@ public class EnsembleSummarySpec extends EnsembleSpec {
         moments.add(moment);
     }
 
+    /**
+     * Add first-passage event to summarise.
+     *
+     * @param firstPassage
+     */
+    public void addFirstPassage(FirstPassage firstPassage) {
+        firstPassages.add(firstPassage);
+    }
+
     @Override
     public void setUnevenSampling() {
         throw new UnsupportedOperationException("Uneven sampling not "
@@ -76,6 +111,93 @@ public class EnsembleSummarySpec extends EnsembleSpec {
         super.addPopSizeEndCondition(endCondition);
     }
 
+    /**
+     * Use multilevel Monte Carlo to estimate moments.
+     *
+     * @param multilevelEstimator
+     */
+    public void setMultilevelEstimator(MultilevelEstimator multilevelEstimator) {
+        this.multilevelEstimator = multilevelEstimator;
+    }
+
+    /**
+     * @return multilevel estimator, or null if plain Monte Carlo is used.
+     */
+    public MultilevelEstimator getMultilevelEstimator() {
+        return multilevelEstimator;
+    }
+
+    /**
+     * Use variance reduction techniques to estimate moments.
+     *
+     * @param varianceReduction
+     */
+    public void setVarianceReduction(VarianceReduction varianceReduction) {
+        this.varianceReduction = varianceReduction;
+    }
+
+    /**
+     * @return variance reduction object, or null if plain Monte Carlo is
+     * used.
+     */
+    public VarianceReduction getVarianceReduction() {
+        return varianceReduction;
+    }
+
+    /**
+     * Use multilevel splitting to estimate moments conditional on a rare
+     * event.
+     *
+     * @param rareEventSplitting
+     */
+    public void setRareEventSplitting(RareEventSplitting rareEventSplitting) {
+        this.rareEventSplitting = rareEventSplitting;
+    }
+
+    /**
+     * @return rare-event splitting estimator, or null if plain Monte Carlo
+     * is used.
+     */
+    public RareEventSplitting getRareEventSplitting() {
+        return rareEventSplitting;
+    }
+
+    /**
+     * Simulate trajectories until a target precision is reached.
+     *
+     * @param sequentialStopping
+     */
+    public void setSequentialStopping(SequentialStopping sequentialStopping) {
+        this.sequentialStopping = sequentialStopping;
+    }
+
+    /**
+     * @return sequential stopping rule, or null if nTraj trajectories are
+     * always simulated.
+     */
+    public SequentialStopping getSequentialStopping() {
+        return sequentialStopping;
+    }
+
+    /**
+     * Reweight trajectories to estimate moments under alternative
+     * reaction rates.
+     *
+     * @param likelihoodReweighting
+     */
+    public void setLikelihoodReweighting(
+            LikelihoodReweighting likelihoodReweighting) {
+        this.likelihoodReweighting = likelihoodReweighting;
+    }
+
+    /**
+     * @return likelihood reweighting, or null if moments are estimated
+     * only for the original rates.
+     */
+    public LikelihoodReweighting getLikelihoodReweighting() {
+        return likelihoodReweighting;
+    }
+
     /**
      * @return List of moment groups.
      */
@@ -90,6 +212,13 @@ public class EnsembleSummarySpec extends EnsembleSpec {
         return moments;
     }
     
+    /**
+     * @return List of first-passage events.
+     */
+    public List<FirstPassage> getFirstPassages() {
+        return firstPassages;
+    }
+
     /**
      * Construct representation of specification to use in assembling
      * summary in JSON output file.
@@ -103,6 +232,18 @@ public class EnsembleSummarySpec extends EnsembleSpec {
         Map<String, Object> jsonObject = super.getJsonValue();
         
         jsonObject.put("moments", getMoments());
+        if (!getFirstPassages().isEmpty())
+            jsonObject.put("firstPassages", getFirstPassages());
+        if (getMultilevelEstimator() != null)
+            jsonObject.put("multilevel", getMultilevelEstimator());
+        if (getVarianceReduction() != null)
+            jsonObject.put("varianceReduction", getVarianceReduction());
+        if (getRareEventSplitting() != null)
+            jsonObject.put("splitting", getRareEventSplitting());
+        if (getSequentialStopping() != null)
+            jsonObject.put("stopping", getSequentialStopping());
+        if (getLikelihoodReweighting() != null)
+            jsonObject.put("reweighting", getLikelihoodReweighting());
         return jsonObject;
     }
 }
@@ -0,0 +1,633 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package master;
+
+import beast.core.Description;
+import beast.core.Input;
+import beast.core.Runnable;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import master.model.*;
+import master.outputs.FiniteStateProjectionOutput;
+
+/**
+ * Computes moments and marginal distributions of the population sizes by
+ * directly integrating the chemical master equation on a finite subset of
+ * the state space (the finite state projection, Munsky and Khammash 2006).
+ * The states reachable from the initial state are enumerated up to the
+ * configured limits, and the resulting sparse generator is propagated
+ * between sample times by uniformization.  Probability which leaves the
+ * enumerated set is not returned, so the missing mass at each sample time
+ * is a rigorous bound on the truncation error.
+ *
+ * Only feasible for models whose (reachable, bounded) state space is
+ * small: a few populations with moderate sizes.
+ *
+ * @author agent <agent@local>
+ */
+@Description("Solve the master equation on a truncated state space using "
+        + "the finite state projection method.")
+public class FiniteStateProjection extends Runnable {
+
+    /*
+     * XML inputs:
+     */
+
+    // Spec parameters:
+    public Input<Double> simulationTimeInput = new Input<>(
+            "simulationTime",
+            "The length of time to integrate over.",
+            Input.Validate.REQUIRED);
+    public Input<Integer> nSamplesInput = new Input<>(
+            "nSamples",
+            "Number of evenly spaced time points to sample state at.",
+            Input.Validate.REQUIRED);
+    public Input<Integer> maxStatesInput = new Input<>(
+            "maxStates",
+            "Maximum number of states to include in the projection.",
+            100000);
+    public Input<Integer> maxPopSizeInput = new Input<>(
+            "maxPopulationSize",
+            "Upper bound on the size of each population in the projection.");
+    public Input<Double> toleranceInput = new Input<>(
+            "tolerance",
+            "Probability mass which may be discarded when truncating the "
+                    + "uniformization series between sample times.",
+            1e-10);
+
+    public Input<Integer> verbosityInput = new Input<>(
+            "verbosity", "Level of verbosity to use (0-3).", 1);
+
+    // Model:
+    public Input<Model> modelInput = new Input<>("model",
+            "The specific model to solve.");
+
+    // Initial state:
+    public Input<InitState> initialStateInput = new Input<>("initialState",
+            "Initial state of system.");
+
+    // Individual moments:
+    public Input<List<Moment>> momentsInput = new Input<>(
+            "moment",
+            "Individual moment to compute.",
+            new ArrayList<>());
+
+    // Moments groups:
+    public Input<List<MomentGroup>> momentGroupsInput = new Input<>(
+            "momentGroup",
+            "Moment group to compute.",
+            new ArrayList<>());
+
+    // Outputs to write:
+    public Input<List<FiniteStateProjectionOutput>> outputsInput = new Input<>(
+            "output",
+            "Output writer used to write solution to disk.",
+            new ArrayList<>());
+
+    // Largest uniformization rate * time step to use in a single series:
+    private static final double MAX_UNIFORMIZATION_STEP = 16.0;
+
+    // Solution specification:
+    FiniteStateProjectionSpec spec;
+
+    // Moment summaries at each sample time (conditional on the
+    // probability mass remaining in the projection):
+    StateSummary[] stateSummaries;
+
+    // Marginal distributions of each population at each sample time:
+    Map<Population, double[][]> marginals;
+
+    // Probability mass lost from the projection at each sample time:
+    double[] truncationErrors;
+
+    /*
+     * Projection data:
+     */
+
+    // Populations which make up a state, in index order:
+    List<Population> populations;
+
+    // Enumerated states (population counts indexed as above):
+    List<int[]> states;
+
+    // Map from states to their indices, used during construction:
+    Map<StateKey, Integer> stateIndices;
+
+    // Reactant and delta structure of each reaction in terms of
+    // population indices:
+    int[][] reactPops, reactCounts, deltaPops, deltaCounts;
+
+    // For each reaction and state, index of target state (-1 if the
+    // target lies outside the projection, -2 if the reaction cannot
+    // fire) and the propensity of the reaction divided by its rate:
+    int[][] targets;
+    double[][] factors;
+
+    public FiniteStateProjection() { }
+
+    @Override
+    public void initAndValidate() {
+
+        spec = new FiniteStateProjectionSpec();
+
+        // Incorporate model:
+        spec.setModel(modelInput.get());
+
+        spec.setSimulationTime(simulationTimeInput.get());
+        spec.setEvenSampling(nSamplesInput.get());
+
+        // Projection limits:
+        spec.setMaxStates(maxStatesInput.get());
+        if (maxPopSizeInput.get() != null)
+            spec.setMaxPopSize(maxPopSizeInput.get());
+        spec.setTolerance(toleranceInput.get());
+
+        // Assemble initial state:
+        PopulationState initState = new PopulationState();
+        for (PopulationSize popSize : initialStateInput.get().popSizesInput.get()) {
+            popSize.computePopulationSizes(modelInput.get());
+            for (Population pop : popSize.getPopSizes().keySet())
+                initState.set(pop, popSize.getPopSizes().get(pop));
+        }
+        spec.setInitPopulationState(initState);
+
+        // Check for zero-length moment and moment group lists (no point to calculation!)
+        if (momentGroupsInput.get().isEmpty() && momentsInput.get().isEmpty())
+            throw new IllegalArgumentException("FiniteStateProjection doesn't specify any moments!");
+
+        // Add moments and moment groups:
+        for (MomentGroup momentGroup : momentGroupsInput.get())
+            spec.addMomentGroup(momentGroup);
+
+        for (Moment moment : momentsInput.get()) {
+            if (moment.getName() == null)
+                throw new IllegalArgumentException("Moment doesn't specify name"
+                        + " and is not part of a moment group.");
+
+            spec.addMoment(moment);
+        }
+
+        // Set the level of verbosity:
+        spec.setVerbosity(verbosityInput.get());
+    }
+
+    @Override
+    public void run() throws Exception {
+
+        // Perform calculation:
+        solve();
+
+        // Write outputs:
+        for (FiniteStateProjectionOutput output : outputsInput.get())
+            output.write(this);
+
+        System.out.println("Done.");
+    }
+
+    /**
+     * Enumerate projection and integrate master equation over it.
+     */
+    private void solve() {
+
+        // Record time at start of calculation:
+        double startTime = (new Date()).getTime();
+
+        enumerateStates();
+        assembleGenerator();
+        spec.setStateSpaceSize(states.size());
+
+        if (spec.verbosity>0)
+            System.err.println("Finite state projection contains "
+                    + states.size() + " states.");
+
+        // Derived spec parameters:
+        double sampleDt = spec.getSampleDt();
+
+        stateSummaries = new StateSummary[spec.nSamples];
+        truncationErrors = new double[spec.nSamples];
+        marginals = Maps.newLinkedHashMap();
+        for (int k=0; k<populations.size(); k++) {
+            int maxCount = 0;
+            for (int[] state : states)
+                maxCount = Math.max(maxCount, state[k]);
+            marginals.put(populations.get(k), new double[spec.nSamples][maxCount+1]);
+        }
+
+        // Initial distribution is concentrated on the initial state:
+        double[] p = new double[states.size()];
+        p[0] = 1.0;
+        recordSample(p, 0);
+
+        double t = 0.0;
+        for (int sidx = 1; sidx<spec.nSamples; sidx++) {
+
+            double nextSampTime = sidx*sampleDt;
+
+            // Report progress if verbosity high enough:
+            if (spec.verbosity>1)
+                System.err.println("Recording sample time point "
+                        +String.valueOf(sidx+1)+" of "
+                        +String.valueOf(spec.nSamples));
+
+            // Propagate to next sample time, splitting the interval at
+            // reaction rate changes:
+            while (t<nextSampTime) {
+                double tEnd = Math.min(nextSampTime,
+                        spec.getModel().getNextReactionChangeTime(t));
+                p = propagate(p, t, tEnd);
+                t = tEnd;
+            }
+
+            recordSample(p, sidx);
+        }
+
+        // Record total time of calculation:
+        spec.setWallTime(((new Date()).getTime() - startTime)/1e3);
+    }
+
+    /**
+     * Enumerate states reachable from the initial state by breadth-first
+     * search, stopping at the population size bound or when the maximum
+     * number of states has been reached.
+     */
+    private void enumerateStates() {
+
+        List<Reaction> reactions = spec.getModel().getReactions();
+
+        // Assign an index to every population appearing in the initial
+        // state or in a reaction:
+        populations = Lists.newArrayList();
+        Map<Population, Integer> popIndices = Maps.newHashMap();
+        List<Population> candidates = Lists.newArrayList(
+                spec.initPopulationState.getPopSet());
+        for (Reaction reaction : reactions)
+            candidates.addAll(reaction.deltaCount.keySet());
+        for (Population pop : candidates) {
+            if (!popIndices.containsKey(pop)) {
+                popIndices.put(pop, populations.size());
+                populations.add(pop);
+            }
+        }
+
+        // Express reactions in terms of population indices:
+        int nReactions = reactions.size();
+        reactPops = new int[nReactions][];
+        reactCounts = new int[nReactions][];
+        deltaPops = new int[nReactions][];
+        deltaCounts = new int[nReactions][];
+        for (int r=0; r<nReactions; r++) {
+            Reaction reaction = reactions.get(r);
+
+            reactPops[r] = new int[reaction.reactCount.size()];
+            reactCounts[r] = new int[reaction.reactCount.size()];
+            int i = 0;
+            for (Population pop : reaction.reactCount.keySet()) {
+                reactPops[r][i] = popIndices.get(pop);
+                reactCounts[r][i] = reaction.reactCount.get(pop);
+                i += 1;
+            }
+
+            deltaPops[r] = new int[reaction.deltaCount.size()];
+            deltaCounts[r] = new int[reaction.deltaCount.size()];
+            i = 0;
+            for (Population pop : reaction.deltaCount.keySet()) {
+                deltaPops[r][i] = popIndices.get(pop);
+                deltaCounts[r][i] = reaction.deltaCount.get(pop);
+                i += 1;
+            }
+        }
+
+        // Initial state:
+        int[] initState = new int[populations.size()];
+        for (int k=0; k<populations.size(); k++) {
+            double size = spec.initPopulationState.get(populations.get(k));
+            if (size != Math.rint(size) || size<0)
+                throw new IllegalArgumentException("Finite state projection "
+                        + "requires non-negative integer initial population sizes.");
+            initState[k] = (int)size;
+        }
+
+        states = Lists.newArrayList();
+        stateIndices = Maps.newHashMap();
+        states.add(initState);
+        stateIndices.put(new StateKey(initState), 0);
+
+        Deque<Integer> queue = new ArrayDeque<>();
+        queue.add(0);
+        while (!queue.isEmpty()) {
+            int[] state = states.get(queue.poll());
+
+            for (int r=0; r<nReactions; r++) {
+                if (!canFire(reactions.get(r)) || getFactor(r, state)<=0.0)
+                    continue;
+
+                int[] target = getTarget(r, state);
+                if (target == null)
+                    continue;
+
+                StateKey key = new StateKey(target);
+                if (stateIndices.containsKey(key)
+                        || states.size()>=spec.getMaxStates())
+                    continue;
+
+                stateIndices.put(key, states.size());
+                queue.add(states.size());
+                states.add(target);
+            }
+        }
+    }
+
+    /**
+     * Record target state indices and propensity factors for every
+     * reaction and enumerated state.
+     */
+    private void assembleGenerator() {
+
+        List<Reaction> reactions = spec.getModel().getReactions();
+
+        targets = new int[reactions.size()][states.size()];
+        factors = new double[reactions.size()][states.size()];
+
+        for (int r=0; r<reactions.size(); r++) {
+            boolean canFire = canFire(reactions.get(r));
+
+            for (int i=0; i<states.size(); i++) {
+                int[] state = states.get(i);
+
+                double factor = getFactor(r, state);
+                if (!canFire || factor<=0.0) {
+                    targets[r][i] = -2;
+                    continue;
+                }
+
+                factors[r][i] = factor;
+
+                int[] target = getTarget(r, state);
+                if (target == null)
+                    targets[r][i] = -1;
+                else {
+                    Integer idx = stateIndices.get(new StateKey(target));
+                    targets[r][i] = idx != null ? idx : -1;
+                }
+            }
+        }
+
+        // No longer needed:
+        stateIndices = null;
+    }
+
+    /**
+     * Propagate probability vector across an interval over which the
+     * reaction rates are constant.
+     *
+     * @param p probability vector at start of interval
+     * @param tStart start of interval
+     * @param tEnd end of interval
+     * @return probability vector at end of interval
+     */
+    private double[] propagate(double[] p, double tStart, double tEnd) {
+
+        List<Reaction> reactions = spec.getModel().getReactions();
+        int nStates = p.length;
+
+        double[] rates = new double[reactions.size()];
+        for (int r=0; r<reactions.size(); r++)
+            rates[r] = reactions.get(r).getRate(tStart);
+
+        // Total exit rate from each state and uniformization rate:
+        double[] exitRates = new double[nStates];
+        double lambda = 0.0;
+        for (int i=0; i<nStates; i++) {
+            for (int r=0; r<rates.length; r++) {
+                if (targets[r][i] != -2)
+                    exitRates[i] += rates[r]*factors[r][i];
+            }
+            lambda = Math.max(lambda, exitRates[i]);
+        }
+
+        if (lambda == 0.0)
+            return p;
+
+        // Divide interval so that each Poisson series is short and its
+        // leading weight representable:
+        int nSteps = (int)Math.ceil(lambda*(tEnd-tStart)/MAX_UNIFORMIZATION_STEP);
+        double dt = (tEnd-tStart)/nSteps;
+        double q = lambda*dt;
+        double stepTolerance = spec.getTolerance()/nSteps;
+
+        double[] v = new double[nStates];
+        double[] pNext = new double[nStates];
+        double[] vNext = new double[nStates];
+        for (int step=0; step<nSteps; step++) {
+
+            System.arraycopy(p, 0, v, 0, nStates);
+
+            double weight = Math.exp(-q);
+            double cumWeight = weight;
+            for (int i=0; i<nStates; i++)
+                pNext[i] = weight*v[i];
+
+            for (int n=1; 1.0-cumWeight>stepTolerance && weight>0.0; n++) {
+
+                // v <- (I + Q/lambda) v
+                for (int i=0; i<nStates; i++)
+                    vNext[i] = v[i]*(1.0 - exitRates[i]/lambda);
+                for (int r=0; r<rates.length; r++) {
+                    if (rates[r] == 0.0)
+                        continue;
+
+                    double scale = rates[r]/lambda;
+                    int[] rTargets = targets[r];
+                    double[] rFactors = factors[r];
+                    for (int i=0; i<nStates; i++) {
+                        if (rTargets[i]>=0)
+                            vNext[rTargets[i]] += scale*rFactors[i]*v[i];
+                    }
+                }
+
+                double[] tmp = v;
+                v = vNext;
+                vNext = tmp;
+
+                weight *= q/n;
+                cumWeight += weight;
+                for (int i=0; i<nStates; i++)
+                    pNext[i] += weight*v[i];
+            }
+
+            double[] tmp = p;
+            p = pNext;
+            pNext = tmp;
+        }
+
+        return p;
+    }
+
+    /**
+     * Record moments, marginals and truncation error at given sample.
+     *
+     * @param p probability vector
+     * @param sidx sample index
+     */
+    private void recordSample(double[] p, int sidx) {
+
+        StateSummary summary = new StateSummary(spec.moments, spec.momentGroups);
+
+        double totalProb = 0.0;
+        for (int i=0; i<p.length; i++) {
+            if (p[i]<=0.0)
+                continue;
+
+            totalProb += p[i];
+
+            int[] state = states.get(i);
+            PopulationState popState = new PopulationState();
+            for (int k=0; k<populations.size(); k++) {
+                popState.set(populations.get(k), state[k]);
+                marginals.get(populations.get(k))[sidx][state[k]] += p[i];
+            }
+
+            summary.record(popState);
+            summary.accept(p[i]);
+        }
+        summary.normalise();
+
+        stateSummaries[sidx] = summary;
+        truncationErrors[sidx] = Math.max(0.0, 1.0 - totalProb);
+    }
+
+    /**
+     * Determine whether reaction ever has non-zero rate.
+     *
+     * @param reaction
+     * @return true if reaction can fire at some time
+     */
+    private boolean canFire(Reaction reaction) {
+        for (double rate : reaction.getRates())
+            if (rate>0.0)
+                return true;
+
+        return false;
+    }
+
+    /**
+     * Compute propensity of reaction in given state divided by its rate.
+     *
+     * @param r reaction index
+     * @param state population counts
+     * @return propensity factor
+     */
+    private double getFactor(int r, int[] state) {
+        double factor = 1.0;
+        for (int j=0; j<reactPops[r].length; j++) {
+            for (int m=0; m<reactCounts[r][j]; m++)
+                factor *= state[reactPops[r][j]]-m;
+        }
+
+        return factor;
+    }
+
+    /**
+     * Compute state resulting from firing reaction in given state.
+     *
+     * @param r reaction index
+     * @param state population counts
+     * @return target state, or null if target violates population bound
+     */
+    private int[] getTarget(int r, int[] state) {
+        int[] target = Arrays.copyOf(state, state.length);
+        for (int j=0; j<deltaPops[r].length; j++) {
+            target[deltaPops[r][j]] += deltaCounts[r][j];
+
+            if (spec.getMaxPopSize()>=0 && deltaCounts[r][j]>0
+                    && target[deltaPops[r][j]]>spec.getMaxPopSize())
+                return null;
+        }
+
+        return target;
+    }
+
+    /**
+     * Retrieve specification.
+     *
+     * @return FiniteStateProjectionSpec object.
+     */
+    public FiniteStateProjectionSpec getSpec() {
+        return spec;
+    }
+
+    /**
+     * Return array of state summaries.
+     *
+     * @return StateSummary array.
+     */
+    public StateSummary[] getStateSummaries() {
+        return stateSummaries;
+    }
+
+    /**
+     * Return marginal distributions of each population size.  The array
+     * for each population is indexed by sample then population size.
+     *
+     * @return map from populations to marginal distributions
+     */
+    public Map<Population, double[][]> getMarginals() {
+        return marginals;
+    }
+
+    /**
+     * Return probability mass which has left the projection (or been
+     * discarded by series truncation) by each sample time.  This bounds
+     * the error in the computed distribution.
+     *
+     * @return truncation error at each sample time.
+     */
+    public double[] getTruncationErrors() {
+        return truncationErrors;
+    }
+
+    /**
+     * Hashable wrapper for population count arrays.
+     */
+    private static class StateKey {
+        int[] counts;
+        int hash;
+
+        StateKey(int[] counts) {
+            this.counts = counts;
+            this.hash = Arrays.hashCode(counts);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof StateKey
+                    && Arrays.equals(counts, ((StateKey)other).counts);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
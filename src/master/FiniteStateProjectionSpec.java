@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package master;
+
+import com.fasterxml.jackson.annotation.JsonValue;
+import java.util.Map;
+
+/**
+ * Specification for a finite state projection (FSP) solution of the
+ * chemical master equation.  Shares the moment bookkeeping of ensemble
+ * summaries, but has no stepper, seed or trajectory count.
+ *
+ * @author agent <agent@local>
+ */
+public class FiniteStateProjectionSpec extends EnsembleSummarySpec {
+
+    // Maximum number of states to include in the projection:
+    int maxStates;
+
+    // Upper bound on individual population sizes (negative means no bound):
+    int maxPopSize;
+
+    // Tolerance used to truncate the uniformization series:
+    double tolerance;
+
+    // Number of states actually included in the projection:
+    int stateSpaceSize;
+
+    public FiniteStateProjectionSpec() {
+        super();
+
+        maxPopSize = -1;
+    }
+
+    public int getMaxStates() {
+        return maxStates;
+    }
+
+    public void setMaxStates(int maxStates) {
+        if (maxStates<1)
+            throw new IllegalArgumentException("Maximum number of FSP states"
+                    + " must be positive.");
+
+        this.maxStates = maxStates;
+    }
+
+    public int getMaxPopSize() {
+        return maxPopSize;
+    }
+
+    public void setMaxPopSize(int maxPopSize) {
+        this.maxPopSize = maxPopSize;
+    }
+
+    public double getTolerance() {
+        return tolerance;
+    }
+
+    public void setTolerance(double tolerance) {
+        if (tolerance<=0.0 || tolerance>=1.0)
+            throw new IllegalArgumentException("FSP tolerance must be"
+                    + " between 0 and 1.");
+
+        this.tolerance = tolerance;
+    }
+
+    public int getStateSpaceSize() {
+        return stateSpaceSize;
+    }
+
+    public void setStateSpaceSize(int stateSpaceSize) {
+        this.stateSpaceSize = stateSpaceSize;
+    }
+
+    /**
+     * Construct representation of specification to use in assembling
+     * summary in JSON output file.
+     *
+     * @return Map from strings to other objects which have a JSON rep
+     */
+    @JsonValue
+    @Override
+    public Map<String, Object> getJsonValue() {
+
+        Map<String, Object> jsonObject = super.getJsonValue();
+
+        // These have no meaning for a deterministic solver:
+        jsonObject.remove("nTraj");
+        jsonObject.remove("seed");
+        jsonObject.remove("stepper");
+
+        jsonObject.put("maxStates", getMaxStates());
+        if (getMaxPopSize()>=0)
+            jsonObject.put("maxPopulationSize", getMaxPopSize());
+        jsonObject.put("tolerance", getTolerance());
+        jsonObject.put("stateSpaceSize", getStateSpaceSize());
+        return jsonObject;
+    }
+}
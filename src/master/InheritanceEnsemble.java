@@ -19,8 +19,11 @@ package master;
 import beast.core.Description;
 import beast.core.Input;
 import beast.core.Input.Validate;
-import beast.util.Randomizer;
+import master.rng.RandomGenerator;
 import beast.core.Runnable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
@@ -30,7 +33,9 @@ import master.conditions.PopulationEndCondition;
 import master.conditions.PostSimCondition;
 import master.model.*;
 import master.outputs.InheritanceEnsembleOutput;
+import master.outputs.StreamingInheritanceEnsembleOutput;
 import master.postprocessors.InheritancePostProcessor;
+import master.sampling.SamplingPolicy;
 
 /**
  * @author Tim Vaughan <tgvaughan@gmail.com>
@@ -63,7 +68,25 @@ public class InheritanceEnsemble extends Runnable {
             "sampleAtNodesOnly",
             "Sample population sizes only at graph node times. (Default false.)",
             false);
+
+    public Input<SamplingPolicy> samplingPolicyInput = new Input<SamplingPolicy>(
+            "samplingPolicy",
+            "Policy used to thin unevenly spaced population size samples."
+                    + " (Default records state following every step.)");
     
+    public Input<Boolean> backwardLineagesInput = new Input<Boolean>(
+            "backwardLineages",
+            "Simulate sampled lineages backward through a log of the forward "
+            + "trajectory.  Requires a single LineageSampler post-processor. "
+            + "(Default false.)",
+            false);
+
+    public Input<Boolean> earlyRejectionInput = new Input<Boolean>(
+            "earlyRejection",
+            "Abandon trajectories as soon as a post-simulation condition "
+            + "can no longer be met.  (Default false.)",
+            false);
+
     public Input<Integer> nTrajInput = new Input<Integer>(
             "nTraj",
             "Number of trajectories to generate.",
@@ -72,6 +95,10 @@ public class InheritanceEnsemble extends Runnable {
     public Input<Integer> seedInput = new Input<Integer>(
             "seed",
             "Seed for RNG.");
+
+    public Input<RandomGenerator> randomGeneratorInput = new Input<RandomGenerator>(
+            "randomGenerator",
+            "Source of random variates. (Default BEAST Randomizer.)");
     
     public Input<Integer> verbosityInput = new Input<Integer> (
             "verbosity", "Level of verbosity to use (0-3).", 1);
@@ -120,6 +147,51 @@ public class InheritanceEnsemble extends Runnable {
             = new Input<List<InheritanceEnsembleOutput>>("output",
             "Output writer used to write results of simulation to disk.",
             new ArrayList<InheritanceEnsembleOutput>());
+
+    public Input<Boolean> streamOutputsInput = new Input<Boolean>(
+            "streamOutputs",
+            "Write each trajectory to the outputs as soon as it is generated "
+            + "instead of retaining the whole ensemble in memory.  Requires "
+            + "outputs which support streaming, such as NewickOutput and "
+            + "NexusOutput. (Default false.)",
+            false);
+
+    // Sharding:
+    public Input<Integer> nShardsInput = new Input<Integer>(
+            "nShards",
+            "Number of shards (separate processes) the calculation is split "
+            + "into.  Requires streamOutputs. (Default 1.)",
+            1);
+
+    public Input<Integer> shardInput = new Input<Integer>(
+            "shard",
+            "Index of shard to simulate. (Default 0.)",
+            0);
+
+    public Input<Boolean> mergeShardsInput = new Input<Boolean>(
+            "mergeShards",
+            "Concatenate outputs of all shards rather than simulating. "
+            + "(Default false.)",
+            false);
+
+    // Checkpointing:
+    public Input<Integer> checkpointIntervalInput = new Input<Integer>(
+            "checkpointInterval",
+            "Number of trajectories between checkpoints.  Requires "
+            + "streamOutputs and a random generator with per-trajectory "
+            + "streams, such as PhiloxGenerator. (Default 0: no "
+            + "checkpointing.)",
+            0);
+
+    public Input<String> checkpointFileInput = new Input<String>(
+            "checkpointFile",
+            "Name of checkpoint file. (Defaults to the BEAST state file.)");
+
+    public Input<Boolean> resumeInput = new Input<Boolean>(
+            "resume",
+            "Resume calculation from checkpoint file. (Also enabled by "
+            + "BEAST's -resume option.)",
+            false);
     
     // The ensemble is a large number of trajectories
     ArrayList<InheritanceTrajectory> itrajectories;
@@ -143,6 +215,10 @@ public class InheritanceEnsemble extends Runnable {
             else
                 spec.setUnevenSampling(sampleAtNodesOnlyInput.get());
         }
+
+        // Thin unevenly spaced samples if requested:
+        if (samplingPolicyInput.get() != null)
+            spec.setSamplingPolicy(samplingPolicyInput.get());
         
         // Set maximum simulation time:
         if (simulationTimeInput.get() != null)
@@ -183,6 +259,20 @@ public class InheritanceEnsemble extends Runnable {
         // Incorporate post-processors:
         for (InheritancePostProcessor postProc : inheritancePostProcessorsInput.get())
             spec.addInheritancePostProcessor(postProc);
+
+        // Check that backward lineage simulation is possible:
+        if (backwardLineagesInput.get()) {
+            spec.setBackwardLineages(true);
+            LineageEventLog.getSampler(spec);
+        }
+
+        // Check that early rejection is possible:
+        if (earlyRejectionInput.get()) {
+            if (backwardLineagesInput.get())
+                throw new IllegalArgumentException("Early rejection cannot "
+                        + "be combined with backward lineage simulation.");
+            spec.setEarlyRejection(true);
+        }
         
         // Incorporate post-simulation conditions:
         for (PostSimCondition condition : postSimConditionsInput.get())
@@ -191,21 +281,81 @@ public class InheritanceEnsemble extends Runnable {
         // Set seed if provided, otherwise use default BEAST seed:
         if (seedInput.get()!=null)
             spec.setSeed(seedInput.get());
+
+        // Use alternative source of random variates if provided:
+        if (randomGeneratorInput.get()!=null)
+            spec.setRandomGenerator(randomGeneratorInput.get());
         
         // Set the level of verbosity:
         spec.setVerbosity(verbosityInput.get());
+
+        // Check that outputs can be streamed if necessary:
+        if (streamOutputsInput.get()) {
+            for (InheritanceEnsembleOutput output : outputsInput.get()) {
+                if (!(output instanceof StreamingInheritanceEnsembleOutput))
+                    throw new IllegalArgumentException("Output "
+                            + output.getClass().getSimpleName()
+                            + " does not support streamOutputs.");
+            }
+        }
+
+        // Checkpoints record output positions rather than trajectories:
+        if (checkpointIntervalInput.get()<0)
+            throw new IllegalArgumentException("Checkpoint interval must"
+                    + " not be negative.");
+
+        if (checkpointIntervalInput.get()>0 && !streamOutputsInput.get())
+            throw new IllegalArgumentException("Checkpointing requires"
+                    + " streamOutputs.");
+
+        // Resumed calculations must draw the same variates as uninterrupted
+        // ones, which generators without streams cannot guarantee:
+        if (checkpointIntervalInput.get()>0
+                && !spec.getRandomGenerator().hasStreams())
+            throw new IllegalArgumentException("Checkpointing requires a"
+                    + " random generator with independent per-trajectory"
+                    + " streams, such as PhiloxGenerator.");
+
+        // Each shard streams its trajectories to its own output files:
+        Shards.validate(shardInput.get(), nShardsInput.get(),
+                seedInput.get(), spec.getRandomGenerator());
+
+        if (nShardsInput.get()>1 && !streamOutputsInput.get())
+            throw new IllegalArgumentException("Sharding requires"
+                    + " streamOutputs.");
+
+        if (mergeShardsInput.get() && nShardsInput.get()==1)
+            throw new IllegalArgumentException("Merging requires nShards>1.");
         
     }
 
     @Override
     public void run() {
+
+        // Concatenate outputs of separate shards:
+        if (mergeShardsInput.get()) {
+            for (InheritanceEnsembleOutput output : outputsInput.get()) {
+                try {
+                    ((StreamingInheritanceEnsembleOutput)output).mergeShards(
+                            nShardsInput.get());
+                } catch (IOException ex) {
+                    throw new IllegalArgumentException("Error merging shards: "
+                            + ex.getMessage());
+                }
+            }
+
+            System.out.println("Done.");
+            return;
+        }
         
         // Generate stochastic trajectories:
         simulate();
         
-        // Write outputs:
-        for (InheritanceEnsembleOutput output : outputsInput.get())
-            output.write(this);
+        // Write outputs (unless already streamed):
+        if (!streamOutputsInput.get()) {
+            for (InheritanceEnsembleOutput output : outputsInput.get())
+                output.write(this);
+        }
 
         System.out.println("Done.");
     }
@@ -214,7 +364,7 @@ public class InheritanceEnsemble extends Runnable {
         
         // Set seed if defined:
         if (spec.getSeed()>=0 && !spec.isSeedUsed()) {
-            Randomizer.setSeed(spec.getSeed());
+            spec.getRandomGenerator().setSeed(spec.getSeed());
             spec.setSeedUsed();
         }
         
@@ -224,9 +374,30 @@ public class InheritanceEnsemble extends Runnable {
                 
         // Record time at start of simulation:
         double startTime = (new Date()).getTime();
+
+        // Trajectories belonging to this shard:
+        int shard = shardInput.get(), nShards = nShardsInput.get();
+        int firstTraj = Shards.getFirstTraj(shard, nShards, spec.nTraj);
+        int endTraj = Shards.getFirstTraj(shard+1, nShards, spec.nTraj);
+        if (nShards>1) {
+            for (InheritanceEnsembleOutput output : outputsInput.get())
+                ((StreamingInheritanceEnsembleOutput)output).setShard(shard,
+                        nShards);
+        }
+
+        // Continue from checkpoint if requested:
+        Checkpoint checkpoint = createCheckpoint();
+        int startTraj = firstTraj;
+        if (checkpoint != null && (resumeInput.get() || restoreFromFile))
+            startTraj = restoreCheckpoint(checkpoint, firstTraj);
+
+        if (streamOutputsInput.get() && startTraj==firstTraj) {
+            for (InheritanceEnsembleOutput output : outputsInput.get())
+                ((StreamingInheritanceEnsembleOutput)output).begin(this);
+        }
         
         // Generate trajectories:
-        for (int traj=0; traj<spec.nTraj; traj++) {
+        for (int traj=startTraj; traj<endTraj; traj++) {
             
             // Report ensemble progress if verbosity is high enough:
             if (spec.getVerbosity()>0)
@@ -234,14 +405,107 @@ public class InheritanceEnsemble extends Runnable {
                         + String.valueOf(traj+1) + " of "
                         + String.valueOf(spec.nTraj));
             
+            // Each trajectory draws from its own stream where supported:
+            spec.getRandomGenerator().setStream(traj);
+
             InheritanceTrajectory thisTraj = new InheritanceTrajectory(spec);
-            itrajectories.add(thisTraj);
+
+            // Either pass trajectory straight to outputs or retain it:
+            if (streamOutputsInput.get()) {
+                for (InheritanceEnsembleOutput output : outputsInput.get())
+                    ((StreamingInheritanceEnsembleOutput)output).write(this, thisTraj, traj);
+            } else
+                itrajectories.add(thisTraj);
+
+            if (checkpoint != null && (traj+1)%checkpointIntervalInput.get() == 0
+                    && traj+1<endTraj)
+                writeCheckpoint(checkpoint, traj+1);
+        }
+
+        if (checkpoint != null)
+            checkpoint.close();
+
+        if (streamOutputsInput.get()) {
+            for (InheritanceEnsembleOutput output : outputsInput.get())
+                ((StreamingInheritanceEnsembleOutput)output).end(this);
         }
         
         // Record length of time taken by calculation:
         spec.setWallTime(((new Date()).getTime() - startTime)/1e3);
     }
     
+    /**
+     * @return checkpoint for calculation, or null if checkpointing is
+     * disabled.
+     */
+    private Checkpoint createCheckpoint() {
+        if (checkpointIntervalInput.get()==0)
+            return null;
+
+        String fileName = checkpointFileInput.get() != null
+                ? checkpointFileInput.get()
+                : stateFileName;
+        if (fileName == null)
+            throw new IllegalArgumentException("Checkpointing requires a"
+                    + " checkpoint file name.");
+
+        if (nShardsInput.get()>1)
+            fileName = Shards.getFileName(fileName, shardInput.get());
+
+        return new Checkpoint(fileName, getClass().getSimpleName(), spec.nTraj);
+    }
+
+    /**
+     * Restore generator state and output positions from checkpoint.
+     *
+     * @param checkpoint checkpoint to restore from
+     * @param startTraj first trajectory to simulate if no checkpoint exists
+     * @return index of first trajectory still to be simulated
+     */
+    private int restoreCheckpoint(Checkpoint checkpoint, int startTraj) {
+        if (!checkpoint.exists()) {
+            System.err.println("No checkpoint found: starting calculation"
+                    + " from the beginning.");
+            return startTraj;
+        }
+
+        try {
+            DataInputStream in = checkpoint.read();
+            int completedTraj = in.readInt();
+            spec.getRandomGenerator().readState(in);
+            for (InheritanceEnsembleOutput output : outputsInput.get())
+                ((StreamingInheritanceEnsembleOutput)output).resume(this, in);
+
+            if (spec.getVerbosity()>0)
+                System.err.println("Resuming calculation after trajectory "
+                        + completedTraj + " of " + spec.nTraj);
+
+            return completedTraj;
+        } catch (IOException ex) {
+            throw new IllegalArgumentException("Error reading checkpoint: "
+                    + ex.getMessage());
+        }
+    }
+
+    /**
+     * Write generator state and output positions to checkpoint.
+     *
+     * @param checkpoint checkpoint to write
+     * @param completedTraj number of trajectories completed
+     */
+    private void writeCheckpoint(Checkpoint checkpoint, int completedTraj) {
+        try {
+            DataOutputStream out = checkpoint.begin(completedTraj);
+            spec.getRandomGenerator().writeState(out);
+            for (InheritanceEnsembleOutput output : outputsInput.get())
+                ((StreamingInheritanceEnsembleOutput)output).writeState(out);
+            checkpoint.commit();
+        } catch (IOException ex) {
+            System.err.println("Warning: failed to write checkpoint: "
+                    + ex.getMessage());
+        }
+    }
+
     /**
      * Obtain inheritance ensemble simulation specification.
      * 
@@ -252,7 +516,8 @@ public class InheritanceEnsemble extends Runnable {
     }
     
     /**
-     * Obtain inheritance trajectories contained in ensemble.
+     * Obtain inheritance trajectories contained in ensemble.  This list
+     * is empty if the trajectories were streamed to the outputs.
      * 
      * @return list of inheritance trajectories
      */
@@ -17,7 +17,6 @@
 package master;
 
 import beast.core.Input;
-import beast.util.Randomizer;
 import com.google.common.collect.*;
 import master.conditions.LeafCountEndCondition;
 import master.conditions.LineageEndCondition;
@@ -62,6 +61,19 @@ public class InheritanceTrajectory extends Trajectory {
             "sampleAtNodesOnly",
             "Sample population sizes only at graph node times. (Default false.)",
             false);
+
+    public Input<Boolean> backwardLineagesInput = new Input<>(
+            "backwardLineages",
+            "Simulate sampled lineages backward through a log of the forward "
+            + "trajectory.  Requires a single LineageSampler post-processor. "
+            + "(Default false.)",
+            false);
+
+    public Input<Boolean> earlyRejectionInput = new Input<>(
+            "earlyRejection",
+            "Abandon trajectories as soon as a post-simulation condition "
+            + "can no longer be met.  (Default false.)",
+            false);
     
     // Lineage end conditions:
     public Input<List<LineageEndCondition>> lineageEndConditionsInput =
@@ -90,18 +102,26 @@ public class InheritanceTrajectory extends Trajectory {
     
     // List of nodes present at the start of the simulation
     public List<Node> startNodes;
+
+    // Storage for nodes of inheritance graph:
+    private InheritanceGraph graph;
     
     // Simulation specification.
     private InheritanceTrajectorySpec spec;    
 
     // Simulation state variables
-    private Map<Population,List<Node>> activeLineages;
-    private Map<Node, Node> nodesInvolved, nextLevelNodes;
+    private ActiveLineages activeLineages;
+    private List<Node> nodesInvolved, reactNodesInvolved;
+    private List<Node> reactChildren, nextLevelNodes;
     private List<Node> inactiveLineages;
     private PopulationState currentPopState;
     protected double t;
     private int sidx;
-    private Multiset<Population> leafCounts;
+    private Multiset<Population> leafCounts, retainedLeafCounts;
+
+    // Backward lineage simulation state:
+    private LineageEventLog eventLog;
+    private LineageSampler backwardSampler;
     
     public InheritanceTrajectory() { }
     
@@ -174,16 +194,46 @@ public class InheritanceTrajectory extends Trajectory {
         // Incorporate post-simulation conditions:
         for (PostSimCondition condition : postSimConditionsInput.get())
             spec.addPostSimCondition(condition);
+
+        // Check that backward lineage simulation is possible:
+        if (backwardLineagesInput.get()) {
+            spec.setBackwardLineages(true);
+            LineageEventLog.getSampler(spec);
+        }
+
+        // Check that early rejection is possible:
+        if (earlyRejectionInput.get()) {
+            if (backwardLineagesInput.get())
+                throw new IllegalArgumentException("Early rejection cannot "
+                        + "be combined with backward lineage simulation.");
+            spec.setEarlyRejection(true);
+        }
         
         // Set seed if provided, otherwise use default BEAST seed:
         if (seedInput.get()!=null)
             spec.setSeed(seedInput.get());
+
+        // Use alternative source of random variates if provided:
+        if (randomGeneratorInput.get()!=null)
+            spec.setRandomGenerator(randomGeneratorInput.get());
         
         // Set the level of verbosity:
         spec.setVerbosity(verbosityInput.get());
         
         // Set trajectory probability recording status:
         spec.setTrajLogPRecording(recordTrajLogPInput.get());
+
+        // Thin unevenly spaced samples if requested:
+        if (samplingPolicyInput.get() != null)
+            spec.setSamplingPolicy(samplingPolicyInput.get());
+
+        // Record reaction events if requested:
+        if (reactionLogInput.get() != null)
+            spec.setReactionLog(reactionLogInput.get());
+
+        if (replayLogInput.get() != null)
+            throw new IllegalArgumentException("Inheritance trajectories"
+                    + " cannot be replayed from a reaction log.");
     }
     
     @Override
@@ -192,6 +242,9 @@ public class InheritanceTrajectory extends Trajectory {
         // Generate stochastic trajectory:
         simulate();
 
+        if (spec.getReactionLog() != null)
+            spec.getReactionLog().close();
+
         // Write outputs:
         for (InheritanceTrajectoryOutput output : outputsInput.get())
             output.write(this);
@@ -205,14 +258,24 @@ public class InheritanceTrajectory extends Trajectory {
      */
     private void simulate() {
 
-        // Create HashMaps:
-        nodesInvolved = Maps.newLinkedHashMap();
-        nextLevelNodes = Maps.newLinkedHashMap();
-
+        // Create lists of nodes involved in each reaction:
+        nodesInvolved = Lists.newArrayList();
+        reactNodesInvolved = Lists.newArrayList();
+        reactChildren = Lists.newArrayList();
+        nextLevelNodes = Lists.newArrayList();
+
+        // Prepare log of events for backward lineage simulation:
+        if (spec.isBackwardLineages()) {
+            backwardSampler = LineageEventLog.getSampler(spec);
+            eventLog = new LineageEventLog(spec.getModel().getReactions());
+        } else {
+            backwardSampler = null;
+            eventLog = null;
+        }
 
         // Set seed if defined:
         if (spec.getSeed()>=0 && !spec.isSeedUsed()) {
-            Randomizer.setSeed(spec.getSeed());
+            spec.getRandomGenerator().setSeed(spec.getSeed());
             spec.setSeedUsed();
         }
         
@@ -240,7 +303,7 @@ public class InheritanceTrajectory extends Trajectory {
                 boolean isRejection = false;
                 if (inactiveLineages.isEmpty()) {
                     for (LineageEndCondition lineageEC : spec.getLineageEndConditions()) {
-                        if (lineageEC.isMet(activeLineages)) {
+                        if (lineageEC.isMet(activeLineages.asMap())) {
                             conditionMet = true;
                             isRejection = lineageEC.isRejection();
                             break;
@@ -251,7 +314,7 @@ public class InheritanceTrajectory extends Trajectory {
                 // Check whether a leaf count end condition is met:
                 if (!conditionMet) {
                     for (LeafCountEndCondition leafEC : spec.getLeafCountEndConditions()) {
-                        if (leafEC.isMet(leafCounts, activeLineages)) {
+                        if (leafEC.isMet(leafCounts, activeLineages.asMap())) {
                             conditionMet = true;
                             isRejection = leafEC.isRejection();
                             break;
@@ -304,7 +367,7 @@ public class InheritanceTrajectory extends Trajectory {
                 // Draw time of next reaction
                 double tprime;
                 if (totalPropensity > 0.0)
-                    tprime = t + Randomizer.nextExponential(totalPropensity);
+                    tprime = t + spec.getRandomGenerator().nextExponential(totalPropensity);
                 else
                     tprime = Double.POSITIVE_INFINITY;
                 
@@ -351,14 +414,20 @@ public class InheritanceTrajectory extends Trajectory {
                 if (seedTimeExceeded) {
                     Node seedNode = inactiveLineages.get(0);
                     inactiveLineages.remove(0);
-                    Node child = new Node(seedNode.getPopulation());
+
+                    currentPopState.add(seedNode.getPopulation(), 1.0);
+                    if (spec.getReactionLog() != null)
+                        spec.getReactionLog().recordSeed(t, seedNode.getPopulation());
+                    if (eventLog != null) {
+                        // Start node IDs coincide with their indices:
+                        eventLog.recordSeed(t, seedNode.getID(),
+                                seedNode.getPopulation());
+                        continue;
+                    }
+
+                    Node child = graph.addNode(seedNode.getPopulation());
                     seedNode.addChild(child);
-                    
-                    if (!activeLineages.containsKey(child.getPopulation()))
-                        activeLineages.put(child.getPopulation(), new ArrayList<>());
-                    activeLineages.get(child.getPopulation()).add(child);
-                    
-                    currentPopState.add(seedNode.getPopulation(), 1.0);                
+                    activeLineages.add(child);
                     continue;
                 }
                 
@@ -370,13 +439,14 @@ public class InheritanceTrajectory extends Trajectory {
                 // Break if new time exceeds end time:
                 if (simulationTimeExceeded) {
                     if (spec.samplePopSizes)
-                        sampleState(currentPopState, t);
+                        offerState(currentPopState, t);
                     break;
                 }
                 
                 // Choose reaction to implement
-                double u = Randomizer.nextDouble()*totalPropensity;
+                double u = spec.getRandomGenerator().nextDouble()*totalPropensity;
                 Reaction chosenReaction = null;
+                int chosenIdx = 0;
                 for (Reaction reaction : spec.getModel().getReactions()) {
                     
                     u -= reaction.getPropensity();
@@ -384,44 +454,79 @@ public class InheritanceTrajectory extends Trajectory {
                         chosenReaction = reaction;
                         break;
                     }
+                    chosenIdx += 1;
                 }
                 
                 // Calculate trajectory probability contribution of event
                 if (spec.isTrajLogPRecordingOn() && chosenReaction != null)
                     trajLogP += Math.log(chosenReaction.getPropensity());
                 
-                // Select lineages involved in chosen reaction:
-                selectLineagesInvolved(chosenReaction);
-                
-                // Implement changes to inheritance graph:
-                implementInheritanceReaction(chosenReaction);
+                int nRetained = spec.isEarlyRejection() ? retainedLeafCounts.size() : 0;
+                boolean lineagesInvolved;
+                if (eventLog != null) {
+                    // Log reaction if tracked individuals are involved:
+                    lineagesInvolved = eventLog.implementReaction(chosenReaction,
+                            currentPopState, t, leafCounts,
+                            spec.getRandomGenerator());
+                } else {
+                    // Select lineages involved in chosen reaction:
+                    selectLineagesInvolved(chosenReaction);
+
+                    // Implement changes to inheritance graph:
+                    implementInheritanceReaction(chosenReaction);
+                    lineagesInvolved = !nodesInvolved.isEmpty();
+                }
                 
                 // Implement state change due to reaction:
                 currentPopState.implementReaction(chosenReaction, 1);
+                if (spec.getReactionLog() != null)
+                    spec.getReactionLog().recordReaction(t, chosenIdx);
                 
                 // Update event counter:
                 spec.getStepper().incrementEventCount();
+
+                // Abandon trajectory if it can no longer be accepted:
+                if (spec.isEarlyRejection() && lineagesInvolved
+                        && retainedLeafCounts.size()>nRetained
+                        && !canBeAccepted()) {
+                    if (spec.getVerbosity()>0)
+                        System.err.println("Post-simulation condition cannot "
+                                + "be met at time " + t);
+                    initialiseSimulation();
+                    continue;
+                }
                 
                 // Sample population sizes (unevenly) if necessary:
                 if (spec.samplePopSizes && !spec.isSamplingEvenlySpaced()) {              
-                    if (!spec.sampleStateAtNodes || !nodesInvolved.isEmpty())
-                        sampleState(currentPopState, t);
+                    if (!spec.sampleStateAtNodes || lineagesInvolved)
+                        offerState(currentPopState, t);
                 }
                 
             }
+
+            // Record any samples held back by sampling policy:
+            if (spec.samplePopSizes)
+                flushSamples(currentPopState, t);
             
-            // Fix final time of any remaining active lineages:
-            for (Population nodePop : activeLineages.keySet()) {
-                for (Node node : activeLineages.get(nodePop)) {
-                    node.setTime(t);
-                    leafCounts.add(nodePop);
+            if (eventLog != null) {
+                // Trace sampled lineages backward through event log:
+                leafCounts.addAll(eventLog.getTrackedCounts());
+                eventLog.buildSampledGraph(backwardSampler, graph, startNodes,
+                        t, spec.getRandomGenerator());
+            } else {
+                // Fix final time of any remaining active lineages:
+                for (Population nodePop : activeLineages.asMap().keySet()) {
+                    for (Node node : activeLineages.asMap().get(nodePop)) {
+                        node.setTime(t);
+                        leafCounts.add(nodePop);
+                    }
                 }
+
+                // Perform any requested post-processing:
+                for (InheritancePostProcessor inheritancePostProc : spec.inheritancePostProcessors)
+                    inheritancePostProc.process(this);
             }
             
-            // Perform any requested post-processing:
-            for (InheritancePostProcessor inheritancePostProc : spec.inheritancePostProcessors)
-                inheritancePostProc.process(this);
-            
             // Check for any post-simulation rejections
             postSimReject = false;
             for (PostSimCondition condition  : spec.postSimConditions) {
@@ -438,6 +543,10 @@ public class InheritanceTrajectory extends Trajectory {
             }
             
         } while (postSimReject);
+
+        // Complete record of accepted trajectory:
+        if (spec.getReactionLog() != null)
+            spec.getReactionLog().endTrajectory(t);
         
         // Record total time of calculation:
         spec.setWallTime(((new Date()).getTime() - startTime)/1e3);
@@ -463,27 +572,23 @@ public class InheritanceTrajectory extends Trajectory {
         else
             startNodes.clear();
 
+        graph = new InheritanceGraph();
         for (Node startNode : spec.initNodes)
-            startNodes.add(startNode.getCopy());
+            startNodes.add(graph.addCopy(startNode));
 
         // Initialise population size state:
         currentPopState = new PopulationState(spec.getInitPopulationState());
         
                 
-        // Initialise sampled state and time lists:
+        // Initialise record of sampled states and times:
         if (sampledStates == null)
-            sampledStates = Lists.newArrayList();
+            sampledStates = new StateHistory();
         else
             sampledStates.clear();
         
-        if (sampledTimes == null)
-            sampledTimes = Lists.newArrayList();
-        else
-            sampledTimes.clear();
-        
         // Initialise active lineages with nodes present at start of simulation
         if (activeLineages == null)
-            activeLineages = Maps.newLinkedHashMap();
+            activeLineages = new ActiveLineages();
         else
             activeLineages.clear();
         
@@ -491,6 +596,9 @@ public class InheritanceTrajectory extends Trajectory {
             inactiveLineages = Lists.newArrayList();
         else
             inactiveLineages.clear();
+
+        if (eventLog != null)
+            eventLog.clear();
         
         for (Node node : startNodes) {
             node.getChildren().clear();
@@ -501,14 +609,16 @@ public class InheritanceTrajectory extends Trajectory {
                 Population nodePop = node.getPopulation();
                 
                 node.setTime(0.0);
-                Node child = new Node(nodePop);
-                node.addChild(child);
+                currentPopState.add(nodePop, 1.0);
 
-                if (!activeLineages.containsKey(nodePop))
-                    activeLineages.put(nodePop, new ArrayList<>());
-                activeLineages.get(nodePop).add(child);
+                if (eventLog != null) {
+                    eventLog.addInitialLineage(nodePop);
+                    continue;
+                }
 
-                currentPopState.add(nodePop, 1.0);
+                Node child = graph.addNode(nodePop);
+                node.addChild(child);
+                activeLineages.add(child);
             }
         }
 
@@ -516,8 +626,11 @@ public class InheritanceTrajectory extends Trajectory {
         if (spec.samplePopSizes) {
             sidx = 1;
             clearSamples();
-            sampleState(currentPopState, 0.0);
+            sampleInitialState(currentPopState, 0.0);
         }
+
+        // Begin (or restart) record of reaction events:
+        startReactionLog(currentPopState);
         
         // Sort inactive lineages nodes in order of increasing seed time:
         Collections.sort(inactiveLineages, (node1, node2) -> {
@@ -537,6 +650,13 @@ public class InheritanceTrajectory extends Trajectory {
             leafCounts = LinkedHashMultiset.create();
         else
             leafCounts.clear();
+
+        if (spec.isEarlyRejection()) {
+            if (retainedLeafCounts == null)
+                retainedLeafCounts = HashMultiset.create();
+            else
+                retainedLeafCounts.clear();
+        }
     }
 
     
@@ -549,33 +669,25 @@ public class InheritanceTrajectory extends Trajectory {
     private void selectLineagesInvolved(Reaction chosenReaction) {
 
         nodesInvolved.clear();
+        reactNodesInvolved.clear();
         for (Population reactPop : chosenReaction.reactNodes.keySet()) {
             
             // Skip this population if no lineages remain:
-            if (!activeLineages.containsKey(reactPop))
+            if (activeLineages.size(reactPop)==0)
                 continue;
             
             // Total size of this population (including active lineages)
             double N = currentPopState.get(reactPop);
             
-            List<Node> lineages = activeLineages.get(reactPop);            
             for (Node reactNode : chosenReaction.reactNodes.get(reactPop)) {
                 
-                double l = Randomizer.nextDouble()*N;
-                if (l<lineages.size()) {
-                    int nodeIdx = (int)l;
-                    Node lineageNode = lineages.get(nodeIdx);
-                    nodesInvolved.put(lineageNode, reactNode);
+                double l = spec.getRandomGenerator().nextDouble()*N;
+                if (l<activeLineages.size(reactPop)) {
+                    nodesInvolved.add(activeLineages.swapRemove(reactPop, (int)l));
+                    reactNodesInvolved.add(reactNode);
                     
-                    //Speedy alternative to lineages.remove(nodeIdx)
-                    if (lineages.size()>1)
-                        lineages.set(nodeIdx, lineages.get(lineages.size()-1));
-                    lineages.remove(lineages.size()-1);
-                    
-                    if (lineages.isEmpty()) {
-                        activeLineages.remove(reactPop);
+                    if (activeLineages.size(reactPop)==0)
                         break;
-                    }
                 }
 
                 N -= 1;
@@ -590,15 +702,22 @@ public class InheritanceTrajectory extends Trajectory {
     private void implementInheritanceReaction(Reaction reaction) {
        
         // Attach reactionGroup graph to inheritance graph
+        reactChildren.clear();
         nextLevelNodes.clear();
-        for (Node node : nodesInvolved.keySet()) {
-            Node reactNode = nodesInvolved.get(node);
+        for (int i=0; i<nodesInvolved.size(); i++) {
+            Node node = nodesInvolved.get(i);
+            Node reactNode = reactNodesInvolved.get(i);
 
             for (Node reactChild : reactNode.getChildren()) {
-                if (!nextLevelNodes.containsKey(reactChild))
-                    nextLevelNodes.put(reactChild, new Node(reactChild.getPopulation()));
+                // Linear search is over reaction products only:
+                int childIdx = reactChildren.indexOf(reactChild);
+                if (childIdx<0) {
+                    childIdx = reactChildren.size();
+                    reactChildren.add(reactChild);
+                    nextLevelNodes.add(graph.addNode(reactChild.getPopulation()));
+                }
                 
-                node.addChild(nextLevelNodes.get(reactChild));
+                node.addChild(nextLevelNodes.get(childIdx));
             }
             
             // Increment terminal node counter as necessary:
@@ -607,7 +726,7 @@ public class InheritanceTrajectory extends Trajectory {
         }
         
         // Graph cleaning and activeLineages maintenance:
-        for (Node node : nodesInvolved.keySet()) {
+        for (Node node : nodesInvolved) {
             
             if (node.getChildren().size()==1
                     && (node.getPopulation().equals(node.getChildren().get(0).getPopulation())
@@ -633,42 +752,82 @@ public class InheritanceTrajectory extends Trajectory {
                 
                 // Annotate node with reaction group
                 node.setReaction(reaction);
+
+                // Count terminal nodes certain to survive post-processing:
+                if (spec.isEarlyRejection() && node.getChildren().isEmpty()
+                        && isRetainedLeaf(node))
+                    retainedLeafCounts.add(node.getPopulation());
             }
 
             // Ensure any children are in active nodes list
             for (Node child : node.getChildren()) {
-                Population pop = child.getPopulation();
-                if (!child.flagIsSet()) {
-                    if (!activeLineages.containsKey(pop))
-                        activeLineages.put(pop, new ArrayList<>());
-                    activeLineages.get(pop).add(child);
-                    child.setFlag(true);
-                }
+                if (!activeLineages.contains(child))
+                    activeLineages.add(child);
             }
         }
 
         // Deal with multi-parent nodes:
-        for (Node node : nextLevelNodes.values()) {
+        for (Node node : nextLevelNodes) {
             if (node.getParents().size()>1) {
                 node.setTime(t);
                 node.setReaction(reaction);
                 
-                activeLineages.get(node.getPopulation()).remove(node);
-                if (activeLineages.get(node.getPopulation()).isEmpty())
-                    activeLineages.remove(node.getPopulation());
+                // Order-preserving removal: node was added during this
+                // reaction, so only lineages added since need shifting.
+                activeLineages.remove(node);
 
-                Node child = new Node(node.getPopulation());
+                Node child = graph.addNode(node.getPopulation());
                 node.addChild(child);
-                
-                if (!activeLineages.containsKey(child.getPopulation()))
-                    activeLineages.put(child.getPopulation(), new ArrayList<>());
-                activeLineages.get(child.getPopulation()).add(child);
+                activeLineages.add(child);
             }
         
         }
 
     }
         
+    /**
+     * Determine whether every post-processor is certain to retain the
+     * given terminal node as a leaf.
+     *
+     * @param leaf terminal node
+     * @return true if leaf will be retained
+     */
+    private boolean isRetainedLeaf(Node leaf) {
+        for (InheritancePostProcessor postProc : spec.inheritancePostProcessors) {
+            if (!postProc.retainsLeaf(leaf))
+                return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Determine whether the partially simulated trajectory may still
+     * meet every post-simulation condition.
+     *
+     * @return false if trajectory is certain to be rejected
+     */
+    private boolean canBeAccepted() {
+        for (PostSimCondition condition : spec.postSimConditions) {
+            if (!condition.canAccept(this))
+                return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Retrieve counts, by population, of the terminal nodes generated so
+     * far which every post-processor is certain to retain as leaves.
+     * These bound the final leaf counts from below.  Only maintained when
+     * early rejection is enabled.
+     *
+     * @return multiset of retained terminal node populations
+     */
+    public Multiset<Population> getRetainedLeafCounts() {
+        return retainedLeafCounts;
+    }
+
     /**
      * Retrieve inheritance trajectory simulation specification.
      *
@@ -679,6 +838,15 @@ public class InheritanceTrajectory extends Trajectory {
         return spec;
     }
     
+    /**
+     * Retrieve storage for nodes of inheritance graph.
+     * 
+     * @return inheritance graph
+     */
+    public InheritanceGraph getGraph() {
+        return graph;
+    }
+    
     /**
      * Retrieve start nodes of inheritance graph.
      * 
@@ -689,26 +857,65 @@ public class InheritanceTrajectory extends Trajectory {
     }
     
     /**
-     * Retrieve end nodes of inheritance graph.
+     * Retrieve end nodes of inheritance graph, in the order in which they
+     * are first encountered by a depth-first traversal from the start
+     * nodes.  Use getLeafNodes() where this order is not needed.
      * 
      * @return list of end nodes
      */
     public List<Node> getEndNodes() {
         List<Node> endNodes = new ArrayList<>();
-        for (Node startNode : startNodes)
-            getEndNodesRecurse(startNode, endNodes);
+        BitSet visited = new BitSet();
+
+        // Depth-first traversal, visiting children in order:
+        List<Node> stack = new ArrayList<>();
+        for (int i=startNodes.size()-1; i>=0; i--) {
+            List<Node> children = startNodes.get(i).getChildren();
+            for (int j=children.size()-1; j>=0; j--)
+                stack.add(children.get(j));
+        }
+
+        while (!stack.isEmpty()) {
+            Node node = stack.remove(stack.size()-1);
+            if (visited.get(node.getID()))
+                continue;
+            visited.set(node.getID());
+
+            List<Node> children = node.getChildren();
+            if (children.isEmpty())
+                endNodes.add(node);
+            else {
+                for (int j=children.size()-1; j>=0; j--)
+                    stack.add(children.get(j));
+            }
+        }
         
         return endNodes;
     }
-    
-    private void getEndNodesRecurse(Node node, List<Node> endNodes) {
-        for (Node child : node.getChildren()) {
-            if (child.getChildren().isEmpty()) {
-                if (!endNodes.contains(child))
-                    endNodes.add(child);
-            } else
-                getEndNodesRecurse(child, endNodes);
-        }
+
+    /**
+     * Retrieve end nodes of inheritance graph, in no particular order.
+     * For simulated trajectories these are read from the leaf registry
+     * maintained by the graph, avoiding a traversal of the whole graph.
+     *
+     * @return list of end nodes
+     */
+    public List<Node> getLeafNodes() {
+        // Graphs assembled from existing nodes may hold unrelated nodes:
+        if (spec == null)
+            return getEndNodes();
+
+        return graph.getLeaves();
+    }
+
+    /**
+     * @return number of end nodes of inheritance graph
+     */
+    public int getLeafCount() {
+        if (spec == null)
+            return getEndNodes().size();
+
+        return graph.getLeafCount();
     }
 
     /**
@@ -720,5 +927,6 @@ public class InheritanceTrajectory extends Trajectory {
     public InheritanceTrajectory(Node... startNodes) {
         this.spec = null;
         this.startNodes = Lists.newArrayList(startNodes);
+        this.graph = startNodes.length>0 ? startNodes[0].getGraph() : null;
     }
 }
@@ -23,6 +23,7 @@ import master.conditions.LeafCountEndCondition;
 import master.conditions.LineageEndCondition;
 import master.model.Node;
 import master.postprocessors.InheritancePostProcessor;
+import master.sampling.SamplingPolicy;
 import master.steppers.InheritanceTrajectoryStepper;
 import master.steppers.Stepper;
 
@@ -53,6 +54,14 @@ public class InheritanceTrajectorySpec extends TrajectorySpec {
     // result in the generation of a node on the inheritance graph.
     boolean sampleStateAtNodes;
     
+    // Simulate sampled lineages backward through a log of the forward
+    // trajectory rather than constructing the full graph.
+    boolean backwardLineages;
+
+    // Abandon trajectories as soon as a post-simulation condition can no
+    // longer be met.
+    boolean earlyRejection;
+
     // Stepper used in trajectory generation.
     private InheritanceTrajectoryStepper stepper;
 
@@ -150,6 +159,21 @@ public class InheritanceTrajectorySpec extends TrajectorySpec {
         this.samplePopSizes = true;
         this.sampleStateAtNodes = false;
     }
+
+    @Override
+    public void setReactionLog(ReactionLog reactionLog) {
+        // Inheritance trajectories are always simulated one reaction
+        // at a time.
+        this.reactionLog = reactionLog;
+    }
+
+    @Override
+    public void setSamplingPolicy(SamplingPolicy samplingPolicy) {
+        if (!samplePopSizes)
+            throw new IllegalArgumentException("Sampling policies require"
+                    + " population sizes to be sampled.");
+        super.setSamplingPolicy(samplingPolicy);
+    }
     
     /**
      * Do not record population sizes at all.
@@ -158,6 +182,41 @@ public class InheritanceTrajectorySpec extends TrajectorySpec {
         this.samplePopSizes = false;
     }
     
+    /**
+     * Choose whether sampled lineages are simulated backward through a
+     * log of the forward trajectory.  Requires a single LineageSampler
+     * post-processor.
+     *
+     * @param backwardLineages true to enable backward lineage simulation
+     */
+    public void setBackwardLineages(boolean backwardLineages) {
+        this.backwardLineages = backwardLineages;
+    }
+
+    /**
+     * @return true if sampled lineages are simulated backward in time
+     */
+    public boolean isBackwardLineages() {
+        return backwardLineages;
+    }
+
+    /**
+     * Choose whether trajectories are abandoned as soon as a
+     * post-simulation condition can no longer be met.
+     *
+     * @param earlyRejection true to enable early rejection
+     */
+    public void setEarlyRejection(boolean earlyRejection) {
+        this.earlyRejection = earlyRejection;
+    }
+
+    /**
+     * @return true if doomed trajectories are rejected during simulation
+     */
+    public boolean isEarlyRejection() {
+        return earlyRejection;
+    }
+
     @Override
     public void setStepper(Stepper stepper) {
         throw new IllegalArgumentException("State stepper cannot be set for"
@@ -200,6 +259,10 @@ public class InheritanceTrajectorySpec extends TrajectorySpec {
         
         jsonObject.put("lineageEndConditions", getLineageEndConditions());
         jsonObject.put("leafCountEndConditions", getLeafCountEndConditions());
+        if (backwardLineages)
+            jsonObject.put("backwardLineages", true);
+        if (earlyRejection)
+            jsonObject.put("earlyRejection", true);
         return jsonObject;
     }
 }
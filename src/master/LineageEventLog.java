@@ -0,0 +1,560 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package master;
+
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multiset;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import master.model.InheritanceGraph;
+import master.model.Node;
+import master.model.Population;
+import master.model.PopulationState;
+import master.model.Reaction;
+import master.postprocessors.InheritancePostProcessor;
+import master.postprocessors.LineageSampler;
+import master.rng.RandomGenerator;
+
+/**
+ * Support for simulating sampled lineages backward in time.  During the
+ * forward simulation only the number of tracked individuals (those
+ * descending from the lineage seeds) in each population is followed, and
+ * each reaction involving tracked individuals is logged.  Once the
+ * trajectory is complete, the lineages chosen by the LineageSampler are
+ * traced backward through this log.  Tracked individuals within a
+ * population are exchangeable, so the resulting sampled graph has the
+ * same distribution as one obtained by pruning the full forward graph,
+ * but the cost of constructing it scales with the sample size.
+ *
+ * @author agent <agent@local>
+ */
+public class LineageEventLog {
+
+    /**
+     * Reactant and product slots of a reaction, flattened into arrays.
+     */
+    private static class Template {
+        Population[] reactPops, prodPops;
+
+        // Reactant slots which are parents of each product slot:
+        int[][] prodParents;
+
+        // Product slots which are children of each reactant slot:
+        int[][] reactChildren;
+
+        Template(Reaction reaction) {
+            List<Node> reactNodes = Lists.newArrayList();
+            for (Population pop : reaction.reactNodes.keySet())
+                reactNodes.addAll(reaction.reactNodes.get(pop));
+
+            List<Node> prodNodes = Lists.newArrayList();
+            for (Population pop : reaction.prodNodes.keySet())
+                prodNodes.addAll(reaction.prodNodes.get(pop));
+
+            if (reactNodes.size()>64)
+                throw new IllegalArgumentException("Backward lineage "
+                        + "simulation supports at most 64 reactants.");
+
+            reactPops = new Population[reactNodes.size()];
+            reactChildren = new int[reactNodes.size()][];
+            for (int r=0; r<reactNodes.size(); r++) {
+                reactPops[r] = reactNodes.get(r).getPopulation();
+
+                List<Node> children = reactNodes.get(r).getChildren();
+                reactChildren[r] = new int[children.size()];
+                for (int c=0; c<children.size(); c++)
+                    reactChildren[r][c] = prodNodes.indexOf(children.get(c));
+            }
+
+            prodPops = new Population[prodNodes.size()];
+            prodParents = new int[prodNodes.size()][];
+            for (int p=0; p<prodNodes.size(); p++) {
+                prodPops[p] = prodNodes.get(p).getPopulation();
+
+                List<Node> parents = prodNodes.get(p).getParents();
+                prodParents[p] = new int[parents.size()];
+                for (int i=0; i<parents.size(); i++)
+                    prodParents[p][i] = reactNodes.indexOf(parents.get(i));
+            }
+        }
+    }
+
+    private final Map<Reaction, Template> templates;
+    private final List<Reaction> reactions;
+    private final Map<Reaction, Integer> reactionIndices;
+
+    // Logged events.  Seed events have reaction index -1 and store the
+    // index of the seed within the start node list in place of the mask
+    // of tracked reactant slots.
+    private int nEvents;
+    private double[] eventTimes;
+    private int[] eventReactions;
+    private long[] eventMasks;
+
+    // Number of tracked individuals in each population:
+    private final Multiset<Population> trackedCounts;
+
+    // Number of tracked lineages which have ended in each population:
+    private final Multiset<Population> deathCounts;
+
+    /**
+     * Create log for reactions of the given model.
+     *
+     * @param reactions model reactions
+     */
+    public LineageEventLog(List<Reaction> reactions) {
+        this.reactions = reactions;
+        templates = Maps.newHashMap();
+        reactionIndices = Maps.newHashMap();
+        for (int i=0; i<reactions.size(); i++) {
+            templates.put(reactions.get(i), new Template(reactions.get(i)));
+            reactionIndices.put(reactions.get(i), i);
+        }
+
+        eventTimes = new double[64];
+        eventReactions = new int[64];
+        eventMasks = new long[64];
+
+        trackedCounts = HashMultiset.create();
+        deathCounts = HashMultiset.create();
+    }
+
+    /**
+     * Check that the specification can be simulated using backward
+     * lineage simulation, and retrieve the lineage sampler it uses.
+     *
+     * @param spec inheritance trajectory specification
+     * @return the spec's lineage sampler
+     */
+    public static LineageSampler getSampler(InheritanceTrajectorySpec spec) {
+        if (!spec.getLineageEndConditions().isEmpty()
+                || !spec.getLeafCountEndConditions().isEmpty())
+            throw new IllegalArgumentException("Lineage and leaf count end "
+                    + "conditions cannot be used with backward lineage "
+                    + "simulation.");
+
+        List<InheritancePostProcessor> postProcs = spec.inheritancePostProcessors;
+        if (postProcs.size() != 1 || !(postProcs.get(0) instanceof LineageSampler))
+            throw new IllegalArgumentException("Backward lineage simulation "
+                    + "requires a single LineageSampler post-processor.");
+
+        LineageSampler sampler = (LineageSampler)postProcs.get(0);
+        if (sampler.samplingTimeInput.get() != null
+                || sampler.markAnnotationInput.get() != null
+                || sampler.reverseTimeInput.get()
+                || sampler.noCleanInput.get())
+            throw new IllegalArgumentException("Backward lineage simulation "
+                    + "requires a LineageSampler which samples at the end of "
+                    + "the simulation without samplingTime, markAnnotation, "
+                    + "reverseTime or noClean.");
+
+        if (sampler.getPopulationSizes() == null)
+            sampler.computePopulationSizes(spec.getModel());
+
+        return sampler;
+    }
+
+    /**
+     * Clear log in preparation for a new simulation.
+     */
+    public void clear() {
+        nEvents = 0;
+        trackedCounts.clear();
+        deathCounts.clear();
+    }
+
+    /**
+     * Add tracked individual present at start of simulation.
+     *
+     * @param pop population of individual
+     */
+    public void addInitialLineage(Population pop) {
+        trackedCounts.add(pop);
+    }
+
+    /**
+     * @return number of tracked individuals in each population
+     */
+    public Multiset<Population> getTrackedCounts() {
+        return trackedCounts;
+    }
+
+    /**
+     * Record introduction of a tracked individual by a lineage seed.
+     *
+     * @param t time of introduction
+     * @param seedIndex index of seed within start node list
+     * @param pop population of seed
+     */
+    public void recordSeed(double t, int seedIndex, Population pop) {
+        trackedCounts.add(pop);
+        appendEvent(t, -1, seedIndex);
+    }
+
+    /**
+     * Determine which reactants of the chosen reaction are tracked,
+     * update tracked counts accordingly and log the event if any tracked
+     * individuals are involved.  Must be called before the reaction is
+     * applied to the population state.
+     *
+     * @param reaction chosen reaction
+     * @param state population state prior to reaction
+     * @param t time of reaction
+     * @param leafCounts multiset of terminated lineages to update
+     * @param rng source of random variates
+     * @return true if tracked individuals were involved
+     */
+    public boolean implementReaction(Reaction reaction, PopulationState state,
+            double t, Multiset<Population> leafCounts, RandomGenerator rng) {
+
+        Template template = templates.get(reaction);
+
+        // Select tracked reactants by sampling without replacement:
+        long mask = 0;
+        int slot = 0;
+        while (slot<template.reactPops.length) {
+            Population pop = template.reactPops[slot];
+            int c = trackedCounts.count(pop);
+            double N = state.get(pop);
+            for (; slot<template.reactPops.length
+                    && template.reactPops[slot].equals(pop); slot++) {
+                if (c>0 && rng.nextDouble()*N<c) {
+                    mask |= 1L << slot;
+                    c -= 1;
+                }
+                N -= 1;
+            }
+            trackedCounts.setCount(pop, c);
+        }
+
+        if (mask == 0)
+            return false;
+
+        // Products of tracked reactants are tracked:
+        for (int p=0; p<template.prodPops.length; p++) {
+            if (hasTrackedParent(template, p, mask))
+                trackedCounts.add(template.prodPops[p]);
+        }
+
+        // Tracked reactants without products terminate:
+        for (int r=0; r<template.reactPops.length; r++) {
+            if ((mask & (1L << r)) != 0 && template.reactChildren[r].length==0) {
+                deathCounts.add(template.reactPops[r]);
+                leafCounts.add(template.reactPops[r]);
+            }
+        }
+
+        appendEvent(t, reactionIndices.get(reaction), mask);
+
+        return true;
+    }
+
+    private static boolean hasTrackedParent(Template template, int p, long mask) {
+        for (int r : template.prodParents[p]) {
+            if ((mask & (1L << r)) != 0)
+                return true;
+        }
+        return false;
+    }
+
+    private static int countTrackedParents(Template template, int p, long mask) {
+        int count = 0;
+        for (int r : template.prodParents[p]) {
+            if ((mask & (1L << r)) != 0)
+                count += 1;
+        }
+        return count;
+    }
+
+    private void appendEvent(double t, int reactionIdx, long mask) {
+        if (nEvents == eventTimes.length) {
+            eventTimes = Arrays.copyOf(eventTimes, 2*nEvents);
+            eventReactions = Arrays.copyOf(eventReactions, 2*nEvents);
+            eventMasks = Arrays.copyOf(eventMasks, 2*nEvents);
+        }
+
+        eventTimes[nEvents] = t;
+        eventReactions[nEvents] = reactionIdx;
+        eventMasks[nEvents] = mask;
+        nEvents += 1;
+    }
+
+    /**
+     * @return number of logged events
+     */
+    public int getEventCount() {
+        return nEvents;
+    }
+
+    /**
+     * Choose sampled lineages according to the lineage sampler and trace
+     * them backward through the logged events, building the sampled
+     * inheritance graph.
+     *
+     * @param sampler lineage sampler specifying the sample
+     * @param graph graph in which to create nodes
+     * @param startNodes start nodes, in order of seed index; seeds with
+     * no sampled descendants are removed from this list
+     * @param tEnd time at which simulation ended
+     * @param rng source of random variates
+     */
+    public void buildSampledGraph(LineageSampler sampler, InheritanceGraph graph,
+            List<Node> startNodes, double tEnd, RandomGenerator rng) {
+
+        // Determine numbers of sampled extant and terminated lineages
+        // in each population:
+        Multiset<Population> extantSamples = HashMultiset.create();
+        Multiset<Population> deathSamples = HashMultiset.create();
+        chooseSampleCounts(sampler, extantSamples, deathSamples, rng);
+
+        // Lineages currently being followed, keyed by population:
+        Map<Population, List<Node>> lineages = Maps.newHashMap();
+        for (Population pop : extantSamples.elementSet()) {
+            List<Node> popLineages = Lists.newArrayList();
+            for (int i=0; i<extantSamples.count(pop); i++)
+                popLineages.add(graph.addNode(pop, tEnd));
+            lineages.put(pop, popLineages);
+        }
+
+        Multiset<Population> counts = HashMultiset.create(trackedCounts);
+        Multiset<Population> deathsRemaining = HashMultiset.create(deathCounts);
+
+        Node[] seedChildren = new Node[startNodes.size()];
+
+        for (int e=nEvents-1; e>=0; e--) {
+            double t = eventTimes[e];
+
+            if (eventReactions[e]<0) {
+                // Seed event:
+                int seedIdx = (int)eventMasks[e];
+                Population pop = startNodes.get(seedIdx).getPopulation();
+                Node lineage = drawLineage(lineages, counts, pop, rng);
+                if (lineage != null)
+                    seedChildren[seedIdx] = lineage;
+                continue;
+            }
+
+            Reaction reaction = reactions.get(eventReactions[e]);
+            Template template = templates.get(reaction);
+            long mask = eventMasks[e];
+
+            // Assign followed lineages to tracked products:
+            Node[] carried = new Node[template.prodPops.length];
+            for (int p=0; p<template.prodPops.length; p++) {
+                int nParents = countTrackedParents(template, p, mask);
+                if (nParents==0)
+                    continue;
+
+                Node lineage = drawLineage(lineages, counts, template.prodPops[p], rng);
+                if (lineage != null && nParents>1) {
+                    // Product inheriting from multiple tracked reactants:
+                    Node hybrid = graph.addNode(template.prodPops[p], t);
+                    hybrid.setReaction(reaction);
+                    hybrid.addChild(lineage);
+                    lineage = hybrid;
+                }
+                carried[p] = lineage;
+            }
+
+            // Follow lineages back to tracked reactants:
+            for (int r=0; r<template.reactPops.length; r++) {
+                if ((mask & (1L << r)) == 0)
+                    continue;
+
+                Population pop = template.reactPops[r];
+                Node lineage = null;
+
+                if (template.reactChildren[r].length==0) {
+                    // Terminated lineage, which may have been sampled:
+                    int dRemaining = deathsRemaining.count(pop);
+                    int dSampled = deathSamples.count(pop);
+                    if (rng.nextDouble()*dRemaining < dSampled) {
+                        lineage = graph.addNode(pop, t);
+                        lineage.setReaction(reaction);
+                        deathSamples.remove(pop);
+                    }
+                    deathsRemaining.remove(pop);
+                } else {
+                    List<Node> children = Lists.newArrayList();
+                    Node onlyChild = null;
+                    int onlyChildSlot = -1;
+                    for (int p : template.reactChildren[r]) {
+                        if (carried[p] != null) {
+                            children.add(carried[p]);
+                            onlyChild = carried[p];
+                            onlyChildSlot = p;
+                        }
+                    }
+
+                    if (children.size()==1
+                            && (template.prodPops[onlyChildSlot].equals(pop)
+                            || (template.reactChildren[r].length==1
+                            && countTrackedParents(template, onlyChildSlot, mask)>1))) {
+                        // No state change: lineage passes straight through.
+                        lineage = onlyChild;
+                    } else if (!children.isEmpty()) {
+                        lineage = graph.addNode(pop, t);
+                        lineage.setReaction(reaction);
+                        for (Node child : children)
+                            lineage.addChild(child);
+                    }
+                }
+
+                counts.add(pop);
+                if (lineage != null)
+                    getLineages(lineages, pop).add(lineage);
+            }
+        }
+
+        // Remaining lineages descend from seeds present at time zero:
+        for (int s=0; s<startNodes.size(); s++) {
+            Node startNode = startNodes.get(s);
+            if (startNode.getTime()>0.0)
+                continue;
+
+            Node lineage = drawLineage(lineages, counts, startNode.getPopulation(), rng);
+            if (lineage != null)
+                seedChildren[s] = lineage;
+        }
+
+        // Attach sampled lineages to seeds, discarding unsampled seeds:
+        List<Node> sampledStartNodes = Lists.newArrayList();
+        for (int s=0; s<startNodes.size(); s++) {
+            if (seedChildren[s] != null) {
+                startNodes.get(s).addChild(seedChildren[s]);
+                sampledStartNodes.add(startNodes.get(s));
+            }
+        }
+        startNodes.clear();
+        startNodes.addAll(sampledStartNodes);
+    }
+
+    /**
+     * Decide whether the tracked individual of the given population being
+     * removed (going backward in time) carries a followed lineage, and if
+     * so remove and return a uniformly chosen one.
+     */
+    private static Node drawLineage(Map<Population, List<Node>> lineages,
+            Multiset<Population> counts, Population pop, RandomGenerator rng) {
+
+        int c = counts.count(pop);
+        counts.remove(pop);
+
+        List<Node> popLineages = lineages.get(pop);
+        if (popLineages == null || popLineages.isEmpty())
+            return null;
+
+        if (rng.nextDouble()*c >= popLineages.size())
+            return null;
+
+        int idx = rng.nextInt(popLineages.size());
+        Node lineage = popLineages.get(idx);
+        popLineages.set(idx, popLineages.get(popLineages.size()-1));
+        popLineages.remove(popLineages.size()-1);
+
+        return lineage;
+    }
+
+    private static List<Node> getLineages(Map<Population, List<Node>> lineages,
+            Population pop) {
+        List<Node> popLineages = lineages.get(pop);
+        if (popLineages == null) {
+            popLineages = Lists.newArrayList();
+            lineages.put(pop, popLineages);
+        }
+        return popLineages;
+    }
+
+    /**
+     * Choose numbers of extant and terminated lineages to sample from
+     * each population, mirroring LineageSampler's treatment of the end
+     * nodes of the full graph.
+     */
+    private void chooseSampleCounts(LineageSampler sampler,
+            Multiset<Population> extantSamples, Multiset<Population> deathSamples,
+            RandomGenerator rng) {
+
+        if (sampler.nSamplesInput.get() != null) {
+            // Sample without replacement from all end nodes:
+            List<Population> pops = Lists.newArrayList(trackedCounts.elementSet());
+            for (Population pop : deathCounts.elementSet())
+                if (!pops.contains(pop))
+                    pops.add(pop);
+
+            Multiset<Population> extantLeft = HashMultiset.create(trackedCounts);
+            Multiset<Population> deathsLeft = HashMultiset.create(deathCounts);
+            int total = extantLeft.size() + deathsLeft.size();
+            for (int i=0; i<sampler.nSamplesInput.get() && total>0; i++) {
+                int u = rng.nextInt(total);
+                for (Population pop : pops) {
+                    if (u<extantLeft.count(pop)) {
+                        extantLeft.remove(pop);
+                        extantSamples.add(pop);
+                        break;
+                    }
+                    u -= extantLeft.count(pop);
+                    if (u<deathsLeft.count(pop)) {
+                        deathsLeft.remove(pop);
+                        deathSamples.add(pop);
+                        break;
+                    }
+                    u -= deathsLeft.count(pop);
+                }
+                total -= 1;
+            }
+
+        } else if (sampler.sampleProbabilityInput.get() != null
+                && sampler.sampleProbabilityInput.get()>0) {
+            // Sample each end node independently:
+            double p = sampler.sampleProbabilityInput.get();
+            for (Population pop : trackedCounts.elementSet())
+                extantSamples.add(pop, binomial(trackedCounts.count(pop), p, rng));
+            for (Population pop : deathCounts.elementSet())
+                deathSamples.add(pop, binomial(deathCounts.count(pop), p, rng));
+
+        } else {
+            // Sample fixed numbers from individual populations:
+            Multiset<Population> sizes = sampler.getPopulationSizes();
+            for (Population pop : sizes.elementSet()) {
+                int extant = trackedCounts.count(pop);
+                int deaths = deathCounts.count(pop);
+                int n = Math.min(sizes.count(pop), extant+deaths);
+                for (int i=0; i<n; i++) {
+                    if (rng.nextInt(extant+deaths)<extant) {
+                        extant -= 1;
+                        extantSamples.add(pop);
+                    } else {
+                        deaths -= 1;
+                        deathSamples.add(pop);
+                    }
+                }
+            }
+        }
+    }
+
+    private static int binomial(int n, double p, RandomGenerator rng) {
+        int k = 0;
+        for (int i=0; i<n; i++) {
+            if (rng.nextDouble()<p)
+                k += 1;
+        }
+        return k;
+    }
+}
@@ -0,0 +1,684 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package master;
+
+import beast.core.Description;
+import beast.core.Input;
+import beast.core.Runnable;
+import com.google.common.collect.Lists;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import master.model.*;
+import master.outputs.ParticleFilterOutput;
+import master.rng.RandomGenerator;
+import master.steppers.GillespieStepper;
+import master.steppers.Stepper;
+
+/**
+ * Bootstrap particle filter (sequential Monte Carlo) estimate of the
+ * likelihood of a model given one or more observed time series.  A
+ * population of particles is propagated between successive observation
+ * times using the chosen stepper, weighted using the observation model
+ * and resampled systematically whenever the effective sample size drops
+ * below the chosen fraction of the number of particles.  The product of
+ * the average incremental weights is an unbiased estimate of the
+ * likelihood, making the estimate suitable for pseudo-marginal MCMC.
+ *
+ * Particle states, weights and ancestor indices are held in buffers
+ * allocated once, so repeated likelihood evaluations do not allocate
+ * beyond what the stepper requires.  Particle i is propagated over the
+ * interval ending at observation k using stream k*(nParticles+1)+i of
+ * the random generator (offset for each evaluation), so that with a
+ * stream-capable generator the estimate does not depend on the order in
+ * which particles are propagated.  Particles can therefore be
+ * propagated and weighted by several threads, each using its own copy
+ * of the model, stepper, generator and observation models, without
+ * changing the estimate.
+ *
+ * Optionally, moments of the filtered particles are recorded at each
+ * observation time and trajectories are sampled from the genealogy of
+ * the final particles.
+ *
+ * @author agent <agent@local>
+ */
+@Description("Estimate the likelihood of observed time series using a "
+        + "bootstrap particle filter.")
+public class ParticleFilter extends Runnable {
+
+    /*
+     * XML inputs:
+     */
+
+    // Spec parameters:
+    public Input<Integer> nParticlesInput = new Input<>(
+            "nParticles",
+            "Number of particles to use.",
+            Input.Validate.REQUIRED);
+    public Input<Double> resampleThresholdInput = new Input<>(
+            "resampleThreshold",
+            "Resample when the effective sample size falls to or below"
+                    + " this fraction of nParticles. (Default 1: resample"
+                    + " after every observation.)", 1.0);
+    public Input<Integer> nSampledTrajInput = new Input<>(
+            "nSampledTraj",
+            "Number of filtered trajectories to sample from the particle"
+                    + " genealogy. (Default 0.)", 0);
+    public Input<Integer> seedInput = new Input<>(
+            "seed",
+            "Seed for RNG.");
+
+    public Input<RandomGenerator> randomGeneratorInput = new Input<>(
+            "randomGenerator",
+            "Source of random variates. (Default BEAST Randomizer.)");
+    public Input<Stepper> stepperInput = new Input<>(
+            "stepper",
+            "State stepping algorithm to use. (Default Gillespie.)");
+
+    public Input<Integer> nThreadsInput = new Input<>(
+            "nThreads",
+            "Number of threads used to propagate particles.  More than one"
+                    + " thread requires a random generator with independent"
+                    + " streams. (Default 1.)", 1);
+
+    public Input<Integer> verbosityInput = new Input<>(
+            "verbosity", "Level of verbosity to use (0-3).", 1);
+
+    // Model:
+    public Input<Model> modelInput = new Input<>("model",
+            "The specific model to simulate.",
+            Input.Validate.REQUIRED);
+
+    // Initial state:
+    public Input<InitState> initialStateInput = new Input<>("initialState",
+            "Initial state of system.",
+            Input.Validate.REQUIRED);
+
+    // Observations:
+    public Input<List<Observations>> observationsInput = new Input<>(
+            "observations",
+            "Observed time series together with its observation model.",
+            new ArrayList<>());
+
+    // Individual moments:
+    public Input<List<Moment>> momentsInput = new Input<>(
+            "moment",
+            "Individual moment to estimate from filtered particles.",
+            new ArrayList<>());
+
+    // Moments groups:
+    public Input<List<MomentGroup>> momentGroupsInput = new Input<>(
+            "momentGroup",
+            "Moment group to estimate from filtered particles.",
+            new ArrayList<>());
+
+    // Outputs to write:
+    public Input<List<ParticleFilterOutput>> outputsInput = new Input<>(
+            "output",
+            "Output writer used to write results to disk.",
+            new ArrayList<>());
+
+    // Filter specification:
+    ParticleFilterSpec spec;
+
+    // Distinct observation times over all time series:
+    double[] obsTimes;
+
+    // For each time series, index of each observation time in the
+    // series (-1 if the series has no observation at that time):
+    int[][] obsIndices;
+
+    // Populations whose sizes are recorded for sampled trajectories:
+    List<Population> populations;
+
+    // Threads propagating particles and the model, stepper, generator
+    // and observations used by each (those of the spec for worker 0):
+    WorkerPool workers;
+    Model[] workerModels;
+    Stepper[] workerSteppers;
+    RandomGenerator[] workerRngs;
+    List<List<Observations>> workerObservations;
+
+    /*
+     * Particle buffers:
+     */
+
+    PopulationState[] particles, resampledParticles;
+    double[] logWeights, weights;
+    int[] ancestors;
+
+    // Sizes of populations of each particle and ancestor indices at each
+    // observation time (only used when sampling trajectories):
+    double[][] stateRecord;
+    int[][] ancestorRecord;
+
+    /*
+     * Results of most recent evaluation:
+     */
+
+    double logLikelihood;
+    double[] logLikelihoodIncrements, effectiveSampleSizes;
+    int nFiltered;
+    StateSummary[] stateSummaries;
+    List<Trajectory> sampledTrajectories;
+
+    // Number of evaluations performed, used to select random streams:
+    long nEvaluations;
+
+    public ParticleFilter() { }
+
+    @Override
+    public void initAndValidate() {
+
+        spec = new ParticleFilterSpec();
+
+        // Incorporate model:
+        spec.setModel(modelInput.get());
+
+        // Default to Gillespie stepper
+        if (stepperInput.get() != null)
+            spec.setStepper(stepperInput.get());
+        else
+            spec.setStepper(new GillespieStepper());
+
+        spec.setnParticles(nParticlesInput.get());
+        spec.setResampleThreshold(resampleThresholdInput.get());
+        spec.setnSampledTraj(nSampledTrajInput.get());
+
+        // Assemble initial state:
+        PopulationState initState = new PopulationState();
+        for (PopulationSize popSize : initialStateInput.get().popSizesInput.get()) {
+            popSize.computePopulationSizes(modelInput.get());
+            for (Population pop : popSize.getPopSizes().keySet())
+                initState.set(pop, popSize.getPopSizes().get(pop));
+        }
+        spec.setInitPopulationState(initState);
+
+        // Incorporate observations:
+        if (observationsInput.get().isEmpty())
+            throw new IllegalArgumentException("ParticleFilter doesn't"
+                    + " specify any observations!");
+
+        for (Observations obs : observationsInput.get()) {
+            if (!obs.hasLogDensity())
+                throw new IllegalArgumentException("Observations used by"
+                        + " ParticleFilter must specify a log density.");
+
+            obs.initialise(modelInput.get());
+            spec.addObservations(obs);
+        }
+
+        // Add moments and moment groups:
+        for (MomentGroup momentGroup : momentGroupsInput.get())
+            spec.addMomentGroup(momentGroup);
+
+        for (Moment moment : momentsInput.get()) {
+            if (moment.getName() == null)
+                throw new IllegalArgumentException("Moment doesn't specify name"
+                        + " and is not part of a moment group.");
+
+            spec.addMoment(moment);
+        }
+
+        // Set seed if provided, otherwise use default BEAST seed:
+        if (seedInput.get()!=null)
+            spec.setSeed(seedInput.get());
+
+        // Use alternative source of random variates if provided:
+        if (randomGeneratorInput.get()!=null)
+            spec.setRandomGenerator(randomGeneratorInput.get());
+
+        // Set the level of verbosity:
+        spec.setVerbosity(verbosityInput.get());
+
+        // Merge observation times of all series:
+        List<Observations> observations = spec.getObservations();
+        obsTimes = Observations.mergeTimes(observations);
+        obsIndices = Observations.getTimeIndices(observations, obsTimes);
+        int nTimes = obsTimes.length;
+        spec.setSimulationTime(obsTimes[nTimes-1]);
+
+        int nParticles = spec.getnParticles();
+        if ((double)nTimes*(nParticles + 1) >= (double)(1L << 40))
+            throw new IllegalArgumentException("Too many observations and"
+                    + " particles for the random streams available to each"
+                    + " evaluation.");
+
+        // Set up copies of the model, stepper and observation models for
+        // each additional thread:
+        workers = new WorkerPool(nThreadsInput.get());
+        int nThreads = workers.getThreadCount();
+        if (nThreads>1 && !spec.getRandomGenerator().hasStreams())
+            throw new IllegalArgumentException("Propagating particles using"
+                    + " multiple threads requires a random generator with"
+                    + " independent streams.");
+
+        workerModels = new Model[nThreads];
+        workerSteppers = new Stepper[nThreads];
+        workerRngs = new RandomGenerator[nThreads];
+        workerObservations = Lists.newArrayList();
+        workerModels[0] = spec.getModel();
+        workerSteppers[0] = spec.getStepper();
+        workerObservations.add(observations);
+        for (int w=1; w<nThreads; w++) {
+            workerModels[w] = spec.getModel().getCopy();
+            workerSteppers[w] = spec.getStepper().getCopy();
+
+            List<Observations> observationsCopy = Lists.newArrayList();
+            for (Observations obs : observations) {
+                Observations obsCopy = obs.getCopy();
+                obsCopy.initialise(workerModels[w]);
+                observationsCopy.add(obsCopy);
+            }
+            workerObservations.add(observationsCopy);
+        }
+
+        // Allocate particle buffers:
+        particles = new PopulationState[nParticles];
+        resampledParticles = new PopulationState[nParticles];
+        for (int i=0; i<nParticles; i++) {
+            particles[i] = new PopulationState(initState);
+            resampledParticles[i] = new PopulationState(initState);
+        }
+        logWeights = new double[nParticles];
+        weights = new double[nParticles];
+        ancestors = new int[nParticles];
+
+        logLikelihoodIncrements = new double[nTimes];
+        effectiveSampleSizes = new double[nTimes];
+
+        populations = Lists.newArrayList();
+        for (PopulationType type : spec.getModel().getPopulationTypes()) {
+            for (Population pop : type)
+                populations.add(pop);
+        }
+
+        if (spec.getnSampledTraj()>0) {
+            stateRecord = new double[nTimes][nParticles*populations.size()];
+            ancestorRecord = new int[nTimes][nParticles];
+        }
+
+        nEvaluations = 0;
+    }
+
+    @Override
+    public void run() throws Exception {
+
+        // Record time at start of calculation:
+        double startTime = (new Date()).getTime();
+
+        computeLogLikelihood();
+
+        // Record total time of calculation:
+        spec.setWallTime(((new Date()).getTime() - startTime)/1e3);
+
+        // Write outputs:
+        for (ParticleFilterOutput output : outputsInput.get())
+            output.write(this);
+
+        System.out.println("Done.");
+    }
+
+    /**
+     * Run the particle filter.  Each call produces an independent
+     * estimate.
+     *
+     * @return estimated log likelihood
+     */
+    public double computeLogLikelihood() {
+
+        RandomGenerator rng = spec.getRandomGenerator();
+        List<Observations> observations = spec.getObservations();
+        int nParticles = spec.getnParticles();
+        int nTimes = obsTimes.length;
+
+        // Set seed if defined:
+        if (spec.seed>=0 && !spec.seedUsed) {
+            rng.setSeed(spec.seed);
+            spec.seedUsed = true;
+        }
+
+        // Additional threads use copies of the (now seeded) generator:
+        workerRngs[0] = rng;
+        for (int w=1; w<workerRngs.length; w++)
+            workerRngs[w] = rng.getCopy();
+
+        long streamBase = nEvaluations << 40;
+        nEvaluations += 1;
+
+        boolean summariesUsed = !spec.getMoments().isEmpty()
+                || !spec.getMomentGroups().isEmpty();
+        stateSummaries = new StateSummary[nTimes];
+        for (int k=0; k<nTimes; k++)
+            stateSummaries[k] = new StateSummary(spec.getMoments(),
+                    spec.getMomentGroups());
+
+        // Initialise particles with equal weights:
+        for (int i=0; i<nParticles; i++) {
+            particles[i].copyFrom(spec.getInitPopulationState());
+            logWeights[i] = -Math.log(nParticles);
+        }
+
+        logLikelihood = 0.0;
+        nFiltered = 0;
+        double t = 0.0;
+
+        for (int k=0; k<nTimes; k++) {
+            double tObs = obsTimes[k];
+
+            if (spec.getVerbosity()>1)
+                System.err.println("Filtering observation time "
+                        + String.valueOf(k+1) + " of "
+                        + String.valueOf(nTimes));
+
+            // Propagate particles to observation time and weight them:
+            final long stream = streamBase + (long)k*(nParticles + 1);
+            final int obsIdx = k;
+            final double tStart = t;
+            workers.run(nParticles, (worker, from, to)
+                    -> propagate(worker, from, to, obsIdx, tStart, stream));
+            t = tObs;
+
+            // Normalise weights.  As the previous weights summed to one,
+            // the normalising constant is the likelihood increment:
+            double maxLogWeight = Double.NEGATIVE_INFINITY;
+            for (int i=0; i<nParticles; i++)
+                maxLogWeight = Math.max(maxLogWeight, logWeights[i]);
+
+            if (maxLogWeight == Double.NEGATIVE_INFINITY) {
+                logLikelihood = Double.NEGATIVE_INFINITY;
+
+                if (spec.getVerbosity()>0)
+                    System.err.println("Warning: all particles are"
+                            + " incompatible with observations at time "
+                            + tObs + ".");
+                break;
+            }
+
+            double weightSum = 0.0;
+            for (int i=0; i<nParticles; i++)
+                weightSum += Math.exp(logWeights[i] - maxLogWeight);
+            double increment = maxLogWeight + Math.log(weightSum);
+            logLikelihoodIncrements[k] = increment;
+            logLikelihood += increment;
+
+            double weightSqSum = 0.0;
+            for (int i=0; i<nParticles; i++) {
+                logWeights[i] -= increment;
+                weights[i] = Math.exp(logWeights[i]);
+                weightSqSum += weights[i]*weights[i];
+            }
+            double ess = 1.0/weightSqSum;
+            effectiveSampleSizes[k] = ess;
+
+            // Summarise filtered particles:
+            if (summariesUsed) {
+                for (int i=0; i<nParticles; i++) {
+                    if (weights[i]>0.0) {
+                        stateSummaries[k].record(particles[i]);
+                        stateSummaries[k].accept(weights[i]);
+                    }
+                }
+                stateSummaries[k].normalise();
+            }
+
+            if (stateRecord != null) {
+                double[] record = stateRecord[k];
+                int nPops = populations.size();
+                for (int i=0; i<nParticles; i++) {
+                    for (int p=0; p<nPops; p++)
+                        record[i*nPops + p] = particles[i].get(populations.get(p));
+                }
+            }
+
+            for (int s=0; s<observations.size(); s++) {
+                if (obsIndices[s][k]>=0) {
+                    for (int i=0; i<nParticles; i++)
+                        observations.get(s).resetAccumulators(particles[i]);
+                }
+            }
+
+            // Resample if effective sample size is too small:
+            if (ess<=spec.getResampleThreshold()*nParticles) {
+                rng.setStream(stream + nParticles);
+                resample(rng);
+
+                PopulationState[] tmp = particles;
+                particles = resampledParticles;
+                resampledParticles = tmp;
+            } else {
+                for (int i=0; i<nParticles; i++)
+                    ancestors[i] = i;
+            }
+
+            if (ancestorRecord != null)
+                System.arraycopy(ancestors, 0, ancestorRecord[k], 0, nParticles);
+
+            nFiltered += 1;
+        }
+
+        if (spec.getVerbosity()>0)
+            System.err.println("Log likelihood estimate: " + logLikelihood);
+
+        // Sample trajectories from particle genealogy:
+        sampledTrajectories = Lists.newArrayList();
+        if (stateRecord != null && nFiltered == nTimes) {
+            rng.setStream(streamBase + (long)nTimes*(nParticles + 1));
+            sampleTrajectories(rng);
+        }
+
+        return logLikelihood;
+    }
+
+    /**
+     * Propagate a range of particles to an observation time and add the
+     * log densities of the observations made at that time to their
+     * weights.
+     *
+     * @param worker index of worker thread
+     * @param from first particle
+     * @param to one past last particle
+     * @param k index of observation time
+     * @param t time from which particles are propagated
+     * @param stream random stream used for first particle
+     */
+    private void propagate(int worker, int from, int to, int k, double t,
+            long stream) {
+        Model model = workerModels[worker];
+        Stepper stepper = workerSteppers[worker];
+        RandomGenerator rng = workerRngs[worker];
+        List<Observations> observations = workerObservations.get(worker);
+        double tObs = obsTimes[k];
+
+        for (int i=from; i<to; i++) {
+            rng.setStream(stream + i);
+
+            PopulationState particle = particles[i];
+            double tParticle = t;
+            while (tParticle<tObs)
+                tParticle += stepper.step(particle, model, false,
+                        tParticle, tObs-tParticle, rng);
+
+            for (int s=0; s<observations.size(); s++) {
+                if (obsIndices[s][k]>=0)
+                    logWeights[i] += observations.get(s)
+                            .getLogDensity(particle, obsIndices[s][k]);
+            }
+        }
+    }
+
+    /**
+     * Systematically resample particles according to their normalised
+     * weights, filling the resampled particle buffer and the ancestor
+     * indices and resetting the weights.
+     *
+     * @param rng source of random variates
+     */
+    private void resample(RandomGenerator rng) {
+        int nParticles = particles.length;
+
+        systematicResample(weights, rng.nextDouble(), ancestors);
+        for (int i=0; i<nParticles; i++)
+            resampledParticles[i].copyFrom(particles[ancestors[i]]);
+
+        double logWeight = -Math.log(nParticles);
+        for (int i=0; i<nParticles; i++)
+            logWeights[i] = logWeight;
+    }
+
+    /**
+     * Choose ancestors of resampled particles by systematic resampling.
+     * Resampled particle i descends from the particle j whose interval
+     * [W_(j-1), W_j) of cumulative weights contains (u + i)/n, so that
+     * particle j has floor(n*w_j) or ceil(n*w_j) offspring and particles
+     * with zero weight have none.
+     *
+     * @param weights normalised weights of particles
+     * @param u uniform variate on [0,1)
+     * @param ancestors array to fill with the ancestor of each resampled
+     * particle
+     */
+    static void systematicResample(double[] weights, double u,
+            int[] ancestors) {
+        int n = weights.length;
+
+        // Last particle with non-zero weight, which takes up any shortfall
+        // of the cumulative weight due to rounding:
+        int last = n-1;
+        while (last>0 && weights[last]==0.0)
+            last -= 1;
+
+        double cumulative = weights[0];
+        int j = 0;
+        for (int i=0; i<n; i++) {
+            double target = (u + i)/n;
+            while (j<last && (cumulative<=target || weights[j]==0.0)) {
+                j += 1;
+                cumulative += weights[j];
+            }
+            ancestors[i] = j;
+        }
+    }
+
+    /**
+     * Sample trajectories by choosing final particles according to their
+     * weights and tracing their ancestry back through the recorded
+     * particle states.
+     *
+     * @param rng source of random variates
+     */
+    private void sampleTrajectories(RandomGenerator rng) {
+        int nTimes = obsTimes.length;
+        int nPops = populations.size();
+
+        // Final weights have already been reset if the final
+        // observation triggered resampling:
+        double[] finalWeights = new double[particles.length];
+        for (int i=0; i<particles.length; i++)
+            finalWeights[i] = Math.exp(logWeights[i]);
+
+        for (int n=0; n<spec.getnSampledTraj(); n++) {
+            double u = rng.nextDouble();
+            int idx = 0;
+            while (idx<particles.length-1 && u>=finalWeights[idx]) {
+                u -= finalWeights[idx];
+                idx += 1;
+            }
+
+            // Particle idx after the final observation descends from
+            // particle ancestorRecord[k][idx] recorded at observation k:
+            int[] lineage = new int[nTimes];
+            for (int k=nTimes-1; k>=0; k--) {
+                idx = ancestorRecord[k][idx];
+                lineage[k] = idx;
+            }
+
+            StateHistory history = new StateHistory();
+            PopulationState state = new PopulationState(spec.getInitPopulationState());
+            if (obsTimes[0]>0.0)
+                history.add(state, 0.0);
+            for (int k=0; k<nTimes; k++) {
+                for (int p=0; p<nPops; p++)
+                    state.set(populations.get(p),
+                            stateRecord[k][lineage[k]*nPops + p]);
+                history.add(state, obsTimes[k]);
+            }
+
+            sampledTrajectories.add(new Trajectory(spec, history));
+        }
+    }
+
+    /**
+     * @return specification of particle filter
+     */
+    public ParticleFilterSpec getSpec() {
+        return spec;
+    }
+
+    /**
+     * @return log likelihood estimated by most recent evaluation
+     */
+    public double getLogLikelihood() {
+        return logLikelihood;
+    }
+
+    /**
+     * @return number of observation times successfully filtered by the
+     * most recent evaluation (fewer than the total if all particles
+     * became incompatible with the observations)
+     */
+    public int getFilteredCount() {
+        return nFiltered;
+    }
+
+    /**
+     * @return distinct observation times
+     */
+    public double[] getObservationTimes() {
+        return obsTimes;
+    }
+
+    /**
+     * @return log likelihood increment contributed by each observation
+     * time
+     */
+    public double[] getLogLikelihoodIncrements() {
+        return logLikelihoodIncrements;
+    }
+
+    /**
+     * @return effective sample size of weighted particles at each
+     * observation time
+     */
+    public double[] getEffectiveSampleSizes() {
+        return effectiveSampleSizes;
+    }
+
+    /**
+     * @return summaries of filtered particles at each observation time
+     */
+    public StateSummary[] getStateSummaries() {
+        return stateSummaries;
+    }
+
+    /**
+     * @return trajectories sampled from particle genealogy
+     */
+    public List<Trajectory> getSampledTrajectories() {
+        return sampledTrajectories;
+    }
+}
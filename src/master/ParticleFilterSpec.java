@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package master;
+
+import com.fasterxml.jackson.annotation.JsonValue;
+import com.google.common.collect.Lists;
+import java.util.List;
+import java.util.Map;
+import master.model.Observations;
+
+/**
+ * Specification for a particle filter estimate of the likelihood of a
+ * model given time series observations.  Shares the moment bookkeeping
+ * of ensemble summaries, which are used here to summarise the filtered
+ * particles at each observation time.
+ *
+ * @author agent <agent@local>
+ */
+public class ParticleFilterSpec extends EnsembleSummarySpec {
+
+    // Number of particles:
+    int nParticles;
+
+    // Fraction of nParticles below which the effective sample size
+    // triggers resampling:
+    double resampleThreshold;
+
+    // Number of filtered trajectories to sample from the particle
+    // genealogy:
+    int nSampledTraj;
+
+    // Observed time series:
+    List<Observations> observations;
+
+    public ParticleFilterSpec() {
+        super();
+
+        observations = Lists.newArrayList();
+    }
+
+    public int getnParticles() {
+        return nParticles;
+    }
+
+    public void setnParticles(int nParticles) {
+        if (nParticles<1)
+            throw new IllegalArgumentException("Particle filter requires at"
+                    + " least one particle.");
+
+        this.nParticles = nParticles;
+    }
+
+    public double getResampleThreshold() {
+        return resampleThreshold;
+    }
+
+    public void setResampleThreshold(double resampleThreshold) {
+        if (resampleThreshold<0.0 || resampleThreshold>1.0)
+            throw new IllegalArgumentException("Resampling threshold must"
+                    + " be between 0 and 1.");
+
+        this.resampleThreshold = resampleThreshold;
+    }
+
+    public int getnSampledTraj() {
+        return nSampledTraj;
+    }
+
+    public void setnSampledTraj(int nSampledTraj) {
+        if (nSampledTraj<0)
+            throw new IllegalArgumentException("Number of sampled"
+                    + " trajectories must be non-negative.");
+
+        this.nSampledTraj = nSampledTraj;
+    }
+
+    /**
+     * Add observed time series.
+     *
+     * @param obs
+     */
+    public void addObservations(Observations obs) {
+        observations.add(obs);
+    }
+
+    public List<Observations> getObservations() {
+        return observations;
+    }
+
+    /**
+     * Construct representation of specification to use in assembling
+     * summary in JSON output file.
+     *
+     * @return Map from strings to other objects which have a JSON rep
+     */
+    @JsonValue
+    @Override
+    public Map<String, Object> getJsonValue() {
+
+        Map<String, Object> jsonObject = super.getJsonValue();
+
+        // Particles take the place of trajectories and are summarised
+        // at observation times:
+        jsonObject.remove("nTraj");
+        jsonObject.remove("nSamples");
+
+        jsonObject.put("nParticles", getnParticles());
+        jsonObject.put("resampleThreshold", getResampleThreshold());
+        if (getnSampledTraj()>0)
+            jsonObject.put("nSampledTraj", getnSampledTraj());
+        jsonObject.put("observations", getObservations());
+        return jsonObject;
+    }
+}
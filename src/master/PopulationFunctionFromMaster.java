@@ -21,7 +21,6 @@ import beast.core.Input;
 import beast.core.parameter.RealParameter;
 import beast.evolution.tree.coalescent.PopulationFunction;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 import master.conditions.PopulationEndCondition;
 import master.conditions.PostSimCondition;
@@ -30,6 +29,7 @@ import master.model.Model;
 import master.outputs.TrajectoryOutput;
 import master.steppers.GillespieStepper;
 import master.steppers.Stepper;
+import master.utilities.IntensityTable;
 import master.utilities.pfe.PFEVisitor;
 import master.utilities.pfe.PFExpressionLexer;
 import master.utilities.pfe.PFExpressionParser;
@@ -39,7 +39,10 @@ import org.antlr.v4.runtime.tree.ParseTree;
 
 /**
  * Uses a MASTER Trajectory simulation as the basis for a BEAST population
- * function.
+ * function.  The trajectory is simulated once during initialization and
+ * is fixed thereafter: none of the simulation inputs depend on BEAST
+ * parameters, so only changes to the origin affect the function, and
+ * these merely shift the simulated trajectory.
  *
  * @author Tim Vaughan <tgvaughan@gmail.com>
  */
@@ -124,11 +127,7 @@ public class PopulationFunctionFromMaster extends PopulationFunction.Abstract {
     
     Trajectory traj;
 
-    Double[] times, popSizes, intensities, intensitiesRev;
-    
-    double tIntensityTrajStart, dt;
-    
-    int peakIdx;
+    IntensityTable table;
     
     public PopulationFunctionFromMaster() { }
 
@@ -168,62 +167,50 @@ public class PopulationFunctionFromMaster extends PopulationFunction.Abstract {
         // Visitor for interpreting population size expression
         expressionVisitor = new PFEVisitor();
         
-        // Perform the simulation, calculate intensities etc
-        prepare();
+        // Perform the simulation, writing any requested outputs, and
+        // calculate intensities
+        traj.run();
+        table = tabulate();
 
     }
     
     /**
-     * Run the simulation itself and update the intensity arrays.
+     * Nothing to do: the intensity tables are built once, from the
+     * trajectory simulated during initialization.
      */
     @Override
-    public void prepare() {
-                
-        // Run simulation
-        try {
-            traj.run();
-        } catch (Exception ex) { }
+    public void prepare() { }
+    
+    /**
+     * Build population size and intensity tables from the most recently
+     * simulated trajectory.
+     * 
+     * @return new table
+     */
+    private IntensityTable tabulate() {
         
         // Collate times:
-        times = new Double[traj.sampledTimes.size()];
-        traj.sampledTimes.toArray(times);
-
+        List<Double> sampledTimes = traj.getSampledTimes();
+        double[] times = new double[sampledTimes.size()];
+        for (int i=0; i<times.length; i++)
+            times[i] = sampledTimes.get(i);
         
         // Calculate population sizes
         expressionVisitor.setTraj(traj);
-        popSizes = expressionVisitor.visit(expressionParseTree);
+        Double[] popSizes = expressionVisitor.visit(expressionParseTree);
         
-        // Find peak population size
-        peakIdx=-1;
-        double peakVal = 0.0;
-        for (int i=0; i<times.length; i++) {
-            if (popSizes[i]>peakVal) {
-                peakIdx = i;
-                peakVal = popSizes[i];
-            }
-        }
-
-        // Numerically integrate intensities from peak population size
-        intensities = new Double[times.length];
-        intensities[peakIdx] = 0.0;
-        for (int i=peakIdx; i>0; i--) {
-            intensities[i-1] = intensities[i]
-                    + (times[i]-times[i-1])/popSizes[i-1];
-        }
-        for (int i=peakIdx; i<times.length-1; i++) {
-            intensities[i+1] = intensities[i]
-                    + (times[i]-times[i+1])/popSizes[i];
-        }
-
-       // Copy to reversed intensities array needed for binary search
-        intensitiesRev = new Double[times.length];
-        for (int i=0; i<times.length/2; i++) {
-            int j = times.length-1-i;
-            intensitiesRev[i] = intensities[j];
-            intensitiesRev[j] = intensities[i];
-        }
-        if (times.length%2>0)
-            intensitiesRev[times.length/2] = intensities[times.length/2];
+        double[] popSizeValues = new double[popSizes.length];
+        for (int i=0; i<popSizes.length; i++)
+            popSizeValues[i] = popSizes[i];
+        
+        return new IntensityTable(times, popSizeValues);
+    }
+    
+    @Override
+    protected boolean requiresRecalculation() {
+        
+        // The trajectory is fixed, so only the origin can change:
+        return originInput.isDirty();
     }
 
     @Override
@@ -233,71 +220,21 @@ public class PopulationFunctionFromMaster extends PopulationFunction.Abstract {
 
     @Override
     public double getPopSize(double t) {
-        double tforward = originInput.get().getValue() - t;
-        
-        if (tforward>times[times.length-1])
-            return popSizeEndInput.get();
-        
-        if (tforward<0)
-            return popSizeStartInput.get();
-        
-        // Choose which index into integration lattice to use:
-        int tidx = Arrays.binarySearch(times, originInput.get().getValue()-t);
-        if (tidx<0)
-            tidx = -(tidx + 1) - 1;
-
-        return popSizes[tidx];
+        return table.getPopSize(convertTime(t),
+                popSizeStartInput.get(), popSizeEndInput.get());
     }
 
     @Override
     public double getIntensity(double t) {
-        double tforward = originInput.get().getValue() - t;
-        
-        if (tforward>times[times.length-1]) {
-            if (popSizeEndInput.get()>0.0) {
-                return intensities[times.length-1] + (times[times.length-1]-tforward)/popSizeEndInput.get();
-            } else
-                return Double.NEGATIVE_INFINITY;
-        }
-        
-        if (tforward<0.0) {
-            if (popSizeStartInput.get()>0.0) {
-                return intensities[0]
-                        + (-tforward)/popSizeStartInput.get();
-            } else
-                return Double.POSITIVE_INFINITY;
-        }
-        
-        int tidx = Arrays.binarySearch(times, tforward);
-        if (tidx<0) {
-            tidx = -(tidx + 1);  // index of first element greater than key
-            
-            // Integrate from different sides depending on location wrt peakIdx
-            if (tidx<=peakIdx) {
-                return (times[tidx]-tforward)/(popSizes[tidx-1]) + intensities[tidx];
-            } else {
-                return intensities[tidx-1] - (tforward-times[tidx-1])/popSizes[tidx-1];
-            }
-        } else
-            return intensities[tidx]; // Exact match can happen at boundaries.
+        return table.getIntensity(convertTime(t),
+                popSizeStartInput.get(), popSizeEndInput.get());
     }
 
     @Override
     public double getInverseIntensity(double intensity) {
-        
-        if (intensity<intensities[times.length-1])
-            return convertTime(times[times.length-1]) + popSizeEndInput.get()*(intensity-intensities[times.length-1]);
-
-        if (intensity>intensities[0])
-            return convertTime(times[0]) + popSizeStartInput.get()*(intensity-intensities[0]);
-        
-        int idx = Arrays.binarySearch(intensitiesRev, intensity);
-        if (idx<0) {
-            idx = -(idx+1);
-            int tidx = times.length - 1 - idx;  // index into forward-time array
-            return convertTime(times[tidx]) + (intensity-intensities[tidx])*popSizes[tidx];
-        } else
-            return convertTime(times[times.length-1-idx]);
+        return table.getInverseIntensity(intensity,
+                originInput.get().getValue(),
+                popSizeStartInput.get(), popSizeEndInput.get());
     }
     
     /**
@@ -0,0 +1,443 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package master;
+
+import beast.core.BEASTObject;
+import beast.core.Input;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Map;
+import master.model.Model;
+import master.model.Population;
+import master.model.PopulationState;
+import master.model.PopulationType;
+import master.model.Reaction;
+
+/**
+ * Compact binary record of the individual reaction events making up
+ * each trajectory of a calculation.  The log can be replayed to
+ * reconstruct the population sizes at arbitrary times, allowing output
+ * sampling and moments to be changed after the fact without repeating
+ * the simulation.
+ *
+ * Following a header listing the model's populations and reactions, each
+ * trajectory is recorded as its initial population sizes followed by its
+ * events.  Every event is written as a variable-length code identifying
+ * the reaction (or lineage seeding) together with its time.  Times are
+ * stored losslessly as the variable-length encoding of the exclusive OR
+ * of the bit patterns of successive event times, which share their
+ * leading bits.  Rejected trajectories are removed from the log.
+ *
+ * @author agent <agent@local>
+ */
+public class ReactionLog extends BEASTObject {
+
+    public Input<String> fileNameInput = new Input<>(
+            "fileName",
+            "Name of reaction event log file.",
+            Input.Validate.REQUIRED);
+
+    private static final String MAGIC = "MASTER reaction log";
+    private static final int VERSION = 1;
+
+    // Event code marking the end of a trajectory:
+    private static final int END = 0;
+
+    private FileOutputStream fileStream;
+    private CountingOutputStream countingStream;
+    private DataOutputStream out;
+
+    private List<Population> pops;
+    private Map<Population, Integer> popIndices;
+    private int nReactions;
+
+    private long trajStart;
+    private boolean trajOpen;
+    private long prevTimeBits;
+
+    public ReactionLog() { }
+
+    @Override
+    public void initAndValidate() { }
+
+    /**
+     * Begin recording a new trajectory.  If the previous trajectory was
+     * not ended, it is assumed to have been rejected and is discarded.
+     *
+     * @param model model being simulated
+     * @param initState initial population sizes
+     */
+    public void startTrajectory(Model model, PopulationState initState) {
+        try {
+            if (out == null)
+                open(model);
+
+            if (trajOpen) {
+                out.flush();
+                fileStream.getChannel().truncate(trajStart);
+                fileStream.getChannel().position(trajStart);
+                countingStream.count = trajStart;
+            }
+
+            trajStart = countingStream.count;
+            trajOpen = true;
+            prevTimeBits = Double.doubleToLongBits(0.0);
+
+            for (Population pop : pops)
+                out.writeDouble(initState.get(pop));
+        } catch (IOException ex) {
+            throw new RuntimeException("Error writing reaction log "
+                    + fileNameInput.get() + ": " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Record occurrence of a reaction.
+     *
+     * @param t time of reaction
+     * @param reactionIdx index of reaction in model
+     */
+    public void recordReaction(double t, int reactionIdx) {
+        writeEvent(1 + reactionIdx, t);
+    }
+
+    /**
+     * Record the arrival of a lineage seeded after the start of the
+     * trajectory.
+     *
+     * @param t time of seeding
+     * @param pop population to which seeded individual belongs
+     */
+    public void recordSeed(double t, Population pop) {
+        writeEvent(1 + nReactions + popIndices.get(pop), t);
+    }
+
+    /**
+     * Complete recording of an accepted trajectory.
+     *
+     * @param t final time of trajectory
+     */
+    public void endTrajectory(double t) {
+        try {
+            writeVarLong(END);
+            out.writeDouble(t);
+            trajOpen = false;
+        } catch (IOException ex) {
+            throw new RuntimeException("Error writing reaction log "
+                    + fileNameInput.get() + ": " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Discard any incomplete trajectory and close log file.
+     */
+    public void close() {
+        if (out == null)
+            return;
+
+        try {
+            out.flush();
+            if (trajOpen)
+                fileStream.getChannel().truncate(trajStart);
+            out.close();
+        } catch (IOException ex) {
+            throw new RuntimeException("Error writing reaction log "
+                    + fileNameInput.get() + ": " + ex.getMessage());
+        }
+        out = null;
+        trajOpen = false;
+    }
+
+    /**
+     * Open a reader for replaying the trajectories in the log.
+     *
+     * @param model model used to generate log
+     * @return new reader
+     * @throws IOException
+     */
+    public Reader openReader(Model model) throws IOException {
+        return new Reader(fileNameInput.get(), model);
+    }
+
+    /**
+     * Create log file and write header.
+     *
+     * @param model model being simulated
+     * @throws IOException
+     */
+    private void open(Model model) throws IOException {
+        pops = getPopulations(model);
+        popIndices = Maps.newHashMap();
+        for (int i=0; i<pops.size(); i++)
+            popIndices.put(pops.get(i), i);
+        nReactions = model.getReactions().size();
+
+        fileStream = new FileOutputStream(fileNameInput.get());
+        countingStream = new CountingOutputStream(
+                new BufferedOutputStream(fileStream, 1<<16));
+        out = new DataOutputStream(countingStream);
+
+        out.writeUTF(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(pops.size());
+        for (Population pop : pops)
+            out.writeUTF(pop.toString());
+        out.writeInt(nReactions);
+        for (Reaction reaction : model.getReactions())
+            out.writeUTF(String.valueOf(reaction.getName()));
+
+        trajOpen = false;
+    }
+
+    /**
+     * Write event to log.
+     *
+     * @param code event code
+     * @param t time of event
+     */
+    private void writeEvent(int code, double t) {
+        try {
+            long timeBits = Double.doubleToLongBits(t);
+            writeVarLong(code);
+            writeVarLong(timeBits ^ prevTimeBits);
+            prevTimeBits = timeBits;
+        } catch (IOException ex) {
+            throw new RuntimeException("Error writing reaction log "
+                    + fileNameInput.get() + ": " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Write value using 7 bits per byte, low-order bits first.
+     *
+     * @param value value to write
+     * @throws IOException
+     */
+    private void writeVarLong(long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int)(value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int)value);
+    }
+
+    /**
+     * @param model model
+     * @return list of all populations in model, in the order the model
+     * lists them.
+     */
+    private static List<Population> getPopulations(Model model) {
+        List<Population> allPops = Lists.newArrayList();
+        for (PopulationType type : model.getPopulationTypes()) {
+            for (Population pop : type)
+                allPops.add(pop);
+        }
+        return allPops;
+    }
+
+    /**
+     * Output stream which keeps track of the number of bytes written.
+     */
+    private static class CountingOutputStream extends FilterOutputStream {
+
+        long count = 0;
+
+        public CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count += 1;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
+    /**
+     * Sequential reader for trajectories recorded in a reaction log.
+     */
+    public static class Reader {
+
+        private final DataInputStream in;
+        private final List<Population> pops;
+        private final List<Reaction> reactions;
+
+        private PopulationState initState;
+        private boolean inTraj;
+        private long timeBits;
+        private int eventCode;
+        private double finalTime;
+
+        /**
+         * Open log and check that it was generated using the given model.
+         *
+         * @param fileName name of log file
+         * @param model model used to generate log
+         * @throws IOException
+         */
+        public Reader(String fileName, Model model) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(fileName), 1<<16));
+
+            if (!in.readUTF().equals(MAGIC) || in.readInt() != VERSION)
+                throw new IOException(fileName
+                        + " is not a MASTER reaction log.");
+
+            pops = getPopulations(model);
+            reactions = model.getReactions();
+
+            boolean matches = in.readInt() == pops.size();
+            for (int i=0; matches && i<pops.size(); i++)
+                matches = in.readUTF().equals(pops.get(i).toString());
+
+            matches = matches && in.readInt() == reactions.size();
+            for (int i=0; matches && i<reactions.size(); i++)
+                matches = in.readUTF().equals(
+                        String.valueOf(reactions.get(i).getName()));
+
+            if (!matches)
+                throw new IllegalArgumentException("Reaction log " + fileName
+                        + " was not generated using this model.");
+        }
+
+        /**
+         * Advance to the next trajectory in the log.  Any unread events
+         * of the current trajectory are skipped.
+         *
+         * @return false if no trajectories remain
+         * @throws IOException
+         */
+        public boolean nextTrajectory() throws IOException {
+            while (inTraj)
+                nextEvent();
+
+            initState = new PopulationState();
+            for (int i=0; i<pops.size(); i++) {
+                double size;
+                try {
+                    size = in.readDouble();
+                } catch (EOFException ex) {
+                    if (i>0)
+                        throw ex;
+                    in.close();
+                    return false;
+                }
+                initState.set(pops.get(i), size);
+            }
+
+            timeBits = Double.doubleToLongBits(0.0);
+            inTraj = true;
+            return true;
+        }
+
+        /**
+         * @return initial state of current trajectory.
+         */
+        public PopulationState getInitialState() {
+            return new PopulationState(initState);
+        }
+
+        /**
+         * Advance to the next event of the current trajectory.
+         *
+         * @return false if the trajectory has no more events
+         * @throws IOException
+         */
+        public boolean nextEvent() throws IOException {
+            eventCode = (int)readVarLong();
+            if (eventCode == END) {
+                finalTime = in.readDouble();
+                inTraj = false;
+                return false;
+            }
+
+            timeBits ^= readVarLong();
+            return true;
+        }
+
+        /**
+         * @return time of current event.
+         */
+        public double getEventTime() {
+            return Double.longBitsToDouble(timeBits);
+        }
+
+        /**
+         * @return index of the reaction implemented by the current event
+         * within the model's reaction list, or -1 if the event is a
+         * lineage seed.
+         */
+        public int getEventReactionIndex() {
+            return eventCode <= reactions.size() ? eventCode-1 : -1;
+        }
+
+        /**
+         * Apply current event to a population state.
+         *
+         * @param state state to modify
+         */
+        public void implementEvent(PopulationState state) {
+            if (eventCode <= reactions.size())
+                state.implementReaction(reactions.get(eventCode-1), 1);
+            else
+                state.add(pops.get(eventCode-1-reactions.size()), 1.0);
+        }
+
+        /**
+         * @return final time of trajectory, available once nextEvent()
+         * has returned false.
+         */
+        public double getFinalTime() {
+            return finalTime;
+        }
+
+        /**
+         * Read value written by writeVarLong().
+         *
+         * @return value
+         * @throws IOException
+         */
+        private long readVarLong() throws IOException {
+            long value = 0;
+            int shift = 0;
+            int b;
+            do {
+                b = in.readUnsignedByte();
+                value |= (long)(b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return value;
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package master;
+
+import master.rng.RandomGenerator;
+
+/**
+ * Static methods used to split an ensemble calculation into shards which
+ * can be simulated by separate processes.  Shard k of n simulates the
+ * contiguous block of trajectory indices from floor(k*nTraj/n) up to
+ * (but excluding) floor((k+1)*nTraj/n), writing its partial results to
+ * its own file.  Since every trajectory draws from its own stream of
+ * random variates, the shards together simulate exactly the trajectories
+ * of a single-process calculation with the same seed.  Merged trajectory
+ * outputs are therefore identical to those of the single process.  So
+ * are merged moments and first-passage statistics, as their sums are
+ * accumulated exactly and so do not depend on how trajectories are
+ * divided between shards.  Quantiles are merged from sketches, and agree
+ * with those of the single process only to within the accuracy of the
+ * sketches.
+ *
+ * Shard numbers are typically supplied on the BEAST command line, e.g.
+ * using shard="$(shard)" in the XML together with "-D shard=2".
+ *
+ * @author agent <agent@local>
+ */
+public class Shards {
+
+    /**
+     * Check shard options of an ensemble calculation.
+     *
+     * @param shard index of shard to simulate
+     * @param nShards total number of shards
+     * @param seed seed of calculation (null if not specified)
+     * @param rng source of random variates
+     */
+    public static void validate(int shard, int nShards, Integer seed,
+            RandomGenerator rng) {
+
+        if (nShards<1)
+            throw new IllegalArgumentException("Number of shards must be"
+                    + " at least 1.");
+
+        if (shard<0 || shard>=nShards)
+            throw new IllegalArgumentException("Shard index must be between"
+                    + " 0 and nShards-1.");
+
+        if (nShards==1)
+            return;
+
+        if (seed == null)
+            throw new IllegalArgumentException("Sharded calculations require"
+                    + " an explicit seed.");
+
+        if (!rng.hasStreams())
+            throw new IllegalArgumentException("Sharded calculations require"
+                    + " a random generator with independent per-trajectory"
+                    + " streams, such as PhiloxGenerator.");
+    }
+
+    /**
+     * @param shard shard index
+     * @param nShards total number of shards
+     * @param nTraj total number of trajectories
+     * @return index of first trajectory belonging to shard
+     */
+    public static int getFirstTraj(int shard, int nShards, int nTraj) {
+        return (int)((long)shard*nTraj/nShards);
+    }
+
+    /**
+     * @param fileName base file name
+     * @param shard shard index
+     * @return name of file holding given shard
+     */
+    public static String getFileName(String fileName, int shard) {
+        return fileName + ".shard" + shard;
+    }
+}
@@ -23,8 +23,11 @@ import master.steppers.Stepper;
 import master.outputs.TrajectoryOutput;
 import beast.core.Input;
 import beast.core.Runnable;
-import beast.util.Randomizer;
-import com.google.common.collect.Lists;
+import master.rng.RandomGenerator;
+import master.sampling.SamplingPolicy;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
@@ -55,6 +58,10 @@ public class Trajectory extends Runnable {
     public Input<Integer> seedInput = new Input<>(
             "seed",
             "Seed for RNG.");
+
+    public Input<RandomGenerator> randomGeneratorInput = new Input<>(
+            "randomGenerator",
+            "Source of random variates. (Default BEAST Randomizer.)");
     
     public Input<Boolean> recordTrajLogPInput = new Input<>(
             "recordTrajLogP",
@@ -67,6 +74,20 @@ public class Trajectory extends Runnable {
     
     public Input<Integer> verbosityInput = new Input<>(
             "verbosity", "Level of verbosity to use (0-2).", 1);
+
+    public Input<SamplingPolicy> samplingPolicyInput = new Input<>(
+            "samplingPolicy",
+            "Policy used to thin unevenly spaced samples. (Default records"
+                    + " state following every step.)");
+
+    public Input<ReactionLog> reactionLogInput = new Input<>(
+            "reactionLog",
+            "Log to which individual reaction events are recorded.");
+
+    public Input<ReactionLog> replayLogInput = new Input<>(
+            "replayLog",
+            "Reaction log from which trajectory is reconstructed rather"
+                    + " than simulated.");
     
     // Model:
     public Input<Model> modelInput = new Input<>("model",
@@ -96,9 +117,8 @@ public class Trajectory extends Runnable {
             "Output writer used to write simulation output to disk.",
             new ArrayList<>());
     
-    // List of sampled states:
-    List<PopulationState> sampledStates;
-    List<Double> sampledTimes;
+    // Record of sampled states and times:
+    StateHistory sampledStates;
     
     // Simulation specification:
     private TrajectorySpec spec;
@@ -118,6 +138,44 @@ public class Trajectory extends Runnable {
         
         simulate();
     }
+
+    /**
+     * Construct a trajectory from an existing record of sampled states.
+     *
+     * @param spec trajectory specification
+     * @param sampledStates sampled states and times
+     */
+    Trajectory(TrajectorySpec spec, StateHistory sampledStates) {
+        this.spec = spec;
+        this.sampledStates = sampledStates;
+    }
+
+    /**
+     * Reconstruct a trajectory from the sampled states written by
+     * writeState().
+     *
+     * @param spec trajectory specification
+     * @param in stream from which to read samples
+     * @throws IOException
+     */
+    Trajectory(TrajectorySpec spec, DataInput in) throws IOException {
+        this.spec = spec;
+
+        sampledStates = new StateHistory();
+
+        PopulationState state = new PopulationState();
+        int nSamples = in.readInt();
+        for (int i=0; i<nSamples; i++) {
+            double time = in.readDouble();
+
+            for (PopulationType type : spec.getModel().getPopulationTypes()) {
+                for (Population pop : type)
+                    state.set(pop, in.readDouble());
+            }
+            sampledStates.add(state, time);
+        }
+        trajLogP = in.readDouble();
+    }
     
     @Override
     public void initAndValidate() {
@@ -164,20 +222,39 @@ public class Trajectory extends Runnable {
         // Set seed if provided, otherwise use default BEAST seed:
         if (seedInput.get()!=null)
             spec.setSeed(seedInput.get());
+
+        // Use alternative source of random variates if provided:
+        if (randomGeneratorInput.get()!=null)
+            spec.setRandomGenerator(randomGeneratorInput.get());
         
         // Set the level of verbosity:
         spec.setVerbosity(verbosityInput.get());
         
         // Set trajectory probability recording status:
         spec.setTrajLogPRecording(recordTrajLogPInput.get());
+
+        // Thin unevenly spaced samples if requested:
+        if (samplingPolicyInput.get() != null)
+            spec.setSamplingPolicy(samplingPolicyInput.get());
+
+        // Record reaction events if requested:
+        if (reactionLogInput.get() != null)
+            spec.setReactionLog(reactionLogInput.get());
     }
 
     @Override
     public void run() throws Exception {
+
+        // Replay trajectory from log if requested:
+        if (replayLogInput.get() != null)
+            spec.setReplayReader(replayLogInput.get().openReader(spec.getModel()));
         
         // Generate stochastic trajectory:
         simulate();
 
+        if (spec.getReactionLog() != null)
+            spec.getReactionLog().close();
+
         // Write outputs:
         for (TrajectoryOutput output : outputsInput.get())
             output.write(this);
@@ -192,16 +269,22 @@ public class Trajectory extends Runnable {
 
         // Set seed if defined:
         if (spec.seed>=0 && !spec.seedUsed) {
-            Randomizer.setSeed(spec.seed);
+            spec.getRandomGenerator().setSeed(spec.seed);
             spec.seedUsed = true;
         }
         
         // Record time at start of simulation:
         double startTime = (new Date()).getTime();
 
-        // Initialise sampled state and time lists:
-        sampledStates = Lists.newArrayList();
-        sampledTimes = Lists.newArrayList();
+        // Reconstruct recorded trajectory if requested:
+        if (spec.getReplayReader() != null) {
+            replay(spec.getReplayReader());
+            spec.setWallTime(((new Date()).getTime() - startTime)/1e3);
+            return;
+        }
+
+        // Initialise record of sampled states and times:
+        sampledStates = new StateHistory();
 
         // Initialise system state:
         PopulationState currentState = new PopulationState(spec.initPopulationState);
@@ -213,7 +296,7 @@ public class Trajectory extends Runnable {
         boolean postSimulationReject;
         do {
             sampledStates.clear();
-            sampledTimes.clear();
+            startReactionLog(currentState);
 
             if (spec.evenlySpacedSampling) {
                 // Sample at evenly spaced times
@@ -239,7 +322,9 @@ public class Trajectory extends Runnable {
                     while (t<nextSampTime) {
                         t += spec.stepper.step(currentState, spec.getModel(),
                                 spec.isTrajLogPRecordingOn(),
-                                t, nextSampTime-t);
+                                t, nextSampTime-t,
+                                spec.getRandomGenerator());
+                        logReaction(t);
                         if (spec.isTrajLogPRecordingOn())
                             trajLogP += spec.stepper.getStepLogP();
                     }
@@ -261,6 +346,7 @@ public class Trajectory extends Runnable {
                                 System.err.println("Rejection end condition met "
                                         + "at time " + t);   
                             currentState = new PopulationState(spec.initPopulationState);
+                            startReactionLog(currentState);
                             clearSamples();
                             sampleState(currentState, 0.0);
                             trajLogP = 0.0;
@@ -278,7 +364,7 @@ public class Trajectory extends Runnable {
                 // Sample following every integration step
                 
                 // Sample initial state:
-                sampleState(currentState, 0.0);
+                sampleInitialState(currentState, 0.0);
                 
                 double t = 0;
                 while (t<spec.getSimulationTime()) {
@@ -286,7 +372,9 @@ public class Trajectory extends Runnable {
                     // Increment time
                     t += spec.getStepper().step(currentState, spec.getModel(),
                             spec.isTrajLogPRecordingOn(),
-                            t, spec.getSimulationTime()-t);
+                            t, spec.getSimulationTime()-t,
+                            spec.getRandomGenerator());
+                    logReaction(t);
                     
                     // Record logP increment
                     if (spec.isTrajLogPRecordingOn())
@@ -298,7 +386,7 @@ public class Trajectory extends Runnable {
                                 + String.valueOf(t)); 
                     
                     // Sample state
-                    sampleState(currentState, t);
+                    offerState(currentState, t);
                     
                     // Check for end conditions:
                     PopulationEndCondition endConditionMet = null;
@@ -315,8 +403,9 @@ public class Trajectory extends Runnable {
                                         + "at time " + t);                        
                             
                             currentState = new PopulationState(spec.initPopulationState);
+                            startReactionLog(currentState);
                             clearSamples();
-                            sampleState(currentState, 0.0);
+                            sampleInitialState(currentState, 0.0);
                             trajLogP = 0.0;
                             t = 0;
                         } else {
@@ -327,6 +416,9 @@ public class Trajectory extends Runnable {
                         }
                     }
                 }
+
+                // Record any samples held back by sampling policy:
+                flushSamples(currentState, t);
             }
             
             postSimulationReject = false;
@@ -344,6 +436,11 @@ public class Trajectory extends Runnable {
             }
             
         } while (postSimulationReject);
+
+        // Complete record of accepted trajectory:
+        if (spec.getReactionLog() != null)
+            spec.getReactionLog().endTrajectory(
+                    getSampledTimes().get(sampledStates.size()-1));
         
         // Record length of time (in seconds) taken by calculation:
         spec.setWallTime(((new Date()).getTime() - startTime)/1e3);
@@ -351,6 +448,111 @@ public class Trajectory extends Runnable {
     
 
     
+    /**
+     * Begin (or restart) recording of trajectory events, if requested.
+     *
+     * @param initState initial state of trajectory
+     */
+    protected final void startReactionLog(PopulationState initState) {
+        ReactionLog reactionLog = getSpec().getReactionLog();
+        if (reactionLog != null)
+            reactionLog.startTrajectory(getSpec().getModel(), initState);
+    }
+
+    /**
+     * Record reaction implemented by the most recent step, if any.
+     *
+     * @param t time following step
+     */
+    private void logReaction(double t) {
+        if (spec.getReactionLog() == null)
+            return;
+
+        int reactionIdx = ((GillespieStepper)spec.getStepper())
+                .getLastReactionIndex();
+        if (reactionIdx>=0)
+            spec.getReactionLog().recordReaction(t, reactionIdx);
+    }
+
+    /**
+     * Reconstruct the next trajectory recorded in a reaction log, sampling
+     * it according to the specification.  Trajectories are only sampled
+     * up to the end of the recorded trajectory.
+     *
+     * @param reader reaction log reader
+     */
+    private void replay(ReactionLog.Reader reader) {
+        sampledStates = new StateHistory();
+        trajLogP = 0.0;
+
+        try {
+            if (!reader.nextTrajectory())
+                throw new IllegalArgumentException("Reaction log contains"
+                        + " too few trajectories.");
+
+            PopulationState currentState = reader.getInitialState();
+            boolean haveEvent = reader.nextEvent();
+
+            if (spec.evenlySpacedSampling) {
+                double sampleDt = spec.getSampleDt();
+                for (int sidx = 0; sidx<spec.nSamples; sidx++) {
+                    double sampTime = sidx*sampleDt;
+
+                    while (haveEvent && reader.getEventTime()<=sampTime) {
+                        reader.implementEvent(currentState);
+                        haveEvent = reader.nextEvent();
+                    }
+
+                    // Stop at end of truncated trajectories:
+                    if (!haveEvent && sampTime>reader.getFinalTime()
+                            && reader.getFinalTime()<spec.getSimulationTime())
+                        break;
+
+                    sampleState(currentState, sampTime);
+                }
+            } else {
+                sampleInitialState(currentState, 0.0);
+
+                while (haveEvent) {
+                    double t = reader.getEventTime();
+                    reader.implementEvent(currentState);
+                    offerState(currentState, t);
+                    haveEvent = reader.nextEvent();
+                }
+
+                double finalTime = reader.getFinalTime();
+                if (getSampledTimes().get(sampledStates.size()-1) != finalTime)
+                    offerState(currentState, finalTime);
+                flushSamples(currentState, finalTime);
+            }
+        } catch (IOException ex) {
+            throw new RuntimeException("Error reading reaction log: "
+                    + ex.getMessage());
+        }
+    }
+
+    /**
+     * Write sampled times and states, together with the trajectory
+     * probability density, to a stream.  Population sizes are written
+     * in the order the model lists its populations.
+     *
+     * @param out stream to which samples are written
+     * @throws IOException
+     */
+    void writeState(DataOutput out) throws IOException {
+        out.writeInt(sampledStates.size());
+        int i = 0;
+        for (PopulationState state : sampledStates.getStates()) {
+            out.writeDouble(sampledStates.getTimes().get(i++));
+
+            for (PopulationType type : spec.getModel().getPopulationTypes()) {
+                for (Population pop : type)
+                    out.writeDouble(state.get(pop));
+            }
+        }
+        out.writeDouble(trajLogP);
+    }
+
     /**
      * Retrieve trajectory simulation specification.
      * 
@@ -367,16 +569,57 @@ public class Trajectory extends Runnable {
      * @param time current simulation time
      */
     public final void sampleState(PopulationState currentState, double time) {
-        sampledStates.add(new PopulationState(currentState));
-        sampledTimes.add(time);
+        sampledStates.add(currentState, time);
     }
     
+    /**
+     * Sample initial state of trajectory, resetting any sampling policy.
+     *
+     * @param initialState initial state of population
+     * @param time initial simulation time
+     */
+    protected final void sampleInitialState(PopulationState initialState,
+            double time) {
+        sampleState(initialState, time);
+
+        SamplingPolicy policy = getSpec().getSamplingPolicy();
+        if (policy != null)
+            policy.initialise(this, initialState, time);
+    }
+
+    /**
+     * Sample state following a simulation step, unless the sampling
+     * policy decides otherwise.
+     *
+     * @param currentState current state of population
+     * @param time current simulation time
+     */
+    protected final void offerState(PopulationState currentState, double time) {
+        SamplingPolicy policy = getSpec().getSamplingPolicy();
+        if (policy != null)
+            policy.offer(this, currentState, time);
+        else
+            sampleState(currentState, time);
+    }
+
+    /**
+     * Ensure that states held back by the sampling policy, together with
+     * the final state of the trajectory, are recorded.
+     *
+     * @param finalState final state of population
+     * @param time final simulation time
+     */
+    protected final void flushSamples(PopulationState finalState, double time) {
+        SamplingPolicy policy = getSpec().getSamplingPolicy();
+        if (policy != null)
+            policy.finish(this, finalState, time);
+    }
+
     /**
      * Clear sampled population size states and times.
      */
     public final void clearSamples() {
         sampledStates.clear();
-        sampledTimes.clear();
     }
 
     
@@ -384,14 +627,25 @@ public class Trajectory extends Runnable {
      * @return Sampled states.
      */
     public List<PopulationState> getSampledStates() {
-        return sampledStates;
+        return sampledStates.getStates();
     }
 
     /**
      * @return Sampled times.
      */
     public List<Double> getSampledTimes() {
-        return sampledTimes;
+        return sampledStates.getTimes();
+    }
+
+    /**
+     * Retrieve sampled sizes of a single population.  This avoids
+     * reconstructing each sampled state in turn.
+     *
+     * @param pop population of interest
+     * @return array of sampled sizes
+     */
+    public double[] getSampledSizes(Population pop) {
+        return sampledStates.getSizes(pop);
     }
     
     /**
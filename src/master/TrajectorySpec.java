@@ -19,6 +19,10 @@ package master;
 import master.conditions.PopulationEndCondition;
 import master.model.Model;
 import master.model.PopulationState;
+import master.rng.RandomGenerator;
+import master.rng.RandomizerGenerator;
+import master.sampling.SamplingPolicy;
+import master.steppers.GillespieStepper;
 import master.steppers.Stepper;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
@@ -47,6 +51,9 @@ public class TrajectorySpec {
      * file.
      */
     boolean seedUsed;
+
+    // Source of random variates:
+    RandomGenerator randomGenerator;
     
     // Initial state of system:
     PopulationState initPopulationState;
@@ -71,6 +78,15 @@ public class TrajectorySpec {
     // when to sample:
     boolean evenlySpacedSampling;
     
+    // Policy used to thin unevenly spaced samples (null records all):
+    SamplingPolicy samplingPolicy;
+
+    // Log to which reaction events are written (null if not recorded):
+    ReactionLog reactionLog;
+
+    // Log from which trajectories are replayed (null if simulated):
+    ReactionLog.Reader replayReader;
+
     // Whether to record the probability of each trajectory generated.
     // (Not used for EnsembleSummary calculations.)
     boolean recordTrajLogP;
@@ -95,6 +111,9 @@ public class TrajectorySpec {
         // Use BEAST RNG seed unless specified:
         this.seed = -1;
         this.seedUsed = false;
+
+        // Draw variates from BEAST RNG unless specified:
+        this.randomGenerator = new RandomizerGenerator();
         
         // Initialise lists:
         populationEndConditions = Lists.newArrayList();
@@ -125,6 +144,22 @@ public class TrajectorySpec {
         this.seedUsed = true;
     }
     
+    /**
+     * Set source of random variates used by the simulation.
+     * 
+     * @param randomGenerator 
+     */
+    public void setRandomGenerator(RandomGenerator randomGenerator) {
+        this.randomGenerator = randomGenerator;
+    }
+
+    /**
+     * @return source of random variates used by the simulation.
+     */
+    public RandomGenerator getRandomGenerator() {
+        return randomGenerator;
+    }
+    
     public void setInitPopulationState(PopulationState initState) {
         this.initPopulationState = initState;
     }
@@ -216,6 +251,69 @@ public class TrajectorySpec {
         this.evenlySpacedSampling = false;
     }
     
+    /**
+     * Thin the samples recorded following each simulation step using the
+     * given policy.  Requires uneven sampling.
+     *
+     * @param samplingPolicy policy deciding which states to record
+     */
+    public void setSamplingPolicy(SamplingPolicy samplingPolicy) {
+        if (evenlySpacedSampling)
+            throw new IllegalArgumentException("Sampling policies apply"
+                    + " only to unevenly sampled trajectories.");
+        this.samplingPolicy = samplingPolicy;
+    }
+
+    /**
+     * Retrieve policy used to thin unevenly spaced samples.
+     *
+     * @return sampling policy, or null if every step is sampled.
+     */
+    public SamplingPolicy getSamplingPolicy() {
+        return samplingPolicy;
+    }
+
+    /**
+     * Record individual reaction events to a log.  Requires a stepper
+     * which implements reactions one at a time.
+     *
+     * @param reactionLog log to which events are written
+     */
+    public void setReactionLog(ReactionLog reactionLog) {
+        if (!(stepper instanceof GillespieStepper))
+            throw new IllegalArgumentException("Reaction logs can only be"
+                    + " recorded using the Gillespie stepper.");
+        this.reactionLog = reactionLog;
+    }
+
+    /**
+     * Retrieve log to which reaction events are written.
+     *
+     * @return reaction log, or null if events are not recorded.
+     */
+    public ReactionLog getReactionLog() {
+        return reactionLog;
+    }
+
+    /**
+     * Reconstruct trajectories from a reaction log rather than
+     * simulating them.
+     *
+     * @param replayReader reader positioned before next trajectory
+     */
+    public void setReplayReader(ReactionLog.Reader replayReader) {
+        this.replayReader = replayReader;
+    }
+
+    /**
+     * Retrieve reader from which trajectories are replayed.
+     *
+     * @return reader, or null if trajectories are simulated.
+     */
+    public ReactionLog.Reader getReplayReader() {
+        return replayReader;
+    }
+
     /**
      * Retrieve maximum simulation time.
      * 
@@ -324,6 +422,10 @@ public class TrajectorySpec {
         jsonObject.put("stepper", getStepper());
         jsonObject.put("populationEndConditions", getPopulationEndConditions());
         jsonObject.put("postSimConditions", getPostSimConditions());
+        if (!(getRandomGenerator() instanceof RandomizerGenerator))
+            jsonObject.put("randomGenerator", getRandomGenerator());
+        if (getSamplingPolicy() != null)
+            jsonObject.put("samplingPolicy", getSamplingPolicy());
         return jsonObject;
     }
 }
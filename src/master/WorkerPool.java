@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package master;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of threads used to process independent work items in parallel.
+ * Items are claimed in small contiguous ranges by each thread in turn,
+ * so that threads finishing early take on more of the work.  The
+ * calling thread acts as worker 0, and each worker is identified by its
+ * index so that it can use its own copies of any objects which are not
+ * thread-safe.  Results must therefore be written to per-item buffers
+ * and should not depend on which worker processes an item.
+ *
+ * @author agent <agent@local>
+ */
+class WorkerPool {
+
+    /**
+     * Work on a range of items.
+     */
+    interface RangeTask {
+
+        /**
+         * Process items from (inclusive) to to (exclusive).
+         *
+         * @param worker index of worker
+         * @param from first item
+         * @param to one past last item
+         */
+        void run(int worker, int from, int to);
+    }
+
+    private final int nThreads;
+    private ExecutorService executor;
+    private final List<Future<?>> futures;
+
+    /**
+     * Create pool.  Threads are started when first needed.
+     *
+     * @param nThreads number of threads including the calling thread
+     */
+    WorkerPool(int nThreads) {
+        if (nThreads<1)
+            throw new IllegalArgumentException("Number of threads must be"
+                    + " positive.");
+
+        this.nThreads = nThreads;
+        this.futures = new ArrayList<>();
+    }
+
+    /**
+     * @return number of workers, including the calling thread
+     */
+    int getThreadCount() {
+        return nThreads;
+    }
+
+    /**
+     * Process items, returning once all have been processed.
+     *
+     * @param nItems number of items
+     * @param task task processing a range of items
+     */
+    void run(int nItems, RangeTask task) {
+        if (nThreads == 1 || nItems<2) {
+            task.run(0, 0, nItems);
+            return;
+        }
+
+        if (executor == null)
+            executor = Executors.newFixedThreadPool(nThreads-1, r -> {
+                Thread thread = new Thread(r, "MASTER worker");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+        int chunkSize = Math.max(1, nItems/(8*nThreads));
+        AtomicInteger next = new AtomicInteger(0);
+
+        futures.clear();
+        for (int w=1; w<Math.min(nThreads, nItems); w++) {
+            final int worker = w;
+            futures.add(executor.submit(
+                    () -> runChunks(worker, nItems, chunkSize, next, task)));
+        }
+
+        Throwable error = null;
+        try {
+            runChunks(0, nItems, chunkSize, next, task);
+        } catch (RuntimeException | Error ex) {
+            error = ex;
+        }
+
+        // Wait for all workers, even after a failure, so that no worker
+        // is still using shared buffers on return:
+        boolean interrupted = false;
+        for (Future<?> future : futures) {
+            while (true) {
+                try {
+                    future.get();
+                    break;
+                } catch (InterruptedException ex) {
+                    interrupted = true;
+                } catch (ExecutionException ex) {
+                    if (error == null)
+                        error = ex.getCause();
+                    break;
+                }
+            }
+        }
+        futures.clear();
+
+        if (interrupted)
+            Thread.currentThread().interrupt();
+
+        if (error instanceof RuntimeException)
+            throw (RuntimeException)error;
+        if (error instanceof Error)
+            throw (Error)error;
+    }
+
+    /**
+     * Claim and process ranges of items until none remain.
+     */
+    private static void runChunks(int worker, int nItems, int chunkSize,
+            AtomicInteger next, RangeTask task) {
+        int from;
+        while ((from = next.getAndAdd(chunkSize))<nItems)
+            task.run(worker, from, Math.min(from + chunkSize, nItems));
+    }
+}
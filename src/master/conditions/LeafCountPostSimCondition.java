@@ -81,16 +81,15 @@ public class LeafCountPostSimCondition extends PostSimCondition {
     @Override
     public boolean accept(InheritanceTrajectory itraj) {
         
-        // Assemble leaf counts:
-        Multiset<Population> leafCounts = HashMultiset.create();
-        for (Node leaf : itraj.getEndNodes())
-            leafCounts.add(leaf.getPopulation());
-        
-        // Check whether condition is met:
+        // Count leaves, by population if necessary:
         int size;
         if (populationInput.get().isEmpty())
-            size = leafCounts.size();
+            size = itraj.getLeafCount();
         else {
+            Multiset<Population> leafCounts = HashMultiset.create();
+            for (Node leaf : itraj.getLeafNodes())
+                leafCounts.add(leaf.getPopulation());
+
             size = 0;
             for (Population pop : populationInput.get())
                 size += leafCounts.count(pop);
@@ -106,6 +105,36 @@ public class LeafCountPostSimCondition extends PostSimCondition {
     }
     
     
+    /**
+     * Leaves retained so far bound the final leaf count from below, so the
+     * condition can no longer be met once these exceed an upper threshold.
+     * 
+     * @param itraj partially simulated inheritance trajectory
+     * @return false if the condition can no longer be met
+     */
+    @Override
+    public boolean canAccept(InheritanceTrajectory itraj) {
+        
+        // Lower bounds alone cannot rule out size>=threshold:
+        if (!exact && exceed)
+            return true;
+        
+        Multiset<Population> retainedLeafCounts = itraj.getRetainedLeafCounts();
+        if (retainedLeafCounts == null)
+            return true;
+        
+        int size;
+        if (populationInput.get().isEmpty())
+            size = retainedLeafCounts.size();
+        else {
+            size = 0;
+            for (Population pop : populationInput.get())
+                size += retainedLeafCounts.count(pop);
+        }
+        
+        return size <= nTerminalNodes;
+    }
+    
     @Override
     public boolean accept(Trajectory traj) {
         return false;
@@ -44,6 +44,19 @@ public abstract class PostSimCondition extends BEASTObject {
      * @return true if condition is met
      */
     public abstract boolean accept(InheritanceTrajectory traj);
+
+    /**
+     * Returns false if no completion of the partially simulated inheritance
+     * trajectory itraj can meet the post-simulation acceptance condition,
+     * allowing the simulation to be abandoned early.  This must never
+     * return false for a trajectory which could still be accepted.
+     *
+     * @param itraj partially simulated inheritance trajectory
+     * @return false if condition can no longer be met (default true)
+     */
+    public boolean canAccept(InheritanceTrajectory itraj) {
+        return true;
+    }
     
     /**
      * @return String description of condition.
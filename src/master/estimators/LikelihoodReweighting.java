@@ -0,0 +1,395 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package master.estimators;
+
+import beast.core.BEASTObject;
+import beast.core.Description;
+import beast.core.Input;
+import com.fasterxml.jackson.annotation.JsonValue;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import master.EnsembleSummarySpec;
+import master.model.Population;
+import master.model.PopulationState;
+import master.model.Reaction;
+import master.model.StateSummary;
+
+/**
+ * Importance reweighting of an ensemble of recorded trajectories to
+ * estimate moments under alternative reaction rates without further
+ * simulation.
+ *
+ * Each alternative parameter set multiplies the rates of selected
+ * reactions by constant factors.  The log-density of an exact (SSA)
+ * path then differs from its log-density under the original rates by
+ *
+ *   sum_j [ n_j log(f_j) - (f_j - 1) A_j ],
+ *
+ * where n_j is the number of times reaction j fired, f_j is its scale
+ * factor and A_j is the integral of its original propensity along the
+ * path.  A single pass over the events of a path therefore collects the
+ * sufficient statistics n_j and A_j, after which the likelihood ratios
+ * for any number of parameter sets are obtained at the cost of a few
+ * operations per scaled reaction.
+ *
+ * Moment estimates for each parameter set are self-normalised
+ * importance sampling estimates, which remain valid when trajectories
+ * have been conditioned using end or post-simulation conditions.  The
+ * effective sample size of each set is recorded alongside the estimates
+ * to indicate how far the parameters can be moved before the original
+ * ensemble ceases to be representative.
+ *
+ * @author agent <agent@local>
+ */
+@Description("Importance reweighting of recorded trajectories to "
+        + "alternative reaction rates.")
+public class LikelihoodReweighting extends BEASTObject {
+
+    public Input<List<RateScaling>> rateScalingsInput = new Input<>(
+            "rateScaling",
+            "Factors by which to scale the rates of a reaction in each"
+                    + " alternative parameter set.",
+            Lists.newArrayList());
+
+    int nSets;
+
+    // Scaling applied to each reaction of the model (-1 if unscaled):
+    private int[] reactionScaling;
+
+    // Scaled reactions and the populations and multiplicities of their
+    // reactants:
+    private Reaction[] scaledReactions;
+    private int[] scaledReactionScaling;
+    private Population[][] reactantPops;
+    private int[][] reactantCounts;
+
+    // Sufficient statistics of the current path, per scaling:
+    private double[] eventCounts, integratedPropensities;
+    private double pathTime;
+    private double[] logWeights;
+
+    // Weighted moment estimates for each parameter set.  Accumulated
+    // weights are relative to weightOffsets to avoid overflow:
+    private StateSummary[][] stateSummaries;
+    private double[] weightOffsets, sumWeights, sumWeights2;
+    private boolean normalised;
+
+    public LikelihoodReweighting() { }
+
+    @Override
+    public void initAndValidate() {
+        if (rateScalingsInput.get().isEmpty())
+            throw new IllegalArgumentException("Likelihood reweighting"
+                    + " requires at least one rateScaling.");
+
+        nSets = rateScalingsInput.get().get(0).getFactors().length;
+        for (RateScaling scaling : rateScalingsInput.get()) {
+            if (scaling.getFactors().length != nSets)
+                throw new IllegalArgumentException("Every rateScaling must"
+                        + " specify the same number of factors.");
+        }
+    }
+
+    /**
+     * Prepare to reweight trajectories of the calculation described by
+     * the given spec.
+     *
+     * @param spec ensemble summary specification
+     */
+    public void initialise(EnsembleSummarySpec spec) {
+        List<Reaction> reactions = spec.getModel().getReactions();
+        Map<Reaction, Integer> reactionIndices = Maps.newHashMap();
+        for (int i=0; i<reactions.size(); i++)
+            reactionIndices.put(reactions.get(i), i);
+
+        reactionScaling = new int[reactions.size()];
+        Arrays.fill(reactionScaling, -1);
+
+        List<Reaction> scaled = Lists.newArrayList();
+        List<Integer> scaledScaling = Lists.newArrayList();
+        for (int s=0; s<rateScalingsInput.get().size(); s++) {
+            Reaction reaction = rateScalingsInput.get().get(s).getReaction();
+            for (Reaction expanded
+                    : spec.getModel().getExpandedReactions(reaction)) {
+                int idx = reactionIndices.get(expanded);
+                if (reactionScaling[idx]>=0)
+                    throw new IllegalArgumentException("Reaction "
+                            + reaction.getName() + " is scaled more"
+                            + " than once.");
+
+                reactionScaling[idx] = s;
+                scaled.add(expanded);
+                scaledScaling.add(s);
+            }
+        }
+
+        scaledReactions = scaled.toArray(new Reaction[0]);
+        scaledReactionScaling = new int[scaledReactions.length];
+        reactantPops = new Population[scaledReactions.length][];
+        reactantCounts = new int[scaledReactions.length][];
+        for (int j=0; j<scaledReactions.length; j++) {
+            scaledReactionScaling[j] = scaledScaling.get(j);
+
+            Map<Population, Integer> reactCount = scaledReactions[j].reactCount;
+            reactantPops[j] = reactCount.keySet().toArray(new Population[0]);
+            reactantCounts[j] = new int[reactantPops[j].length];
+            for (int p=0; p<reactantPops[j].length; p++)
+                reactantCounts[j][p] = reactCount.get(reactantPops[j][p]);
+        }
+
+        int nScalings = rateScalingsInput.get().size();
+        eventCounts = new double[nScalings];
+        integratedPropensities = new double[nScalings];
+        logWeights = new double[nSets];
+
+        stateSummaries = new StateSummary[nSets][spec.getnSamples()];
+        for (int k=0; k<nSets; k++) {
+            for (int sidx=0; sidx<spec.getnSamples(); sidx++)
+                stateSummaries[k][sidx] = new StateSummary(
+                        spec.getMoments(), spec.getMomentGroups());
+        }
+
+        weightOffsets = new double[nSets];
+        Arrays.fill(weightOffsets, Double.NEGATIVE_INFINITY);
+        sumWeights = new double[nSets];
+        sumWeights2 = new double[nSets];
+        normalised = false;
+    }
+
+    /**
+     * Begin collecting the sufficient statistics of a new path.
+     */
+    public void startTrajectory() {
+        Arrays.fill(eventCounts, 0.0);
+        Arrays.fill(integratedPropensities, 0.0);
+        pathTime = 0.0;
+    }
+
+    /**
+     * Incorporate an event of the current path.
+     *
+     * @param state state immediately before the event
+     * @param t time of event
+     * @param reactionIdx index of reaction in model, or -1 if the event
+     * is not a reaction
+     */
+    public void recordEvent(PopulationState state, double t, int reactionIdx) {
+        advance(state, t);
+
+        if (reactionIdx>=0 && reactionScaling[reactionIdx]>=0)
+            eventCounts[reactionScaling[reactionIdx]] += 1;
+    }
+
+    /**
+     * Complete the current path.
+     *
+     * @param state final state of path
+     * @param t time at which path ends
+     */
+    public void finishTrajectory(PopulationState state, double t) {
+        advance(state, t);
+    }
+
+    /**
+     * Integrate the original propensities of the scaled reactions from
+     * the time of the previous event to the given time, during which the
+     * state is constant.
+     *
+     * @param state current state
+     * @param t time to integrate to
+     */
+    private void advance(PopulationState state, double t) {
+        if (t>pathTime) {
+            for (int j=0; j<scaledReactions.length; j++) {
+                double h = 1.0;
+                for (int p=0; p<reactantPops[j].length; p++) {
+                    double size = state.get(reactantPops[j][p]);
+                    for (int m=0; m<reactantCounts[j][p]; m++)
+                        h *= size-m;
+                }
+
+                if (h != 0.0)
+                    integratedPropensities[scaledReactionScaling[j]]
+                            += h*integrateRate(scaledReactions[j], pathTime, t);
+            }
+        }
+
+        pathTime = t;
+    }
+
+    /**
+     * Integrate the (piecewise constant) rate of a reaction over an
+     * interval.
+     *
+     * @param reaction reaction
+     * @param t0 start of interval
+     * @param t1 end of interval
+     * @return integrated rate
+     */
+    private static double integrateRate(Reaction reaction, double t0, double t1) {
+        List<Double> rates = reaction.getRates();
+        List<Double> rateTimes = reaction.getRateTimes();
+
+        if (rates.size()==1)
+            return rates.get(0)*(t1-t0);
+
+        double integral = 0.0;
+        for (int i=0; i<rates.size(); i++) {
+            double start = Math.max(t0, rateTimes.get(i));
+            double end = i+1<rates.size() ? Math.min(t1, rateTimes.get(i+1)) : t1;
+            if (end>start)
+                integral += rates.get(i)*(end-start);
+        }
+
+        return integral;
+    }
+
+    /**
+     * Evaluate the log-density of the current path under each parameter
+     * set relative to its log-density under the original rates.
+     *
+     * @return array of log likelihood ratios, one per parameter set
+     */
+    public double[] computeLogWeights() {
+        Arrays.fill(logWeights, 0.0);
+
+        for (int s=0; s<eventCounts.length; s++) {
+            double[] factors = rateScalingsInput.get().get(s).getFactors();
+            for (int k=0; k<nSets; k++) {
+                if (eventCounts[s]>0)
+                    logWeights[k] += eventCounts[s]*Math.log(factors[k]);
+                logWeights[k] -= (factors[k]-1.0)*integratedPropensities[s];
+            }
+        }
+
+        return logWeights;
+    }
+
+    /**
+     * Incorporate the latest recorded summaries of the current path into
+     * the estimates for each parameter set, weighted by the path's
+     * likelihood ratio.
+     *
+     * @param recorded state summaries holding the latest summaries of
+     * the path at each sample time
+     */
+    public void accept(StateSummary[] recorded) {
+        computeLogWeights();
+
+        for (int k=0; k<nSets; k++) {
+            double logWeight = logWeights[k];
+            if (logWeight == Double.NEGATIVE_INFINITY)
+                continue;
+
+            // Rescale accumulated estimates to keep weights bounded:
+            if (logWeight>weightOffsets[k]) {
+                double scale = Math.exp(weightOffsets[k]-logWeight);
+                for (StateSummary summary : stateSummaries[k])
+                    summary.scale(scale);
+                sumWeights[k] *= scale;
+                sumWeights2[k] *= scale*scale;
+                weightOffsets[k] = logWeight;
+            }
+
+            double weight = Math.exp(logWeight-weightOffsets[k]);
+            for (int sidx=0; sidx<recorded.length; sidx++)
+                stateSummaries[k][sidx].acceptRecorded(recorded[sidx], weight);
+            sumWeights[k] += weight;
+            sumWeights2[k] += weight*weight;
+        }
+    }
+
+    /**
+     * Normalise the estimates for each parameter set.
+     */
+    public void normalise() {
+        for (int k=0; k<nSets; k++) {
+            for (StateSummary summary : stateSummaries[k])
+                summary.normalise();
+        }
+        normalised = true;
+    }
+
+    /**
+     * @return number of alternative parameter sets
+     */
+    public int getParameterSetCount() {
+        return nSets;
+    }
+
+    /**
+     * @return rate scalings defining the parameter sets
+     */
+    public List<RateScaling> getRateScalings() {
+        return rateScalingsInput.get();
+    }
+
+    /**
+     * @param k index of parameter set
+     * @return reweighted moment estimates at each sample time
+     */
+    public StateSummary[] getStateSummaries(int k) {
+        return stateSummaries[k];
+    }
+
+    /**
+     * @param k index of parameter set
+     * @return effective number of trajectories contributing to the
+     * estimates for the parameter set
+     */
+    public double getEffectiveSampleSize(int k) {
+        if (sumWeights2[k] == 0.0)
+            return 0.0;
+
+        return sumWeights[k]*sumWeights[k]/sumWeights2[k];
+    }
+
+    /**
+     * Construct representation of reweighting to use in assembling
+     * summary in JSON output file.
+     *
+     * @return Map from strings to other objects which have a JSON rep
+     */
+    @JsonValue
+    public Map<String, Object> getJsonValue() {
+
+        Map<String, Object> jsonObject = Maps.newHashMap();
+
+        Map<String, Object> scalingData = Maps.newHashMap();
+        for (RateScaling scaling : rateScalingsInput.get()) {
+            List<Double> factorList = Lists.newArrayList();
+            for (double factor : scaling.getFactors())
+                factorList.add(factor);
+            scalingData.put(String.valueOf(scaling.getReaction().getName()),
+                    factorList);
+        }
+        jsonObject.put("rateScaling", scalingData);
+        jsonObject.put("nParameterSets", nSets);
+
+        if (normalised) {
+            List<Double> essList = Lists.newArrayList();
+            for (int k=0; k<nSets; k++)
+                essList.add(getEffectiveSampleSize(k));
+            jsonObject.put("effectiveSampleSize", essList);
+        }
+
+        return jsonObject;
+    }
+}
@@ -0,0 +1,532 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package master.estimators;
+
+import beast.core.BEASTObject;
+import beast.core.Description;
+import beast.core.Input;
+import com.fasterxml.jackson.annotation.JsonValue;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import java.util.List;
+import java.util.Map;
+import master.EnsembleSummarySpec;
+import master.model.Model;
+import master.model.PopulationState;
+import master.model.Reaction;
+import master.model.StateSummary;
+import master.rng.RandomGenerator;
+
+/**
+ * Multilevel Monte Carlo (MLMC) estimator for ensemble summary moments.
+ * Level 0 consists of tau-leaping trajectories with the coarsest step
+ * size, while each subsequent level estimates the difference between
+ * tau-leaping with successively finer step sizes using the split
+ * propensity coupling of Anderson and Higham (2012).  An optional final
+ * level couples the finest tau-leaping trajectory with an exact
+ * trajectory, removing the tau-leaping bias entirely.
+ *
+ * After a pilot run on every level, the number of trajectories per
+ * level is chosen using the estimated variances and costs (Giles 2008)
+ * so that the variance of the estimator of every moment at every
+ * sample time falls below the square of the target RMS error (half of
+ * this when no exact correction is used, leaving room for the bias).
+ *
+ * @author agent <agent@local>
+ */
+@Description("Multilevel Monte Carlo estimator using coupled tau-leaping "
+        + "trajectories.")
+public class MultilevelEstimator extends BEASTObject {
+
+    public Input<Double> targetRMSEInput = new Input<>("targetRMSE",
+            "Target root mean squared error of each moment estimate.",
+            Input.Validate.REQUIRED);
+
+    public Input<Double> coarseStepSizeInput = new Input<>("coarseStepSize",
+            "Tau-leaping step size used on the coarsest level.",
+            Input.Validate.REQUIRED);
+
+    public Input<Integer> nLevelsInput = new Input<>("nLevels",
+            "Number of tau-leaping levels.", 4);
+
+    public Input<Integer> refinementFactorInput = new Input<>(
+            "refinementFactor",
+            "Ratio between step sizes of successive levels.", 2);
+
+    public Input<Boolean> exactCorrectionInput = new Input<>(
+            "exactCorrection",
+            "Add a level coupling the finest tau-leaping trajectories to "
+                    + "exact trajectories, removing discretization bias.",
+            true);
+
+    double targetRMSE;
+    double[] stepSizes;
+    boolean exactCorrection;
+
+    // Source of random variates for current estimate:
+    RandomGenerator rng;
+
+    // Per-level results of most recent estimate:
+    long[] levelTraj;
+    double[] levelVariances, levelCosts;
+
+    public MultilevelEstimator() { }
+
+    @Override
+    public void initAndValidate() {
+        targetRMSE = targetRMSEInput.get();
+        exactCorrection = exactCorrectionInput.get();
+
+        if (targetRMSE<=0.0)
+            throw new IllegalArgumentException("Target RMSE must be positive.");
+
+        if (nLevelsInput.get()<1)
+            throw new IllegalArgumentException("Multilevel estimator requires"
+                    + " at least one tau-leaping level.");
+
+        if (refinementFactorInput.get()<2)
+            throw new IllegalArgumentException("Refinement factor must be"
+                    + " at least 2.");
+
+        stepSizes = new double[nLevelsInput.get()];
+        stepSizes[0] = coarseStepSizeInput.get();
+        for (int l=1; l<stepSizes.length; l++)
+            stepSizes[l] = stepSizes[l-1]/refinementFactorInput.get();
+    }
+
+    /**
+     * Estimate moments at each sample time specified by spec.  The
+     * spec's nTraj gives the number of pilot trajectories per level.
+     *
+     * @param spec ensemble summary specification
+     * @return state summaries at each sample time
+     */
+    public StateSummary[] estimate(EnsembleSummarySpec spec) {
+
+        rng = spec.getRandomGenerator();
+        int nLevels = stepSizes.length + (exactCorrection ? 1 : 0);
+
+        Level[] levels = new Level[nLevels];
+        for (int l=0; l<nLevels; l++)
+            levels[l] = new Level(l, spec);
+
+        // Pilot run:
+        for (Level level : levels)
+            level.run(spec.getnTraj(), spec);
+
+        // Variance budget of estimator:
+        double budget = exactCorrection
+                ? targetRMSE*targetRMSE
+                : 0.5*targetRMSE*targetRMSE;
+
+        // Add trajectories until estimated variance is within budget:
+        while (true) {
+            double sum = 0.0;
+            for (Level level : levels)
+                sum += Math.sqrt(level.getVariance()*level.getCost());
+
+            boolean finished = true;
+            for (Level level : levels) {
+                long nOpt = (long)Math.ceil(sum*Math.sqrt(
+                        level.getVariance()/level.getCost())/budget);
+
+                if (nOpt>level.nTraj) {
+                    level.run(nOpt-level.nTraj, spec);
+                    finished = false;
+                }
+            }
+
+            if (finished)
+                break;
+        }
+
+        // Record level statistics:
+        levelTraj = new long[nLevels];
+        levelVariances = new double[nLevels];
+        levelCosts = new double[nLevels];
+        for (int l=0; l<nLevels; l++) {
+            levelTraj[l] = levels[l].nTraj;
+            levelVariances[l] = levels[l].getVariance();
+            levelCosts[l] = levels[l].getCost();
+
+            if (spec.getVerbosity()>0)
+                System.err.println("MLMC level " + l + ": " + levelTraj[l]
+                        + " trajectories (variance " + levelVariances[l]
+                        + ", cost " + levelCosts[l] + ")");
+        }
+
+        // Combine telescoping sum of level estimates:
+        StateSummary[] stateSummaries = new StateSummary[spec.getnSamples()];
+        for (int sidx=0; sidx<spec.getnSamples(); sidx++) {
+            stateSummaries[sidx] = new StateSummary(spec.getMoments(),
+                    spec.getMomentGroups());
+
+            for (Level level : levels) {
+                stateSummaries[sidx].accept(level.fine[sidx], 1.0);
+                if (level.coarse != null)
+                    stateSummaries[sidx].accept(level.coarse[sidx], -1.0);
+            }
+
+            stateSummaries[sidx].normalise();
+        }
+
+        return stateSummaries;
+    }
+
+    /**
+     * Statistics accumulated on a single level.
+     */
+    private class Level {
+
+        int index;
+        long nTraj;
+        double totalCost;
+
+        // Summaries of fine and (when present) coarse trajectories:
+        StateSummary[] fine, coarse;
+
+        // Sums and sums of squares of fine-coarse differences:
+        double[][] diffSum, diffSumSq;
+
+        Level(int index, EnsembleSummarySpec spec) {
+            this.index = index;
+
+            fine = new StateSummary[spec.getnSamples()];
+            if (index>0)
+                coarse = new StateSummary[spec.getnSamples()];
+            for (int sidx=0; sidx<spec.getnSamples(); sidx++) {
+                fine[sidx] = new StateSummary(spec.getMoments(), spec.getMomentGroups());
+                if (coarse != null)
+                    coarse[sidx] = new StateSummary(spec.getMoments(), spec.getMomentGroups());
+            }
+
+            int nComponents = fine[0].getComponentCount();
+            diffSum = new double[spec.getnSamples()][nComponents];
+            diffSumSq = new double[spec.getnSamples()][nComponents];
+        }
+
+        /**
+         * Generate additional trajectories (or coupled pairs).
+         *
+         * @param n number of trajectories
+         * @param spec ensemble summary specification
+         */
+        void run(long n, EnsembleSummarySpec spec) {
+
+            Model model = spec.getModel();
+            double sampleDt = spec.getSampleDt();
+
+            int nComponents = fine[0].getComponentCount();
+            double[] fineComponents = new double[nComponents];
+            double[] coarseComponents = new double[nComponents];
+
+            for (long traj=0; traj<n; traj++) {
+
+                if (spec.getVerbosity()>1)
+                    System.err.println("MLMC level " + index
+                            + ": integrating trajectory "
+                            + String.valueOf(nTraj+1));
+
+                // Each sample draws from its own stream where supported:
+                rng.setStream(((long)index << 40) + nTraj);
+
+                PopulationState fineState = new PopulationState(spec.getInitPopulationState());
+                PopulationState coarseState = new PopulationState(spec.getInitPopulationState());
+
+                double t = 0.0;
+                for (int sidx=0; sidx<spec.getnSamples(); sidx++) {
+                    double nextSampTime = sidx*sampleDt;
+
+                    if (index==0)
+                        totalCost += leap(fineState, model, t, nextSampTime,
+                                stepSizes[0]);
+                    else if (index<stepSizes.length)
+                        totalCost += leapCoupled(fineState, coarseState,
+                                model, t, nextSampTime,
+                                stepSizes[index], stepSizes[index-1]);
+                    else
+                        totalCost += simulateCoupled(fineState, coarseState,
+                                model, t, nextSampTime,
+                                stepSizes[stepSizes.length-1]);
+                    t = nextSampTime;
+
+                    fine[sidx].record(fineState);
+                    fine[sidx].getComponents(fineState, fineComponents);
+                    if (coarse != null) {
+                        coarse[sidx].record(coarseState);
+                        coarse[sidx].getComponents(coarseState, coarseComponents);
+                    }
+
+                    for (int c=0; c<nComponents; c++) {
+                        double diff = fineComponents[c]
+                                - (coarse != null ? coarseComponents[c] : 0.0);
+                        diffSum[sidx][c] += diff;
+                        diffSumSq[sidx][c] += diff*diff;
+                    }
+                }
+
+                for (int sidx=0; sidx<spec.getnSamples(); sidx++) {
+                    fine[sidx].accept();
+                    if (coarse != null)
+                        coarse[sidx].accept();
+                }
+
+                nTraj += 1;
+            }
+        }
+
+        /**
+         * @return largest variance of a fine-coarse difference over all
+         * moments and sample times.
+         */
+        double getVariance() {
+            double maxVar = 0.0;
+            for (int sidx=0; sidx<diffSum.length; sidx++) {
+                for (int c=0; c<diffSum[sidx].length; c++) {
+                    double mean = diffSum[sidx][c]/nTraj;
+                    double var = diffSumSq[sidx][c]/nTraj - mean*mean;
+                    maxVar = Math.max(maxVar, var);
+                }
+            }
+
+            return maxVar;
+        }
+
+        /**
+         * @return mean cost (in propensity evaluations) of one sample.
+         */
+        double getCost() {
+            return Math.max(totalCost/nTraj, 1.0);
+        }
+    }
+
+    /**
+     * Tau-leap a single state from t to tEnd.
+     *
+     * @return number of leaps taken
+     */
+    private int leap(PopulationState state, Model model,
+            double t, double tEnd, double h) {
+
+        List<Reaction> reactions = model.getReactions();
+        double[] propensities = new double[reactions.size()];
+
+        int steps = 0;
+        while (t<tEnd) {
+            double tNext = Math.min(Math.min(t + h, tEnd),
+                    model.getNextReactionChangeTime(t));
+
+            for (int r=0; r<reactions.size(); r++) {
+                reactions.get(r).calcPropensity(state, t);
+                propensities[r] = reactions.get(r).getPropensity();
+            }
+
+            for (int r=0; r<reactions.size(); r++)
+                state.implementReaction(reactions.get(r),
+                        rng.nextPoisson(propensities[r]*(tNext-t)));
+
+            t = tNext;
+            steps += 1;
+        }
+
+        return steps;
+    }
+
+    /**
+     * Tau-leap a coupled pair of states from t to tEnd using fine and
+     * coarse step sizes.  The coarse step size should be a multiple of
+     * the fine step size.
+     *
+     * @return number of fine and coarse propensity evaluations
+     */
+    private int leapCoupled(PopulationState fineState,
+            PopulationState coarseState, Model model,
+            double t, double tEnd, double hFine, double hCoarse) {
+
+        List<Reaction> reactions = model.getReactions();
+        double[] finePropensities = new double[reactions.size()];
+        double[] coarsePropensities = new double[reactions.size()];
+        double[] coarseCounts = new double[reactions.size()];
+
+        int steps = 0;
+        while (t<tEnd) {
+            double tCoarseNext = Math.min(Math.min(t + hCoarse, tEnd),
+                    model.getNextReactionChangeTime(t));
+
+            // Coarse propensities are frozen for the whole coarse step:
+            for (int r=0; r<reactions.size(); r++) {
+                reactions.get(r).calcPropensity(coarseState, t);
+                coarsePropensities[r] = reactions.get(r).getPropensity();
+            }
+            steps += 1;
+
+            double tFine = t;
+            while (tFine<tCoarseNext) {
+                double tFineNext = Math.min(tFine + hFine, tCoarseNext);
+                double dt = tFineNext - tFine;
+
+                for (int r=0; r<reactions.size(); r++) {
+                    reactions.get(r).calcPropensity(fineState, tFine);
+                    finePropensities[r] = reactions.get(r).getPropensity();
+                }
+
+                // Split propensity coupling:
+                for (int r=0; r<reactions.size(); r++) {
+                    double shared = Math.min(finePropensities[r],
+                            coarsePropensities[r]);
+                    double nShared = rng.nextPoisson(shared*dt);
+                    double nFine = rng.nextPoisson(
+                            (finePropensities[r]-shared)*dt);
+                    double nCoarse = rng.nextPoisson(
+                            (coarsePropensities[r]-shared)*dt);
+
+                    fineState.implementReaction(reactions.get(r), nShared + nFine);
+                    coarseCounts[r] += nShared + nCoarse;
+                }
+
+                tFine = tFineNext;
+                steps += 1;
+            }
+
+            // Apply coarse leap as a whole, as TauLeapingStepper would:
+            for (int r=0; r<reactions.size(); r++) {
+                coarseState.implementReaction(reactions.get(r), coarseCounts[r]);
+                coarseCounts[r] = 0.0;
+            }
+
+            t = tCoarseNext;
+        }
+
+        return steps;
+    }
+
+    /**
+     * Simulate an exact trajectory coupled to a tau-leaping trajectory
+     * from t to tEnd.  Within each leap the pair evolves as a Markov jump
+     * process with three channels per reaction: one shared, one affecting
+     * only the exact state and one affecting only the tau-leaping state.
+     *
+     * @return number of events and leaps simulated
+     */
+    private int simulateCoupled(PopulationState exactState,
+            PopulationState leapState, Model model,
+            double t, double tEnd, double h) {
+
+        List<Reaction> reactions = model.getReactions();
+        int nReactions = reactions.size();
+        double[] leapPropensities = new double[nReactions];
+        double[] channelRates = new double[3*nReactions];
+        double[] leapCounts = new double[nReactions];
+
+        int steps = 0;
+        while (t<tEnd) {
+            double tLeapNext = Math.min(Math.min(t + h, tEnd),
+                    model.getNextReactionChangeTime(t));
+
+            for (int r=0; r<nReactions; r++) {
+                reactions.get(r).calcPropensity(leapState, t);
+                leapPropensities[r] = reactions.get(r).getPropensity();
+            }
+            steps += 1;
+
+            double tEvent = t;
+            while (true) {
+                double totalRate = 0.0;
+                for (int r=0; r<nReactions; r++) {
+                    reactions.get(r).calcPropensity(exactState, tEvent);
+                    double exactPropensity = reactions.get(r).getPropensity();
+                    double shared = Math.min(exactPropensity, leapPropensities[r]);
+
+                    channelRates[3*r] = shared;
+                    channelRates[3*r+1] = exactPropensity - shared;
+                    channelRates[3*r+2] = leapPropensities[r] - shared;
+                    totalRate += exactPropensity + leapPropensities[r] - shared;
+                }
+
+                if (totalRate<=0.0)
+                    break;
+
+                tEvent += rng.nextExponential(totalRate);
+                if (tEvent>=tLeapNext)
+                    break;
+
+                // Choose channel to fire:
+                double u = rng.nextDouble()*totalRate;
+                int channel;
+                for (channel=0; channel<channelRates.length-1; channel++) {
+                    u -= channelRates[channel];
+                    if (u<0)
+                        break;
+                }
+
+                Reaction reaction = reactions.get(channel/3);
+                if (channel%3 != 2)
+                    exactState.implementReaction(reaction, 1);
+                if (channel%3 != 1)
+                    leapCounts[channel/3] += 1;
+
+                steps += 1;
+            }
+
+            // Apply leap as a whole, as TauLeapingStepper would:
+            for (int r=0; r<nReactions; r++) {
+                leapState.implementReaction(reactions.get(r), leapCounts[r]);
+                leapCounts[r] = 0.0;
+            }
+
+            t = tLeapNext;
+        }
+
+        return steps;
+    }
+
+    /**
+     * Construct representation of estimator configuration and results
+     * to use in assembling summary in JSON output file.
+     *
+     * @return Map from strings to other objects which have a JSON rep
+     */
+    @JsonValue
+    public Map<String, Object> getJsonValue() {
+
+        Map<String, Object> jsonObject = Maps.newHashMap();
+
+        jsonObject.put("targetRMSE", targetRMSE);
+        jsonObject.put("exactCorrection", exactCorrection);
+
+        List<Double> stepSizeList = Lists.newArrayList();
+        for (double stepSize : stepSizes)
+            stepSizeList.add(stepSize);
+        jsonObject.put("stepSizes", stepSizeList);
+
+        if (levelTraj != null) {
+            List<Long> trajList = Lists.newArrayList();
+            List<Double> varianceList = Lists.newArrayList();
+            List<Double> costList = Lists.newArrayList();
+            for (int l=0; l<levelTraj.length; l++) {
+                trajList.add(levelTraj[l]);
+                varianceList.add(levelVariances[l]);
+                costList.add(levelCosts[l]);
+            }
+            jsonObject.put("levelTraj", trajList);
+            jsonObject.put("levelVariances", varianceList);
+            jsonObject.put("levelCosts", costList);
+        }
+
+        return jsonObject;
+    }
+}
@@ -0,0 +1,401 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package master.estimators;
+
+import beast.core.BEASTObject;
+import beast.core.Description;
+import beast.core.Input;
+import com.fasterxml.jackson.annotation.JsonValue;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import master.EnsembleSummarySpec;
+import master.model.ExpressionEvaluator;
+import master.model.Model;
+import master.model.Population;
+import master.model.PopulationState;
+import master.model.PopulationType;
+import master.model.StateSummary;
+import master.model.parsers.MASTERGrammarLexer;
+import master.model.parsers.MASTERGrammarParser;
+import master.rng.RandomGenerator;
+import org.antlr.v4.runtime.ANTLRInputStream;
+import org.antlr.v4.runtime.BaseErrorListener;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.RecognitionException;
+import org.antlr.v4.runtime.Recognizer;
+import org.antlr.v4.runtime.tree.ParseTree;
+
+/**
+ * Multilevel splitting estimator for moments of trajectories conditioned
+ * on a rare event.  The event is that a user-supplied progress
+ * coordinate (an expression involving population type names) reaches
+ * the last of an increasing sequence of levels before the end of the
+ * simulation.
+ *
+ * Each of the nTraj root trajectories starts with unit weight.  Whenever
+ * a trajectory first crosses a level it is split into nSplit copies,
+ * each carrying 1/nSplit of its weight, which are then continued
+ * independently.  Weights are conserved by splitting, so the weighted
+ * ensemble of completed trajectories is an unbiased representation of
+ * the unconditioned process in which trajectories approaching the rare
+ * event are heavily over-represented.
+ *
+ * By default moments are estimated using only the trajectories which
+ * reach the final level, giving estimates conditional on the rare event.
+ * The probability of the event and its standard error are recorded
+ * alongside the estimates.
+ *
+ * @author agent <agent@local>
+ */
+@Description("Multilevel splitting estimator for moments conditioned on "
+        + "rare events.")
+public class RareEventSplitting extends BEASTObject {
+
+    public Input<String> progressInput = new Input<>("progress",
+            "Expression involving population type names which measures "
+                    + "progress towards the rare event.",
+            Input.Validate.REQUIRED);
+
+    public Input<String> levelsInput = new Input<>("levels",
+            "Space-delimited increasing sequence of progress levels. The"
+                    + " rare event is reaching the final level.",
+            Input.Validate.REQUIRED);
+
+    public Input<Integer> nSplitInput = new Input<>("nSplit",
+            "Number of copies a trajectory is split into at each level"
+                    + " crossing.", 2);
+
+    public Input<Boolean> conditionalInput = new Input<>("conditional",
+            "Estimate moments conditional on the rare event. If false, "
+                    + "the full weighted ensemble is used.", true);
+
+    double[] levels;
+    int nSplit;
+    boolean conditional;
+
+    private ParseTree parseTree;
+
+    // Source of random variates for current estimate:
+    private RandomGenerator rng;
+
+    // Evaluator and population variables for progress coordinate:
+    private ExpressionEvaluator evaluator;
+    private List<PopulationType> popTypes;
+    private List<List<Population>> typePops;
+
+    // Results of most recent estimate:
+    private Double probability, probabilityStdErr;
+    private long nCompleted, nTarget;
+
+    public RareEventSplitting() { }
+
+    @Override
+    public void initAndValidate() {
+        nSplit = nSplitInput.get();
+        conditional = conditionalInput.get();
+
+        if (nSplit<1)
+            throw new IllegalArgumentException("nSplit must be at least 1.");
+
+        String[] levelStrings = levelsInput.get().trim().split(" +");
+        levels = new double[levelStrings.length];
+        for (int i=0; i<levels.length; i++) {
+            levels[i] = Double.parseDouble(levelStrings[i]);
+            if (i>0 && levels[i]<=levels[i-1])
+                throw new IllegalArgumentException("Splitting levels must be"
+                        + " strictly increasing.");
+        }
+
+        // Parse progress coordinate expression
+        ANTLRInputStream input = new ANTLRInputStream(progressInput.get());
+
+        // Custom parse/lexer error listener
+        BaseErrorListener errorListener = new BaseErrorListener() {
+            @Override
+            public void syntaxError(Recognizer<?, ?> recognizer,
+                                    Object offendingSymbol,
+                                    int line, int charPositionInLine,
+                                    String msg, RecognitionException e) {
+                throw new RuntimeException("Error parsing character " +
+                        charPositionInLine + " of line " + line +
+                        " of progress coordinate expression: " + msg);
+            }
+        };
+
+        MASTERGrammarLexer lexer = new MASTERGrammarLexer(input);
+        lexer.removeErrorListeners();
+        lexer.addErrorListener(errorListener);
+
+        CommonTokenStream tokens = new CommonTokenStream(lexer);
+
+        MASTERGrammarParser parser = new MASTERGrammarParser(tokens);
+        parser.removeErrorListeners();
+        parser.addErrorListener(errorListener);
+
+        parseTree = parser.expression();
+    }
+
+    /**
+     * Estimate moments at each sample time specified by spec.
+     *
+     * @param spec ensemble summary specification
+     * @return state summaries at each sample time
+     */
+    public StateSummary[] estimate(EnsembleSummarySpec spec) {
+
+        Model model = spec.getModel();
+        int nSamples = spec.getnSamples();
+        double sampleDt = spec.getSampleDt();
+        rng = spec.getRandomGenerator();
+
+        evaluator = new ExpressionEvaluator(parseTree, null,
+                model.getFunctionMap());
+        popTypes = model.getPopulationTypes();
+        typePops = Lists.newArrayList();
+        for (PopulationType popType : popTypes)
+            typePops.add(Lists.newArrayList(popType));
+
+        StateSummary[] stateSummaries = new StateSummary[nSamples];
+        for (int sidx=0; sidx<nSamples; sidx++)
+            stateSummaries[sidx] = new StateSummary(spec.getMoments(),
+                    spec.getMomentGroups());
+
+        nCompleted = 0;
+        nTarget = 0;
+        double targetWeightSum = 0.0, targetWeightSumSq = 0.0;
+
+        Deque<Particle> particles = new ArrayDeque<>();
+
+        for (int traj=0; traj<spec.getnTraj(); traj++) {
+
+            if (spec.getVerbosity()>0)
+                System.err.println("Integrating trajectory "
+                        + String.valueOf(traj+1) + " of "
+                        + String.valueOf(spec.getnTraj()));
+
+            // Root trajectory and all of its copies draw from its stream:
+            rng.setStream(traj);
+
+            Particle root = new Particle(nSamples);
+            root.state = new PopulationState(spec.getInitPopulationState());
+            root.samples[0] = new PopulationState(root.state);
+            root.level = crossedLevels(root.state, 0);
+            root.weight = Math.pow(nSplit, -root.level);
+            for (int i=1; i<Math.pow(nSplit, root.level); i++)
+                particles.push(new Particle(root));
+            particles.push(root);
+
+            // Total weight of copies reaching the final level:
+            double targetWeight = 0.0;
+
+            while (!particles.isEmpty()) {
+                Particle particle = particles.pop();
+
+                while (particle.sidx<nSamples) {
+                    double nextSampTime = particle.sidx*sampleDt;
+
+                    while (particle.t<nextSampTime) {
+                        particle.t += spec.getStepper().step(particle.state,
+                                model, false,
+                                particle.t, nextSampTime-particle.t, rng);
+
+                        if (particle.level==levels.length)
+                            continue;
+
+                        int level = crossedLevels(particle.state, particle.level);
+                        if (level>particle.level) {
+                            int nCopies = (int)Math.round(
+                                    Math.pow(nSplit, level-particle.level));
+
+                            if (spec.getVerbosity()>1)
+                                System.err.println("Level " + level
+                                        + " reached at time " + particle.t
+                                        + ": splitting into " + nCopies
+                                        + " copies.");
+
+                            particle.level = level;
+                            particle.weight /= nCopies;
+                            for (int i=1; i<nCopies; i++)
+                                particles.push(new Particle(particle));
+                        }
+                    }
+
+                    particle.samples[particle.sidx] = new PopulationState(particle.state);
+                    particle.sidx += 1;
+                }
+
+                // Record completed trajectory:
+                nCompleted += 1;
+                boolean reachedTarget = particle.level==levels.length;
+                if (reachedTarget) {
+                    nTarget += 1;
+                    targetWeight += particle.weight;
+                }
+
+                if (conditional && !reachedTarget)
+                    continue;
+
+                for (int sidx=0; sidx<nSamples; sidx++) {
+                    stateSummaries[sidx].record(particle.samples[sidx]);
+                    stateSummaries[sidx].accept(particle.weight);
+                }
+            }
+
+            targetWeightSum += targetWeight;
+            targetWeightSumSq += targetWeight*targetWeight;
+        }
+
+        // Estimate probability of rare event:
+        int nTraj = spec.getnTraj();
+        probability = targetWeightSum/nTraj;
+        probabilityStdErr = nTraj>1
+                ? Math.sqrt(Math.max(0.0,
+                        (targetWeightSumSq/nTraj - probability*probability)
+                                /(nTraj-1)))
+                : Double.NaN;
+
+        if (spec.getVerbosity()>0)
+            System.err.println("Rare event probability: " + probability
+                    + " +/- " + probabilityStdErr + " (" + nTarget
+                    + " of " + nCompleted + " trajectories reached final"
+                    + " level)");
+
+        if (conditional && nTarget==0)
+            System.err.println("Warning: no trajectories reached the final"
+                    + " splitting level.  Conditional moment estimates are"
+                    + " undefined.");
+
+        for (StateSummary summary : stateSummaries)
+            summary.normalise();
+
+        return stateSummaries;
+    }
+
+    /**
+     * Determine the number of levels lying at or below the progress
+     * coordinate of the given state.
+     *
+     * @param state population state
+     * @param level number of levels already known to be crossed
+     * @return number of levels crossed
+     */
+    private int crossedLevels(PopulationState state, int level) {
+        if (level==levels.length)
+            return level;
+
+        for (int i=0; i<popTypes.size(); i++) {
+            List<Population> pops = typePops.get(i);
+            Double[] sizes = new Double[pops.size()];
+            for (int j=0; j<sizes.length; j++)
+                sizes[j] = state.get(pops.get(j));
+            evaluator.setVectorVar(popTypes.get(i).getName(), sizes);
+        }
+
+        Double[] res = evaluator.evaluate(null);
+        if (res.length != 1)
+            throw new IllegalArgumentException(
+                    "Progress coordinate must be scalar!");
+
+        while (level<levels.length && res[0]>=levels[level])
+            level += 1;
+
+        return level;
+    }
+
+    /**
+     * @return estimated probability of the rare event, or null if no
+     * estimate has yet been made.
+     */
+    public Double getProbability() {
+        return probability;
+    }
+
+    /**
+     * @return standard error of estimated probability of the rare event,
+     * or null if no estimate has yet been made.
+     */
+    public Double getProbabilityStdErr() {
+        return probabilityStdErr;
+    }
+
+    /**
+     * Partially simulated copy of a trajectory.
+     */
+    private static class Particle {
+        PopulationState state;
+        PopulationState[] samples;
+        double t, weight;
+        int sidx, level;
+
+        Particle(int nSamples) {
+            samples = new PopulationState[nSamples];
+            t = 0.0;
+            weight = 1.0;
+            sidx = 1;
+            level = 0;
+        }
+
+        /**
+         * Copy particle.  Recorded samples are never modified, so are
+         * shared between copies.
+         *
+         * @param other particle to copy
+         */
+        Particle(Particle other) {
+            state = new PopulationState(other.state);
+            samples = other.samples.clone();
+            t = other.t;
+            weight = other.weight;
+            sidx = other.sidx;
+            level = other.level;
+        }
+    }
+
+    /**
+     * Construct representation of configuration to use in assembling
+     * summary in JSON output file.
+     *
+     * @return Map from strings to other objects which have a JSON rep
+     */
+    @JsonValue
+    public Map<String, Object> getJsonValue() {
+
+        Map<String, Object> jsonObject = Maps.newHashMap();
+
+        jsonObject.put("progress", progressInput.get());
+
+        List<Double> levelList = Lists.newArrayList();
+        for (double level : levels)
+            levelList.add(level);
+        jsonObject.put("levels", levelList);
+        jsonObject.put("nSplit", nSplit);
+        jsonObject.put("conditional", conditional);
+
+        if (probability != null) {
+            jsonObject.put("probability", probability);
+            jsonObject.put("probabilityStdErr", probabilityStdErr);
+            jsonObject.put("nCompletedTraj", nCompleted);
+            jsonObject.put("nTargetTraj", nTarget);
+        }
+
+        return jsonObject;
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package master.estimators;
+
+import beast.core.BEASTObject;
+import beast.core.Description;
+import beast.core.Input;
+import master.model.Reaction;
+
+/**
+ * Sequence of factors by which the rates of a reaction are scaled in the
+ * alternative parameter sets considered by likelihood reweighting.  The
+ * kth factor applies to the kth parameter set, and multiplies every rate
+ * (including those of all reactions implied by location variables) of
+ * the given reaction.
+ *
+ * @author agent <agent@local>
+ */
+@Description("Factors by which to scale the rates of a reaction when "
+        + "reweighting trajectories.")
+public class RateScaling extends BEASTObject {
+
+    public Input<Reaction> reactionInput = new Input<>("reaction",
+            "Reaction whose rates are scaled.",
+            Input.Validate.REQUIRED);
+
+    public Input<String> factorsInput = new Input<>("factors",
+            "Space-delimited list of non-negative rate scale factors, one"
+                    + " per parameter set.",
+            Input.Validate.REQUIRED);
+
+    double[] factors;
+
+    public RateScaling() { }
+
+    @Override
+    public void initAndValidate() {
+        String[] factorStrings = factorsInput.get().trim().split(" +");
+        factors = new double[factorStrings.length];
+        for (int i=0; i<factors.length; i++) {
+            factors[i] = Double.parseDouble(factorStrings[i]);
+            if (!(factors[i]>=0.0) || Double.isInfinite(factors[i]))
+                throw new IllegalArgumentException("Rate scale factors must"
+                        + " be finite and non-negative.");
+        }
+    }
+
+    /**
+     * @return reaction whose rates are scaled
+     */
+    public Reaction getReaction() {
+        return reactionInput.get();
+    }
+
+    /**
+     * @return scale factors, one per parameter set
+     */
+    public double[] getFactors() {
+        return factors;
+    }
+}
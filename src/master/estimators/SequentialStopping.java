@@ -0,0 +1,273 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package master.estimators;
+
+import beast.core.BEASTObject;
+import beast.core.Description;
+import beast.core.Input;
+import com.fasterxml.jackson.annotation.JsonValue;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import master.EnsembleSummarySpec;
+import master.model.Moment;
+import master.model.MomentGroup;
+import master.model.StateSummary;
+
+/**
+ * Sequential stopping rule for ensemble summaries.  Rather than
+ * simulating a fixed number of trajectories, trajectories are simulated
+ * in batches until the standard errors of the selected moment estimates
+ * meet a target precision at every selected sample time.  The nTraj
+ * input of the ensemble then gives the maximum number of trajectories.
+ *
+ * An estimate meets the target if its standard error is at most
+ * relativeStdErr times the magnitude of the estimate, or at most
+ * absoluteStdErr if this is given.  The latter is useful for moments
+ * whose means may be close to zero.
+ *
+ * @author agent <agent@local>
+ */
+@Description("Simulate trajectories until moment estimates reach a target "
+        + "precision.")
+public class SequentialStopping extends BEASTObject {
+
+    public Input<Double> relativeStdErrInput = new Input<>("relativeStdErr",
+            "Target standard error of moment estimates relative to their"
+                    + " magnitude.",
+            Input.Validate.REQUIRED);
+
+    public Input<Double> absoluteStdErrInput = new Input<>("absoluteStdErr",
+            "Standard error below which moment estimates are considered"
+                    + " sufficiently precise regardless of their magnitude."
+                    + " (Default 0.)", 0.0);
+
+    public Input<List<Moment>> momentsInput = new Input<>("moment",
+            "Moment whose precision is monitored. (Default all moments and"
+                    + " moment groups.)",
+            new ArrayList<>());
+
+    public Input<List<MomentGroup>> momentGroupsInput = new Input<>(
+            "momentGroup",
+            "Moment group whose precision is monitored.",
+            new ArrayList<>());
+
+    public Input<String> sampleTimesInput = new Input<>("sampleTimes",
+            "Space-delimited list of sample times at which precision is"
+                    + " monitored. (Default all sample times.)");
+
+    public Input<Integer> minTrajInput = new Input<>("minTraj",
+            "Minimum number of trajectories to simulate. (Default 100.)",
+            100);
+
+    public Input<Integer> batchSizeInput = new Input<>("batchSize",
+            "Number of trajectories between precision checks. (Default"
+                    + " 100.)", 100);
+
+    double relativeStdErr, absoluteStdErr;
+    int minTraj, batchSize;
+
+    // Monitored moments and sample indices:
+    private List<Moment> moments;
+    private List<MomentGroup> momentGroups;
+    private int[] sampleIndices;
+
+    // Outcome of calculation:
+    private Integer nTrajRealised;
+    private double achievedPrecision;
+
+    public SequentialStopping() { }
+
+    @Override
+    public void initAndValidate() {
+        relativeStdErr = relativeStdErrInput.get();
+        absoluteStdErr = absoluteStdErrInput.get();
+        minTraj = minTrajInput.get();
+        batchSize = batchSizeInput.get();
+
+        if (!(relativeStdErr>=0.0) || !(absoluteStdErr>=0.0))
+            throw new IllegalArgumentException("Target standard errors must"
+                    + " be non-negative.");
+
+        if (minTraj<1 || batchSize<1)
+            throw new IllegalArgumentException("minTraj and batchSize must"
+                    + " be at least 1.");
+    }
+
+    /**
+     * Prepare to monitor the calculation described by the given spec.
+     *
+     * @param spec ensemble summary specification
+     */
+    public void initialise(EnsembleSummarySpec spec) {
+        if (minTraj>spec.getnTraj())
+            throw new IllegalArgumentException("minTraj must not exceed"
+                    + " nTraj.");
+
+        if (momentsInput.get().isEmpty() && momentGroupsInput.get().isEmpty()) {
+            moments = spec.getMoments();
+            momentGroups = spec.getMomentGroups();
+        } else {
+            moments = momentsInput.get();
+            momentGroups = momentGroupsInput.get();
+        }
+
+        for (Moment moment : moments) {
+            if (!spec.getMoments().contains(moment))
+                throw new IllegalArgumentException("Monitored moment "
+                        + moment.getName() + " is not estimated by the"
+                        + " ensemble summary.");
+        }
+
+        for (MomentGroup momentGroup : momentGroups) {
+            if (!spec.getMomentGroups().contains(momentGroup))
+                throw new IllegalArgumentException("Monitored moment group "
+                        + momentGroup.getName() + " is not estimated by the"
+                        + " ensemble summary.");
+        }
+
+        if (sampleTimesInput.get() == null) {
+            sampleIndices = new int[spec.getnSamples()];
+            for (int i=0; i<sampleIndices.length; i++)
+                sampleIndices[i] = i;
+        } else {
+            String[] timeStrings = sampleTimesInput.get().trim().split(" +");
+            sampleIndices = new int[timeStrings.length];
+            for (int i=0; i<sampleIndices.length; i++) {
+                double time = Double.parseDouble(timeStrings[i]);
+                sampleIndices[i] = (int)Math.round(time/spec.getSampleDt());
+                if (sampleIndices[i]<0 || sampleIndices[i]>=spec.getnSamples())
+                    throw new IllegalArgumentException("Monitored sample time "
+                            + time + " lies outside the simulation.");
+            }
+        }
+
+        nTrajRealised = null;
+    }
+
+    /**
+     * Determine whether enough trajectories have been simulated.  The
+     * check is only performed at the end of each batch.
+     *
+     * @param nCompleted number of trajectories completed so far
+     * @param stateSummaries unnormalised state summaries
+     * @return true if the target precision has been met
+     */
+    public boolean isMet(int nCompleted, StateSummary[] stateSummaries) {
+        if (nCompleted<minTraj || nCompleted%batchSize != 0)
+            return false;
+
+        return computePrecision(stateSummaries)<=1.0;
+    }
+
+    /**
+     * Record the outcome of the calculation.
+     *
+     * @param nCompleted number of trajectories simulated
+     * @param stateSummaries unnormalised state summaries
+     */
+    public void finish(int nCompleted, StateSummary[] stateSummaries) {
+        nTrajRealised = nCompleted;
+        achievedPrecision = computePrecision(stateSummaries);
+    }
+
+    /**
+     * Compute the largest ratio of the standard error of a monitored
+     * estimate to the standard error targeted for it.
+     *
+     * @param stateSummaries unnormalised state summaries
+     * @return largest ratio (at most 1 if target is met)
+     */
+    private double computePrecision(StateSummary[] stateSummaries) {
+        double maxRatio = 0.0;
+
+        for (int sidx : sampleIndices) {
+            StateSummary summary = stateSummaries[sidx];
+            double n = summary.getTotalWeight();
+
+            for (Moment moment : moments)
+                maxRatio = Math.max(maxRatio, getRatio(
+                        summary.getSum(moment),
+                        summary.getSumOfSquares(moment), n));
+
+            for (MomentGroup momentGroup : momentGroups) {
+                double[] sums = summary.getGroupSums(momentGroup);
+                double[] sums2 = summary.getGroupSumsOfSquares(momentGroup);
+                for (int i=0; i<sums.length; i++)
+                    maxRatio = Math.max(maxRatio, getRatio(sums[i], sums2[i], n));
+            }
+        }
+
+        return maxRatio;
+    }
+
+    /**
+     * Compute ratio of standard error of estimate to its target.
+     *
+     * @param sum sum of summaries
+     * @param sum2 sum of squared summaries
+     * @param n number of summaries
+     * @return ratio
+     */
+    private double getRatio(double sum, double sum2, double n) {
+        if (n<2)
+            return Double.POSITIVE_INFINITY;
+
+        double mean = sum/n;
+        double var = Math.max(0.0, (sum2/n - mean*mean)*n/(n-1));
+        double stdErr = Math.sqrt(var/n);
+        if (stdErr == 0.0)
+            return 0.0;
+
+        return stdErr/Math.max(relativeStdErr*Math.abs(mean), absoluteStdErr);
+    }
+
+    /**
+     * Construct representation of stopping rule to use in assembling
+     * summary in JSON output file.
+     *
+     * @return Map from strings to other objects which have a JSON rep
+     */
+    @JsonValue
+    public Map<String, Object> getJsonValue() {
+
+        Map<String, Object> jsonObject = Maps.newHashMap();
+
+        jsonObject.put("relativeStdErr", relativeStdErr);
+        if (absoluteStdErr>0.0)
+            jsonObject.put("absoluteStdErr", absoluteStdErr);
+        jsonObject.put("minTraj", minTraj);
+        jsonObject.put("batchSize", batchSize);
+
+        if (sampleTimesInput.get() != null) {
+            List<Integer> indexList = Lists.newArrayList();
+            for (int sidx : sampleIndices)
+                indexList.add(sidx);
+            jsonObject.put("sampleIndices", indexList);
+        }
+
+        if (nTrajRealised != null) {
+            jsonObject.put("nTraj", nTrajRealised);
+            jsonObject.put("targetMet", achievedPrecision<=1.0);
+            jsonObject.put("precisionRatio", achievedPrecision);
+        }
+
+        return jsonObject;
+    }
+}
@@ -0,0 +1,667 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package master.estimators;
+
+import beast.core.BEASTObject;
+import beast.core.Description;
+import beast.core.Input;
+import com.fasterxml.jackson.annotation.JsonValue;
+import com.google.common.collect.Maps;
+import java.util.List;
+import java.util.Map;
+import master.EnsembleSummarySpec;
+import master.model.Model;
+import master.model.PopulationState;
+import master.model.Reaction;
+import master.model.StateSummary;
+import master.rng.RandomGenerator;
+import master.steppers.GillespieStepper;
+import master.steppers.TauLeapingStepper;
+
+/**
+ * Variance reduction for ensemble summary moment estimates.  Three
+ * techniques are available:
+ *
+ * Antithetic pairs: tau-leaping trajectories are generated in pairs, the
+ * second member of each pair using the complementary uniform variates
+ * (1-u) when drawing Poisson reaction counts by inversion.
+ *
+ * Randomized quasi-Monte Carlo: the uniforms used by the first few
+ * Poisson draws of each tau-leaping trajectory are taken from a Halton
+ * sequence with a random (Cranley-Patterson) shift, with independently
+ * shifted replicates used to estimate the error.
+ *
+ * Control variates: for each reaction, the number of firings minus the
+ * integrated propensity (a zero-mean martingale) is recorded at each
+ * sample time and used as a control, with regression coefficients
+ * estimated from the ensemble.  This works with both tau-leaping and
+ * Gillespie steppers.
+ *
+ * The achieved variance reduction factor (variance of the plain Monte
+ * Carlo estimator divided by that of the variance-reduced estimator) is
+ * recorded for every moment at every sample time.
+ *
+ * @author agent <agent@local>
+ */
+@Description("Variance reduction for ensemble summary calculations.")
+public class VarianceReduction extends BEASTObject {
+
+    public Input<Boolean> antitheticInput = new Input<>("antithetic",
+            "Generate tau-leaping trajectories in antithetic pairs.", false);
+
+    public Input<Boolean> quasiRandomInput = new Input<>("quasiRandom",
+            "Use randomized quasi-Monte Carlo for tau-leaping trajectories.",
+            false);
+
+    public Input<Integer> nReplicatesInput = new Input<>("nReplicates",
+            "Number of independently randomized quasi-Monte Carlo "
+                    + "replicates.", 10);
+
+    public Input<Integer> quasiRandomDimensionsInput = new Input<>(
+            "quasiRandomDimensions",
+            "Number of leading Poisson draws per trajectory which use "
+                    + "quasi-random variates.", 32);
+
+    public Input<Boolean> controlVariatesInput = new Input<>(
+            "controlVariates",
+            "Use compensated reaction counts as control variates.", false);
+
+    // Prime bases for Halton sequence:
+    private int[] primes;
+
+    // Source of random variates for current estimate:
+    private RandomGenerator rng;
+
+    public VarianceReduction() { }
+
+    @Override
+    public void initAndValidate() {
+        if (antitheticInput.get() && quasiRandomInput.get())
+            throw new IllegalArgumentException("Antithetic and quasi-random "
+                    + "trajectories cannot be combined.");
+
+        if (quasiRandomInput.get() && nReplicatesInput.get()<2)
+            throw new IllegalArgumentException("At least two quasi-random "
+                    + "replicates are required.");
+
+        if (!antitheticInput.get() && !quasiRandomInput.get()
+                && !controlVariatesInput.get())
+            throw new IllegalArgumentException("No variance reduction "
+                    + "technique selected.");
+
+        primes = new int[quasiRandomDimensionsInput.get()];
+        int n = 2;
+        for (int i=0; i<primes.length; n++) {
+            boolean isPrime = true;
+            for (int j=0; j<i && primes[j]*primes[j]<=n; j++) {
+                if (n % primes[j] == 0) {
+                    isPrime = false;
+                    break;
+                }
+            }
+            if (isPrime)
+                primes[i++] = n;
+        }
+    }
+
+    /**
+     * Check that chosen techniques can be used with stepper.
+     *
+     * @param spec ensemble summary specification
+     */
+    public void validateSpec(EnsembleSummarySpec spec) {
+        if (antitheticInput.get() || quasiRandomInput.get()) {
+            if (!(spec.getStepper() instanceof TauLeapingStepper))
+                throw new IllegalArgumentException("Antithetic and "
+                        + "quasi-random trajectories require the "
+                        + "tau-leaping stepper.");
+        } else {
+            if (!(spec.getStepper() instanceof TauLeapingStepper)
+                    && !(spec.getStepper() instanceof GillespieStepper))
+                throw new IllegalArgumentException("Control variates require"
+                        + " the tau-leaping or Gillespie stepper.");
+        }
+
+        if (antitheticInput.get() && spec.getnTraj() % 2 != 0)
+            throw new IllegalArgumentException("Antithetic trajectories "
+                    + "require an even nTraj.");
+
+        if (quasiRandomInput.get() && spec.getnTraj() % nReplicatesInput.get() != 0)
+            throw new IllegalArgumentException("nTraj must be a multiple of "
+                    + "the number of quasi-random replicates.");
+    }
+
+    /**
+     * Estimate moments at each sample time specified by spec.
+     *
+     * @param spec ensemble summary specification
+     * @return state summaries at each sample time
+     */
+    public StateSummary[] estimate(EnsembleSummarySpec spec) {
+
+        Model model = spec.getModel();
+        int nSamples = spec.getnSamples();
+        double sampleDt = spec.getSampleDt();
+        int nReactions = model.getReactions().size();
+        rng = spec.getRandomGenerator();
+
+        StateSummary[] stateSummaries = new StateSummary[nSamples];
+        for (int sidx=0; sidx<nSamples; sidx++)
+            stateSummaries[sidx] = new StateSummary(spec.getMoments(),
+                    spec.getMomentGroups());
+        int nComponents = stateSummaries[0].getComponentCount();
+
+        boolean useControls = controlVariatesInput.get();
+        int nControls = useControls ? nReactions : 0;
+
+        // Trajectories per unit (antithetic pair or single trajectory):
+        int unitSize = antitheticInput.get() ? 2 : 1;
+        int nUnits = spec.getnTraj()/unitSize;
+
+        // Replicates (independent groups of units):
+        int nReplicates = quasiRandomInput.get() ? nReplicatesInput.get() : nUnits;
+        int unitsPerReplicate = nUnits/nReplicates;
+
+        // Unit-level sums used for estimation and regression:
+        double[][] fSum = new double[nSamples][nComponents];
+        double[][] fSumSq = new double[nSamples][nComponents];
+        double[][] mSum = new double[nSamples][nControls];
+        double[][][] mmSum = new double[nSamples][nControls][nControls];
+        double[][][] mfSum = new double[nSamples][nControls][nComponents];
+
+        // Replicate-level means (quasi-random only):
+        double[][][] fRep = null, mRep = null;
+        if (quasiRandomInput.get()) {
+            fRep = new double[nReplicates][nSamples][nComponents];
+            mRep = new double[nReplicates][nSamples][nControls];
+        }
+
+        // Trajectory-level variance of each component:
+        double[][] fTrajSum = new double[nSamples][nComponents];
+        double[][] fTrajSumSq = new double[nSamples][nComponents];
+
+        PopulationState[] states = new PopulationState[unitSize];
+        double[][] counts = new double[unitSize][nReactions];
+        double[][] compensators = new double[unitSize][nReactions];
+        double[] components = new double[nComponents];
+        double[] fUnit = new double[nComponents];
+        double[] mUnit = new double[nControls];
+
+        for (int rep=0; rep<nReplicates; rep++) {
+
+            // Random shift for this quasi-random replicate:
+            double[] shift = null;
+            if (quasiRandomInput.get()) {
+                rng.setStream(spec.getnTraj() + rep);
+                shift = new double[primes.length];
+                for (int j=0; j<shift.length; j++)
+                    shift[j] = rng.nextDouble();
+            }
+
+            for (int unit=0; unit<unitsPerReplicate; unit++) {
+
+                if (spec.getVerbosity()>0)
+                    System.err.println("Integrating trajectory "
+                            + String.valueOf((rep*unitsPerReplicate+unit)*unitSize+1)
+                            + " of " + String.valueOf(spec.getnTraj()));
+
+                // Each unit draws from its own stream where supported:
+                rng.setStream(rep*unitsPerReplicate + unit);
+
+                UniformSource source;
+                if (quasiRandomInput.get())
+                    source = new HaltonSource(unit, shift);
+                else
+                    source = new PseudoRandomSource();
+
+                for (int k=0; k<unitSize; k++) {
+                    states[k] = new PopulationState(spec.getInitPopulationState());
+                    for (int r=0; r<nReactions; r++) {
+                        counts[k][r] = 0.0;
+                        compensators[k][r] = 0.0;
+                    }
+                }
+
+                double t = 0.0;
+                for (int sidx=0; sidx<nSamples; sidx++) {
+                    double nextSampTime = sidx*sampleDt;
+
+                    if (spec.getStepper() instanceof TauLeapingStepper)
+                        leap(states, counts, compensators, source, model, t,
+                                nextSampTime,
+                                ((TauLeapingStepper)spec.getStepper()).getTimeStepSize());
+                    else
+                        simulate(states[0], counts[0], compensators[0], model,
+                                t, nextSampTime);
+                    t = nextSampTime;
+
+                    // Record trajectory summaries and unit averages:
+                    for (int c=0; c<nComponents; c++)
+                        fUnit[c] = 0.0;
+                    for (int i=0; i<nControls; i++)
+                        mUnit[i] = 0.0;
+
+                    for (int k=0; k<unitSize; k++) {
+                        stateSummaries[sidx].record(states[k]);
+                        stateSummaries[sidx].accept();
+
+                        stateSummaries[sidx].getComponents(states[k], components);
+                        for (int c=0; c<nComponents; c++) {
+                            fTrajSum[sidx][c] += components[c];
+                            fTrajSumSq[sidx][c] += components[c]*components[c];
+                            fUnit[c] += components[c]/unitSize;
+                        }
+                        for (int i=0; i<nControls; i++)
+                            mUnit[i] += (counts[k][i]-compensators[k][i])/unitSize;
+                    }
+
+                    for (int c=0; c<nComponents; c++) {
+                        fSum[sidx][c] += fUnit[c];
+                        fSumSq[sidx][c] += fUnit[c]*fUnit[c];
+                        if (fRep != null)
+                            fRep[rep][sidx][c] += fUnit[c]/unitsPerReplicate;
+                    }
+                    for (int i=0; i<nControls; i++) {
+                        mSum[sidx][i] += mUnit[i];
+                        if (mRep != null)
+                            mRep[rep][sidx][i] += mUnit[i]/unitsPerReplicate;
+                        for (int j=0; j<nControls; j++)
+                            mmSum[sidx][i][j] += mUnit[i]*mUnit[j];
+                        for (int c=0; c<nComponents; c++)
+                            mfSum[sidx][i][c] += mUnit[i]*fUnit[c];
+                    }
+                }
+            }
+        }
+
+        // Assemble estimates:
+        double nTraj = nUnits*unitSize;
+        double[] means = new double[nComponents];
+        double[] factors = new double[nComponents];
+        for (int sidx=0; sidx<nSamples; sidx++) {
+            stateSummaries[sidx].normalise();
+
+            // Regression coefficients for control variates:
+            double[][] beta = new double[nControls][nComponents];
+            double[] mMean = new double[nControls];
+            if (useControls) {
+                double[][] covMM = new double[nControls][nControls];
+                double[][] covMF = new double[nControls][nComponents];
+                for (int i=0; i<nControls; i++) {
+                    mMean[i] = mSum[sidx][i]/nUnits;
+                }
+                for (int i=0; i<nControls; i++) {
+                    for (int j=0; j<nControls; j++)
+                        covMM[i][j] = mmSum[sidx][i][j]/nUnits - mMean[i]*mMean[j];
+                    for (int c=0; c<nComponents; c++)
+                        covMF[i][c] = mfSum[sidx][i][c]/nUnits
+                                - mMean[i]*fSum[sidx][c]/nUnits;
+                }
+                beta = solve(covMM, covMF);
+            }
+
+            for (int c=0; c<nComponents; c++) {
+                double fMean = fSum[sidx][c]/nUnits;
+
+                // Controls have zero expectation:
+                double adjustedMean = fMean;
+                for (int i=0; i<nControls; i++)
+                    adjustedMean -= beta[i][c]*mMean[i];
+                means[c] = adjustedMean;
+
+                // Variance of variance-reduced estimator:
+                double estimatorVar;
+                if (fRep != null) {
+                    double sum = 0.0, sumSq = 0.0;
+                    for (int rep=0; rep<nReplicates; rep++) {
+                        double repMean = fRep[rep][sidx][c];
+                        for (int i=0; i<nControls; i++)
+                            repMean -= beta[i][c]*mRep[rep][sidx][i];
+                        sum += repMean;
+                        sumSq += repMean*repMean;
+                    }
+                    double repAvg = sum/nReplicates;
+                    estimatorVar = (sumSq/nReplicates - repAvg*repAvg)
+                            /(nReplicates-1);
+                } else {
+                    double unitVar = fSumSq[sidx][c]/nUnits - fMean*fMean;
+                    for (int i=0; i<nControls; i++) {
+                        double covMF = mfSum[sidx][i][c]/nUnits - mMean[i]*fMean;
+                        unitVar -= 2*beta[i][c]*covMF;
+                        for (int j=0; j<nControls; j++)
+                            unitVar += beta[i][c]*beta[j][c]
+                                    *(mmSum[sidx][i][j]/nUnits - mMean[i]*mMean[j]);
+                    }
+                    estimatorVar = Math.max(0.0, unitVar)/nUnits;
+                }
+
+                // Variance of plain Monte Carlo estimator:
+                double trajMean = fTrajSum[sidx][c]/nTraj;
+                double plainVar = Math.max(0.0,
+                        fTrajSumSq[sidx][c]/nTraj - trajMean*trajMean)/nTraj;
+
+                if (estimatorVar>0.0)
+                    factors[c] = plainVar/estimatorVar;
+                else
+                    factors[c] = plainVar>0.0 ? Double.POSITIVE_INFINITY : 1.0;
+            }
+
+            stateSummaries[sidx].setVarianceReducedMeans(means, factors);
+        }
+
+        return stateSummaries;
+    }
+
+    /**
+     * Tau-leap a unit of states from t to tEnd, drawing reaction counts
+     * by inversion so that antithetic and quasi-random variates can be
+     * used.  The second state of an antithetic pair uses complementary
+     * variates.
+     */
+    private void leap(PopulationState[] states, double[][] counts,
+            double[][] compensators, UniformSource source, Model model,
+            double t, double tEnd, double h) {
+
+        List<Reaction> reactions = model.getReactions();
+        double[][] means = new double[states.length][reactions.size()];
+
+        while (t<tEnd) {
+            double tNext = Math.min(Math.min(t + h, tEnd),
+                    model.getNextReactionChangeTime(t));
+
+            for (int k=0; k<states.length; k++) {
+                for (int r=0; r<reactions.size(); r++) {
+                    reactions.get(r).calcPropensity(states[k], t);
+                    means[k][r] = reactions.get(r).getPropensity()*(tNext-t);
+                }
+            }
+
+            for (int r=0; r<reactions.size(); r++) {
+                double u = source.next();
+                for (int k=0; k<states.length; k++) {
+                    double q = poissonInverse(k==0 ? u : 1.0-u, means[k][r]);
+                    states[k].implementReaction(reactions.get(r), q);
+                    counts[k][r] += q;
+                    compensators[k][r] += means[k][r];
+                }
+            }
+
+            t = tNext;
+        }
+    }
+
+    /**
+     * Simulate state exactly from t to tEnd, keeping track of reaction
+     * counts and integrated propensities.
+     */
+    private void simulate(PopulationState state, double[] counts,
+            double[] compensators, Model model, double t, double tEnd) {
+
+        List<Reaction> reactions = model.getReactions();
+
+        while (t<tEnd) {
+            double tStop = Math.min(tEnd, model.getNextReactionChangeTime(t));
+
+            double totalPropensity = 0.0;
+            for (Reaction reaction : reactions) {
+                reaction.calcPropensity(state, t);
+                totalPropensity += reaction.getPropensity();
+            }
+
+            double dt = totalPropensity>0.0
+                    ? rng.nextExponential(totalPropensity)
+                    : Double.POSITIVE_INFINITY;
+
+            double elapsed = Math.min(dt, tStop-t);
+            for (int r=0; r<reactions.size(); r++)
+                compensators[r] += reactions.get(r).getPropensity()*elapsed;
+
+            if (t+dt>=tStop) {
+                t = tStop;
+                continue;
+            }
+            t += dt;
+
+            // Choose reaction to implement:
+            double u = rng.nextDouble()*totalPropensity;
+            int chosen;
+            for (chosen=0; chosen<reactions.size()-1; chosen++) {
+                u -= reactions.get(chosen).getPropensity();
+                if (u<0)
+                    break;
+            }
+
+            state.implementReaction(reactions.get(chosen), 1);
+            counts[chosen] += 1;
+        }
+    }
+
+    /**
+     * Solve the linear system A x = B for each column of B using Gaussian
+     * elimination with partial pivoting.  Directions with (near) zero
+     * variance are dropped by setting the corresponding coefficients to
+     * zero.
+     *
+     * @param A square matrix
+     * @param B right-hand sides
+     * @return solution matrix
+     */
+    private double[][] solve(double[][] A, double[][] B) {
+        int n = A.length;
+        int m = n>0 ? B[0].length : 0;
+
+        double[][] a = new double[n][];
+        double[][] b = new double[n][];
+        for (int i=0; i<n; i++) {
+            a[i] = A[i].clone();
+            b[i] = B[i].clone();
+        }
+
+        double maxDiag = 0.0;
+        for (int i=0; i<n; i++)
+            maxDiag = Math.max(maxDiag, Math.abs(a[i][i]));
+        double eps = 1e-12*maxDiag;
+
+        boolean[] dropped = new boolean[n];
+        int[] pivotRow = new int[n];
+        int row = 0;
+        for (int col=0; col<n; col++) {
+            int best = -1;
+            for (int i=row; i<n; i++) {
+                if (Math.abs(a[i][col])>eps
+                        && (best<0 || Math.abs(a[i][col])>Math.abs(a[best][col])))
+                    best = i;
+            }
+            if (best<0) {
+                dropped[col] = true;
+                continue;
+            }
+
+            double[] tmp = a[row]; a[row] = a[best]; a[best] = tmp;
+            tmp = b[row]; b[row] = b[best]; b[best] = tmp;
+
+            for (int i=0; i<n; i++) {
+                if (i==row)
+                    continue;
+                double f = a[i][col]/a[row][col];
+                if (f==0.0)
+                    continue;
+                for (int j=col; j<n; j++)
+                    a[i][j] -= f*a[row][j];
+                for (int j=0; j<m; j++)
+                    b[i][j] -= f*b[row][j];
+            }
+            pivotRow[col] = row;
+            row += 1;
+        }
+
+        double[][] x = new double[n][m];
+        for (int col=0; col<n; col++) {
+            if (dropped[col])
+                continue;
+            for (int j=0; j<m; j++)
+                x[col][j] = b[pivotRow[col]][j]/a[pivotRow[col]][col];
+        }
+
+        return x;
+    }
+
+    /**
+     * Draw from a Poisson distribution by inversion of a uniform variate.
+     * Small means accumulate the CDF upwards from zero.  For large means,
+     * where exp(-mean) underflows, the probabilities relative to that of
+     * the mode are summed over both tails to normalise them and the CDF
+     * is searched outwards from the mode, which takes O(sqrt(mean))
+     * steps.
+     *
+     * @param u uniform variate
+     * @param mean Poisson mean
+     * @return Poisson variate
+     */
+    static double poissonInverse(double u, double mean) {
+        if (mean<=0.0)
+            return 0.0;
+
+        if (mean<500.0) {
+            double p = Math.exp(-mean);
+            double cdf = p;
+            int k = 0;
+            int kMax = (int)(mean + 40.0*Math.sqrt(mean) + 40.0);
+            while (u>cdf && k<kMax) {
+                k += 1;
+                p *= mean/k;
+                cdf += p;
+            }
+            return k;
+        }
+
+        // Probabilities relative to that of the mode, truncated where
+        // they become negligible:
+        final double wMin = 1e-20;
+        int mode = (int)mean;
+
+        double lower = 0.0;
+        double w = 1.0;
+        for (int k=mode; k>0 && w>wMin; k--) {
+            w *= k/mean;
+            lower += w;
+        }
+
+        double upper = 0.0;
+        w = 1.0;
+        for (int k=mode+1; w>wMin; k++) {
+            w *= mean/k;
+            upper += w;
+        }
+
+        double target = u*(lower + 1.0 + upper);
+
+        // Search from the mode, where the CDF (relative to the mode
+        // probability) is lower + 1:
+        int k = mode;
+        double cdf = lower + 1.0;
+        w = 1.0;
+        if (target<=cdf) {
+            while (k>0 && w>wMin && target<=cdf-w) {
+                cdf -= w;
+                w *= k/mean;
+                k -= 1;
+            }
+        } else {
+            while (target>cdf && w>wMin) {
+                k += 1;
+                w *= mean/k;
+                cdf += w;
+            }
+        }
+
+        return k;
+    }
+
+    /**
+     * Source of uniform variates for a single trajectory.
+     */
+    private interface UniformSource {
+        double next();
+    }
+
+    /**
+     * Pseudo-random uniforms from the simulation's random generator.
+     */
+    private class PseudoRandomSource implements UniformSource {
+        @Override
+        public double next() {
+            return rng.nextDouble();
+        }
+    }
+
+    /**
+     * Randomly shifted Halton point, falling back to pseudo-random
+     * uniforms once its dimensions are exhausted.
+     */
+    private class HaltonSource implements UniformSource {
+        int index, dim;
+        double[] shift;
+
+        HaltonSource(int index, double[] shift) {
+            this.index = index;
+            this.shift = shift;
+            this.dim = 0;
+        }
+
+        @Override
+        public double next() {
+            if (dim>=primes.length)
+                return rng.nextDouble();
+
+            // Radical inverse of index+1 in base primes[dim]:
+            int base = primes[dim];
+            double f = 1.0, x = 0.0;
+            for (int i=index+1; i>0; i /= base) {
+                f /= base;
+                x += f*(i % base);
+            }
+
+            x += shift[dim];
+            dim += 1;
+
+            return x - Math.floor(x);
+        }
+    }
+
+    /**
+     * Construct representation of configuration to use in assembling
+     * summary in JSON output file.
+     *
+     * @return Map from strings to other objects which have a JSON rep
+     */
+    @JsonValue
+    public Map<String, Object> getJsonValue() {
+
+        Map<String, Object> jsonObject = Maps.newHashMap();
+
+        jsonObject.put("antithetic", antitheticInput.get());
+        jsonObject.put("quasiRandom", quasiRandomInput.get());
+        if (quasiRandomInput.get()) {
+            jsonObject.put("nReplicates", nReplicatesInput.get());
+            jsonObject.put("quasiRandomDimensions", quasiRandomDimensionsInput.get());
+        }
+        jsonObject.put("controlVariates", controlVariatesInput.get());
+
+        return jsonObject;
+    }
+}
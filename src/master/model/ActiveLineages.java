@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package master.model;
+
+import com.google.common.collect.Maps;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Store of the lineages active at the current point of an inheritance
+ * trajectory simulation.  Lineages are held in a dense array per
+ * population, and the graph holding each node records its index into
+ * that array.  This makes membership tests and removals O(1), rather than
+ * linear in the number of active lineages.
+ *
+ * @author agent <agent@local>
+ */
+public class ActiveLineages {
+
+    private final Map<Population, List<Node>> lineages;
+    private final Map<Population, List<Node>> lineagesView;
+    private int totalCount;
+
+    public ActiveLineages() {
+        lineages = Maps.newLinkedHashMap();
+        lineagesView = Collections.unmodifiableMap(lineages);
+        totalCount = 0;
+    }
+
+    /**
+     * Remove all lineages from store.  Per-population arrays are retained
+     * to avoid reallocating them.
+     */
+    public void clear() {
+        for (List<Node> popLineages : lineages.values()) {
+            for (Node node : popLineages)
+                setIndex(node, -1);
+            popLineages.clear();
+        }
+        totalCount = 0;
+    }
+
+    /**
+     * Add lineage to end of the array for its population.
+     *
+     * @param node lineage to add
+     */
+    public void add(Node node) {
+        List<Node> popLineages = lineages.get(node.getPopulation());
+        if (popLineages == null) {
+            popLineages = new ArrayList<>();
+            lineages.put(node.getPopulation(), popLineages);
+        }
+
+        setIndex(node, popLineages.size());
+        popLineages.add(node);
+        totalCount += 1;
+    }
+
+    /**
+     * Remove lineage at given index, replacing it with the last lineage
+     * of the same population.
+     *
+     * @param pop population of lineage
+     * @param idx index of lineage within population
+     * @return lineage removed
+     */
+    public Node swapRemove(Population pop, int idx) {
+        List<Node> popLineages = lineages.get(pop);
+
+        Node node = popLineages.get(idx);
+        Node last = popLineages.remove(popLineages.size()-1);
+        if (!last.equals(node)) {
+            popLineages.set(idx, last);
+            setIndex(last, idx);
+        }
+
+        setIndex(node, -1);
+        totalCount -= 1;
+
+        return node;
+    }
+
+    /**
+     * Remove given lineage, preserving the order of the remaining
+     * lineages.  Cost is proportional to the number of lineages added
+     * after this one, which is small for recently added lineages.
+     *
+     * @param node lineage to remove
+     */
+    public void remove(Node node) {
+        List<Node> popLineages = lineages.get(node.getPopulation());
+
+        int idx = getIndex(node);
+        popLineages.remove(idx);
+        for (int i=idx; i<popLineages.size(); i++)
+            setIndex(popLineages.get(i), i);
+
+        setIndex(node, -1);
+        totalCount -= 1;
+    }
+
+    /**
+     * @param node
+     * @return true iff node is an active lineage.
+     */
+    public boolean contains(Node node) {
+        return getIndex(node)>=0;
+    }
+
+    /**
+     * @param pop population
+     * @return number of active lineages in population
+     */
+    public int size(Population pop) {
+        List<Node> popLineages = lineages.get(pop);
+        return popLineages == null ? 0 : popLineages.size();
+    }
+
+    /**
+     * @return total number of active lineages
+     */
+    public int size() {
+        return totalCount;
+    }
+
+    /**
+     * @param pop population
+     * @param idx index of lineage within population
+     * @return lineage
+     */
+    public Node get(Population pop, int idx) {
+        return lineages.get(pop).get(idx);
+    }
+
+    private static int getIndex(Node node) {
+        return node.graph.lineageIndices[node.id];
+    }
+
+    private static void setIndex(Node node, int idx) {
+        node.graph.lineageIndices[node.id] = idx;
+    }
+
+    /**
+     * Retrieve read-only view of lineages keyed by population.  Populations
+     * which once held lineages but are now empty map to empty lists.
+     *
+     * @return map from populations to lists of lineages
+     */
+    public Map<Population, List<Node>> asMap() {
+        return lineagesView;
+    }
+}
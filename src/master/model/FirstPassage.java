@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package master.model;
+
+import beast.core.BEASTObject;
+import beast.core.Input;
+import com.fasterxml.jackson.annotation.JsonValue;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Threshold event whose first-passage statistics (hitting probability,
+ * hitting time and state at hitting) are to be estimated from an
+ * ensemble.  The event occurs when the summed size of the given
+ * populations first exceeds (or dips below) a threshold; extinction
+ * corresponds to a population dipping below a threshold of zero.
+ *
+ * @author agent <agent@local>
+ */
+public class FirstPassage extends BEASTObject {
+
+    public Input<String> nameInput = new Input<>("passageName",
+            "Name of first-passage event. (Used in output.)",
+            Input.Validate.REQUIRED);
+
+    public Input<List<Population>> populationInput = new Input<>(
+            "population",
+            "Population whose size is included in the sum compared with the"
+                    + " threshold. (Default all populations.)",
+            new ArrayList<>());
+
+    public Input<Double> thresholdInput = new Input<>("threshold",
+            "Population size threshold at which event occurs.",
+            Input.Validate.REQUIRED);
+
+    public Input<Boolean> exceedCondInput = new Input<>("exceedCondition",
+            "Whether event is size>=threshold. False implies <=threshold.",
+            true);
+
+    public Input<Boolean> stopInput = new Input<>("stopTrajectory",
+            "Stop simulating a trajectory once the event occurs.  Moments at"
+                    + " later times are then estimated from trajectories in"
+                    + " which it has not yet occurred, and no later events"
+                    + " are recorded. (Default false.)",
+            false);
+
+    public Input<String> quantilesInput = new Input<>("quantiles",
+            "Space-delimited list of probabilities at which to estimate"
+                    + " quantiles of the hitting time. (Default 0.025 0.25"
+                    + " 0.5 0.75 0.975.)",
+            "0.025 0.25 0.5 0.75 0.975");
+
+    double threshold;
+    boolean exceed;
+    double[] quantileProbs;
+
+    public FirstPassage() { }
+
+    @Override
+    public void initAndValidate() {
+        threshold = thresholdInput.get();
+        exceed = exceedCondInput.get();
+
+        String quantilesString = quantilesInput.get().trim();
+        if (quantilesString.isEmpty())
+            quantileProbs = new double[0];
+        else {
+            String[] probStrings = quantilesString.split(" +");
+            quantileProbs = new double[probStrings.length];
+            for (int i=0; i<quantileProbs.length; i++) {
+                quantileProbs[i] = Double.parseDouble(probStrings[i]);
+                if (!(quantileProbs[i]>=0.0 && quantileProbs[i]<=1.0))
+                    throw new IllegalArgumentException("Quantile"
+                            + " probabilities must lie between 0 and 1.");
+            }
+        }
+    }
+
+    /**
+     * Determine whether state satisfies the event condition.
+     *
+     * @param currentState state to check
+     * @return true if condition is met
+     */
+    public boolean isMet(PopulationState currentState) {
+
+        double size = 0;
+        if (populationInput.get().isEmpty()) {
+            for (Population pop : currentState.getPopSet())
+                size += currentState.get(pop);
+        } else {
+            for (Population pop : populationInput.get())
+                size += currentState.get(pop);
+        }
+
+        if (exceed)
+            return size >= threshold;
+        else
+            return size <= threshold;
+    }
+
+    /**
+     * @return name of event
+     */
+    public String getName() {
+        return nameInput.get();
+    }
+
+    /**
+     * @return true if trajectories stop once the event occurs
+     */
+    public boolean isStopping() {
+        return stopInput.get();
+    }
+
+    /**
+     * @return probabilities at which hitting time quantiles are estimated
+     */
+    public double[] getQuantileProbs() {
+        return quantileProbs;
+    }
+
+    @Override
+    @JsonValue
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(getName()).append(": ");
+        if (populationInput.get().isEmpty())
+            sb.append("total population size");
+        else {
+            for (int i=0; i<populationInput.get().size(); i++) {
+                if (i>0)
+                    sb.append(" + ");
+                sb.append(populationInput.get().get(i));
+            }
+        }
+
+        if (exceed)
+            sb.append(" >= ");
+        else
+            sb.append(" <= ");
+
+        sb.append(threshold);
+
+        if (isStopping())
+            sb.append(" (stops trajectory)");
+
+        return sb.toString();
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package master.model;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.List;
+import master.utilities.ExactSum;
+
+/**
+ * Online summary of the first passages of an ensemble of trajectories
+ * through a threshold event.  Records the probability of the event
+ * having occurred by each sample time, the mean, standard deviation and
+ * quantiles of the hitting time, and moments of the state at hitting,
+ * all conditional on the event occurring before the end of the
+ * simulation.
+ *
+ * Hits are held as pending until the trajectory containing them is
+ * accepted, so that trajectories discarded by rejection end conditions
+ * do not contribute.
+ *
+ * @author agent <agent@local>
+ */
+public class FirstPassageSummary {
+
+    FirstPassage passage;
+    double sampleDt;
+
+    // Weight of hits occurring after each sample time and no later than
+    // the next (cumulative probabilities once normalised):
+    double[] hitWeights;
+    double timeMean, timeStd, hitWeight, totalWeight;
+    ExactSum timeSum, timeSum2;
+    QuantileSketch timeSketch;
+
+    // Moments of state at hitting:
+    StateSummary hitState;
+
+    // Hit in current trajectory:
+    boolean hit;
+    double hitTime;
+
+    /**
+     * Create new first-passage summary.
+     *
+     * @param passage event to summarise
+     * @param moments moments of state at hitting to estimate
+     * @param momentGroups moment groups of state at hitting to estimate
+     * @param nSamples number of sample times
+     * @param sampleDt time between samples
+     */
+    public FirstPassageSummary(FirstPassage passage, List<Moment> moments,
+            List<MomentGroup> momentGroups, int nSamples, double sampleDt) {
+        this.passage = passage;
+        this.sampleDt = sampleDt;
+
+        hitWeights = new double[nSamples];
+        timeSum = new ExactSum();
+        timeSum2 = new ExactSum();
+        timeSketch = new QuantileSketch(200);
+        hitState = new StateSummary(moments, momentGroups);
+    }
+
+    /**
+     * Begin (or restart) a trajectory.
+     */
+    public void reset() {
+        hit = false;
+    }
+
+    /**
+     * Check whether the current trajectory hits the event at the given
+     * time, if it has not done so already.
+     *
+     * @param state current state
+     * @param t current time
+     * @return true if the event has just been hit
+     */
+    public boolean check(PopulationState state, double t) {
+        if (hit || !passage.isMet(state))
+            return false;
+
+        hit = true;
+        hitTime = t;
+        hitState.record(state);
+
+        return true;
+    }
+
+    /**
+     * @return true if the current trajectory has hit the event
+     */
+    public boolean isHit() {
+        return hit;
+    }
+
+    /**
+     * Incorporate the current trajectory into the summary.
+     */
+    public void accept() {
+        totalWeight += 1.0;
+
+        if (!hit)
+            return;
+
+        int sidx = Math.min(hitWeights.length-1,
+                Math.max(0, (int)Math.ceil(hitTime/sampleDt - 1e-9)));
+        hitWeights[sidx] += 1.0;
+
+        hitWeight += 1.0;
+        timeSum.add(hitTime);
+        timeSum2.add(hitTime*hitTime);
+        timeSketch.add(hitTime, 1.0);
+        hitState.accept();
+    }
+
+    /**
+     * Incorporate the accumulated (unnormalised) results of another
+     * summary of the same event.
+     *
+     * @param other summary to incorporate
+     */
+    public void add(FirstPassageSummary other) {
+        for (int i=0; i<hitWeights.length; i++)
+            hitWeights[i] += other.hitWeights[i];
+
+        hitWeight += other.hitWeight;
+        totalWeight += other.totalWeight;
+        timeSum.add(other.timeSum, 1.0);
+        timeSum2.add(other.timeSum2, 1.0);
+        timeSketch.add(other.timeSketch, 1.0);
+        hitState.add(other.hitState);
+    }
+
+    /**
+     * Normalise the summary.
+     */
+    public void normalise() {
+        double cumulative = 0.0;
+        for (int i=0; i<hitWeights.length; i++) {
+            cumulative += hitWeights[i];
+            hitWeights[i] = cumulative/totalWeight;
+        }
+
+        timeMean = timeSum.doubleValue()/hitWeight;
+        timeStd = Math.sqrt(Math.max(0.0,
+                timeSum2.doubleValue()/hitWeight - timeMean*timeMean));
+
+        hitState.normalise();
+    }
+
+    /**
+     * @return event summarised
+     */
+    public FirstPassage getPassage() {
+        return passage;
+    }
+
+    /**
+     * @return probability of the event having occurred by each sample
+     * time
+     */
+    public double[] getHitProbabilities() {
+        return hitWeights;
+    }
+
+    /**
+     * @return number of trajectories in which the event occurred
+     */
+    public double getHitCount() {
+        return hitWeight;
+    }
+
+    /**
+     * @return mean hitting time
+     */
+    public double getTimeMean() {
+        return timeMean;
+    }
+
+    /**
+     * @return standard deviation of hitting time
+     */
+    public double getTimeStd() {
+        return timeStd;
+    }
+
+    /**
+     * @param q probability
+     * @return estimated quantile of hitting time
+     */
+    public double getTimeQuantile(double q) {
+        return timeSketch.getQuantile(q);
+    }
+
+    /**
+     * @return moments of state at hitting
+     */
+    public StateSummary getHitState() {
+        return hitState;
+    }
+
+    /**
+     * Write the accumulated (unnormalised) results to a checkpoint.
+     *
+     * @param out checkpoint being written
+     * @throws IOException
+     */
+    public void writeState(DataOutput out) throws IOException {
+        for (double weight : hitWeights)
+            out.writeDouble(weight);
+        out.writeDouble(hitWeight);
+        out.writeDouble(totalWeight);
+        timeSum.writeState(out);
+        timeSum2.writeState(out);
+        timeSketch.writeState(out);
+        hitState.writeState(out);
+    }
+
+    /**
+     * Restore accumulated results from a checkpoint written by
+     * writeState() for the same event.
+     *
+     * @param in checkpoint being read
+     * @throws IOException
+     */
+    public void readState(DataInput in) throws IOException {
+        for (int i=0; i<hitWeights.length; i++)
+            hitWeights[i] = in.readDouble();
+        hitWeight = in.readDouble();
+        totalWeight = in.readDouble();
+        timeSum.readState(in);
+        timeSum2.readState(in);
+        timeSketch.readState(in);
+        hitState.readState(in);
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package master.model;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Weighted histogram with a fixed set of linearly or logarithmically
+ * spaced bins.  Values falling outside the binned range are accumulated
+ * separately.
+ *
+ * @author agent <agent@local>
+ */
+public class Histogram {
+
+    private final double lower, upper;
+    private final boolean logBins;
+    private final double[] binWeights;
+    private double underflow, overflow, totalWeight;
+
+    // Precomputed bin transformation:
+    private final double offset, binsPerUnit;
+
+    /**
+     * Create empty histogram.
+     *
+     * @param lower lower edge of first bin
+     * @param upper upper edge of last bin
+     * @param nBins number of bins
+     * @param logBins true causes bins to be evenly spaced on a log scale
+     */
+    public Histogram(double lower, double upper, int nBins, boolean logBins) {
+        this.lower = lower;
+        this.upper = upper;
+        this.logBins = logBins;
+        binWeights = new double[nBins];
+
+        if (logBins) {
+            offset = Math.log(lower);
+            binsPerUnit = nBins/(Math.log(upper) - offset);
+        } else {
+            offset = lower;
+            binsPerUnit = nBins/(upper - lower);
+        }
+    }
+
+    /**
+     * Add weighted value to histogram.
+     *
+     * @param x value
+     * @param weight weight of value
+     */
+    public void add(double x, double weight) {
+        totalWeight += weight;
+
+        if (x<lower) {
+            underflow += weight;
+            return;
+        }
+
+        if (x>upper) {
+            overflow += weight;
+            return;
+        }
+
+        double y = logBins ? Math.log(x) : x;
+        int bin = (int)((y - offset)*binsPerUnit);
+        binWeights[Math.min(bin, binWeights.length-1)] += weight;
+    }
+
+    /**
+     * Incorporate the contents of another histogram with identical bins,
+     * scaling its weights by the given factor.
+     *
+     * @param other histogram to incorporate
+     * @param factor factor by which to scale weights
+     */
+    public void add(Histogram other, double factor) {
+        for (int i=0; i<binWeights.length; i++)
+            binWeights[i] += factor*other.binWeights[i];
+        underflow += factor*other.underflow;
+        overflow += factor*other.overflow;
+        totalWeight += factor*other.totalWeight;
+    }
+
+    /**
+     * Multiply all weights by a constant.
+     *
+     * @param factor scale factor
+     */
+    public void scale(double factor) {
+        for (int i=0; i<binWeights.length; i++)
+            binWeights[i] *= factor;
+        underflow *= factor;
+        overflow *= factor;
+        totalWeight *= factor;
+    }
+
+    /**
+     * @return edges of bins, from the lower edge of the first to the
+     * upper edge of the last
+     */
+    public double[] getBinEdges() {
+        double[] edges = new double[binWeights.length+1];
+        for (int i=0; i<edges.length; i++) {
+            double y = offset + i/binsPerUnit;
+            edges[i] = logBins ? Math.exp(y) : y;
+        }
+        edges[0] = lower;
+        edges[binWeights.length] = upper;
+
+        return edges;
+    }
+
+    /**
+     * @return fraction of total weight falling in each bin
+     */
+    public double[] getFrequencies() {
+        double[] frequencies = new double[binWeights.length];
+        for (int i=0; i<binWeights.length; i++)
+            frequencies[i] = binWeights[i]/totalWeight;
+
+        return frequencies;
+    }
+
+    /**
+     * @return fraction of total weight falling below the first bin
+     */
+    public double getUnderflowFrequency() {
+        return underflow/totalWeight;
+    }
+
+    /**
+     * @return fraction of total weight falling above the last bin
+     */
+    public double getOverflowFrequency() {
+        return overflow/totalWeight;
+    }
+
+    /**
+     * Write histogram to a checkpoint.
+     *
+     * @param out checkpoint being written
+     * @throws IOException
+     */
+    public void writeState(DataOutput out) throws IOException {
+        for (double binWeight : binWeights)
+            out.writeDouble(binWeight);
+        out.writeDouble(underflow);
+        out.writeDouble(overflow);
+        out.writeDouble(totalWeight);
+    }
+
+    /**
+     * Restore histogram from a checkpoint written by writeState().
+     *
+     * @param in checkpoint being read
+     * @throws IOException
+     */
+    public void readState(DataInput in) throws IOException {
+        for (int i=0; i<binWeights.length; i++)
+            binWeights[i] = in.readDouble();
+        underflow = in.readDouble();
+        overflow = in.readDouble();
+        totalWeight = in.readDouble();
+    }
+}
@@ -22,7 +22,9 @@ import beast.core.Input;
 import beast.core.Input.Validate;
 import beast.core.BEASTObject;
 import java.util.ArrayList;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import master.model.Population;
 
 /**
@@ -57,12 +59,34 @@ public class Individual extends BEASTObject {
     @Override
     public void initAndValidate() {
         
-        node = new master.model.Node(populationInput.get(), timeInput.get());
+        // Children have already been initialised, each in a graph of its
+        // own.  Rebuild the whole subtree in a single graph so that its
+        // nodes can be connected:
+        addToGraph(new InheritanceGraph(), new IdentityHashMap<>());
+    }
+
+    /**
+     * Create the nodes of this individual and its descendants in the
+     * given graph, replacing any nodes created previously.
+     *
+     * @param graph graph to add nodes to
+     * @param added individuals already added to this graph
+     */
+    private void addToGraph(InheritanceGraph graph,
+            Map<Individual, Node> added) {
+
+        node = graph.addNode(populationInput.get(), timeInput.get());
         if (labelInput.get() != null)
             node.setName(labelInput.get());
-        
-        for (Individual child : childrenInput.get())
-            node.addChild(child.node);
+        added.put(this, node);
+
+        for (Individual child : childrenInput.get()) {
+            // Individuals may appear more than once (via idrefs):
+            if (!added.containsKey(child))
+                child.addToGraph(graph, added);
+
+            node.addChild(added.get(child));
+        }
     }
 
     /**
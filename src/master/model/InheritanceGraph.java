@@ -0,0 +1,454 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package master.model;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Arena holding the nodes of an inheritance graph.  Nodes are identified
+ * by integer IDs, and their properties are held in primitive column
+ * arrays rather than in individual objects.  Node objects are lightweight
+ * views onto this storage.
+ *
+ * Nearly all nodes have at most one parent and two children, so these
+ * are stored inline.  Additional edges are held in sparse overflow
+ * arrays.  Edge lists can be edited in place, as required by the graph
+ * post-processors.
+ *
+ * The graph also maintains a registry of its leaves: nodes having at
+ * least one parent but no children.  This is updated whenever an edge
+ * list changes, so leaves can be enumerated without traversing the
+ * graph.  Nodes detached from the graph by removing all of their edges
+ * therefore leave the registry.
+ *
+ * @author agent <agent@local>
+ */
+public class InheritanceGraph {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    // Number of nodes allocated:
+    private int nodeCount;
+
+    // Node property columns:
+    private double[] times;
+    private int[] popIndices, reactionIndices;
+    int[] lineageIndices;
+
+    // Inline edge storage:
+    private int[] nParents, nChildren;
+    private int[] parent0, child0, child1;
+
+    // Overflow edge storage (edges beyond those held inline):
+    private Map<Integer, int[]> extraParents, extraChildren;
+
+    // Leaf registry:
+    private final BitSet leaves;
+
+    // Populations and reactions referred to by index columns:
+    private final List<Population> populations;
+    private final Map<Population, Integer> populationIndices;
+    private final List<Reaction> reactions;
+    private final Map<Reaction, Integer> reactionIndexMap;
+
+    // Sparse columns (allocated when first used):
+    private String[] names;
+    private Map<String, Object[]> attributes;
+    private BitSet hasAttributes, flags;
+
+    /**
+     * Create empty graph.
+     */
+    public InheritanceGraph() {
+        this(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Create empty graph with room for the given number of nodes.
+     *
+     * @param capacity initial capacity
+     */
+    public InheritanceGraph(int capacity) {
+        capacity = Math.max(capacity, 1);
+
+        times = new double[capacity];
+        popIndices = new int[capacity];
+        reactionIndices = new int[capacity];
+        lineageIndices = new int[capacity];
+        nParents = new int[capacity];
+        nChildren = new int[capacity];
+        parent0 = new int[capacity];
+        child0 = new int[capacity];
+        child1 = new int[capacity];
+
+        populations = Lists.newArrayList();
+        populationIndices = Maps.newHashMap();
+        reactions = Lists.newArrayList();
+        reactionIndexMap = new IdentityHashMap<>();
+
+        leaves = new BitSet(capacity);
+
+        nodeCount = 0;
+    }
+
+    /**
+     * Add node to graph.
+     *
+     * @param population population to which node belongs
+     * @param time time at which to position node
+     * @return view of new node
+     */
+    public Node addNode(Population population, double time) {
+        return new Node(this, allocate(population, time));
+    }
+
+    /**
+     * Add node with unspecified time to graph.
+     *
+     * @param population population to which node belongs
+     * @return view of new node
+     */
+    public Node addNode(Population population) {
+        return addNode(population, -1);
+    }
+
+    /**
+     * Add copy of a node (from this or any other graph) to this graph,
+     * retaining only its time, population and name.
+     *
+     * @param node node to copy
+     * @return view of new node
+     */
+    public Node addCopy(Node node) {
+        Node copy = addNode(node.getPopulation(), node.getTime());
+        copy.setName(node.getName());
+
+        return copy;
+    }
+
+    /**
+     * @return number of nodes in graph
+     */
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    /**
+     * @return number of leaves (nodes with parents but no children)
+     */
+    public int getLeafCount() {
+        return leaves.cardinality();
+    }
+
+    /**
+     * Retrieve leaves of graph from the leaf registry.
+     *
+     * @return list of leaves, in order of node ID
+     */
+    public List<Node> getLeaves() {
+        List<Node> leafList = Lists.newArrayListWithCapacity(leaves.cardinality());
+        for (int id=leaves.nextSetBit(0); id>=0; id=leaves.nextSetBit(id+1))
+            leafList.add(new Node(this, id));
+
+        return leafList;
+    }
+
+    /**
+     * Update leaf registry entry of node following a change to its edges.
+     *
+     * @param id ID of node
+     */
+    private void updateLeaf(int id) {
+        leaves.set(id, nChildren[id]==0 && nParents[id]>0);
+    }
+
+    /**
+     * Allocate storage for a new node.
+     *
+     * @param population
+     * @param time
+     * @return ID of new node
+     */
+    int allocate(Population population, double time) {
+        if (nodeCount == times.length)
+            grow();
+
+        int id = nodeCount++;
+        times[id] = time;
+        popIndices[id] = populationIndex(population);
+        reactionIndices[id] = -1;
+        lineageIndices[id] = -1;
+        nParents[id] = 0;
+        nChildren[id] = 0;
+
+        return id;
+    }
+
+    private void grow() {
+        int capacity = 2*times.length;
+
+        times = Arrays.copyOf(times, capacity);
+        popIndices = Arrays.copyOf(popIndices, capacity);
+        reactionIndices = Arrays.copyOf(reactionIndices, capacity);
+        lineageIndices = Arrays.copyOf(lineageIndices, capacity);
+        nParents = Arrays.copyOf(nParents, capacity);
+        nChildren = Arrays.copyOf(nChildren, capacity);
+        parent0 = Arrays.copyOf(parent0, capacity);
+        child0 = Arrays.copyOf(child0, capacity);
+        child1 = Arrays.copyOf(child1, capacity);
+    }
+
+    private int populationIndex(Population population) {
+        Integer idx = populationIndices.get(population);
+        if (idx == null) {
+            idx = populations.size();
+            populations.add(population);
+            populationIndices.put(population, idx);
+        }
+
+        return idx;
+    }
+
+    /*
+     * Node properties:
+     */
+
+    double getTime(int id) {
+        return times[id];
+    }
+
+    void setTime(int id, double time) {
+        times[id] = time;
+    }
+
+    Population getPopulation(int id) {
+        return populations.get(popIndices[id]);
+    }
+
+    Reaction getReaction(int id) {
+        int idx = reactionIndices[id];
+        return idx<0 ? null : reactions.get(idx);
+    }
+
+    void setReaction(int id, Reaction reaction) {
+        if (reaction == null) {
+            reactionIndices[id] = -1;
+            return;
+        }
+
+        Integer idx = reactionIndexMap.get(reaction);
+        if (idx == null) {
+            idx = reactions.size();
+            reactions.add(reaction);
+            reactionIndexMap.put(reaction, idx);
+        }
+        reactionIndices[id] = idx;
+    }
+
+    String getName(int id) {
+        return (names == null || id>=names.length) ? null : names[id];
+    }
+
+    void setName(int id, String name) {
+        if (names == null) {
+            if (name == null)
+                return;
+            names = new String[times.length];
+        } else if (id>=names.length)
+            names = Arrays.copyOf(names, times.length);
+
+        names[id] = name;
+    }
+
+    boolean getFlag(int id) {
+        return flags != null && flags.get(id);
+    }
+
+    void setFlag(int id, boolean value) {
+        if (flags == null)
+            flags = new BitSet();
+        flags.set(id, value);
+    }
+
+    /*
+     * Attributes, stored as one column per attribute name:
+     */
+
+    void setAttribute(int id, String name, Object value) {
+        if (attributes == null) {
+            attributes = Maps.newLinkedHashMap();
+            hasAttributes = new BitSet();
+        }
+
+        Object[] column = attributes.get(name);
+        if (column == null) {
+            column = new Object[times.length];
+            attributes.put(name, column);
+        } else if (id>=column.length) {
+            column = Arrays.copyOf(column, times.length);
+            attributes.put(name, column);
+        }
+
+        column[id] = value;
+        hasAttributes.set(id);
+    }
+
+    void removeAttribute(int id, String name) {
+        if (attributes == null)
+            return;
+
+        Object[] column = attributes.get(name);
+        if (column != null && id<column.length)
+            column[id] = null;
+    }
+
+    Object getAttribute(int id, String name) {
+        if (attributes == null)
+            return null;
+
+        Object[] column = attributes.get(name);
+        return (column == null || id>=column.length) ? null : column[id];
+    }
+
+    Set<String> getAttributeNames(int id) {
+        if (attributes == null || !hasAttributes.get(id))
+            return null;
+
+        Set<String> nameSet = Sets.newHashSet();
+        for (Map.Entry<String, Object[]> entry : attributes.entrySet()) {
+            Object[] column = entry.getValue();
+            if (id<column.length && column[id] != null)
+                nameSet.add(entry.getKey());
+        }
+
+        return nameSet;
+    }
+
+    /*
+     * Edge lists.  The parents flag selects between the parent and child
+     * lists of a node.
+     */
+
+    int getEdgeCount(int id, boolean parents) {
+        return parents ? nParents[id] : nChildren[id];
+    }
+
+    int getEdge(int id, int i, boolean parents) {
+        if (parents) {
+            if (i==0)
+                return parent0[id];
+            return extraParents.get(id)[i-1];
+        } else {
+            if (i==0)
+                return child0[id];
+            if (i==1)
+                return child1[id];
+            return extraChildren.get(id)[i-2];
+        }
+    }
+
+    void setEdge(int id, int i, int target, boolean parents) {
+        if (parents) {
+            if (i==0)
+                parent0[id] = target;
+            else
+                extraParents.get(id)[i-1] = target;
+        } else {
+            if (i==0)
+                child0[id] = target;
+            else if (i==1)
+                child1[id] = target;
+            else
+                extraChildren.get(id)[i-2] = target;
+        }
+    }
+
+    void insertEdge(int id, int i, int target, boolean parents) {
+        int n = getEdgeCount(id, parents);
+
+        // Ensure room for an additional edge:
+        int nInline = parents ? 1 : 2;
+        if (n>=nInline) {
+            if (parents && extraParents == null)
+                extraParents = Maps.newHashMap();
+            if (!parents && extraChildren == null)
+                extraChildren = Maps.newHashMap();
+
+            Map<Integer, int[]> extra = parents ? extraParents : extraChildren;
+            int[] overflow = extra.get(id);
+            if (overflow == null)
+                extra.put(id, new int[2]);
+            else if (overflow.length < n-nInline+1)
+                extra.put(id, Arrays.copyOf(overflow, 2*overflow.length));
+        }
+
+        if (parents)
+            nParents[id] += 1;
+        else
+            nChildren[id] += 1;
+
+        for (int j=n; j>i; j--)
+            setEdge(id, j, getEdge(id, j-1, parents), parents);
+        setEdge(id, i, target, parents);
+
+        updateLeaf(id);
+    }
+
+    int removeEdge(int id, int i, boolean parents) {
+        int n = getEdgeCount(id, parents);
+        int target = getEdge(id, i, parents);
+
+        for (int j=i; j<n-1; j++)
+            setEdge(id, j, getEdge(id, j+1, parents), parents);
+
+        if (parents) {
+            nParents[id] -= 1;
+            if (nParents[id]<=1 && extraParents != null)
+                extraParents.remove(id);
+        } else {
+            nChildren[id] -= 1;
+            if (nChildren[id]<=2 && extraChildren != null)
+                extraChildren.remove(id);
+        }
+
+        updateLeaf(id);
+
+        return target;
+    }
+
+    void clearEdges(int id, boolean parents) {
+        if (parents) {
+            nParents[id] = 0;
+            if (extraParents != null)
+                extraParents.remove(id);
+        } else {
+            nChildren[id] = 0;
+            if (extraChildren != null)
+                extraChildren.remove(id);
+        }
+
+        updateLeaf(id);
+    }
+}
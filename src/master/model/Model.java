@@ -65,6 +65,9 @@ public class Model extends BEASTObject {
     List<Reaction> reactions;
     List<Double> reactionRateChangeTimes;
 
+    // Reactions implied by each reaction specified in the model:
+    Map<Reaction, List<Reaction>> expandedReactions;
+
     // Functions:
     Map<String, Function> functionMap;
 
@@ -74,6 +77,7 @@ public class Model extends BEASTObject {
     public Model() {
         types = new ArrayList<>();
         reactions = new ArrayList<>();
+        expandedReactions = new HashMap<>();
         functionMap = new HashMap<>();
     }
 
@@ -111,7 +115,9 @@ public class Model extends BEASTObject {
             for (Reaction react : reactGroup.getReactions()) {
                 System.out.print(" " + react.getName() + "...");
                 System.out.flush();
-                reactions.addAll(react.getAllReactions(types, functionMap));
+                List<Reaction> expanded = react.getAllReactions(types, functionMap);
+                expandedReactions.put(react, expanded);
+                reactions.addAll(expanded);
             }
         }
 
@@ -119,13 +125,47 @@ public class Model extends BEASTObject {
         for (Reaction react : reactionsInput.get()) {
             System.out.print(" " + react.getName() + "...");
             System.out.flush();
-            reactions.addAll(react.getAllReactions(types, functionMap));
+            List<Reaction> expanded = react.getAllReactions(types, functionMap);
+            expandedReactions.put(react, expanded);
+            reactions.addAll(expanded);
         }
 
         System.out.println(" done.");
         System.out.println("Model assembled.");
     }
 
+    /**
+     * Obtain a copy of the assembled model which shares its population
+     * types and functions but has its own copies of the reactions, so
+     * that reaction rates and propensities can be modified and
+     * calculated independently, e.g. by separate threads.  Simulating
+     * the copy gives exactly the same results as simulating the
+     * original.
+     *
+     * @return copy of model
+     */
+    public Model getCopy() {
+        Model copy = new Model();
+        copy.types = types;
+        copy.functionMap = functionMap;
+
+        Map<Reaction, Reaction> reactionCopies = new HashMap<>();
+        for (Reaction reaction : reactions) {
+            Reaction reactionCopy = reaction.getCopy();
+            reactionCopies.put(reaction, reactionCopy);
+            copy.reactions.add(reactionCopy);
+        }
+
+        for (Reaction reaction : expandedReactions.keySet()) {
+            List<Reaction> expandedCopies = new ArrayList<>();
+            for (Reaction expanded : expandedReactions.get(reaction))
+                expandedCopies.add(reactionCopies.get(expanded));
+            copy.expandedReactions.put(reaction, expandedCopies);
+        }
+
+        return copy;
+    }
+
     /*
      * Getters:
      */
@@ -141,6 +181,22 @@ public class Model extends BEASTObject {
         return functionMap;
     }
 
+    /**
+     * Obtain the reactions implied by a reaction specified in the model,
+     * which may represent many reactions when location variables are
+     * used.
+     *
+     * @param reaction reaction specified in model
+     * @return list of implied reactions
+     */
+    public List<Reaction> getExpandedReactions(Reaction reaction) {
+        if (!expandedReactions.containsKey(reaction))
+            throw new IllegalArgumentException("Reaction "
+                    + reaction.getName() + " is not part of the model.");
+
+        return expandedReactions.get(reaction);
+    }
+
     /**
      * Obtain ordered list of times at which reaction rates change.
      * @return 
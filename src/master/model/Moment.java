@@ -42,6 +42,12 @@ public class Moment extends BEASTObject {
             "factor",
             "Population whose size will be factored into moment calculation.",
             new ArrayList<Population>());
+
+    public Input<MomentDistribution> distributionInput = new Input<>(
+            "distribution",
+            "Quantiles and/or histogram of moment to estimate in addition"
+                    + " to its mean and standard deviation.  (Only used by"
+                    + " individual moments.)");
     
     // Name of moment - used in output file:
     String name;
@@ -93,6 +99,14 @@ public class Moment extends BEASTObject {
         return x;
     }
 
+    /**
+     * @return specification of distributional summaries to estimate, or
+     * null if only the mean and standard deviation are required.
+     */
+    public MomentDistribution getDistribution() {
+        return distributionInput.get();
+    }
+
     /**
      * Retrieve name of moment group.
      * 
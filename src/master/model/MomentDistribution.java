@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package master.model;
+
+import beast.core.BEASTObject;
+import beast.core.Input;
+
+/**
+ * Specification of the distributional summaries (quantiles and/or a
+ * histogram) of a moment to be estimated alongside its mean and standard
+ * deviation.  Quantiles are estimated using streaming sketches, so that
+ * both summaries require memory independent of the number of
+ * trajectories.
+ *
+ * @author agent <agent@local>
+ */
+public class MomentDistribution extends BEASTObject {
+
+    public Input<String> quantilesInput = new Input<>("quantiles",
+            "Space-delimited list of probabilities at which to estimate"
+                    + " quantiles. (Default 0.025 0.25 0.5 0.75 0.975.)",
+            "0.025 0.25 0.5 0.75 0.975");
+
+    public Input<Double> compressionInput = new Input<>("compression",
+            "Accuracy of quantile sketches. Memory used is proportional to"
+                    + " this. (Default 200.)", 200.0);
+
+    public Input<Integer> nBinsInput = new Input<>("nBins",
+            "Number of histogram bins. (Default 0: no histogram.)", 0);
+
+    public Input<Double> lowerInput = new Input<>("lower",
+            "Lower edge of first histogram bin.");
+
+    public Input<Double> upperInput = new Input<>("upper",
+            "Upper edge of last histogram bin.");
+
+    public Input<Boolean> logBinsInput = new Input<>("logBins",
+            "Space histogram bins evenly on a log scale. (Default false.)",
+            false);
+
+    double[] quantileProbs;
+
+    public MomentDistribution() { }
+
+    @Override
+    public void initAndValidate() {
+        String quantilesString = quantilesInput.get().trim();
+        if (quantilesString.isEmpty())
+            quantileProbs = new double[0];
+        else {
+            String[] probStrings = quantilesString.split(" +");
+            quantileProbs = new double[probStrings.length];
+            for (int i=0; i<quantileProbs.length; i++) {
+                quantileProbs[i] = Double.parseDouble(probStrings[i]);
+                if (!(quantileProbs[i]>=0.0 && quantileProbs[i]<=1.0))
+                    throw new IllegalArgumentException("Quantile"
+                            + " probabilities must lie between 0 and 1.");
+            }
+        }
+
+        if (compressionInput.get()<10.0)
+            throw new IllegalArgumentException("Quantile sketch compression"
+                    + " must be at least 10.");
+
+        if (nBinsInput.get()<0)
+            throw new IllegalArgumentException("Number of histogram bins"
+                    + " must not be negative.");
+
+        if (nBinsInput.get()>0) {
+            if (lowerInput.get() == null || upperInput.get() == null)
+                throw new IllegalArgumentException("Histograms require lower"
+                        + " and upper bin edges.");
+
+            if (!(upperInput.get()>lowerInput.get()))
+                throw new IllegalArgumentException("Upper histogram edge"
+                        + " must exceed lower edge.");
+
+            if (logBinsInput.get() && lowerInput.get()<=0.0)
+                throw new IllegalArgumentException("Logarithmic histogram"
+                        + " bins require a positive lower edge.");
+        }
+    }
+
+    /**
+     * @return probabilities at which quantiles are estimated
+     */
+    public double[] getQuantileProbs() {
+        return quantileProbs;
+    }
+
+    /**
+     * @return new empty quantile sketch, or null if no quantiles are
+     * requested
+     */
+    public QuantileSketch createSketch() {
+        if (quantileProbs.length == 0)
+            return null;
+
+        return new QuantileSketch(compressionInput.get());
+    }
+
+    /**
+     * @return new empty histogram, or null if no histogram is requested
+     */
+    public Histogram createHistogram() {
+        if (nBinsInput.get() == 0)
+            return null;
+
+        return new Histogram(lowerInput.get(), upperInput.get(),
+                nBinsInput.get(), logBinsInput.get());
+    }
+}
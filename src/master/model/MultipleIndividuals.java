@@ -52,8 +52,9 @@ public class MultipleIndividuals extends BEASTObject {
     @Override
     public void initAndValidate() {
         nodes = Lists.newArrayList();
+        InheritanceGraph graph = new InheritanceGraph(nCopiesInput.get());
         for (int i=0; i<nCopiesInput.get(); i++)
-            nodes.add(new master.model.Node(populationInput.get(), timeInput.get()));
+            nodes.add(graph.addNode(populationInput.get(), timeInput.get()));
     }
 
     /**
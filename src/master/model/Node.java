@@ -16,84 +16,84 @@
  */
 package master.model;
 
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.AbstractList;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 
 /**
- * Node in inheritance graph generated from birth-death model.
+ * Node in inheritance graph generated from birth-death model.  Nodes are
+ * lightweight views onto storage held by an InheritanceGraph; two Node
+ * objects are equal if they refer to the same node of the same graph.
  *
  * @author Tim Vaughan
  */
 public class Node {
 
-    // Parents of this node.
-    List<Node> parents = new ArrayList<>(1);
+    // Graph holding this node's data:
+    final InheritanceGraph graph;
 
-    // Children of this node.
-    List<Node> children = new ArrayList<>(2);
+    // ID of this node within graph:
+    final int id;
 
-    // Population to which the individual represented by this node belongs.
-    Population population;
-
-    // Height of this node.
-    double time;
-
-    // Attributes for node annotation:
-    Map<String, Object> attributes;
-
-    // Reaction (if any) associated with this node.
-    Reaction reaction;
-
-    // Unique name for this node:
-    String name;
-
-    // Flag use by graph generation algorithms:
-    private boolean flag = false;
-    
     /**
-     * Constructor.
+     * Constructor for node belonging to its own single-node graph.
      *
      * @param population Population to which node belongs.
      * @param time       Time at which to position node.
      */
     public Node(Population population, double time) {
-
-        this.population = population;
-        this.time = time;
-
-        reaction = null;
-        name = null;
+        this.graph = new InheritanceGraph(1);
+        this.id = graph.allocate(population, time);
     }
 
     /**
-     * Constructor for inheritance map node.
+     * Constructor for inheritance map node belonging to its own
+     * single-node graph.
      *
      * @param population Population to which node belongs.
      */
     public Node(Population population) {
-        this.population = population;
-        this.time = -1;
+        this(population, -1);
+    }
 
-        reaction = null;
-        name = null;
+    /**
+     * Construct view of existing node.
+     *
+     * @param graph graph holding node
+     * @param id ID of node within graph
+     */
+    Node(InheritanceGraph graph, int id) {
+        this.graph = graph;
+        this.id = id;
     }
 
     /**
      * Obtain a copy of this node, retaining only its height, its
      * population and its name - not its children, parents nor any
-     * other of its attributes.
+     * other of its attributes.  The copy belongs to its own graph.
      *
      * @return Fresh copy of Node object.
      */
     public Node getCopy() {
-        Node copy = new Node(this.population, this.time);
-        copy.setName(name);
+        Node copy = new Node(getPopulation(), getTime());
+        copy.setName(getName());
 
         return copy;
     }
+
+    /**
+     * @return graph holding this node
+     */
+    public InheritanceGraph getGraph() {
+        return graph;
+    }
+
+    /**
+     * @return ID of this node within its graph
+     */
+    public int getID() {
+        return id;
+    }
     
     /**
      * Set a named attribute for this node.
@@ -102,10 +102,7 @@ public class Node {
      * @param value 
      */
     public void setAttribute(String name, Object value) {
-        if (attributes == null) {
-            attributes = new HashMap<String, Object>();
-        }
-        attributes.put(name, value);
+        graph.setAttribute(id, name, value);
     }
     
     /**
@@ -114,8 +111,7 @@ public class Node {
      * @param name 
      */
     public void removeAttribute(String name) {
-        if (attributes.keySet().contains(name))
-            attributes.remove(name);
+        graph.removeAttribute(id, name);
     }
 
     /**
@@ -126,20 +122,15 @@ public class Node {
      * @return 
      */
     public Object getAttribute(String name) {
-        if (attributes == null || !attributes.containsKey(name)) {
-            return null;
-        }
-        return attributes.get(name);
+        return graph.getAttribute(id, name);
     }
 
     /**
-     * @return set of attribute names
+     * @return set of attribute names, or null if no attribute has
+     * ever been set on this node
      */
     public Set<String> getAttributeNames() {
-        if (attributes != null)
-            return attributes.keySet();
-        else
-            return null;
+        return graph.getAttributeNames(id);
     }
     
     /**
@@ -149,14 +140,14 @@ public class Node {
      * @param value 
      */
     public void setFlag(boolean value) {
-        flag = value;
+        graph.setFlag(id, value);
     }
     
     /**
      * @return State of node flag.  Flag is false by default.
      */
     public boolean flagIsSet() {
-        return flag;
+        return graph.getFlag(id);
     }
 
     /**
@@ -165,7 +156,7 @@ public class Node {
      * @param time New height of node.
      */
     public void setTime(double time) {
-        this.time = time;
+        graph.setTime(id, time);
     }
 
     /**
@@ -176,8 +167,8 @@ public class Node {
      * @return this
      */
     public Node addChild(Node child) {
-        children.add(child);
-        child.parents.add(this);
+        getChildren().add(child);
+        child.getParents().add(this);
 
         return this;
     }
@@ -189,7 +180,7 @@ public class Node {
      * @param reaction
      */
     public void setReaction(Reaction reaction) {
-        this.reaction = reaction;
+        graph.setReaction(id, reaction);
     }
 
     /**
@@ -201,7 +192,7 @@ public class Node {
      * @param name
      */
     public void setName(String name) {
-        this.name = name;
+        graph.setName(id, name);
     }
 
     /*
@@ -209,26 +200,103 @@ public class Node {
     */
 
     public double getTime() {
-        return this.time;
+        return graph.getTime(id);
     }
 
+    /**
+     * @return modifiable view of this node's parents
+     */
     public List<Node> getParents() {
-        return this.parents;
+        return new EdgeList(true);
     }
 
+    /**
+     * @return modifiable view of this node's children
+     */
     public List<Node> getChildren() {
-        return this.children;
+        return new EdgeList(false);
     }
 
     public Reaction getReaction() {
-        return this.reaction;
+        return graph.getReaction(id);
     }
 
     public String getName() {
-        return name;
+        return graph.getName(id);
     }
 
     public Population getPopulation() {
-        return population;
+        return graph.getPopulation(id);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof Node))
+            return false;
+
+        Node otherNode = (Node)other;
+        return graph == otherNode.graph && id == otherNode.id;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31*System.identityHashCode(graph) + id;
+    }
+
+    /**
+     * List view of the parents or children of this node.
+     */
+    private class EdgeList extends AbstractList<Node> {
+
+        private final boolean parents;
+
+        EdgeList(boolean parents) {
+            this.parents = parents;
+        }
+
+        private int target(Node node) {
+            if (node.graph != graph)
+                throw new IllegalArgumentException("Cannot connect nodes "
+                        + "belonging to different inheritance graphs.");
+            return node.id;
+        }
+
+        @Override
+        public Node get(int index) {
+            if (index<0 || index>=size())
+                throw new IndexOutOfBoundsException("Index: " + index);
+            return new Node(graph, graph.getEdge(id, index, parents));
+        }
+
+        @Override
+        public int size() {
+            return graph.getEdgeCount(id, parents);
+        }
+
+        @Override
+        public Node set(int index, Node node) {
+            Node old = get(index);
+            graph.setEdge(id, index, target(node), parents);
+            return old;
+        }
+
+        @Override
+        public void add(int index, Node node) {
+            if (index<0 || index>size())
+                throw new IndexOutOfBoundsException("Index: " + index);
+            graph.insertEdge(id, index, target(node), parents);
+        }
+
+        @Override
+        public Node remove(int index) {
+            if (index<0 || index>=size())
+                throw new IndexOutOfBoundsException("Index: " + index);
+            return new Node(graph, graph.removeEdge(id, index, parents));
+        }
+
+        @Override
+        public void clear() {
+            graph.clearEdges(id, parents);
+        }
     }
 }
@@ -0,0 +1,480 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package master.model;
+
+import beast.core.BEASTObject;
+import beast.core.Input;
+import com.fasterxml.jackson.annotation.JsonValue;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import master.model.parsers.MASTERGrammarLexer;
+import master.model.parsers.MASTERGrammarParser;
+import org.antlr.v4.runtime.ANTLRInputStream;
+import org.antlr.v4.runtime.BaseErrorListener;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.RecognitionException;
+import org.antlr.v4.runtime.Recognizer;
+import org.antlr.v4.runtime.tree.ParseTree;
+
+/**
+ * Time series of observations of the simulated system together with the
+ * observation model relating them to the population state.  For
+ * likelihood-based methods the model is given as an expression for the
+ * log density of an observed value, which appears in the expression as
+ * the variable y, in terms of the population type names and any
+ * functions defined by the model.  For instance, Poisson-distributed
+ * counts with mean 0.1*I are described by "y*log(0.1*I) - 0.1*I -
+ * log((y)!)".  Distance-based methods instead compare the observed
+ * values with a summary statistic of the state, e.g. "0.1*I".
+ * Expressions involving only scalar population types and operators are
+ * compiled so that evaluating them does not allocate.
+ *
+ * Incidence data can be modelled by adding accumulator populations to
+ * the reactions of interest (e.g. S + I -&gt; 2I + C).  Populations
+ * listed as accumulators are reset to zero after each observation, so
+ * that they count the events occurring between observations.
+ *
+ * @author agent <agent@local>
+ */
+public class Observations extends BEASTObject {
+
+    public Input<String> timesInput = new Input<>("times",
+            "Space-delimited increasing list of observation times.",
+            Input.Validate.REQUIRED);
+
+    public Input<String> valuesInput = new Input<>("values",
+            "Space-delimited list of observed values, one for each time.",
+            Input.Validate.REQUIRED);
+
+    public Input<String> logDensityInput = new Input<>("logDensity",
+            "Expression giving the log density of the observed value y"
+                    + " in terms of population type names.  NaN values"
+                    + " are treated as impossible observations.");
+
+    public Input<String> statisticInput = new Input<>("statistic",
+            "Expression in terms of population type names giving the"
+                    + " simulated counterpart of the observed values.");
+
+    public Input<Double> scaleInput = new Input<>("scale",
+            "Scale by which differences between simulated and observed"
+                    + " values are divided when computing distances.", 1.0);
+
+    public Input<String> accumulatorsInput = new Input<>("accumulators",
+            "Space-delimited list of population type names whose sizes"
+                    + " are reset to zero after each observation.");
+
+    double[] times, values;
+    double scale;
+
+    private ParseTree logDensityTree, statisticTree;
+    private String[] accumulatorNames;
+
+    // Compiled observation model (null where expressions need vector
+    // variables or functions) and buffer holding its variables, the
+    // sizes of scalar population types followed by the observed value:
+    private ScalarExpression logDensityExpression, statisticExpression;
+    private Population[] scalarPops;
+    private double[] scalarVars;
+
+    // Evaluators and population variables for observation models which
+    // cannot be compiled:
+    private ExpressionEvaluator logDensityEvaluator, statisticEvaluator;
+    private List<String> popTypeNames;
+    private List<List<Population>> typePops;
+    private List<Double[]> typeSizes;
+    private Double[][] observedValues;
+
+    // Populations reset after each observation:
+    private List<Population> accumulatorPops;
+
+    public Observations() { }
+
+    @Override
+    public void initAndValidate() {
+        String[] timeStrings = timesInput.get().trim().split(" +");
+        String[] valueStrings = valuesInput.get().trim().split(" +");
+        if (timeStrings.length != valueStrings.length)
+            throw new IllegalArgumentException("Number of observed values"
+                    + " must match the number of observation times.");
+
+        times = new double[timeStrings.length];
+        values = new double[valueStrings.length];
+        for (int i=0; i<times.length; i++) {
+            times[i] = Double.parseDouble(timeStrings[i]);
+            values[i] = Double.parseDouble(valueStrings[i]);
+
+            if (times[i]<0.0 || (i>0 && times[i]<=times[i-1]))
+                throw new IllegalArgumentException("Observation times must"
+                        + " be non-negative and strictly increasing.");
+        }
+
+        scale = scaleInput.get();
+        if (scale<=0.0)
+            throw new IllegalArgumentException("Observation scale must be"
+                    + " positive.");
+
+        if (logDensityInput.get() == null && statisticInput.get() == null)
+            throw new IllegalArgumentException("Observations must specify"
+                    + " a log density or a statistic.");
+
+        if (logDensityInput.get() != null)
+            logDensityTree = parseExpression(logDensityInput.get(),
+                    "observation log density");
+
+        if (statisticInput.get() != null)
+            statisticTree = parseExpression(statisticInput.get(),
+                    "observation statistic");
+
+        if (accumulatorsInput.get() != null)
+            accumulatorNames = accumulatorsInput.get().trim().split(" +");
+
+        // Variable holding each observed value is allocated up front:
+        observedValues = new Double[values.length][];
+        for (int i=0; i<values.length; i++)
+            observedValues[i] = new Double[] {values[i]};
+    }
+
+    /**
+     * Parse expression appearing in observation model.
+     *
+     * @param expression expression string
+     * @param description description of expression used in errors
+     * @return parse tree
+     */
+    private ParseTree parseExpression(String expression,
+            final String description) {
+        ANTLRInputStream input = new ANTLRInputStream(expression);
+
+        // Custom parse/lexer error listener
+        BaseErrorListener errorListener = new BaseErrorListener() {
+            @Override
+            public void syntaxError(Recognizer<?, ?> recognizer,
+                                    Object offendingSymbol,
+                                    int line, int charPositionInLine,
+                                    String msg, RecognitionException e) {
+                throw new RuntimeException("Error parsing character " +
+                        charPositionInLine + " of line " + line +
+                        " of " + description + " expression: " + msg);
+            }
+        };
+
+        MASTERGrammarLexer lexer = new MASTERGrammarLexer(input);
+        lexer.removeErrorListeners();
+        lexer.addErrorListener(errorListener);
+
+        CommonTokenStream tokens = new CommonTokenStream(lexer);
+
+        MASTERGrammarParser parser = new MASTERGrammarParser(tokens);
+        parser.removeErrorListeners();
+        parser.addErrorListener(errorListener);
+
+        return parser.expression();
+    }
+
+    /**
+     * Prepare observation model for evaluation against states of the
+     * given model.
+     *
+     * @param model model whose states are observed
+     */
+    public void initialise(Model model) {
+        popTypeNames = Lists.newArrayList();
+        typePops = Lists.newArrayList();
+        typeSizes = Lists.newArrayList();
+        for (PopulationType popType : model.getPopulationTypes()) {
+            if (popType.getName().equals("y"))
+                throw new IllegalArgumentException("Population type name y"
+                        + " is reserved for the observed value in"
+                        + " observation models.");
+
+            popTypeNames.add(popType.getName());
+            List<Population> pops = Lists.newArrayList(popType);
+            typePops.add(pops);
+            typeSizes.add(new Double[pops.size()]);
+        }
+
+        // Population types with a single population are scalar variables
+        // of compiled expressions:
+        Map<String, Integer> varIndices = Maps.newHashMap();
+        List<Population> scalarPopList = Lists.newArrayList();
+        for (int i=0; i<typePops.size(); i++) {
+            if (typePops.get(i).size() == 1) {
+                varIndices.put(popTypeNames.get(i), scalarPopList.size());
+                scalarPopList.add(typePops.get(i).get(0));
+            }
+        }
+        varIndices.put("y", scalarPopList.size());
+        scalarPops = scalarPopList.toArray(new Population[0]);
+        scalarVars = new double[scalarPops.length + 1];
+
+        logDensityExpression = null;
+        logDensityEvaluator = null;
+        if (logDensityTree != null) {
+            logDensityExpression = ScalarExpression.compile(logDensityTree,
+                    varIndices);
+            if (logDensityExpression == null)
+                logDensityEvaluator = new ExpressionEvaluator(logDensityTree,
+                        null, model.getFunctionMap());
+        }
+
+        statisticExpression = null;
+        statisticEvaluator = null;
+        if (statisticTree != null) {
+            statisticExpression = ScalarExpression.compile(statisticTree,
+                    varIndices);
+            if (statisticExpression == null)
+                statisticEvaluator = new ExpressionEvaluator(statisticTree,
+                        null, model.getFunctionMap());
+        }
+
+        accumulatorPops = Lists.newArrayList();
+        if (accumulatorNames != null) {
+            for (String name : accumulatorNames) {
+                int idx = popTypeNames.indexOf(name);
+                if (idx<0)
+                    throw new IllegalArgumentException("Accumulator " + name
+                            + " is not a population type of the model.");
+                accumulatorPops.addAll(typePops.get(idx));
+            }
+        }
+    }
+
+    /**
+     * Obtain a copy of these observations with its own evaluation
+     * buffers, so that the observation model can be evaluated by
+     * separate threads.  The copy shares the observed values and parsed
+     * expressions, and must be initialised before use.
+     *
+     * @return copy of observations
+     */
+    public Observations getCopy() {
+        Observations copy = new Observations();
+        copy.setID(getID());
+        copy.times = times;
+        copy.values = values;
+        copy.scale = scale;
+        copy.logDensityTree = logDensityTree;
+        copy.statisticTree = statisticTree;
+        copy.accumulatorNames = accumulatorNames;
+        copy.observedValues = observedValues;
+
+        return copy;
+    }
+
+    /**
+     * @return observation times
+     */
+    public double[] getTimes() {
+        return times;
+    }
+
+    /**
+     * Merge the observation times of several time series.
+     *
+     * @param observations observed time series
+     * @return distinct observation times in ascending order
+     */
+    public static double[] mergeTimes(List<Observations> observations) {
+        double[] allTimes = new double[0];
+        for (Observations obs : observations) {
+            int offset = allTimes.length;
+            allTimes = Arrays.copyOf(allTimes, offset + obs.getTimes().length);
+            System.arraycopy(obs.getTimes(), 0, allTimes, offset,
+                    obs.getTimes().length);
+        }
+        Arrays.sort(allTimes);
+        int nTimes = 0;
+        for (int i=0; i<allTimes.length; i++) {
+            if (i==0 || allTimes[i]>allTimes[nTimes-1])
+                allTimes[nTimes++] = allTimes[i];
+        }
+        return Arrays.copyOf(allTimes, nTimes);
+    }
+
+    /**
+     * Locate observations of several time series among merged
+     * observation times.
+     *
+     * @param observations observed time series
+     * @param mergedTimes times produced by mergeTimes()
+     * @return for each time series, index of each merged time in the
+     * series (-1 if the series has no observation at that time)
+     */
+    public static int[][] getTimeIndices(List<Observations> observations,
+            double[] mergedTimes) {
+        int[][] obsIndices = new int[observations.size()][mergedTimes.length];
+        for (int s=0; s<observations.size(); s++) {
+            Arrays.fill(obsIndices[s], -1);
+            double[] times = observations.get(s).getTimes();
+            for (int i=0; i<times.length; i++)
+                obsIndices[s][Arrays.binarySearch(mergedTimes, times[i])] = i;
+        }
+        return obsIndices;
+    }
+
+    /**
+     * @return observed values
+     */
+    public double[] getValues() {
+        return values;
+    }
+
+    /**
+     * @return scale of differences between simulated and observed values
+     */
+    public double getScale() {
+        return scale;
+    }
+
+    /**
+     * @return true if a log density expression was provided
+     */
+    public boolean hasLogDensity() {
+        return logDensityTree != null;
+    }
+
+    /**
+     * @return true if a statistic expression was provided
+     */
+    public boolean hasStatistic() {
+        return statisticTree != null;
+    }
+
+    /**
+     * Make population sizes of a state available to compiled
+     * expressions.
+     *
+     * @param state population state
+     */
+    private void setScalarVariables(PopulationState state) {
+        for (int i=0; i<scalarPops.length; i++)
+            scalarVars[i] = state.get(scalarPops[i]);
+    }
+
+    /**
+     * Make population sizes of a state available to an evaluator.
+     *
+     * @param evaluator expression evaluator
+     * @param state population state
+     */
+    private void setPopulationVariables(ExpressionEvaluator evaluator,
+            PopulationState state) {
+        for (int i=0; i<typePops.size(); i++) {
+            List<Population> pops = typePops.get(i);
+            Double[] sizes = typeSizes.get(i);
+            for (int j=0; j<sizes.length; j++)
+                sizes[j] = state.get(pops.get(j));
+            evaluator.setVectorVar(popTypeNames.get(i), sizes);
+        }
+    }
+
+    /**
+     * Evaluate log density of an observation given the state of the
+     * system at the time it was made.
+     *
+     * @param state population state
+     * @param obsIdx index of observation
+     * @return log density, or negative infinity if the observation is
+     * impossible
+     */
+    public double getLogDensity(PopulationState state, int obsIdx) {
+        if (logDensityExpression != null) {
+            setScalarVariables(state);
+            scalarVars[scalarPops.length] = values[obsIdx];
+
+            double res = logDensityExpression.evaluate(scalarVars);
+            return Double.isNaN(res) ? Double.NEGATIVE_INFINITY : res;
+        }
+
+        setPopulationVariables(logDensityEvaluator, state);
+        logDensityEvaluator.setVectorVar("y", observedValues[obsIdx]);
+
+        Double[] res = logDensityEvaluator.evaluate(null);
+        if (res.length != 1)
+            throw new IllegalArgumentException(
+                    "Observation log density must be scalar!");
+
+        return Double.isNaN(res[0]) ? Double.NEGATIVE_INFINITY : res[0];
+    }
+
+    /**
+     * Evaluate the simulated statistic corresponding to the observed
+     * values.
+     *
+     * @param state population state
+     * @return value of statistic
+     */
+    public double getStatistic(PopulationState state) {
+        if (statisticExpression != null) {
+            setScalarVariables(state);
+            return statisticExpression.evaluate(scalarVars);
+        }
+
+        setPopulationVariables(statisticEvaluator, state);
+
+        Double[] res = statisticEvaluator.evaluate(null);
+        if (res.length != 1)
+            throw new IllegalArgumentException(
+                    "Observation statistic must be scalar!");
+
+        return res[0];
+    }
+
+    /**
+     * Reset accumulator populations following an observation.
+     *
+     * @param state population state
+     */
+    public void resetAccumulators(PopulationState state) {
+        for (Population pop : accumulatorPops)
+            state.set(pop, 0.0);
+    }
+
+    /**
+     * Construct representation of observations to use in assembling
+     * summary in JSON output file.
+     *
+     * @return Map from strings to other objects which have a JSON rep
+     */
+    @JsonValue
+    public Map<String, Object> getJsonValue() {
+
+        Map<String, Object> jsonObject = Maps.newHashMap();
+
+        List<Double> timeList = Lists.newArrayList();
+        List<Double> valueList = Lists.newArrayList();
+        for (int i=0; i<times.length; i++) {
+            timeList.add(times[i]);
+            valueList.add(values[i]);
+        }
+        jsonObject.put("t", timeList);
+        jsonObject.put("values", valueList);
+        if (logDensityInput.get() != null)
+            jsonObject.put("logDensity", logDensityInput.get());
+        if (statisticInput.get() != null) {
+            jsonObject.put("statistic", statisticInput.get());
+            jsonObject.put("scale", scale);
+        }
+        if (accumulatorsInput.get() != null)
+            jsonObject.put("accumulators", accumulatorsInput.get());
+
+        return jsonObject;
+    }
+}
@@ -64,6 +64,19 @@ public class PopulationState {
         }
     }
 
+    /**
+     * Overwrite this state with the population sizes of another state.
+     * Existing map entries are reused, so repeatedly copying between
+     * states of the same model does not allocate.
+     *
+     * @param other state to copy
+     */
+    public void copyFrom(PopulationState other) {
+        popSizes.keySet().retainAll(other.popSizes.keySet());
+        for (Map.Entry<Population, Double> entry : other.popSizes.entrySet())
+            popSizes.put(entry.getKey(), entry.getValue());
+    }
+
     /**
      * Retrieve set of populations represented in this state.
      * 
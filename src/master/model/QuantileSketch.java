@@ -0,0 +1,267 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package master.model;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Streaming estimator of the quantiles of a weighted sample, based on the
+ * merging t-digest of Dunning and Ertl.  Values are buffered and
+ * periodically merged into a bounded number of weighted centroids whose
+ * sizes shrink towards the tails of the distribution, so that extreme
+ * quantiles are estimated accurately using memory independent of the
+ * sample size.  Sketches of separate samples can be merged.
+ *
+ * @author agent <agent@local>
+ */
+public class QuantileSketch {
+
+    private final double compression;
+
+    // Merged centroids, ordered by mean:
+    private double[] means, weights;
+    private int nCentroids;
+
+    // Values yet to be merged:
+    private final double[] bufferMeans, bufferWeights;
+    private int nBuffered;
+
+    private double totalWeight, min, max;
+
+    /**
+     * Create empty sketch.
+     *
+     * @param compression compression parameter: the number of centroids
+     * retained is proportional to this
+     */
+    public QuantileSketch(double compression) {
+        this.compression = compression;
+
+        means = new double[0];
+        weights = new double[0];
+
+        int bufferSize = 5*(int)Math.ceil(compression);
+        bufferMeans = new double[bufferSize];
+        bufferWeights = new double[bufferSize];
+
+        min = Double.POSITIVE_INFINITY;
+        max = Double.NEGATIVE_INFINITY;
+    }
+
+    /**
+     * Add weighted value to sample.
+     *
+     * @param x value
+     * @param weight (non-negative) weight of value
+     */
+    public void add(double x, double weight) {
+        if (weight<=0.0)
+            return;
+
+        if (nBuffered == bufferMeans.length)
+            compress();
+
+        bufferMeans[nBuffered] = x;
+        bufferWeights[nBuffered] = weight;
+        nBuffered += 1;
+
+        totalWeight += weight;
+        min = Math.min(min, x);
+        max = Math.max(max, x);
+    }
+
+    /**
+     * Incorporate the sample summarised by another sketch, scaling its
+     * weights by the given factor.
+     *
+     * @param other sketch to incorporate
+     * @param factor (non-negative) factor by which to scale weights
+     */
+    public void add(QuantileSketch other, double factor) {
+        other.compress();
+        for (int i=0; i<other.nCentroids; i++)
+            add(other.means[i], factor*other.weights[i]);
+
+        // Centroid means lie inside the sample range, so keep its true
+        // extremes for interpolating the tails:
+        if (factor>0.0) {
+            min = Math.min(min, other.min);
+            max = Math.max(max, other.max);
+        }
+    }
+
+    /**
+     * Multiply the weights of all values in the sample by a constant.
+     *
+     * @param factor scale factor
+     */
+    public void scale(double factor) {
+        for (int i=0; i<nCentroids; i++)
+            weights[i] *= factor;
+        for (int i=0; i<nBuffered; i++)
+            bufferWeights[i] *= factor;
+        totalWeight *= factor;
+    }
+
+    /**
+     * Merge buffered values into centroids.
+     */
+    private void compress() {
+        if (nBuffered == 0)
+            return;
+
+        int n = nCentroids + nBuffered;
+        double[] allMeans = Arrays.copyOf(means, n);
+        double[] allWeights = Arrays.copyOf(weights, n);
+        System.arraycopy(bufferMeans, 0, allMeans, nCentroids, nBuffered);
+        System.arraycopy(bufferWeights, 0, allWeights, nCentroids, nBuffered);
+        nBuffered = 0;
+
+        // Order by mean:
+        Integer[] order = new Integer[n];
+        for (int i=0; i<n; i++)
+            order[i] = i;
+        Arrays.sort(order, (a, b) -> Double.compare(allMeans[a], allMeans[b]));
+
+        // Merge neighbouring centroids while the merged centroid spans no
+        // more than one unit of the scale function:
+        double[] newMeans = new double[n];
+        double[] newWeights = new double[n];
+        int nNew = 0;
+        double weightBefore = 0.0;
+        double kLeft = scaleFunction(0.0);
+
+        for (int idx : order) {
+            double mean = allMeans[idx];
+            double weight = allWeights[idx];
+
+            if (nNew>0 && scaleFunction((weightBefore + newWeights[nNew-1]
+                    + weight)/totalWeight) - kLeft <= 1.0) {
+                double merged = newWeights[nNew-1] + weight;
+                newMeans[nNew-1] += (mean - newMeans[nNew-1])*weight/merged;
+                newWeights[nNew-1] = merged;
+            } else {
+                if (nNew>0) {
+                    weightBefore += newWeights[nNew-1];
+                    kLeft = scaleFunction(weightBefore/totalWeight);
+                }
+                newMeans[nNew] = mean;
+                newWeights[nNew] = weight;
+                nNew += 1;
+            }
+        }
+
+        means = Arrays.copyOf(newMeans, nNew);
+        weights = Arrays.copyOf(newWeights, nNew);
+        nCentroids = nNew;
+    }
+
+    /**
+     * Scale function mapping quantiles to centroid indices.
+     *
+     * @param q quantile
+     * @return scaled quantile
+     */
+    private double scaleFunction(double q) {
+        return compression/(2*Math.PI)*Math.asin(2*Math.min(q, 1.0)-1);
+    }
+
+    /**
+     * @return total weight of sample
+     */
+    public double getTotalWeight() {
+        return totalWeight;
+    }
+
+    /**
+     * Estimate quantile of sample by interpolating between centroids.
+     *
+     * @param q probability
+     * @return estimated quantile, or NaN if the sample is empty
+     */
+    public double getQuantile(double q) {
+        compress();
+
+        if (nCentroids == 0)
+            return Double.NaN;
+
+        if (nCentroids == 1)
+            return means[0];
+
+        double target = q*totalWeight;
+
+        // Left tail, between minimum and first centroid:
+        if (target <= weights[0]/2)
+            return min + (means[0] - min)*target/(weights[0]/2);
+
+        double cumulative = weights[0]/2;
+        for (int i=0; i<nCentroids-1; i++) {
+            double gap = (weights[i] + weights[i+1])/2;
+            if (cumulative + gap >= target)
+                return means[i] + (means[i+1] - means[i])
+                        *(target - cumulative)/gap;
+            cumulative += gap;
+        }
+
+        // Right tail, between last centroid and maximum:
+        double last = weights[nCentroids-1]/2;
+        return means[nCentroids-1] + (max - means[nCentroids-1])
+                *Math.min(1.0, (target - cumulative)/last);
+    }
+
+    /**
+     * Write sketch to a checkpoint.
+     *
+     * @param out checkpoint being written
+     * @throws IOException
+     */
+    public void writeState(DataOutput out) throws IOException {
+        compress();
+
+        out.writeInt(nCentroids);
+        for (int i=0; i<nCentroids; i++) {
+            out.writeDouble(means[i]);
+            out.writeDouble(weights[i]);
+        }
+        out.writeDouble(totalWeight);
+        out.writeDouble(min);
+        out.writeDouble(max);
+    }
+
+    /**
+     * Restore sketch from a checkpoint written by writeState().
+     *
+     * @param in checkpoint being read
+     * @throws IOException
+     */
+    public void readState(DataInput in) throws IOException {
+        nCentroids = in.readInt();
+        means = new double[nCentroids];
+        weights = new double[nCentroids];
+        for (int i=0; i<nCentroids; i++) {
+            means[i] = in.readDouble();
+            weights[i] = in.readDouble();
+        }
+        nBuffered = 0;
+        totalWeight = in.readDouble();
+        min = in.readDouble();
+        max = in.readDouble();
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package master.model;
+
+import beast.core.BEASTObject;
+import beast.core.Description;
+import beast.core.Input;
+import beast.math.distributions.ParametricDistribution;
+import com.fasterxml.jackson.annotation.JsonValue;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import java.util.List;
+import java.util.Map;
+import master.rng.RandomGenerator;
+import org.apache.commons.math.MathException;
+
+/**
+ * Prior distribution of the rate of a reaction, used by simulation-based
+ * inference to vary the rates of an assembled model in place.  The
+ * parameter is the rate given by the reaction (its first rate if the
+ * rate is time-dependent); setting it scales every rate of the reaction,
+ * including those of all reactions implied by location variables, by the
+ * same factor, so that rate multipliers and rate changes are preserved.
+ *
+ * @author agent <agent@local>
+ */
+@Description("Prior distribution of the rate of a reaction.")
+public class RatePrior extends BEASTObject {
+
+    public Input<Reaction> reactionInput = new Input<>("reaction",
+            "Reaction whose rate is a parameter.",
+            Input.Validate.REQUIRED);
+
+    public Input<ParametricDistribution> priorInput = new Input<>("prior",
+            "Prior distribution of the reaction rate.",
+            Input.Validate.REQUIRED);
+
+    // Reactions sharing the parameter and their original rates:
+    private List<Reaction> reactions;
+    private List<double[]> originalRates;
+
+    // Original value of parameter:
+    private double originalValue;
+
+    public RatePrior() { }
+
+    @Override
+    public void initAndValidate() { }
+
+    /**
+     * Give the reactions implied by the chosen reaction their own copies
+     * of its rates, so that they can be modified without affecting other
+     * reactions.
+     *
+     * @param model model containing reaction
+     */
+    public void initialise(Model model) {
+        originalValue = reactionInput.get().getRates().get(0);
+        if (!(originalValue>0.0))
+            throw new IllegalArgumentException("Reaction "
+                    + getName() + " must have a positive rate to be"
+                    + " assigned a rate prior.");
+
+        reactions = model.getExpandedReactions(reactionInput.get());
+        originalRates = Lists.newArrayList();
+        for (Reaction reaction : reactions) {
+            double[] rates = new double[reaction.rates.size()];
+            for (int i=0; i<rates.length; i++)
+                rates[i] = reaction.rates.get(i);
+            originalRates.add(rates);
+
+            reaction.rates = Lists.newArrayList(reaction.rates);
+        }
+    }
+
+    /**
+     * @return name of reaction whose rate is a parameter
+     */
+    public String getName() {
+        return String.valueOf(reactionInput.get().getName());
+    }
+
+    /**
+     * Draw a rate from the prior.
+     *
+     * @param rng source of random variates
+     * @return sampled rate
+     */
+    public double sample(RandomGenerator rng) {
+        try {
+            return priorInput.get().inverseCumulativeProbability(
+                    rng.nextDouble());
+        } catch (MathException ex) {
+            throw new RuntimeException("Error sampling prior of reaction "
+                    + getName() + ": " + ex.getMessage());
+        }
+    }
+
+    /**
+     * @param value reaction rate
+     * @return log prior density of rate
+     */
+    public double getLogDensity(double value) {
+        return priorInput.get().logDensity(value);
+    }
+
+    /**
+     * Set the rate of the reaction.
+     *
+     * @param value new reaction rate
+     */
+    public void setRate(double value) {
+        setRate(reactions, value);
+    }
+
+    /**
+     * Set the rate of the reaction in a copy of the model obtained
+     * using Model.getCopy() after this prior was initialised.
+     *
+     * @param model copy of model
+     * @param value new reaction rate
+     */
+    public void setRate(Model model, double value) {
+        setRate(model.getExpandedReactions(reactionInput.get()), value);
+    }
+
+    /**
+     * Scale the original rates of the reactions implied by the chosen
+     * reaction.
+     *
+     * @param reactions implied reactions
+     * @param value new reaction rate
+     */
+    private void setRate(List<Reaction> reactions, double value) {
+        double factor = value/originalValue;
+        for (int r=0; r<reactions.size(); r++) {
+            List<Double> rates = reactions.get(r).rates;
+            double[] original = originalRates.get(r);
+            for (int i=0; i<original.length; i++)
+                rates.set(i, original[i]*factor);
+        }
+    }
+
+    /**
+     * Restore the rates the reaction had when this prior was
+     * initialised.
+     */
+    public void restore() {
+        for (int r=0; r<reactions.size(); r++) {
+            List<Double> rates = reactions.get(r).rates;
+            double[] original = originalRates.get(r);
+            for (int i=0; i<original.length; i++)
+                rates.set(i, original[i]);
+        }
+    }
+
+    @JsonValue
+    public Map<String, Object> getJsonValue() {
+        Map<String, Object> jsonObject = Maps.newHashMap();
+        jsonObject.put("reaction", getName());
+        jsonObject.put("prior", priorInput.get().getClass().getSimpleName());
+        return jsonObject;
+    }
+}
@@ -256,6 +256,7 @@ public class Reaction extends BEASTObject {
                 List<Integer> popIDs, reactPopIDs, prodPopIDs;
                 Map<Population, List<Node>> popNodeMap, reactPopNodeMap, prodPopNodeMap;
                 Map<PopulationType, Integer> seenTypeIDs = new HashMap<>();
+                InheritanceGraph templateGraph = new InheritanceGraph();
                 int nextPopID = 0;
 
 
@@ -322,7 +323,7 @@ public class Reaction extends BEASTObject {
                         factor = 1;
 
                     for (int i=0; i<factor; i++) {
-                        Node popNode = new Node(pop);
+                        Node popNode = templateGraph.addNode(pop);
 
                         // Add corresponding node to relevant maps, lists...
                         nodeList.add(popNode);
@@ -527,6 +528,27 @@ public class Reaction extends BEASTObject {
         }
     }
     
+    /**
+     * Obtain a copy of a reaction implied by a reaction specified in the
+     * model.  The copy shares the reaction topology but has its own
+     * rates and propensity, so that these can be modified and calculated
+     * independently, e.g. by separate threads.
+     *
+     * @return copy of reaction
+     */
+    Reaction getCopy() {
+        Reaction copy = new Reaction(reactionName);
+        copy.reactCount = reactCount;
+        copy.prodCount = prodCount;
+        copy.deltaCount = deltaCount;
+        copy.reactNodes = reactNodes;
+        copy.prodNodes = prodNodes;
+        copy.rates = new ArrayList<>(rates);
+        copy.rateTimes = rateTimes;
+
+        return copy;
+    }
+
     /**
      * Retrieve recently calculated propensity.
      * 
@@ -0,0 +1,374 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package master.model;
+
+import beast.math.GammaFunction;
+import java.util.Map;
+import master.model.parsers.MASTERGrammarBaseVisitor;
+import master.model.parsers.MASTERGrammarParser;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.antlr.v4.runtime.tree.RuleNode;
+
+/**
+ * Expression compiled into a tree of nodes operating on primitive
+ * doubles, for evaluation many times over with different values of its
+ * variables.  Unlike ExpressionEvaluator, evaluation neither boxes values
+ * nor allocates arrays.  Only expressions built from scalar variables
+ * and operators can be compiled: those involving arrays, subscripts or
+ * functions must be evaluated using ExpressionEvaluator.  Results agree
+ * exactly with those of ExpressionEvaluator.
+ *
+ * @author agent <agent@local>
+ */
+abstract class ScalarExpression {
+
+    /**
+     * Evaluate expression.
+     *
+     * @param vars values of variables, indexed as at compilation
+     * @return value of expression
+     */
+    abstract double evaluate(double[] vars);
+
+    /**
+     * Compile expression.
+     *
+     * @param parseTree parsed expression
+     * @param varIndices index in the variable array of each scalar
+     * variable which may appear in the expression
+     * @return compiled expression, or null if the expression involves
+     * vector variables, arrays, functions or anything else that
+     * cannot be compiled
+     */
+    static ScalarExpression compile(ParseTree parseTree,
+            Map<String, Integer> varIndices) {
+        try {
+            return new Compiler(varIndices).visit(parseTree);
+        } catch (NotScalarException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Thrown when an expression cannot be compiled.
+     */
+    private static class NotScalarException extends RuntimeException {
+        NotScalarException() {
+            super(null, null, false, false);
+        }
+    }
+
+    private static class Compiler
+            extends MASTERGrammarBaseVisitor<ScalarExpression> {
+
+        private final Map<String, Integer> varIndices;
+
+        Compiler(Map<String, Integer> varIndices) {
+            this.varIndices = varIndices;
+        }
+
+        @Override
+        public ScalarExpression visitChildren(RuleNode node) {
+            // Reached only by parse tree nodes not handled below:
+            throw new NotScalarException();
+        }
+
+        @Override
+        public ScalarExpression visitNumber(MASTERGrammarParser.NumberContext ctx) {
+            final double val = Double.valueOf(ctx.val.getText());
+            return new ScalarExpression() {
+                @Override
+                double evaluate(double[] vars) {
+                    return val;
+                }
+            };
+        }
+
+        @Override
+        public ScalarExpression visitVariable(MASTERGrammarParser.VariableContext ctx) {
+            Integer idx = varIndices.get(ctx.IDENT().getText());
+            if (idx == null)
+                throw new NotScalarException();
+
+            final int i = idx;
+            return new ScalarExpression() {
+                @Override
+                double evaluate(double[] vars) {
+                    return vars[i];
+                }
+            };
+        }
+
+        @Override
+        public ScalarExpression visitBracketed(MASTERGrammarParser.BracketedContext ctx) {
+            return visit(ctx.expression());
+        }
+
+        @Override
+        public ScalarExpression visitArray(MASTERGrammarParser.ArrayContext ctx) {
+            if (ctx.expression().size() != 1)
+                throw new NotScalarException();
+
+            return visit(ctx.expression(0));
+        }
+
+        @Override
+        public ScalarExpression visitArraySubscript(MASTERGrammarParser.ArraySubscriptContext ctx) {
+            throw new NotScalarException();
+        }
+
+        @Override
+        public ScalarExpression visitFunction(MASTERGrammarParser.FunctionContext ctx) {
+            throw new NotScalarException();
+        }
+
+        @Override
+        public ScalarExpression visitUnaryOp(MASTERGrammarParser.UnaryOpContext ctx) {
+            final ScalarExpression arg = visit(ctx.expression());
+
+            switch(ctx.op.getType()) {
+                case MASTERGrammarParser.EXP:
+                    return new ScalarExpression() {
+                        @Override
+                        double evaluate(double[] vars) {
+                            return Math.exp(arg.evaluate(vars));
+                        }
+                    };
+
+                case MASTERGrammarParser.LOG:
+                    return new ScalarExpression() {
+                        @Override
+                        double evaluate(double[] vars) {
+                            return Math.log(arg.evaluate(vars));
+                        }
+                    };
+
+                case MASTERGrammarParser.SQRT:
+                    return new ScalarExpression() {
+                        @Override
+                        double evaluate(double[] vars) {
+                            return Math.sqrt(arg.evaluate(vars));
+                        }
+                    };
+
+                case MASTERGrammarParser.SUM:
+                    // Sum of a scalar is the scalar itself (plus zero,
+                    // as in ExpressionEvaluator):
+                    return new ScalarExpression() {
+                        @Override
+                        double evaluate(double[] vars) {
+                            return 0.0 + arg.evaluate(vars);
+                        }
+                    };
+
+                case MASTERGrammarParser.THETA:
+                    return new ScalarExpression() {
+                        @Override
+                        double evaluate(double[] vars) {
+                            return arg.evaluate(vars) < 0.0 ? 0.0 : 1.0;
+                        }
+                    };
+
+                case MASTERGrammarParser.ABS:
+                    return new ScalarExpression() {
+                        @Override
+                        double evaluate(double[] vars) {
+                            return Math.abs(arg.evaluate(vars));
+                        }
+                    };
+
+                default:
+                    throw new NotScalarException();
+            }
+        }
+
+        @Override
+        public ScalarExpression visitNegation(MASTERGrammarParser.NegationContext ctx) {
+            final ScalarExpression arg = visit(ctx.expression());
+            return new ScalarExpression() {
+                @Override
+                double evaluate(double[] vars) {
+                    return -arg.evaluate(vars);
+                }
+            };
+        }
+
+        @Override
+        public ScalarExpression visitFactorial(MASTERGrammarParser.FactorialContext ctx) {
+            final ScalarExpression arg = visit(ctx.expression());
+            return new ScalarExpression() {
+                @Override
+                double evaluate(double[] vars) {
+                    return Math.exp(GammaFunction.lnGamma(arg.evaluate(vars)+1));
+                }
+            };
+        }
+
+        @Override
+        public ScalarExpression visitExponentiation(MASTERGrammarParser.ExponentiationContext ctx) {
+            final ScalarExpression base = visit(ctx.expression(0));
+            final ScalarExpression power = visit(ctx.expression(1));
+            return new ScalarExpression() {
+                @Override
+                double evaluate(double[] vars) {
+                    return Math.pow(base.evaluate(vars), power.evaluate(vars));
+                }
+            };
+        }
+
+        @Override
+        public ScalarExpression visitMulDiv(MASTERGrammarParser.MulDivContext ctx) {
+            final ScalarExpression left = visit(ctx.expression(0));
+            final ScalarExpression right = visit(ctx.expression(1));
+
+            switch(ctx.op.getType()) {
+                case MASTERGrammarParser.MUL:
+                    return new ScalarExpression() {
+                        @Override
+                        double evaluate(double[] vars) {
+                            return left.evaluate(vars) * right.evaluate(vars);
+                        }
+                    };
+
+                case MASTERGrammarParser.DIV:
+                    return new ScalarExpression() {
+                        @Override
+                        double evaluate(double[] vars) {
+                            return left.evaluate(vars) / right.evaluate(vars);
+                        }
+                    };
+
+                case MASTERGrammarParser.MOD:
+                    return new ScalarExpression() {
+                        @Override
+                        double evaluate(double[] vars) {
+                            return left.evaluate(vars) % right.evaluate(vars);
+                        }
+                    };
+
+                default:
+                    throw new NotScalarException();
+            }
+        }
+
+        @Override
+        public ScalarExpression visitAddSub(MASTERGrammarParser.AddSubContext ctx) {
+            final ScalarExpression left = visit(ctx.expression(0));
+            final ScalarExpression right = visit(ctx.expression(1));
+
+            if (ctx.op.getType() == MASTERGrammarParser.ADD)
+                return new ScalarExpression() {
+                    @Override
+                    double evaluate(double[] vars) {
+                        return left.evaluate(vars) + right.evaluate(vars);
+                    }
+                };
+            else
+                return new ScalarExpression() {
+                    @Override
+                    double evaluate(double[] vars) {
+                        return left.evaluate(vars) - right.evaluate(vars);
+                    }
+                };
+        }
+
+        @Override
+        public ScalarExpression visitEquality(MASTERGrammarParser.EqualityContext ctx) {
+            final ScalarExpression lhs = visit(ctx.expression(0));
+            final ScalarExpression rhs = visit(ctx.expression(1));
+            final int op = ctx.op.getType();
+
+            return new ScalarExpression() {
+                @Override
+                double evaluate(double[] vars) {
+                    double l = lhs.evaluate(vars);
+                    double r = rhs.evaluate(vars);
+
+                    boolean res;
+                    switch (op) {
+                        // Equality of boxed values, as in
+                        // ExpressionEvaluator:
+                        case MASTERGrammarParser.EQ:
+                            res = Double.doubleToLongBits(l)
+                                    == Double.doubleToLongBits(r);
+                            break;
+
+                        case MASTERGrammarParser.NE:
+                            res = Double.doubleToLongBits(l)
+                                    != Double.doubleToLongBits(r);
+                            break;
+
+                        case MASTERGrammarParser.LT:
+                            res = l < r;
+                            break;
+
+                        case MASTERGrammarParser.GT:
+                            res = l > r;
+                            break;
+
+                        case MASTERGrammarParser.LE:
+                            res = l <= r;
+                            break;
+
+                        default:
+                            res = l >= r;
+                    }
+
+                    return res ? 1.0 : 0.0;
+                }
+            };
+        }
+
+        @Override
+        public ScalarExpression visitBooleanOp(MASTERGrammarParser.BooleanOpContext ctx) {
+            final ScalarExpression left = visit(ctx.expression(0));
+            final ScalarExpression right = visit(ctx.expression(1));
+
+            if (ctx.op.getType() == MASTERGrammarParser.AND)
+                return new ScalarExpression() {
+                    @Override
+                    double evaluate(double[] vars) {
+                        return (left.evaluate(vars) != 0.0)
+                                && (right.evaluate(vars) != 0.0) ? 1.0 : 0.0;
+                    }
+                };
+            else
+                return new ScalarExpression() {
+                    @Override
+                    double evaluate(double[] vars) {
+                        return (left.evaluate(vars) != 0.0)
+                                || (right.evaluate(vars) != 0.0) ? 1.0 : 0.0;
+                    }
+                };
+        }
+
+        @Override
+        public ScalarExpression visitIfThenElse(MASTERGrammarParser.IfThenElseContext ctx) {
+            final ScalarExpression cond = visit(ctx.expression(0));
+            final ScalarExpression ifTrue = visit(ctx.expression(1));
+            final ScalarExpression ifFalse = visit(ctx.expression(2));
+            return new ScalarExpression() {
+                @Override
+                double evaluate(double[] vars) {
+                    return cond.evaluate(vars) != 0.0
+                            ? ifTrue.evaluate(vars)
+                            : ifFalse.evaluate(vars);
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,282 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package master.model;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Compact record of the population states sampled along a trajectory.
+ * Rather than storing a full copy of the state at each sample, only the
+ * populations whose sizes differ from the previous sample are recorded,
+ * as (population index, new size) pairs held in primitive arrays.  Since
+ * a single reaction typically changes only a handful of populations, this
+ * reduces the memory needed for structured models roughly by the number
+ * of populations.
+ *
+ * Full copies of the sizes (keyframes) are stored whenever the number of
+ * changes recorded since the previous keyframe reaches the number of
+ * populations, so that reconstructing any individual state costs no more
+ * than copying a state, while keyframes occupy at most as much memory as
+ * the changes themselves.
+ *
+ * @author agent <agent@local>
+ */
+public class StateHistory {
+
+    // Populations, indexed in order of first appearance:
+    private final List<Population> pops = Lists.newArrayList();
+    private final Map<Population, Integer> popIndices = Maps.newHashMap();
+
+    // Sizes at most recent sample:
+    private double[] currentSizes = new double[8];
+
+    // Sample times:
+    private int nSamples = 0;
+    private double[] times = new double[16];
+
+    // Changes belonging to sample i occupy the index range
+    // changeStart[i] to changeStart[i+1]-1:
+    private int[] changeStart = new int[17];
+    private int nChanges = 0;
+    private int[] changePops = new int[16];
+    private double[] changeSizes = new double[16];
+
+    // Keyframes and the samples they correspond to:
+    private final List<double[]> keyframes = Lists.newArrayList();
+    private int[] keyframeSamples = new int[4];
+    private int lastKeyframeChanges = 0;
+
+    private final List<PopulationState> stateView = new StateView();
+    private final List<Double> timeView = new TimeView();
+
+    /**
+     * Append state to history.  Populations present in earlier samples
+     * are assumed to remain present in later ones, as is the case for
+     * the states visited by a trajectory.
+     *
+     * @param state state to record
+     * @param time time of state
+     */
+    public void add(PopulationState state, double time) {
+        if (nSamples == times.length) {
+            times = Arrays.copyOf(times, 2*nSamples);
+            changeStart = Arrays.copyOf(changeStart, 2*nSamples+1);
+        }
+        times[nSamples] = time;
+
+        for (Map.Entry<Population, Double> entry : state.popSizes.entrySet()) {
+            double size = entry.getValue();
+
+            Integer idx = popIndices.get(entry.getKey());
+            if (idx == null) {
+                idx = pops.size();
+                pops.add(entry.getKey());
+                popIndices.put(entry.getKey(), idx);
+                if (idx == currentSizes.length)
+                    currentSizes = Arrays.copyOf(currentSizes, 2*idx);
+            } else if (Double.doubleToLongBits(currentSizes[idx])
+                    == Double.doubleToLongBits(size))
+                continue;
+
+            if (nChanges == changePops.length) {
+                changePops = Arrays.copyOf(changePops, 2*nChanges);
+                changeSizes = Arrays.copyOf(changeSizes, 2*nChanges);
+            }
+            changePops[nChanges] = idx;
+            changeSizes[nChanges] = size;
+            nChanges += 1;
+
+            currentSizes[idx] = size;
+        }
+        changeStart[nSamples+1] = nChanges;
+
+        if (nSamples == 0 || nChanges - lastKeyframeChanges >= pops.size()) {
+            if (keyframes.size() == keyframeSamples.length)
+                keyframeSamples = Arrays.copyOf(keyframeSamples,
+                        2*keyframes.size());
+            keyframeSamples[keyframes.size()] = nSamples;
+            keyframes.add(Arrays.copyOf(currentSizes, pops.size()));
+            lastKeyframeChanges = nChanges;
+        }
+
+        nSamples += 1;
+    }
+
+    /**
+     * Remove all samples from history.
+     */
+    public void clear() {
+        pops.clear();
+        popIndices.clear();
+        nSamples = 0;
+        nChanges = 0;
+        keyframes.clear();
+        lastKeyframeChanges = 0;
+    }
+
+    /**
+     * @return number of samples in history.
+     */
+    public int size() {
+        return nSamples;
+    }
+
+    /**
+     * @return list view of sampled states.  States are reconstructed
+     * from the history on demand, so each element retrieved is a new
+     * object.
+     */
+    public List<PopulationState> getStates() {
+        return stateView;
+    }
+
+    /**
+     * @return list view of sample times.
+     */
+    public List<Double> getTimes() {
+        return timeView;
+    }
+
+    /**
+     * Retrieve the size of a single population at every sample without
+     * reconstructing the states themselves.
+     *
+     * @param pop population of interest
+     * @return array of population sizes
+     */
+    public double[] getSizes(Population pop) {
+        double[] sizes = new double[nSamples];
+
+        Integer idx = popIndices.get(pop);
+        if (idx == null)
+            return sizes;
+
+        double size = 0.0;
+        for (int i=0; i<nSamples; i++) {
+            for (int c=changeStart[i]; c<changeStart[i+1]; c++) {
+                if (changePops[c] == idx)
+                    size = changeSizes[c];
+            }
+            sizes[i] = size;
+        }
+
+        return sizes;
+    }
+
+    /**
+     * Reconstruct sampled state.
+     *
+     * @param i index of sample
+     * @return new PopulationState object
+     */
+    public PopulationState getState(int i) {
+        if (i<0 || i>=nSamples)
+            throw new IndexOutOfBoundsException("Sample index " + i
+                    + " out of range.");
+
+        // Locate most recent keyframe:
+        int k = Arrays.binarySearch(keyframeSamples, 0, keyframes.size(), i);
+        if (k<0)
+            k = -k - 2;
+
+        double[] keyframe = keyframes.get(k);
+        PopulationState state = new PopulationState();
+        for (int p=0; p<keyframe.length; p++)
+            state.set(pops.get(p), keyframe[p]);
+
+        for (int c=changeStart[keyframeSamples[k]+1]; c<changeStart[i+1]; c++)
+            state.set(pops.get(changePops[c]), changeSizes[c]);
+
+        return state;
+    }
+
+    /**
+     * List view of sampled states.
+     */
+    private class StateView extends AbstractList<PopulationState> {
+
+        @Override
+        public PopulationState get(int i) {
+            return getState(i);
+        }
+
+        @Override
+        public int size() {
+            return nSamples;
+        }
+
+        @Override
+        public Iterator<PopulationState> iterator() {
+
+            // Replay changes in order rather than seeking keyframes:
+            return new Iterator<PopulationState>() {
+                int i = 0;
+                double[] sizes = new double[pops.size()];
+                int nPresent = 0;
+
+                @Override
+                public boolean hasNext() {
+                    return i<nSamples;
+                }
+
+                @Override
+                public PopulationState next() {
+                    if (!hasNext())
+                        throw new NoSuchElementException();
+
+                    for (int c=changeStart[i]; c<changeStart[i+1]; c++) {
+                        sizes[changePops[c]] = changeSizes[c];
+                        nPresent = Math.max(nPresent, changePops[c]+1);
+                    }
+                    i += 1;
+
+                    PopulationState state = new PopulationState();
+                    for (int p=0; p<nPresent; p++)
+                        state.set(pops.get(p), sizes[p]);
+
+                    return state;
+                }
+            };
+        }
+    }
+
+    /**
+     * List view of sample times.
+     */
+    private class TimeView extends AbstractList<Double> {
+
+        @Override
+        public Double get(int i) {
+            if (i<0 || i>=nSamples)
+                throw new IndexOutOfBoundsException("Sample index " + i
+                        + " out of range.");
+            return times[i];
+        }
+
+        @Override
+        public int size() {
+            return nSamples;
+        }
+    }
+}
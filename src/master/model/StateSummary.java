@@ -17,11 +17,17 @@
 package master.model;
 
 import com.google.common.collect.*;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.*;
+import master.utilities.ExactSum;
 
 /**
  * Class representing an ensemble of states summarised in terms of moment
- * estimates.
+ * estimates.  Sums of moments and their squares are accumulated exactly,
+ * so summaries built from the same states agree exactly however the
+ * states were divided between partial summaries.
  *
  * @author Tim Vaughan
  *
@@ -30,7 +36,24 @@ public class StateSummary {
 
     Map<Moment, Double> mean, std, summaries;
     Map<MomentGroup, double[]> groupMean, groupStd, groupSummaries;
-    int sampleNum;
+    double totalWeight;
+
+    // Weighted sums of moments and their squares:
+    Map<Moment, ExactSum> sums, sums2;
+    Map<MomentGroup, ExactSum[]> groupSums, groupSums2;
+
+    // Moments and moment groups in the order supplied:
+    List<Moment> momentList;
+    List<MomentGroup> momentGroupList;
+
+    // Achieved variance reduction factors (null unless variance
+    // reduction has been used):
+    Map<Moment, Double> varianceReduction;
+    Map<MomentGroup, double[]> groupVarianceReduction;
+
+    // Distributional summaries of moments which request them:
+    Map<Moment, QuantileSketch> sketches;
+    Map<Moment, Histogram> histograms;
 
     /**
      * Create new state summary using a given list of moment groups.
@@ -40,17 +63,39 @@ public class StateSummary {
      */
     public StateSummary(List<Moment> moments, List<MomentGroup> momentGroups) {
 
+        momentList = moments;
+        momentGroupList = momentGroups;
+
         mean = Maps.newHashMap();
         std = Maps.newHashMap();
         summaries = Maps.newHashMap();
+        sums = Maps.newHashMap();
+        sums2 = Maps.newHashMap();
         
         groupMean = Maps.newHashMap();
         groupStd = Maps.newHashMap();
         groupSummaries = Maps.newHashMap();
+        groupSums = Maps.newHashMap();
+        groupSums2 = Maps.newHashMap();
         
+        sketches = Maps.newHashMap();
+        histograms = Maps.newHashMap();
+
         for (Moment moment : moments) {
             mean.put(moment, 0.0);
             std.put(moment, 0.0);
+            sums.put(moment, new ExactSum());
+            sums2.put(moment, new ExactSum());
+
+            if (moment.getDistribution() != null) {
+                QuantileSketch sketch = moment.getDistribution().createSketch();
+                if (sketch != null)
+                    sketches.put(moment, sketch);
+
+                Histogram histogram = moment.getDistribution().createHistogram();
+                if (histogram != null)
+                    histograms.put(moment, histogram);
+            }
         }
             
         
@@ -64,9 +109,18 @@ public class StateSummary {
             groupMean.put(momentGroup, new double[nElements]);
             groupStd.put(momentGroup, new double[nElements]);
             groupSummaries.put(momentGroup, new double[nElements]);
+
+            ExactSum[] elementSums = new ExactSum[nElements];
+            ExactSum[] elementSums2 = new ExactSum[nElements];
+            for (int i = 0; i < nElements; i++) {
+                elementSums[i] = new ExactSum();
+                elementSums2[i] = new ExactSum();
+            }
+            groupSums.put(momentGroup, elementSums);
+            groupSums2.put(momentGroup, elementSums2);
         }
 
-        sampleNum = 0;
+        totalWeight = 0.0;
     }
 
     /**
@@ -86,20 +140,170 @@ public class StateSummary {
      * Incorporate latest summaries into mean and variance estimates.
      */
     public void accept() {
+        accept(1.0);
+    }
+
+    /**
+     * Incorporate latest summaries into mean and variance estimates,
+     * giving them the specified (non-negative) weight.  Used when the
+     * recorded state is one of a set of weighted states rather than a
+     * single stochastic realisation.
+     *
+     * @param weight weight to assign to the latest summaries
+     */
+    public void accept(double weight) {
         for (Moment moment : mean.keySet()) {
             double summary = summaries.get(moment);
-            mean.put(moment, mean.get(moment) + summary);
-            std.put(moment, std.get(moment) + summary*summary);
+            sums.get(moment).add(weight*summary);
+            sums2.get(moment).add(weight*summary*summary);
         }
         
         for (MomentGroup momentGroup : groupMean.keySet()) {
             for (int i = 0; i < groupMean.get(momentGroup).length; i++) {
                 double summary = groupSummaries.get(momentGroup)[i];
-                groupMean.get(momentGroup)[i] += summary;
-                groupStd.get(momentGroup)[i] += summary * summary;
+                groupSums.get(momentGroup)[i].add(weight*summary);
+                groupSums2.get(momentGroup)[i].add(weight*summary * summary);
+            }
+        }
+
+        for (Moment moment : sketches.keySet())
+            sketches.get(moment).add(summaries.get(moment), weight);
+
+        for (Moment moment : histograms.keySet())
+            histograms.get(moment).add(summaries.get(moment), weight);
+
+        totalWeight += weight;
+    }
+
+    /**
+     * Incorporate the latest summaries recorded by another state summary
+     * constructed from the same moments, giving them the specified
+     * weight.  Allows several differently weighted summaries to share a
+     * single evaluation of the moments of each state.
+     *
+     * @param source state summary holding the latest summaries
+     * @param weight weight to assign to the latest summaries
+     */
+    public void acceptRecorded(StateSummary source, double weight) {
+        for (Moment moment : mean.keySet()) {
+            double summary = source.summaries.get(moment);
+            sums.get(moment).add(weight*summary);
+            sums2.get(moment).add(weight*summary*summary);
+        }
+
+        for (MomentGroup momentGroup : groupMean.keySet()) {
+            double[] summaries = source.groupSummaries.get(momentGroup);
+            for (int i = 0; i < groupMean.get(momentGroup).length; i++) {
+                groupSums.get(momentGroup)[i].add(weight*summaries[i]);
+                groupSums2.get(momentGroup)[i].add(weight*summaries[i]*summaries[i]);
+            }
+        }
+
+        for (Moment moment : sketches.keySet())
+            sketches.get(moment).add(source.summaries.get(moment), weight);
+
+        for (Moment moment : histograms.keySet())
+            histograms.get(moment).add(source.summaries.get(moment), weight);
+
+        totalWeight += weight;
+    }
+
+    /**
+     * Multiply the accumulated (unnormalised) summaries and their total
+     * weight by a constant factor.  Normalised estimates are unaffected.
+     *
+     * @param factor scale factor
+     */
+    public void scale(double factor) {
+        for (Moment moment : mean.keySet()) {
+            sums.get(moment).scale(factor);
+            sums2.get(moment).scale(factor);
+        }
+
+        for (MomentGroup momentGroup : groupMean.keySet()) {
+            for (int i = 0; i < groupMean.get(momentGroup).length; i++) {
+                groupSums.get(momentGroup)[i].scale(factor);
+                groupSums2.get(momentGroup)[i].scale(factor);
+            }
+        }
+
+        for (QuantileSketch sketch : sketches.values())
+            sketch.scale(factor);
+
+        for (Histogram histogram : histograms.values())
+            histogram.scale(factor);
+
+        totalWeight *= factor;
+    }
+
+    /**
+     * Incorporate the accumulated (unnormalised) summaries of another
+     * state summary constructed from the same moments, scaled so that
+     * together they carry the given total weight.  The weight may be
+     * negative, allowing estimators built from differences of ensembles.
+     *
+     * @param other state summary to incorporate
+     * @param weight total weight to assign to other's summaries
+     */
+    public void accept(StateSummary other, double weight) {
+        double scale = weight/other.totalWeight;
+
+        if (scale<0.0 && !(sketches.isEmpty() && histograms.isEmpty()))
+            throw new IllegalArgumentException("Moment distributions cannot"
+                    + " be estimated from differences of ensembles.");
+
+        addSums(other, scale);
+
+        for (Moment moment : sketches.keySet())
+            sketches.get(moment).add(other.sketches.get(moment), scale);
+
+        for (Moment moment : histograms.keySet())
+            histograms.get(moment).add(other.histograms.get(moment), scale);
+
+        totalWeight += weight;
+    }
+
+    /**
+     * Incorporate the accumulated (unnormalised) summaries of another
+     * state summary constructed from the same moments, as if the
+     * states summarised by other had been accepted by this summary.
+     *
+     * @param other state summary to incorporate
+     */
+    public void add(StateSummary other) {
+        addSums(other, 1.0);
+
+        for (Moment moment : sketches.keySet())
+            sketches.get(moment).add(other.sketches.get(moment), 1.0);
+
+        for (Moment moment : histograms.keySet())
+            histograms.get(moment).add(other.histograms.get(moment), 1.0);
+
+        totalWeight += other.totalWeight;
+    }
+
+    /**
+     * Add the sums accumulated by another state summary constructed from
+     * the same moments, scaled by the given factor.  Sums are added
+     * exactly when the factor is 1.
+     *
+     * @param other state summary whose sums to add
+     * @param factor factor by which to scale other's sums
+     */
+    private void addSums(StateSummary other, double factor) {
+        for (Moment moment : mean.keySet()) {
+            sums.get(moment).add(other.sums.get(moment), factor);
+            sums2.get(moment).add(other.sums2.get(moment), factor);
+        }
+
+        for (MomentGroup momentGroup : groupMean.keySet()) {
+            ExactSum[] otherSums = other.groupSums.get(momentGroup);
+            ExactSum[] otherSums2 = other.groupSums2.get(momentGroup);
+            for (int i = 0; i < otherSums.length; i++) {
+                groupSums.get(momentGroup)[i].add(otherSums[i], factor);
+                groupSums2.get(momentGroup)[i].add(otherSums2[i], factor);
             }
         }
-        sampleNum += 1;
     }
 
     /**
@@ -107,10 +311,10 @@ public class StateSummary {
      */
     public void normalise() {
         for (Moment moment : mean.keySet()) {
-            double thisMean = mean.get(moment)/sampleNum;
+            double thisMean = sums.get(moment).doubleValue()/totalWeight;
             double thisMean2 = thisMean*thisMean;
-            double thisStd = Math.sqrt(
-                    Math.max(0.0, std.get(moment)/sampleNum - thisMean2));
+            double thisStd = Math.sqrt(Math.max(0.0,
+                    sums2.get(moment).doubleValue()/totalWeight - thisMean2));
 
             mean.put(moment, thisMean);
             std.put(moment, thisStd);
@@ -120,8 +324,8 @@ public class StateSummary {
             double[] thisMean = groupMean.get(momentGroup);
             double[] thisStd = groupStd.get(momentGroup);
             for (int i = 0; i < thisMean.length; i++) {
-                thisMean[i] /= sampleNum;
-                thisStd[i] /= sampleNum;
+                thisMean[i] = groupSums.get(momentGroup)[i].doubleValue()/totalWeight;
+                thisStd[i] = groupSums2.get(momentGroup)[i].doubleValue()/totalWeight;
 
                 double thisMean2 = thisMean[i] * thisMean[i];
                 thisStd[i] = Math.sqrt(Math.max(0.0, thisStd[i]-thisMean2));
@@ -130,28 +334,230 @@ public class StateSummary {
     }
 
     /**
-     * @return means for each moment group
+     * @return number of scalar summaries (moments followed by the elements
+     * of each moment group) making up this summary.
+     */
+    public int getComponentCount() {
+        int count = momentList.size();
+        for (MomentGroup momentGroup : momentGroupList)
+            count += groupMean.get(momentGroup).length;
+
+        return count;
+    }
+
+    /**
+     * Evaluate all scalar summaries of a state, in the order moments
+     * followed by the elements of each moment group.
+     *
+     * @param state state to summarise
+     * @param components array of length getComponentCount() to fill
+     */
+    public void getComponents(PopulationState state, double[] components) {
+        int i = 0;
+        for (Moment moment : momentList)
+            components[i++] = moment.getSummary(state);
+
+        for (MomentGroup momentGroup : momentGroupList) {
+            double[] summaries = groupSummaries.get(momentGroup);
+            momentGroup.getSummary(state, summaries);
+            for (double summary : summaries)
+                components[i++] = summary;
+        }
+    }
+
+    /**
+     * Write the accumulated (unnormalised) summaries to a checkpoint.
+     *
+     * @param out checkpoint being written
+     * @throws IOException
+     */
+    public void writeState(DataOutput out) throws IOException {
+        for (Moment moment : momentList) {
+            sums.get(moment).writeState(out);
+            sums2.get(moment).writeState(out);
+        }
+
+        for (MomentGroup momentGroup : momentGroupList) {
+            for (int i = 0; i < groupMean.get(momentGroup).length; i++) {
+                groupSums.get(momentGroup)[i].writeState(out);
+                groupSums2.get(momentGroup)[i].writeState(out);
+            }
+        }
+
+        for (Moment moment : momentList) {
+            if (sketches.containsKey(moment))
+                sketches.get(moment).writeState(out);
+            if (histograms.containsKey(moment))
+                histograms.get(moment).writeState(out);
+        }
+        out.writeDouble(totalWeight);
+    }
+
+    /**
+     * Restore accumulated summaries from a checkpoint written by
+     * writeState() for the same moments and moment groups.
+     *
+     * @param in checkpoint being read
+     * @throws IOException
+     */
+    public void readState(DataInput in) throws IOException {
+        for (Moment moment : momentList) {
+            sums.get(moment).readState(in);
+            sums2.get(moment).readState(in);
+        }
+
+        for (MomentGroup momentGroup : momentGroupList) {
+            for (int i = 0; i < groupMean.get(momentGroup).length; i++) {
+                groupSums.get(momentGroup)[i].readState(in);
+                groupSums2.get(momentGroup)[i].readState(in);
+            }
+        }
+
+        for (Moment moment : momentList) {
+            if (sketches.containsKey(moment))
+                sketches.get(moment).readState(in);
+            if (histograms.containsKey(moment))
+                histograms.get(moment).readState(in);
+        }
+        totalWeight = in.readDouble();
+    }
+
+    /**
+     * Replace normalised means with variance-reduced estimates and record
+     * the variance reduction factor achieved for each.  Both arrays use
+     * the component order of getComponents().
+     *
+     * @param means variance-reduced mean estimates
+     * @param factors ratio of the variance of the plain Monte Carlo
+     * estimator to that of the variance-reduced estimator
+     */
+    public void setVarianceReducedMeans(double[] means, double[] factors) {
+        varianceReduction = Maps.newHashMap();
+        groupVarianceReduction = Maps.newHashMap();
+
+        int i = 0;
+        for (Moment moment : momentList) {
+            mean.put(moment, means[i]);
+            varianceReduction.put(moment, factors[i]);
+            i += 1;
+        }
+
+        for (MomentGroup momentGroup : momentGroupList) {
+            double[] thisMean = groupMean.get(momentGroup);
+            double[] thisFactors = new double[thisMean.length];
+            for (int j=0; j<thisMean.length; j++) {
+                thisMean[j] = means[i];
+                thisFactors[j] = factors[i];
+                i += 1;
+            }
+            groupVarianceReduction.put(momentGroup, thisFactors);
+        }
+    }
+
+    /**
+     * @return variance reduction factors for each moment, or null if
+     * variance reduction was not used.
+     */
+    public Map<Moment, Double> getVarianceReductions() {
+        return varianceReduction;
+    }
+
+    /**
+     * @return variance reduction factors for each moment group, or null
+     * if variance reduction was not used.
+     */
+    public Map<MomentGroup, double[]> getGroupVarianceReductions() {
+        return groupVarianceReduction;
+    }
+
+    /**
+     * @param moment moment
+     * @return weighted sum of accepted summaries of moment
+     */
+    public double getSum(Moment moment) {
+        return sums.get(moment).doubleValue();
+    }
+
+    /**
+     * @param moment moment
+     * @return weighted sum of squares of accepted summaries of moment
+     */
+    public double getSumOfSquares(Moment moment) {
+        return sums2.get(moment).doubleValue();
+    }
+
+    /**
+     * @param momentGroup moment group
+     * @return weighted sums of accepted summaries of each element of
+     * moment group
+     */
+    public double[] getGroupSums(MomentGroup momentGroup) {
+        ExactSum[] elementSums = groupSums.get(momentGroup);
+        double[] values = new double[elementSums.length];
+        for (int i = 0; i < values.length; i++)
+            values[i] = elementSums[i].doubleValue();
+
+        return values;
+    }
+
+    /**
+     * @param momentGroup moment group
+     * @return weighted sums of squares of accepted summaries of each
+     * element of moment group
+     */
+    public double[] getGroupSumsOfSquares(MomentGroup momentGroup) {
+        ExactSum[] elementSums = groupSums2.get(momentGroup);
+        double[] values = new double[elementSums.length];
+        for (int i = 0; i < values.length; i++)
+            values[i] = elementSums[i].doubleValue();
+
+        return values;
+    }
+
+    /**
+     * @return total weight of accepted summaries
+     */
+    public double getTotalWeight() {
+        return totalWeight;
+    }
+
+    /**
+     * @return quantile sketches of moments which request them
+     */
+    public Map<Moment, QuantileSketch> getQuantileSketches() {
+        return sketches;
+    }
+
+    /**
+     * @return histograms of moments which request them
+     */
+    public Map<Moment, Histogram> getHistograms() {
+        return histograms;
+    }
+
+    /**
+     * @return means for each moment group (once normalised)
      */
     public Map<MomentGroup, double[]> getGroupMeans() {
         return groupMean;
     }
     
     /**
-     * @return means for each moment
+     * @return means for each moment (once normalised)
      */
     public Map<Moment, Double> getMeans() {
         return mean;
     }
 
     /**
-     * @return Standard deviations for each moment group
+     * @return Standard deviations for each moment group (once normalised)
      */
     public Map<MomentGroup, double[]> getGroupStds() {
         return groupStd;
     }
     
     /**
-     * @return Standard deviations for each moment
+     * @return Standard deviations for each moment (once normalised)
      */
     public Map<Moment, Double> getStds() {
         return std;
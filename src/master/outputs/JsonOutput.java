@@ -24,17 +24,26 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import master.ApproximateBayesianComputation;
 import master.Ensemble;
 import master.EnsembleSpec;
 import master.EnsembleSummary;
 import master.EnsembleSummarySpec;
+import master.FiniteStateProjection;
+import master.ParticleFilter;
+import master.ParticleFilterSpec;
+import master.estimators.LikelihoodReweighting;
+import master.estimators.RateScaling;
+import master.model.FirstPassageSummary;
+import master.model.Histogram;
 import master.model.Moment;
 import master.model.MomentGroup;
 import master.model.Population;
-import master.model.PopulationState;
+import master.model.RatePrior;
 import master.model.PopulationType;
 import master.model.StateSummary;
 import master.Trajectory;
@@ -55,6 +64,9 @@ public class JsonOutput extends BEASTObject implements
         TrajectoryOutput, 
         EnsembleOutput,
         EnsembleSummaryOutput,
+        FiniteStateProjectionOutput,
+        ParticleFilterOutput,
+        ApproximateBayesianComputationOutput,
         InheritanceTrajectoryOutput,
         InheritanceEnsembleOutput {
     
@@ -88,13 +100,11 @@ public class JsonOutput extends BEASTObject implements
         HashMap<String, Object> outputData = Maps.newHashMap();
         
         TrajectorySpec spec = trajectory.getSpec();
-        List<PopulationState> sampledStates = trajectory.getSampledStates();
-        
         for (PopulationType type : spec.getModel().getPopulationTypes()) {
             int[] loc = new int[type.getDims().length];
             for (int d=0; d<loc.length; d++)
                 loc[d] = 0;
-            outputData.put(type.getName(), iterateOverLocs(sampledStates, type, loc, 0));
+            outputData.put(type.getName(), iterateOverLocs(trajectory, type, loc, 0));
         }
         
         // Add list of sampling times to output object:
@@ -116,6 +126,116 @@ public class JsonOutput extends BEASTObject implements
     }
 
     
+    /**
+     * Assemble output object describing the first passages through an
+     * event.  The hitting probability is indexed by sample, while the
+     * hitting time and the moments of the state at hitting are
+     * conditional on the event occurring.
+     *
+     * @param spec specification listing moments and moment groups
+     * @param summary first-passage summary
+     * @return output object
+     */
+    private Map<String, Object> getFirstPassageData(EnsembleSummarySpec spec,
+            FirstPassageSummary summary) {
+
+        Map<String, Object> passageData = Maps.newHashMap();
+
+        List<Double> probData = Lists.newArrayList();
+        for (double prob : summary.getHitProbabilities())
+            probData.add(prob);
+        passageData.put("probability", probData);
+        passageData.put("nHit", summary.getHitCount());
+
+        Map<String, Object> timeData = Maps.newHashMap();
+        timeData.put("mean", summary.getTimeMean());
+        timeData.put("std", summary.getTimeStd());
+        double[] quantileProbs = summary.getPassage().getQuantileProbs();
+        if (quantileProbs.length>0) {
+            Map<String, Object> quantileData = Maps.newHashMap();
+            List<Double> pData = Lists.newArrayList();
+            List<Double> valueData = Lists.newArrayList();
+            for (double prob : quantileProbs) {
+                pData.add(prob);
+                valueData.add(summary.getTimeQuantile(prob));
+            }
+            quantileData.put("p", pData);
+            quantileData.put("values", valueData);
+            timeData.put("quantiles", quantileData);
+        }
+        passageData.put("time", timeData);
+
+        Map<String, Object> stateData = Maps.newHashMap();
+        putMoments(stateData, spec, new StateSummary[] {summary.getHitState()});
+        passageData.put("state", stateData);
+
+        return passageData;
+    }
+
+    /**
+     * Add quantile and histogram estimates of a moment to its output
+     * object.  Quantiles are indexed as probability->sample, histogram
+     * frequencies as sample->bin.
+     *
+     * @param momentData output object for moment
+     * @param moment moment
+     * @param stateSummaries state summaries at each sample time
+     */
+    private void putDistribution(Map<String, Object> momentData,
+            Moment moment, StateSummary[] stateSummaries) {
+
+        if (stateSummaries[0].getQuantileSketches().containsKey(moment)) {
+            Map<String, Object> quantileData = Maps.newHashMap();
+
+            List<Double> probData = Lists.newArrayList();
+            List<Object> valueData = Lists.newArrayList();
+            for (double prob : moment.getDistribution().getQuantileProbs()) {
+                probData.add(prob);
+
+                List<Double> schemaData = Lists.newArrayList();
+                for (StateSummary stateSummary : stateSummaries)
+                    schemaData.add(stateSummary.getQuantileSketches()
+                            .get(moment).getQuantile(prob));
+                valueData.add(schemaData);
+            }
+            quantileData.put("p", probData);
+            quantileData.put("values", valueData);
+
+            momentData.put("quantiles", quantileData);
+        }
+
+        if (stateSummaries[0].getHistograms().containsKey(moment)) {
+            Map<String, Object> histogramData = Maps.newHashMap();
+
+            List<Double> edgeData = Lists.newArrayList();
+            for (double edge : stateSummaries[0].getHistograms()
+                    .get(moment).getBinEdges())
+                edgeData.add(edge);
+            histogramData.put("binEdges", edgeData);
+
+            List<Object> frequencyData = Lists.newArrayList();
+            List<Double> underflowData = Lists.newArrayList();
+            List<Double> overflowData = Lists.newArrayList();
+            for (StateSummary stateSummary : stateSummaries) {
+                Histogram histogram = stateSummary.getHistograms().get(moment);
+
+                List<Double> sampleData = Lists.newArrayList();
+                for (double frequency : histogram.getFrequencies())
+                    sampleData.add(frequency);
+                frequencyData.add(sampleData);
+
+                underflowData.add(histogram.getUnderflowFrequency());
+                overflowData.add(histogram.getOverflowFrequency());
+            }
+            histogramData.put("frequencies", frequencyData);
+            histogramData.put("underflow", underflowData);
+            histogramData.put("overflow", overflowData);
+
+            momentData.put("histogram", histogramData);
+        }
+    }
+    
+    
     /**
      * Express a given trajectory ensemble as a JSON-formatted string and send
      * the result to a PrintStream.
@@ -133,26 +253,8 @@ public class JsonOutput extends BEASTObject implements
         EnsembleSpec spec = ensemble.getSpec();
         
         List<Object> trajData = Lists.newArrayList();
-        for (Trajectory trajectory : ensemble.getTrajectories()) {
-            HashMap<String, Object> thisTrajData = Maps.newHashMap();
-            List<PopulationState> sampledStates = trajectory.getSampledStates();
-        
-            for (PopulationType type : spec.getModel().getPopulationTypes()) {
-                int[] loc = new int[type.getDims().length];
-                for (int d=0; d<loc.length; d++)
-                    loc[d] = 0;
-                thisTrajData.put(type.getName(), iterateOverLocs(sampledStates, type, loc, 0));
-            }
-        
-            // Add list of sampling times to output object:
-            thisTrajData.put("t", trajectory.getSampledTimes());
-            
-            // Add trajectory logP to output object:
-            if (trajectory.getSpec().isTrajLogPRecordingOn())
-                thisTrajData.put("trajLogP", trajectory.getTrajLogP());
-            
-            trajData.add(thisTrajData);
-        }
+        for (Trajectory trajectory : ensemble.getTrajectories())
+            trajData.add(getTrajectoryData(trajectory));
         outputData.put("trajectories", trajData);
         
         // Record spec parameters to object output:
@@ -166,6 +268,32 @@ public class JsonOutput extends BEASTObject implements
         }
     }
     
+    /**
+     * Assemble output object describing a single member of a collection
+     * of trajectories.
+     *
+     * @param trajectory trajectory to describe
+     * @return output object
+     */
+    private Map<String, Object> getTrajectoryData(Trajectory trajectory) {
+        HashMap<String, Object> thisTrajData = Maps.newHashMap();
+        for (PopulationType type : trajectory.getSpec().getModel().getPopulationTypes()) {
+            int[] loc = new int[type.getDims().length];
+            for (int d=0; d<loc.length; d++)
+                loc[d] = 0;
+            thisTrajData.put(type.getName(), iterateOverLocs(trajectory, type, loc, 0));
+        }
+
+        // Add list of sampling times to output object:
+        thisTrajData.put("t", trajectory.getSampledTimes());
+
+        // Add trajectory logP to output object:
+        if (trajectory.getSpec().isTrajLogPRecordingOn())
+            thisTrajData.put("trajLogP", trajectory.getTrajLogP());
+
+        return thisTrajData;
+    }
+    
     /**
      * Express a given ensemble summary as a JSON-formatted string and send
      * the result to a PrintStream.
@@ -183,6 +311,254 @@ public class JsonOutput extends BEASTObject implements
         EnsembleSummarySpec spec = ensembleSummary.getSpec();
         StateSummary[] stateSummaries = ensembleSummary.getStateSummaries();
 
+        putStateSummaries(outputData, spec, stateSummaries);
+
+        // Add first-passage statistics:
+        if (ensembleSummary.getFirstPassageSummaries() != null
+                && ensembleSummary.getFirstPassageSummaries().length>0) {
+            Map<String, Object> passageData = Maps.newHashMap();
+            for (FirstPassageSummary summary
+                    : ensembleSummary.getFirstPassageSummaries())
+                passageData.put(summary.getPassage().getName(),
+                        getFirstPassageData(spec, summary));
+            outputData.put("firstPassage", passageData);
+        }
+
+        // Add moment estimates for each reweighted parameter set:
+        LikelihoodReweighting reweighting = spec.getLikelihoodReweighting();
+        if (reweighting != null) {
+            List<Object> reweightedData = Lists.newArrayList();
+            for (int k=0; k<reweighting.getParameterSetCount(); k++) {
+                Map<String, Object> setData = Maps.newHashMap();
+                putStateSummaries(setData, spec,
+                        reweighting.getStateSummaries(k));
+
+                Map<String, Object> factorData = Maps.newHashMap();
+                for (RateScaling scaling : reweighting.getRateScalings())
+                    factorData.put(String.valueOf(scaling.getReaction().getName()),
+                            scaling.getFactors()[k]);
+                setData.put("rateScaling", factorData);
+                setData.put("effectiveSampleSize",
+                        reweighting.getEffectiveSampleSize(k));
+
+                reweightedData.add(setData);
+            }
+            outputData.put("reweighted", reweightedData);
+        }
+
+        // Record spec parameters to object output:
+        outputData.put("sim", spec);
+
+        ObjectMapper mapper = new ObjectMapper();
+        try {
+            pstream.println(mapper.writeValueAsString(outputData));
+        } catch (IOException ex) {
+            System.err.println(ex);
+        }
+    }
+    
+    
+    /**
+     * Express the results of a particle filter as a JSON-formatted string
+     * and send the result to a PrintStream.  Moments of the filtered
+     * particles are written in the same format as ensemble summaries,
+     * indexed by observation time, and any trajectories sampled from the
+     * particle genealogy in the same format as ensembles.
+     *
+     * @param particleFilter particle filter to dump
+     */
+    @Override
+    public void write(ParticleFilter particleFilter) {
+
+        if (particleFilter.getSpec().getVerbosity()>0)
+            System.out.println("Writing JSON output...");
+
+        HashMap<String, Object> outputData = Maps.newHashMap();
+
+        ParticleFilterSpec spec = particleFilter.getSpec();
+        int nFiltered = particleFilter.getFilteredCount();
+
+        outputData.put("logLikelihood", particleFilter.getLogLikelihood());
+
+        List<Double> tData = Lists.newArrayList();
+        List<Double> incrementData = Lists.newArrayList();
+        List<Double> essData = Lists.newArrayList();
+        for (int k=0; k<nFiltered; k++) {
+            tData.add(particleFilter.getObservationTimes()[k]);
+            incrementData.add(particleFilter.getLogLikelihoodIncrements()[k]);
+            essData.add(particleFilter.getEffectiveSampleSizes()[k]);
+        }
+        outputData.put("t", tData);
+        outputData.put("logLikelihoodIncrements", incrementData);
+        outputData.put("effectiveSampleSize", essData);
+
+        // Add moments of filtered particles:
+        if (nFiltered>0)
+            putMoments(outputData, spec, Arrays.copyOf(
+                    particleFilter.getStateSummaries(), nFiltered));
+
+        // Add trajectories sampled from particle genealogy:
+        if (!particleFilter.getSampledTrajectories().isEmpty()) {
+            List<Object> trajData = Lists.newArrayList();
+            for (Trajectory trajectory : particleFilter.getSampledTrajectories())
+                trajData.add(getTrajectoryData(trajectory));
+            outputData.put("trajectories", trajData);
+        }
+
+        // Record spec parameters to object output:
+        outputData.put("sim", spec);
+
+        ObjectMapper mapper = new ObjectMapper();
+        try {
+            pstream.println(mapper.writeValueAsString(outputData));
+        } catch (IOException ex) {
+            System.err.println(ex);
+        }
+    }
+
+    /**
+     * Express the results of approximate Bayesian computation as a
+     * JSON-formatted string and send the result to a PrintStream.  The
+     * accepted population of the final completed generation is written
+     * as one list of values per rate prior, together with the normalised
+     * weights and distances.
+     *
+     * @param abc Approximate Bayesian computation to dump.
+     */
+    @Override
+    public void write(ApproximateBayesianComputation abc) {
+
+        if (abc.getSpec().getVerbosity()>0)
+            System.out.println("Writing JSON output...");
+
+        HashMap<String, Object> outputData = Maps.newHashMap();
+
+        // Add generation summaries:
+        List<Object> generationData = Lists.newArrayList();
+        for (int g=0; g<abc.getThresholds().size(); g++) {
+            Map<String, Object> genData = Maps.newHashMap();
+            genData.put("threshold", abc.getThresholds().get(g));
+            genData.put("nProposals", abc.getProposalCounts().get(g));
+            genData.put("nAborted", abc.getAbortedCounts().get(g));
+            genData.put("acceptanceRate", abc.getSpec().getPopulationSize()
+                    /(double)abc.getProposalCounts().get(g));
+            generationData.add(genData);
+        }
+        outputData.put("generations", generationData);
+
+        // Add accepted population:
+        if (abc.getParameters() != null) {
+            List<RatePrior> ratePriors = abc.getSpec().getRatePriors();
+            Map<String, Object> paramData = Maps.newHashMap();
+            for (int p=0; p<ratePriors.size(); p++) {
+                List<Double> values = Lists.newArrayList();
+                for (double[] params : abc.getParameters())
+                    values.add(params[p]);
+                paramData.put(ratePriors.get(p).getName(), values);
+            }
+            outputData.put("parameters", paramData);
+
+            List<Double> weightData = Lists.newArrayList();
+            List<Double> distanceData = Lists.newArrayList();
+            for (int i=0; i<abc.getWeights().length; i++) {
+                weightData.add(abc.getWeights()[i]);
+                distanceData.add(abc.getDistances()[i]);
+            }
+            outputData.put("weights", weightData);
+            outputData.put("distances", distanceData);
+        }
+
+        // Record spec parameters to object output:
+        outputData.put("sim", abc.getSpec());
+
+        ObjectMapper mapper = new ObjectMapper();
+        try {
+            pstream.println(mapper.writeValueAsString(outputData));
+        } catch (IOException ex) {
+            System.err.println(ex);
+        }
+    }
+
+    /**
+     * Express a finite state projection solution as a JSON-formatted
+     * string and send the result to a PrintStream.  Moments are written
+     * in the same format as ensemble summaries, with "std" holding the
+     * exact standard deviations.
+     *
+     * @param fsp Finite state projection solution to dump.
+     */
+    @Override
+    public void write(FiniteStateProjection fsp) {
+
+        if (fsp.getSpec().getVerbosity()>0)
+            System.out.println("Writing JSON output...");
+
+        HashMap<String, Object> outputData = Maps.newHashMap();
+
+        EnsembleSummarySpec spec = fsp.getSpec();
+        putStateSummaries(outputData, spec, fsp.getStateSummaries());
+
+        // Add marginal distributions, indexed as population->sample->size:
+        Map<String, Object> marginalData = Maps.newHashMap();
+        for (Population pop : fsp.getMarginals().keySet()) {
+            List<Object> popData = Lists.newArrayList();
+            for (double[] dist : fsp.getMarginals().get(pop)) {
+                List<Double> distData = Lists.newArrayList();
+                for (double prob : dist)
+                    distData.add(prob);
+                popData.add(distData);
+            }
+            marginalData.put(pop.toString(), popData);
+        }
+        outputData.put("marginals", marginalData);
+
+        // Add bound on probability mass lost to truncation:
+        List<Double> errorData = Lists.newArrayList();
+        for (double error : fsp.getTruncationErrors())
+            errorData.add(error);
+        outputData.put("truncationError", errorData);
+
+        // Record spec parameters to object output:
+        outputData.put("sim", spec);
+
+        ObjectMapper mapper = new ObjectMapper();
+        try {
+            pstream.println(mapper.writeValueAsString(outputData));
+        } catch (IOException ex) {
+            System.err.println(ex);
+        }
+    }
+
+    /**
+     * Add moment estimates and sampling times to output object.
+     *
+     * @param outputData output object
+     * @param spec specification listing moments and moment groups
+     * @param stateSummaries state summaries at each sample time
+     */
+    private void putStateSummaries(Map<String, Object> outputData,
+            EnsembleSummarySpec spec, StateSummary[] stateSummaries) {
+
+        putMoments(outputData, spec, stateSummaries);
+
+        // Add list of sampling times to output object:
+        ArrayList<Double> tData = Lists.newArrayList();
+        double dT = spec.getSampleDt();
+        for (int sidx = 0; sidx<stateSummaries.length; sidx++)
+            tData.add(dT*sidx);
+        outputData.put("t", tData);
+    }
+
+    /**
+     * Add moment estimates to output object.
+     *
+     * @param outputData output object
+     * @param spec specification listing moments and moment groups
+     * @param stateSummaries state summaries to include
+     */
+    private void putMoments(Map<String, Object> outputData,
+            EnsembleSummarySpec spec, StateSummary[] stateSummaries) {
+
         // Construct an object containing the summarized
         // data.  Heirarchy is moment->[mean/std]->schema->estimate.
 
@@ -207,6 +583,17 @@ public class JsonOutput extends BEASTObject implements
             }
             momentGroupData.put("std", stdData);
 
+            if (stateSummaries[0].getGroupVarianceReductions() != null) {
+                List<Object> vrfData = Lists.newArrayList();
+                for (int schema = 0; schema<stateSummaries[0].getGroupVarianceReductions().get(momentGroup).length; schema++) {
+                    List<Double> schemaData = Lists.newArrayList();
+                    for (StateSummary stateSummary : stateSummaries)
+                        schemaData.add(stateSummary.getGroupVarianceReductions().get(momentGroup)[schema]);
+                    vrfData.add(schemaData);
+                }
+                momentGroupData.put("varianceReduction", vrfData);
+            }
+
             outputData.put(momentGroup.getName(), momentGroupData);
         }
         
@@ -226,25 +613,20 @@ public class JsonOutput extends BEASTObject implements
                 schemaData.add(stateSummary.getStds().get(moment));
             stdData.add(schemaData);
             momentData.put("std", stdData);
-            
-            outputData.put(moment.getName(), momentData);
-        }
-
-        // Add list of sampling times to output object:
-        ArrayList<Double> tData = Lists.newArrayList();
-        double dT = spec.getSampleDt();
-        for (int sidx = 0; sidx<stateSummaries.length; sidx++)
-            tData.add(dT*sidx);
-        outputData.put("t", tData);
 
-        // Record spec parameters to object output:
-        outputData.put("sim", spec);
+            if (stateSummaries[0].getVarianceReductions() != null) {
+                List<Object> vrfData = Lists.newArrayList();
+                schemaData = Lists.newArrayList();
+                for (StateSummary stateSummary : stateSummaries)
+                    schemaData.add(stateSummary.getVarianceReductions().get(moment));
+                vrfData.add(schemaData);
+                momentData.put("varianceReduction", vrfData);
+            }
 
-        ObjectMapper mapper = new ObjectMapper();
-        try {
-            pstream.println(mapper.writeValueAsString(outputData));
-        } catch (IOException ex) {
-            System.err.println(ex);
+            if (moment.getDistribution() != null)
+                putDistribution(momentData, moment, stateSummaries);
+            
+            outputData.put(moment.getName(), momentData);
         }
     }
     
@@ -267,13 +649,11 @@ public class JsonOutput extends BEASTObject implements
         List<Object> trajData = Lists.newArrayList();
         for (Trajectory trajectory : iensemble.getTrajectories()) {
             HashMap<String, Object> thisTrajData = Maps.newHashMap();
-            List<PopulationState> sampledStates = trajectory.getSampledStates();
-        
             for (PopulationType type : spec.getModel().getPopulationTypes()) {
                 int[] loc = new int[type.getDims().length];
                 for (int d=0; d<loc.length; d++)
                     loc[d] = 0;
-                thisTrajData.put(type.getName(), iterateOverLocs(sampledStates, type, loc, 0));
+                thisTrajData.put(type.getName(), iterateOverLocs(trajectory, type, loc, 0));
             }
         
             // Add list of sampling times to output object:
@@ -306,31 +686,27 @@ public class JsonOutput extends BEASTObject implements
     /**
      * Private method for iteration over locations.
      * 
-     * @param sampledStates
+     * @param trajectory
      * @param type
      * @param loc
      * @param depth
      * @return 
      */
-    private Object iterateOverLocs (List<PopulationState> sampledStates, PopulationType type, int[] loc, int depth) {
+    private Object iterateOverLocs (Trajectory trajectory, PopulationType type, int[] loc, int depth) {
 
         if (depth<type.getDims().length) {
             List<Object> nestedData = Lists.newArrayList();
             
             for (int i=0; i<type.getDims()[depth]; i++) {
                 loc[depth] = i;
-                nestedData.add(iterateOverLocs(sampledStates, type, loc, depth+1));
+                nestedData.add(iterateOverLocs(trajectory, type, loc, depth+1));
             }
             
             return nestedData;
             
         } else {
             
-            List<Object> stateList = Lists.newArrayList();
-            for (PopulationState state : sampledStates)
-                stateList.add(state.get(new Population(type, loc)));
-
-            return stateList;
+            return trajectory.getSampledSizes(new Population(type, loc));
             
         }
     }
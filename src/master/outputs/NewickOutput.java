@@ -21,17 +21,26 @@ import beast.core.Description;
 import beast.core.Input;
 import beast.core.Input.Validate;
 import master.InheritanceEnsemble;
+import master.Shards;
 import master.model.Node;
-import com.google.common.collect.Maps;
-import com.google.common.collect.Sets;
-import master.model.Population;
-import java.io.FileNotFoundException;
+import com.google.common.collect.Lists;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
-import java.util.logging.Level;
-import java.util.logging.Logger;
 import master.InheritanceTrajectory;
 
 /**
@@ -44,7 +53,7 @@ import master.InheritanceTrajectory;
 @Description("Output writer capable of writing inheritance graph to"
         + " disk in extended Newick format of Cardona et al, BMC Bioinf. (2008).")
 public class NewickOutput extends BEASTObject implements
-        InheritanceTrajectoryOutput, InheritanceEnsembleOutput{
+        InheritanceTrajectoryOutput, StreamingInheritanceEnsembleOutput {
 
     public Input<String> fileNameInput = new Input<>("fileName",
             "Name of file to write to.", Validate.REQUIRED);
@@ -57,13 +66,35 @@ public class NewickOutput extends BEASTObject implements
             "collapseSingleChildNodes",
             "Prune nodes having a single child from output. (Default false.)",
             false);
+
+    public Input<Integer> precisionInput = new Input<>("precision",
+            "Number of decimal places used when writing branch lengths and "
+            + "times.  (Default is the shortest representation which "
+            + "reads back as the same double.)");
     
     boolean reverseTime, collapseSingleChildNodes;
+    int precision;
+    long precisionScale;
+
+    // Size of buffer between output stream and file:
+    private static final int BUFFER_SIZE = 1 << 16;
     
     PrintStream pstream;
-    Set<Node> rootNodes, leafNodes;
-    Map<Node, String> leafLabels;
-    Map<Node, Integer> hybridIDs;
+    OutputFile file;
+    List<Node> rootNodes, leafNodes;
+
+    // Leaf labels and hybrid IDs (zero for non-hybrids) indexed by node ID:
+    String[] leafLabels;
+    int[] hybridIDs;
+
+    // Buffer holding text not yet passed to pstream:
+    StringBuilder out;
+
+    // Number of empty graphs skipped while writing current ensemble:
+    int skips;
+
+    // Shard of ensemble being written:
+    int shard = 0, nShards = 1;
     
     public NewickOutput() { }
     
@@ -72,13 +103,23 @@ public class NewickOutput extends BEASTObject implements
         
         reverseTime = reverseTimeInput.get();
         collapseSingleChildNodes = collapseSingleChildNodesInput.get();
+
+        if (precisionInput.get() != null) {
+            precision = precisionInput.get();
+            if (precision<0 || precision>15)
+                throw new IllegalArgumentException("Output precision must "
+                        + "be between 0 and 15 decimal places.");
+
+            precisionScale = 1;
+            for (int i=0; i<precision; i++)
+                precisionScale *= 10;
+        } else
+            precision = -1;
+
+        out = new StringBuilder(BUFFER_SIZE);
         
-        pstream = null;
-        try {
-            pstream = new PrintStream(fileNameInput.get());
-        } catch (FileNotFoundException ex) {
-            Logger.getLogger(NewickOutput.class.getName()).log(Level.SEVERE, null, ex);
-        }  
+        file = new OutputFile(fileNameInput.get());
+        pstream = new PrintStream(new BufferedOutputStream(file, BUFFER_SIZE));
     }
 
     @Override
@@ -93,69 +134,137 @@ public class NewickOutput extends BEASTObject implements
             if (itraj.getSpec().getVerbosity()>0)
                 System.out.println("Warning: Newick writer skipping empty graph.");
         }
+
+        pstream.flush();
     }
 
     @Override
     public void write(InheritanceEnsemble iensemble) {
-        
+
+        begin(iensemble);
+        for (int i=0; i<iensemble.getTrajectories().size(); i++)
+            write(iensemble, iensemble.getTrajectories().get(i), i);
+        end(iensemble);
+    }
+
+    @Override
+    public void begin(InheritanceEnsemble iensemble) {
+
         if (iensemble.getSpec().getVerbosity()>0)
             System.out.println("Writing Newick output...");
 
-        int skips=0;
-        for (InheritanceTrajectory itraj : iensemble.getTrajectories()) {
-            if (!itraj.getStartNodes().isEmpty())
-                generateOutput(itraj);
-            else {
-                skips += 1;
-                if (itraj.getSpec().getVerbosity()>0)
-                    System.out.print("\rWarning: Newick writer skipping empty "
-                            + "graph. (repeated " + skips + " times)");
-            }
+        skips = 0;
+    }
+
+    @Override
+    public void write(InheritanceEnsemble iensemble,
+            InheritanceTrajectory itraj, int index) {
+
+        if (!itraj.getStartNodes().isEmpty())
+            generateOutput(itraj);
+        else {
+            skips += 1;
+            if (itraj.getSpec().getVerbosity()>0)
+                System.out.print("\rWarning: Newick writer skipping empty "
+                        + "graph. (repeated " + skips + " times)");
         }
+    }
+
+    @Override
+    public void end(InheritanceEnsemble iensemble) {
+
         if (skips>0)
             System.out.println();
+
+        pstream.flush();
     }
        
+    @Override
+    public void writeState(DataOutput out) throws IOException {
+        pstream.flush();
+        if (pstream.checkError())
+            throw new IOException("Error writing " + fileNameInput.get());
+
+        out.writeLong(file.getPosition());
+        out.writeInt(skips);
+    }
+
+    @Override
+    public void resume(InheritanceEnsemble iensemble, DataInput in)
+            throws IOException {
+
+        if (iensemble.getSpec().getVerbosity()>0)
+            System.out.println("Resuming output to " + fileNameInput.get()
+                    + "...");
+
+        file.resume(in.readLong());
+        skips = in.readInt();
+    }
+
+    @Override
+    public void setShard(int shard, int nShards) {
+        this.shard = shard;
+        this.nShards = nShards;
+
+        file = new OutputFile(Shards.getFileName(fileNameInput.get(), shard));
+        pstream = new PrintStream(new BufferedOutputStream(file, BUFFER_SIZE));
+    }
+
+    @Override
+    public void mergeShards(int nShards) throws IOException {
+        for (int shard=0; shard<nShards; shard++)
+            Files.copy(Paths.get(Shards.getFileName(fileNameInput.get(), shard)),
+                    pstream);
+
+        pstream.flush();
+        if (pstream.checkError())
+            throw new IOException("Error writing " + fileNameInput.get());
+    }
+
     /**
      * Create an extended Newick string representation of graph.
      * 
      * @param graph Graph to represent.
      */
     public void generateOutput(InheritanceTrajectory graph) {
+
+        int nNodes = graph.getGraph().getNodeCount();
         
         // Identify root and leaf nodes
         if (reverseTime) {
-            rootNodes = findEndNodes(graph);
-            leafNodes = Sets.newLinkedHashSet(graph.startNodes);
+            rootNodes = findEndNodes(graph, nNodes);
+            leafNodes = distinctNodes(graph.startNodes, nNodes);
         } else {
-            rootNodes = Sets.newLinkedHashSet(graph.startNodes);
-            leafNodes = findEndNodes(graph);
+            rootNodes = distinctNodes(graph.startNodes, nNodes);
+            leafNodes = findEndNodes(graph, nNodes);
         }
         
         // Assign a unique integer label to each unnamed leaf node:
-        leafLabels = Maps.newLinkedHashMap();
+        if (leafLabels == null || leafLabels.length<nNodes)
+            leafLabels = new String[nNodes];
+        else
+            Arrays.fill(leafLabels, null);
+
         int label = 1;
         for (Node leaf : leafNodes) {
             if (leaf.getName() == null)
-                leafLabels.put(leaf, String.valueOf(label++));
+                leafLabels[leaf.getID()] = String.valueOf(label++);
             else
-                leafLabels.put(leaf, leaf.getName());
+                leafLabels[leaf.getID()] = leaf.getName();
         }
         
-        // Identify hybrid nodes:
-        Set<Node> hybridNodes = findHybridNodes(rootNodes, reverseTime);
-        
-        // Assign a unique integer label to each hybrid node:
-        hybridIDs = Maps.newLinkedHashMap();
-        label = 1;
-        for (Node hybrid : hybridNodes)
-            hybridIDs.put(hybrid, label++);
+        // Identify hybrid nodes and assign each a unique integer label:
+        if (hybridIDs == null || hybridIDs.length<nNodes)
+            hybridIDs = new int[nNodes];
+        else
+            Arrays.fill(hybridIDs, 0);
+        findHybridNodes(rootNodes, nNodes);
         
-        Set<Node> visitedHybrids = Sets.newLinkedHashSet();
+        BitSet visitedHybrids = new BitSet(nNodes);
         boolean first = true;
         for (Node node : rootNodes) {
             if (!first)
-                pstream.append(",");
+                out.append(",");
             else
                 first = false;
 
@@ -168,60 +277,100 @@ public class NewickOutput extends BEASTObject implements
             subTreeToExtendedNewick(next, node, visitedHybrids);
         }
         
-        pstream.append(";\n");
+        out.append(";\n");
+        flushBuffer();
     }
-    
 
     /**
-     * Recursive method to construct an extended newick string representing
-     * a sub-tree or sub-graph.
+     * Construct an extended newick string representing a sub-tree or
+     * sub-graph.  Traversal uses an explicit stack, so arbitrarily deep
+     * graphs can be written.
      * 
-     * @param node Root of this subtree
-     * @param last Previous node in traversal (null if none)
-     * @param visitedHybrids Set containing hybrids already visited
+     * @param root Root of this subtree
+     * @param rootLast Previous node in traversal (null if none)
+     * @param visitedHybrids Set containing IDs of nodes already visited
      */
-    private void subTreeToExtendedNewick(Node node, Node last, Set<Node> visitedHybrids) {
-        
-        double branchLength;
-        if (last == null)
-            branchLength = 0;
-        else
-            branchLength = Math.abs(node.getTime() - last.getTime());
-        
-        if (visitedHybrids.contains(node)) {
-            addLabel(node, branchLength);
-            return;
-        }
-        
-        visitedHybrids.add(node);
-        
-        List<Node> nextNodes;
-        if (reverseTime)
-            nextNodes = node.getParents();
-        else
-            nextNodes = node.getChildren();
-        
-        if (nextNodes.size()==1 && collapseSingleChildNodes) {
-            subTreeToExtendedNewick(nextNodes.get(0), last, visitedHybrids);
-            
-        } else {
-            if (nextNodes.size()>0) {
-                pstream.append("(");
-                boolean first = true;
-                for (Node next : nextNodes) {
-                    if (!first)
-                        pstream.append(",");
-                    else
-                        first = false;
-                    
-                    subTreeToExtendedNewick(next, node, visitedHybrids);
+    private void subTreeToExtendedNewick(Node root, Node rootLast,
+            BitSet visitedHybrids) {
+
+        // Stack frames: node, previous node in traversal and index of
+        // the next node currently being written (-1 on entry).
+        List<Node> nodeStack = new ArrayList<>();
+        List<Node> lastStack = new ArrayList<>();
+        int[] idxStack = new int[16];
+
+        nodeStack.add(root);
+        lastStack.add(rootLast);
+        idxStack[0] = -1;
+
+        while (!nodeStack.isEmpty()) {
+            int top = nodeStack.size()-1;
+            Node node = nodeStack.get(top);
+            Node last = lastStack.get(top);
+
+            List<Node> nextNodes;
+            if (reverseTime)
+                nextNodes = node.getParents();
+            else
+                nextNodes = node.getChildren();
+
+            if (idxStack[top]<0) {
+                // Entering node:
+
+                if (visitedHybrids.get(node.getID())) {
+                    addLabel(node, branchLength(node, last));
+                    popFrame(nodeStack, lastStack);
+                    continue;
+                }
+
+                visitedHybrids.set(node.getID());
+
+                if (nextNodes.size()==1 && collapseSingleChildNodes) {
+                    nodeStack.set(top, nextNodes.get(0));
+                    continue;
+                }
+
+                if (nextNodes.isEmpty()) {
+                    addLabel(node, branchLength(node, last));
+                    popFrame(nodeStack, lastStack);
+                    continue;
+                }
+
+                out.append("(");
+                idxStack[top] = 0;
+            } else {
+                // Returning from next node:
+
+                idxStack[top] += 1;
+                if (idxStack[top] == nextNodes.size()) {
+                    out.append(")");
+                    addLabel(node, branchLength(node, last));
+                    popFrame(nodeStack, lastStack);
+                    continue;
                 }
-                pstream.append(")");
+
+                out.append(",");
             }
-            
-            addLabel(node, branchLength);
+
+            if (nodeStack.size() == idxStack.length)
+                idxStack = Arrays.copyOf(idxStack, 2*idxStack.length);
+            idxStack[nodeStack.size()] = -1;
+            nodeStack.add(nextNodes.get(idxStack[top]));
+            lastStack.add(node);
         }
     }
+
+    private static void popFrame(List<Node> nodeStack, List<Node> lastStack) {
+        nodeStack.remove(nodeStack.size()-1);
+        lastStack.remove(lastStack.size()-1);
+    }
+
+    private static double branchLength(Node node, Node last) {
+        if (last == null)
+            return 0;
+        else
+            return Math.abs(node.getTime() - last.getTime());
+    }
     
     /**
      * Add node label to Newick string.
@@ -231,96 +380,231 @@ public class NewickOutput extends BEASTObject implements
      */
     protected void addLabel(Node node, double branchLength) {
         
-        if (leafLabels.containsKey(node))
-            pstream.append(leafLabels.get(node));
+        if (leafLabels[node.getID()] != null)
+            out.append(leafLabels[node.getID()]);
         
-        if (hybridIDs.containsKey(node))
-            pstream.append("#").append(String.valueOf(hybridIDs.get(node)));
+        if (hybridIDs[node.getID()]>0)
+            out.append("#").append(hybridIDs[node.getID()]);
         // note that we've omitted the optional "type" specifier
         
-        pstream.append(":").append(String.valueOf(branchLength));
+        out.append(":");
+        appendDouble(branchLength);
     }
-    
+
     /**
-     * Identify hybrid nodes (nodes with more than one parent) and assign each
-     * a unique integer ID.
-     * 
-     * @param rootNodes List of nodes at which to begin graph traversal.
-     * @param reverseTime Whether traversal should occur in reverse time.
-     * @return Map of hybrid nodes to their chosen IDs.
+     * Append number to output buffer, either using the shortest decimal
+     * representation which reads back as the same double or with the
+     * chosen fixed number of decimal places.
+     *
+     * @param x number to append
      */
-    private Set<Node> findHybridNodes(Set<Node> rootNodes, boolean reverseTime) {
-        Set<Node> visited = Sets.newLinkedHashSet();
-        Set<Node> hybridNodes = Sets.newLinkedHashSet();
-        
-        for (Node node : rootNodes)
-            findHybridNodesInSubTree(node, visited, hybridNodes, reverseTime);
-        
-        return hybridNodes;
+    protected void appendDouble(double x) {
+        if (precision<0) {
+            out.append(x);
+            return;
+        }
+
+        double scaled = Math.abs(x)*precisionScale;
+        if (Double.isNaN(x) || Double.isInfinite(x))
+            out.append(x);
+        else if (scaled >= 1e18)
+            out.append(new BigDecimal(x).setScale(precision,
+                    RoundingMode.HALF_EVEN).toPlainString());
+        else {
+            long digits = Math.round(scaled);
+            if (x<0 && digits>0)
+                out.append('-');
+            out.append(digits/precisionScale);
+            if (precision>0) {
+                out.append('.');
+                String frac = String.valueOf(digits%precisionScale);
+                for (int i=frac.length(); i<precision; i++)
+                    out.append('0');
+                out.append(frac);
+            }
+        }
+
+        if (out.length()>=BUFFER_SIZE)
+            flushBuffer();
+    }
+
+    /**
+     * Pass contents of output buffer to the output stream.
+     */
+    protected void flushBuffer() {
+        pstream.append(out);
+        out.setLength(0);
     }
     
     /**
-     * Recursive traversal method for identifying hybrid nodes.
+     * Identify hybrid nodes (nodes encountered more than once when
+     * traversing the graph) and assign each a unique integer ID in the
+     * order in which they are found.
      * 
-     * @param node Node containing a subgraph.
-     * @param visited Set containing nodes already seen.
-     * @param hybridLabels Set of hybrid nodes already found.
-     * @param reverseTime Whether traversal is occuring in reverse time.
+     * @param rootNodes List of nodes at which to begin graph traversal.
+     * @param nNodes Number of nodes in underlying graph.
      */
-    private void findHybridNodesInSubTree(Node node, Set<Node> visited,
-            Set<Node> hybridLabels, boolean reverseTime) {
-        if (visited.contains(node)) {
-            if (!hybridLabels.contains(node))
-                hybridLabels.add(node);
-            return;
-        } else
-            visited.add(node);
-        
-        List<Node> nextNodes;
-        if (reverseTime)
-            nextNodes = node.getParents();
-        else
-            nextNodes = node.getChildren();
-        
-        for (Node next : nextNodes)
-            findHybridNodesInSubTree(next, visited, hybridLabels, reverseTime);
+    private void findHybridNodes(List<Node> rootNodes, int nNodes) {
+        BitSet visited = new BitSet(nNodes);
+        int nHybrids = 0;
+
+        // Depth-first traversal, pushing next nodes in reverse order so
+        // that nodes are encountered in the same order as a recursive
+        // traversal would encounter them:
+        List<Node> stack = new ArrayList<>();
+        for (int i=rootNodes.size()-1; i>=0; i--)
+            stack.add(rootNodes.get(i));
+
+        while (!stack.isEmpty()) {
+            Node node = stack.remove(stack.size()-1);
+
+            if (visited.get(node.getID())) {
+                if (hybridIDs[node.getID()] == 0)
+                    hybridIDs[node.getID()] = ++nHybrids;
+                continue;
+            }
+            visited.set(node.getID());
+
+            List<Node> nextNodes;
+            if (reverseTime)
+                nextNodes = node.getParents();
+            else
+                nextNodes = node.getChildren();
+
+            for (int i=nextNodes.size()-1; i>=0; i--)
+                stack.add(nextNodes.get(i));
+        }
     }
     
     /**
-     * Find "leaves" of inheritance graph.
+     * Find "leaves" of inheritance graph, in the order in which they are
+     * first encountered by a depth-first traversal.
      * 
      * @param graph
-     * @return Set containing leaf nodes.
+     * @param nNodes Number of nodes in underlying graph.
+     * @return List containing leaf nodes.
      */
-    private Set<Node> findEndNodes(InheritanceTrajectory graph) {
-        Set<Node> endNodes = Sets.newLinkedHashSet();
-        
-        for (Node startNode : graph.startNodes)
-            findEndNodesOnSubGraph(startNode, endNodes);
+    private List<Node> findEndNodes(InheritanceTrajectory graph, int nNodes) {
+        List<Node> endNodes = Lists.newArrayList();
+        BitSet visited = new BitSet(nNodes);
+
+        List<Node> stack = new ArrayList<>();
+        for (int i=graph.startNodes.size()-1; i>=0; i--)
+            stack.add(graph.startNodes.get(i));
+
+        while (!stack.isEmpty()) {
+            Node node = stack.remove(stack.size()-1);
+
+            // Subgraphs below nodes already seen yield no new leaves:
+            if (visited.get(node.getID()))
+                continue;
+            visited.set(node.getID());
+
+            List<Node> children = node.getChildren();
+            if (children.isEmpty())
+                endNodes.add(node);
+
+            for (int i=children.size()-1; i>=0; i--)
+                stack.add(children.get(i));
+        }
         
         return endNodes;
     }
-    
+
     /**
-     * Method used for recursive traversal of graph when finding leaf nodes.
-     * 
-     * @param node Current node in traversal.
-     * @param endNodes Set of leaf nodes already found.
+     * Remove duplicates from list of nodes, preserving order.
+     *
+     * @param nodes
+     * @param nNodes Number of nodes in underlying graph.
+     * @return list of distinct nodes
      */
-    private void findEndNodesOnSubGraph(Node node, Set<Node> endNodes) {
-        
-        if (node.getChildren().isEmpty()) {
-            endNodes.add(node);
-            return;
+    private static List<Node> distinctNodes(List<Node> nodes, int nNodes) {
+        List<Node> distinct = Lists.newArrayList();
+        BitSet seen = new BitSet(nNodes);
+        for (Node node : nodes) {
+            if (!seen.get(node.getID())) {
+                seen.set(node.getID());
+                distinct.add(node);
+            }
         }
-        
-        for (Node child : node.getChildren())
-            findEndNodesOnSubGraph(child, endNodes);
+
+        return distinct;
     }
     
     @Override
     public String toString() {
         return pstream.toString();
     }
-    
+
+    /**
+     * Output file which is only opened (and truncated) when first written
+     * to, allowing output of an interrupted ensemble to be resumed.
+     */
+    static class OutputFile extends OutputStream {
+
+        private final String fileName;
+        private OutputStream stream;
+        private long position;
+
+        OutputFile(String fileName) {
+            this.fileName = fileName;
+        }
+
+        /**
+         * Discard anything written beyond the given position of an
+         * existing file and continue writing from there.
+         *
+         * @param position number of bytes to retain
+         * @throws IOException
+         */
+        void resume(long position) throws IOException {
+            if (new File(fileName).length()<position)
+                throw new IOException("Output file " + fileName
+                        + " is shorter than recorded in checkpoint.");
+
+            try (RandomAccessFile raf = new RandomAccessFile(fileName, "rw")) {
+                raf.setLength(position);
+            }
+            stream = new FileOutputStream(fileName, true);
+            this.position = position;
+        }
+
+        /**
+         * @return number of bytes written to file.
+         */
+        long getPosition() {
+            return position;
+        }
+
+        private OutputStream getStream() throws IOException {
+            if (stream == null)
+                stream = new FileOutputStream(fileName);
+
+            return stream;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            getStream().write(b);
+            position += 1;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            getStream().write(b, off, len);
+            position += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (stream != null)
+                stream.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (stream != null)
+                stream.close();
+        }
+    }
 }
@@ -63,33 +63,44 @@ public class NexusOutput extends NewickOutput {
         }
         
         pstream.println("End;");
+        pstream.flush();
     }
 
     @Override
-    public void write(InheritanceEnsemble iensemble) {
-        
+    public void begin(InheritanceEnsemble iensemble) {
+
         if (iensemble.getSpec().getVerbosity()>0)
             System.out.println("Writing NEXUS output...");
-                
-        pstream.println("#nexus\n\nBegin trees;");
-        
-        int skips = 0;
-        for (int i=0; i<iensemble.getTrajectories().size(); i++) {
-            InheritanceTrajectory thisTraj = iensemble.getTrajectories().get(i);
-            
-            // Skip empty inheritance graphs:
-            if (!thisTraj.getStartNodes().isEmpty()) {
-                pstream.print("tree TREE_" + i + " = ");
-                generateOutput(thisTraj);
-            } else {
-                skips += 1;
-                if (iensemble.getSpec().getVerbosity()>0)
-                    System.out.print("\rWarning: NEXUS writer skipping empty "
-                            + "graph. (repeated " + skips + " times)");
-            }
+
+        if (shard==0)
+            pstream.println("#nexus\n\nBegin trees;");
+
+        skips = 0;
+    }
+
+    @Override
+    public void write(InheritanceEnsemble iensemble,
+            InheritanceTrajectory itraj, int index) {
+
+        // Skip empty inheritance graphs:
+        if (!itraj.getStartNodes().isEmpty()) {
+            pstream.print("tree TREE_" + index + " = ");
+            generateOutput(itraj);
+        } else {
+            skips += 1;
+            if (iensemble.getSpec().getVerbosity()>0)
+                System.out.print("\rWarning: NEXUS writer skipping empty "
+                        + "graph. (repeated " + skips + " times)");
         }
-        pstream.println("End;");
-        
+    }
+
+    @Override
+    public void end(InheritanceEnsemble iensemble) {
+
+        if (shard==nShards-1)
+            pstream.println("End;");
+        pstream.flush();
+
         if (iensemble.getSpec().getVerbosity()>0 && skips>0)
             System.out.println();
     }
@@ -97,11 +108,11 @@ public class NexusOutput extends NewickOutput {
     @Override
     protected void addLabel(Node node, double branchLength) {
         
-        if (leafLabels.containsKey(node))
-            pstream.append(leafLabels.get(node));
+        if (leafLabels[node.getID()] != null)
+            out.append(leafLabels[node.getID()]);
         
-        if (hybridIDs.containsKey(node))
-            pstream.append("#").append(String.valueOf(hybridIDs.get(node)));
+        if (hybridIDs[node.getID()]>0)
+            out.append("#").append(hybridIDs[node.getID()]);
         // note that we've omitted the optional "type" specifier
         
         // Annotations traditionally refer to the branch _above_ the node
@@ -114,53 +125,40 @@ public class NexusOutput extends NewickOutput {
             branchNode = node;
         
 
-        pstream.append("[&");
-        pstream.format("type=\"%s\"", branchNode.getPopulation().getType().getName());
+        out.append("[&type=\"")
+                .append(branchNode.getPopulation().getType().getName())
+                .append("\"");
         if (!branchNode.getPopulation().isScalar()) {
-            pstream.append(",location=\"");
+            out.append(",location=\"");
 
             int[] loc = branchNode.getPopulation().getLocation();
             for (int i=0; i<loc.length; i++) {
                 if (i>0)
-                    pstream.append(" ");
-                pstream.append(String.valueOf(loc[i]));
+                    out.append(" ");
+                out.append(loc[i]);
             }
             
-            pstream.append("\"");
+            out.append("\"");
         }
         if (node.getReaction() != null && node.getReaction().getName() != null)
-            pstream.format(",reaction=\"%s\"", node.getReaction().getName());
-        pstream.append(",time=").append(String.valueOf(node.getTime()));
+            out.append(",reaction=\"").append(node.getReaction().getName()).append("\"");
+        out.append(",time=");
+        appendDouble(node.getTime());
         
         // Add general annotations:
         if (node.getAttributeNames() != null) {
             for (String name : node.getAttributeNames()) {
                 Object value = node.getAttribute(name);
                 
-                if (value instanceof Integer) {
-                    pstream.append("," + name + "=" + String.valueOf((Integer)value));
-                    continue;
-                }
-                
-                if (value instanceof Double) {
-                    pstream.append("," + name + "=" + String.valueOf((Double)value));
-                    continue;
-                }
-                                
-                if (value instanceof Boolean) {
-                    pstream.append("," + name + "=" + String.valueOf((Boolean)value));
-                    continue;
-                }
-                                
-                if (value instanceof String) {
-                    pstream.append("," + name + "=" + (String)value);
-                    continue;
-                }
+                if (value instanceof Integer
+                        || value instanceof Double
+                        || value instanceof Boolean
+                        || value instanceof String)
+                    out.append(",").append(name).append("=").append(value);
             }
         }
         
-        pstream.append("]");
-        
-        pstream.append(":").append(String.valueOf(branchLength));
+        out.append("]:");
+        appendDouble(branchLength);
     }
 }
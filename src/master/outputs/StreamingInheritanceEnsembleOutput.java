@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package master.outputs;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import master.InheritanceEnsemble;
+import master.InheritanceTrajectory;
+
+/**
+ * Interface for inheritance ensemble outputs able to write each
+ * trajectory as soon as it has been generated, allowing the ensemble to
+ * be simulated without retaining every trajectory in memory.
+ *
+ * @author agent <agent@local>
+ */
+public interface StreamingInheritanceEnsembleOutput extends InheritanceEnsembleOutput {
+
+    /**
+     * Called before the first trajectory of the ensemble is generated.
+     *
+     * @param iensemble ensemble being simulated
+     */
+    public void begin(InheritanceEnsemble iensemble);
+
+    /**
+     * Called once each trajectory of the ensemble has been generated.
+     *
+     * @param iensemble ensemble being simulated
+     * @param itraj newly generated trajectory
+     * @param index index of trajectory within ensemble
+     */
+    public void write(InheritanceEnsemble iensemble,
+            InheritanceTrajectory itraj, int index);
+
+    /**
+     * Called after the last trajectory of the ensemble has been generated.
+     *
+     * @param iensemble ensemble being simulated
+     */
+    public void end(InheritanceEnsemble iensemble);
+
+    /**
+     * Flush everything written so far and record what is needed to
+     * resume writing from this point in a checkpoint.
+     *
+     * @param out checkpoint being written
+     * @throws IOException
+     */
+    public void writeState(DataOutput out) throws IOException;
+
+    /**
+     * Called in place of begin() when an ensemble is resumed from a
+     * checkpoint.  Anything written after the checkpoint was taken is
+     * discarded.
+     *
+     * @param iensemble ensemble being simulated
+     * @param in checkpoint being read
+     * @throws IOException
+     */
+    public void resume(InheritanceEnsemble iensemble, DataInput in)
+            throws IOException;
+
+    /**
+     * Called before begin() when the ensemble is one shard of a larger
+     * calculation, directing output to the file holding that shard.
+     * Any header is written only by the first shard and any footer only
+     * by the last.
+     *
+     * @param shard index of shard
+     * @param nShards number of shards
+     */
+    public void setShard(int shard, int nShards);
+
+    /**
+     * Concatenate the files written by each shard of a sharded ensemble,
+     * in shard order, to produce the output of the complete ensemble.
+     *
+     * @param nShards number of shards
+     * @throws IOException
+     */
+    public void mergeShards(int nShards) throws IOException;
+}
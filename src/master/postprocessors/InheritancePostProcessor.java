@@ -16,6 +16,8 @@
  */
 package master.postprocessors;
 
+import master.model.Node;
+
 /**
  * Interface for inheritance trajectory post-processing tools.
  *
@@ -24,5 +26,18 @@ package master.postprocessors;
 public interface InheritancePostProcessor {
     
     public void process(master.InheritanceTrajectory inheritanceTrajectory);
+
+    /**
+     * Determine whether a terminal node generated during the simulation
+     * is certain to remain a leaf of the processed graph, whatever the
+     * remainder of the graph looks like.  Used to bound post-simulation
+     * conditions before the simulation is complete.
+     *
+     * @param leaf terminal node
+     * @return true if leaf is always retained (default false)
+     */
+    public default boolean retainsLeaf(Node leaf) {
+        return false;
+    }
     
 }
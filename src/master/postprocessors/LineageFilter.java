@@ -19,6 +19,7 @@ package master.postprocessors;
 import beast.core.BEASTObject;
 import beast.core.Input;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
 import master.InheritanceTrajectory;
 import master.model.Node;
@@ -88,6 +89,19 @@ public class LineageFilter extends BEASTObject implements InheritancePostProcess
                 noCleanInput.get(), reverseTimeInput.get());
     }
     
+    @Override
+    public boolean retainsLeaf(Node leaf) {
+        // Marking leaves the graph unchanged:
+        if (markAnnotationInput.get() != null)
+            return true;
+
+        // Leaves are roots when the graph is processed in reverse time:
+        if (reverseTimeInput.get())
+            return false;
+
+        return matches(leaf, rule, string);
+    }
+    
     public enum Rule {
         BY_REACTNAME, BY_POPTYPENAME,
         BY_REACTNAME_DISCARD, BY_POPTYPENAME_DISCARD
@@ -110,14 +124,6 @@ public class LineageFilter extends BEASTObject implements InheritancePostProcess
             String markAnnotation, boolean leavesOnly,
             boolean noClean, boolean reverseTime) {
         
-        boolean markOnly;
-        if (markAnnotation != null)
-            markOnly = true;
-        else {
-            markAnnotation = "__mark__";
-            markOnly = false;
-        }
-        
         // Get list of root and leaf nodes:
         List<Node> rootNodes, leafNodes;
         if (reverseTime) {
@@ -125,253 +131,89 @@ public class LineageFilter extends BEASTObject implements InheritancePostProcess
             leafNodes = itraj.getStartNodes();
         } else {
             rootNodes = itraj.getStartNodes();
-            leafNodes = itraj.getEndNodes();
+            leafNodes = itraj.getLeafNodes();
         }
         
         // Pin existing singleton nodes:
-        for (Node node : rootNodes)
-            pinSingletons(node, reverseTime);
+        BitSet pinned = new BitSet();
+        List<Node> previouslyPinned = new ArrayList<Node>();
+        for (Node node : LineageMarks.getReachable(rootNodes, reverseTime)) {
+            if (node.getAttribute("__pinned__") != null) {
+                pinned.set(node.getID());
+                previouslyPinned.add(node);
+            }
+
+            if (LineageMarks.getNext(node, reverseTime).size() == 1
+                    && LineageMarks.getPrev(node, reverseTime).size() == 1) {
+                pinned.set(node.getID());
+                if (markAnnotation != null)
+                    node.setAttribute("__pinned__", true);
+            }
+        }
         
         // Mark lineages ancestral to nodes with matching reactionGroup
+        BitSet marked = new BitSet();
+        List<Node> markedNodes = markAnnotation != null ? new ArrayList<Node>() : null;
         for (Node node : leafNodes) {
-            switch (rule) {
-                case BY_POPTYPENAME:
-                    if (node.getPopulation() != null
-                            && node.getPopulation().getType().getName().equals(name))
-                        mark(node, reverseTime, markAnnotation);
-                    else
-                        if (leavesOnly) {
-                            for(Node prev : getPrev(node, reverseTime))
-                                mark(prev, reverseTime, markAnnotation);
-                            
-                        }
-                    break;
-                    
-                case BY_POPTYPENAME_DISCARD:
-                    if (!(node.getPopulation() != null
-                            && node.getPopulation().getType().getName().equals(name)))
-                        mark(node, reverseTime, markAnnotation);
-                    else
-                        if (leavesOnly) {
-                            for(Node prev : getPrev(node, reverseTime))
-                                mark(prev, reverseTime, markAnnotation);
-                            
-                        }
-                    break;
-                    
-                case BY_REACTNAME:
-                    if ((node.getReaction() != null && node.getReaction().getName().equals(name))
-                            || (node.getReaction() == null && name.equals("NONE")))
-                        mark(node, reverseTime, markAnnotation);
-                    else
-                        if (leavesOnly) {
-                            for(Node prev : getPrev(node, reverseTime))
-                                mark(prev, reverseTime, markAnnotation);
-                            
-                        }
-                    break;
-                    
-                case BY_REACTNAME_DISCARD:
-                    if (!((node.getReaction() != null && node.getReaction().getName().equals(name))
-                            || (node.getReaction() == null && name.equals("NONE"))))
-                        mark(node, reverseTime, markAnnotation);
-                    else
-                        if (leavesOnly) {
-                            for(Node prev : getPrev(node, reverseTime))
-                                mark(prev, reverseTime, markAnnotation);
-                            
-                        }
-                    break;
-            }
+            if (matches(node, rule, name))
+                LineageMarks.mark(node, marked, markedNodes, reverseTime);
+            else
+                if (leavesOnly) {
+                    for (Node prev : LineageMarks.getPrev(node, reverseTime))
+                        LineageMarks.mark(prev, marked, markedNodes, reverseTime);
+                }
         }
         
         // Explicitly unmark lineages decending from unmarked root nodes
-        for (Node node : rootNodes)
-            markFalse(node, reverseTime, markAnnotation);
-        
-        if (markOnly)
+        if (markAnnotation != null) {
+            LineageMarks.annotate(rootNodes, marked, markedNodes,
+                    markAnnotation, reverseTime);
             return;
+        }
         
         // Prune unmarked lineages:
-        for (Node node : leafNodes) {
-            if (!isMarked(node, markAnnotation))
-                pruneLineage(node, reverseTime, markAnnotation);
-        }
+        LineageMarks.prune(leafNodes, marked, reverseTime);
         
         // Remove any unmarked start nodes:
-        List<Node> oldStartNodes = new ArrayList<Node>();
-        oldStartNodes.addAll(itraj.getStartNodes());        
-        for (Node node : oldStartNodes) {
-            if (!isMarked(node, markAnnotation))
-                itraj.getStartNodes().remove(node);
-        }
+        LineageMarks.retainMarked(itraj.getStartNodes(), marked);
         
         // Clean graph of singleton nodes that don't represent state changes:
         if (!noClean)
-            for (Node node : rootNodes)
-                cleanSubGraph(node, reverseTime);
-        
-        // Remove pins and marks
-        for (Node node : rootNodes)
-            unPinSingletons(node, reverseTime, markAnnotation);
+            LineageMarks.clean(rootNodes, pinned, reverseTime);
         
-    }
-    
-    /**
-     * Determine whether node belongs to a sampled lineage.
-     * 
-     * @param node
-     * @return true if lineage has been sampled
-     */
-    private static boolean isMarked(Node node, String markAnnotation) {
-        Boolean mark = (Boolean) node.getAttribute(markAnnotation);
-        return mark != null && mark;
-    }
-    
-    /**
-     * Mark node and its ancestors as belonging to a sampled lineage.
-     * 
-     * @param node 
-     * @param reverseTime 
-     */
-    private static void mark(Node node, boolean reverseTime, String markAnnotation) {
-
-        node.setAttribute(markAnnotation, true);
-        List<Node> prevNodes = getPrev(node, reverseTime);
-        for (Node prev : prevNodes)
-            mark(prev, reverseTime, markAnnotation);
-    }
-    
-    /**
-     * Explicitly unmark node and its descendants which do not
-     * belong to sampled lineages.
-     * 
-     * @param node
-     * @param reverseTime 
-     */
-    private static void markFalse(Node node, boolean reverseTime, String markAnnotation) {
-        if (!isMarked(node, markAnnotation))
-            node.setAttribute(markAnnotation, false);
-        
-        List<Node> nextNodes = getNext(node, reverseTime);
-        for (Node next : nextNodes)
-            markFalse(next, reverseTime, markAnnotation);
-    }
-   
-    
-    /**
-     * Discard ancestral nodes until a node marked as belonging to a
-     * sampled lineage is encountered.
-     * 
-     * @param node
-     * @param reverseTime 
-     */
-    private static void pruneLineage(Node node, boolean reverseTime, String markAnnotation) {
-        List<Node> prevNodes = new ArrayList<Node>();
-        prevNodes.addAll(getPrev(node, reverseTime));
-        
-        for (Node prev : prevNodes) {
-            getPrev(node, reverseTime).remove(node);
-            getNext(prev, reverseTime).remove(node);
-            if (!isMarked(prev, markAnnotation))
-                pruneLineage(prev, reverseTime, markAnnotation);
-        }
-    }
-    
-    /**
-     * Pin existing singleton nodes in place.
-     * 
-     * @param node
-     * @param reverseTime 
-     */
-    private static void pinSingletons(Node node, boolean reverseTime) {
-        List<Node> nextNodes = getNext(node, reverseTime);
-        List<Node> prevNodes = getPrev(node, reverseTime);
-        
-        if (nextNodes.size() == 1 && prevNodes.size() == 1)
-            node.setAttribute("__pinned__", true);
-        
-        for (Node child : nextNodes)
-            pinSingletons(child, reverseTime);
-    }
-    
-    /**
-     * Remove node pins and marks.
-     * 
-     * @param node
-     * @param reverseTime 
-     * @param markAnnotation 
-     */
-    private static void unPinSingletons(Node node, boolean reverseTime, String markAnnotation) {
-
-        if (node.getAttributeNames().contains("__pinned__"))
+        // Remove pins left by earlier marking passes:
+        for (Node node : previouslyPinned)
             node.removeAttribute("__pinned__");
-        
-        if (node.getAttributeNames().contains(markAnnotation))
-            node.removeAttribute(markAnnotation);
-
-        for (Node child : getNext(node, reverseTime))
-            unPinSingletons(child, reverseTime, markAnnotation);
     }
     
     /**
-     * Clean graph below node of any unpinned singleton nodes which do not represent
-     * state changes.
+     * Determine whether node satisfies the filter rule.
      * 
      * @param node
-     * @param reverseTime 
+     * @param rule
+     * @param name
+     * @return true if node matches
      */
-    private static void cleanSubGraph(Node node, boolean reverseTime) {
-        List<Node> nextNodes = getNext(node, reverseTime);
-        List<Node> prevNodes = getPrev(node, reverseTime);
-        
-        if (nextNodes.size() == 1 && prevNodes.size() == 1
-                && !node.getAttributeNames().contains("__pinned__")) {
-            Node parent = prevNodes.get(0);
-            Node child = nextNodes.get(0);
-            
-            if (node.getPopulation().equals(child.getPopulation())) {
+    private static boolean matches(Node node, Rule rule, String name) {
+        switch (rule) {
+            case BY_POPTYPENAME:
+                return node.getPopulation() != null
+                        && node.getPopulation().getType().getName().equals(name);
                 
-                getPrev(child, reverseTime).remove(node);
-                getPrev(child, reverseTime).add(parent);
+            case BY_POPTYPENAME_DISCARD:
+                return !(node.getPopulation() != null
+                        && node.getPopulation().getType().getName().equals(name));
                 
-                getNext(parent, reverseTime).remove(node);
-                getNext(parent, reverseTime).add(child);
-            }
+            case BY_REACTNAME:
+                return (node.getReaction() != null && node.getReaction().getName().equals(name))
+                        || (node.getReaction() == null && name.equals("NONE"));
+                
+            case BY_REACTNAME_DISCARD:
+                return !((node.getReaction() != null && node.getReaction().getName().equals(name))
+                        || (node.getReaction() == null && name.equals("NONE")));
+                
+            default:
+                return false;
         }
-        
-        List<Node> nextNodesCopy = new ArrayList<Node>();
-        nextNodesCopy.addAll(nextNodes);
-
-        for (Node child : nextNodesCopy)
-            cleanSubGraph(child, reverseTime);
-    }
-    
-    /**
-     * Obtain nodes decending from node, respecting chosen time direction.
-     * 
-     * @param node
-     * @param reverseTime
-     * @return parents or children, depending on reverseTime
-     */
-    private static List<Node> getNext(Node node, boolean reverseTime) {
-        if (reverseTime)
-            return node.getParents();
-        else
-            return node.getChildren();
-    }
-    
-    /**
-     * Obtain direct ancestors of node, respecting chosen time direction.
-     * 
-     * @param node
-     * @param reverseTime
-     * @return parents or children, depending on reverseTime
-     */
-    private static List<Node> getPrev(Node node, boolean reverseTime) {
-        if (reverseTime)
-            return node.getChildren();
-        else
-            return node.getParents();
     }
 }
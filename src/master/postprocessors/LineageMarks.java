@@ -0,0 +1,262 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package master.postprocessors;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import master.model.Node;
+
+/**
+ * Iterative graph traversals shared by the lineage post-processors.
+ * Marks are held in BitSets indexed by node ID rather than as node
+ * attributes, and each traversal visits every node at most once, so
+ * processing time is linear in the size of the graph whatever its shape.
+ *
+ * @author agent <agent@local>
+ */
+class LineageMarks {
+
+    private LineageMarks() { }
+
+    /**
+     * Obtain nodes descending from node, respecting chosen time direction.
+     *
+     * @param node
+     * @param reverseTime
+     * @return parents or children, depending on reverseTime
+     */
+    static List<Node> getNext(Node node, boolean reverseTime) {
+        if (reverseTime)
+            return node.getParents();
+        else
+            return node.getChildren();
+    }
+
+    /**
+     * Obtain direct ancestors of node, respecting chosen time direction.
+     *
+     * @param node
+     * @param reverseTime
+     * @return parents or children, depending on reverseTime
+     */
+    static List<Node> getPrev(Node node, boolean reverseTime) {
+        if (reverseTime)
+            return node.getChildren();
+        else
+            return node.getParents();
+    }
+
+    /**
+     * Mark node and its ancestors.  Ancestors of nodes which are already
+     * marked are already marked themselves, so are not revisited.
+     *
+     * @param node
+     * @param marked set of marked node IDs
+     * @param markedNodes list to which newly marked nodes are added
+     * (may be null)
+     * @param reverseTime
+     */
+    static void mark(Node node, BitSet marked, List<Node> markedNodes,
+            boolean reverseTime) {
+        List<Node> stack = new ArrayList<>();
+        stack.add(node);
+
+        while (!stack.isEmpty()) {
+            Node thisNode = stack.remove(stack.size()-1);
+            if (marked.get(thisNode.getID()))
+                continue;
+            marked.set(thisNode.getID());
+            if (markedNodes != null)
+                markedNodes.add(thisNode);
+
+            stack.addAll(getPrev(thisNode, reverseTime));
+        }
+    }
+
+    /**
+     * Assemble list of nodes reachable from the given roots.
+     *
+     * @param rootNodes
+     * @param reverseTime
+     * @return list of reachable nodes, each appearing once
+     */
+    static List<Node> getReachable(List<Node> rootNodes, boolean reverseTime) {
+        List<Node> reachable = new ArrayList<>();
+        BitSet visited = new BitSet();
+
+        List<Node> stack = new ArrayList<>(rootNodes);
+        while (!stack.isEmpty()) {
+            Node node = stack.remove(stack.size()-1);
+            if (visited.get(node.getID()))
+                continue;
+            visited.set(node.getID());
+            reachable.add(node);
+
+            stack.addAll(getNext(node, reverseTime));
+        }
+
+        return reachable;
+    }
+
+    /**
+     * Record marks using a node annotation: marked nodes are annotated
+     * as true, while nodes reachable from the roots which are not marked
+     * (and not already annotated as true) are annotated as false.
+     *
+     * @param rootNodes
+     * @param marked set of marked node IDs
+     * @param markedNodes list of marked nodes
+     * @param markAnnotation name of annotation
+     * @param reverseTime
+     */
+    static void annotate(List<Node> rootNodes, BitSet marked,
+            List<Node> markedNodes, String markAnnotation, boolean reverseTime) {
+
+        for (Node node : markedNodes)
+            node.setAttribute(markAnnotation, true);
+
+        for (Node node : getReachable(rootNodes, reverseTime)) {
+            if (marked.get(node.getID()))
+                continue;
+
+            Boolean mark = (Boolean)node.getAttribute(markAnnotation);
+            if (mark == null || !mark)
+                node.setAttribute(markAnnotation, false);
+        }
+    }
+
+    /**
+     * Detach unmarked lineages ending at the given leaves.  Each unmarked
+     * ancestor of an unmarked leaf is removed from the lists of next
+     * nodes of its direct ancestors, and its own list of direct ancestors
+     * is cleared so that it leaves the graph's leaf registry.
+     *
+     * @param leafNodes
+     * @param marked set of marked node IDs
+     * @param reverseTime
+     */
+    static void prune(List<Node> leafNodes, BitSet marked, boolean reverseTime) {
+        BitSet visited = new BitSet();
+        List<Node> stack = new ArrayList<>();
+
+        for (Node leaf : leafNodes) {
+            if (!marked.get(leaf.getID()))
+                stack.add(leaf);
+        }
+
+        while (!stack.isEmpty()) {
+            Node node = stack.remove(stack.size()-1);
+            if (visited.get(node.getID()))
+                continue;
+            visited.set(node.getID());
+
+            List<Node> prevNodes = getPrev(node, reverseTime);
+            for (Node prev : prevNodes) {
+                getNext(prev, reverseTime).remove(node);
+                if (!marked.get(prev.getID()))
+                    stack.add(prev);
+            }
+            prevNodes.clear();
+        }
+    }
+
+    /**
+     * Detach node and all nodes reachable from it from the graph by
+     * clearing their edge lists.  Used to discard parts of the graph
+     * which are no longer reachable from its roots.
+     *
+     * @param node
+     * @param reverseTime
+     */
+    static void detach(Node node, boolean reverseTime) {
+        List<Node> stack = new ArrayList<>();
+        stack.add(node);
+
+        while (!stack.isEmpty()) {
+            Node thisNode = stack.remove(stack.size()-1);
+
+            List<Node> nextNodes = getNext(thisNode, reverseTime);
+            stack.addAll(nextNodes);
+            nextNodes.clear();
+            getPrev(thisNode, reverseTime).clear();
+        }
+    }
+
+    /**
+     * Remove singleton nodes which do not represent state changes from
+     * the graph below the given roots.  Nodes are examined in the same
+     * depth-first order as a recursive traversal, which determines the
+     * order of the rewired edge lists.
+     *
+     * @param rootNodes
+     * @param pinned set of IDs of nodes to retain (may be null)
+     * @param reverseTime
+     */
+    static void clean(List<Node> rootNodes, BitSet pinned, boolean reverseTime) {
+        BitSet visited = new BitSet();
+
+        List<Node> stack = new ArrayList<>();
+        for (int i=rootNodes.size()-1; i>=0; i--)
+            stack.add(rootNodes.get(i));
+
+        while (!stack.isEmpty()) {
+            Node node = stack.remove(stack.size()-1);
+            if (visited.get(node.getID()))
+                continue;
+            visited.set(node.getID());
+
+            List<Node> nextNodes = getNext(node, reverseTime);
+            List<Node> prevNodes = getPrev(node, reverseTime);
+
+            if (nextNodes.size() == 1 && prevNodes.size() == 1
+                    && (pinned == null || !pinned.get(node.getID()))) {
+                Node parent = prevNodes.get(0);
+                Node child = nextNodes.get(0);
+
+                if (node.getPopulation().equals(child.getPopulation())) {
+
+                    getPrev(child, reverseTime).remove(node);
+                    getPrev(child, reverseTime).add(parent);
+
+                    getNext(parent, reverseTime).remove(node);
+                    getNext(parent, reverseTime).add(child);
+                }
+            }
+
+            for (int i=nextNodes.size()-1; i>=0; i--)
+                stack.add(nextNodes.get(i));
+        }
+    }
+
+    /**
+     * Retain only the marked nodes in the given list, preserving order.
+     *
+     * @param nodes
+     * @param marked set of marked node IDs
+     */
+    static void retainMarked(List<Node> nodes, BitSet marked) {
+        List<Node> retained = new ArrayList<>();
+        for (Node node : nodes) {
+            if (marked.get(node.getID()))
+                retained.add(node);
+        }
+
+        nodes.clear();
+        nodes.addAll(retained);
+    }
+}
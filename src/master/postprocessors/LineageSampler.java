@@ -2,12 +2,13 @@ package master.postprocessors;
 
 import beast.core.BEASTObject;
 import beast.core.Input;
-import beast.util.Randomizer;
 import com.google.common.collect.HashMultiset;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Multiset;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import master.InheritanceTrajectory;
@@ -15,6 +16,7 @@ import master.model.Model;
 import master.model.Node;
 import master.model.Population;
 import master.model.PopulationSize;
+import master.rng.RandomGenerator;
 
 /**
  * @author Alexei Drummond
@@ -65,6 +67,14 @@ public class LineageSampler extends BEASTObject implements InheritancePostProces
                         (int) Math.round(popSize.getPopSizes().get(pop)));
         }
     }
+
+    /**
+     * @return numbers of lineages to sample from individual populations,
+     * or null if these have not yet been computed
+     */
+    public Multiset<Population> getPopulationSizes() {
+        return populationSizes;
+    }
     
     /**
      * Sample (without replacement) nSamples lineages crossing the chosen
@@ -91,14 +101,6 @@ public class LineageSampler extends BEASTObject implements InheritancePostProces
                                String markAnnotation,
                                boolean noClean, boolean reverseTime) {
         
-        boolean markOnly;
-        if (markAnnotation != null) {
-            markOnly = true;
-        } else {
-            markAnnotation = "__mark__";
-            markOnly = false;
-        }
-        
         // Get lists of root and leaf nodes (using chosen time direction):
         List<Node> rootNodes, leafNodes;
         if (reverseTime) {
@@ -113,8 +115,7 @@ public class LineageSampler extends BEASTObject implements InheritancePostProces
         List<Node> nodesToSample = new ArrayList<Node>();
         if (samplingTime>=0.0) {
             for (Node root : rootNodes)
-                collectNodes(root, samplingTime, nodesToSample, reverseTime,
-                        itraj);
+                collectNodes(root, samplingTime, nodesToSample, reverseTime);
             
             // Update startNodes if necessary:
             if (reverseTime) {
@@ -126,163 +127,96 @@ public class LineageSampler extends BEASTObject implements InheritancePostProces
         }
 
         // Sample a subset of these lineages:
+        RandomGenerator rng = itraj.getSpec().getRandomGenerator();
         List<Node> sampledNodes;
         if (nSamples>=0) {
-            sampledNodes = getSampledLineages(nodesToSample, nSamples);
+            sampledNodes = getSampledLineages(nodesToSample, nSamples, rng);
         } else if (pSample>0) {
-            sampledNodes = getSampledLineages(nodesToSample, pSample);
+            sampledNodes = getSampledLineages(nodesToSample, pSample, rng);
         } else {
-            sampledNodes = getSampledLineages(nodesToSample, populationSizes);
+            sampledNodes = getSampledLineages(nodesToSample, populationSizes, rng);
         }
 
         
-        // Label nodes belonging to sampled lineages:
+        // Mark nodes belonging to sampled lineages:
+        BitSet marked = new BitSet();
+        List<Node> markedNodes = markAnnotation != null ? new ArrayList<Node>() : null;
         for (Node node : sampledNodes)
-            mark(node, reverseTime, markAnnotation);
-        
-        // Set complimentary annotation on unsampled lineages:
-        for (Node node: rootNodes)
-            markFalse(node, reverseTime, markAnnotation);
+            LineageMarks.mark(node, marked, markedNodes, reverseTime);
         
-        if (markOnly)
+        // Annotate nodes if only marking was requested:
+        if (markAnnotation != null) {
+            LineageMarks.annotate(rootNodes, marked, markedNodes,
+                    markAnnotation, reverseTime);
             return;
+        }
         
         // Update list of leaf nodes (using chosen time direction):
         if (reverseTime)
             leafNodes = itraj.getStartNodes();
         else
-            leafNodes = itraj.getEndNodes();
+            leafNodes = itraj.getLeafNodes();
         
         // Discard unmarked lineages:
-        for (Node leaf : leafNodes) {
-            if (!isMarked(leaf, markAnnotation)) {
-                pruneLineage(leaf, reverseTime, markAnnotation);
-                if (reverseTime && itraj.getStartNodes().contains(leaf))
-                    itraj.getStartNodes().remove(leaf);
-            }
-        }
+        LineageMarks.prune(leafNodes, marked, reverseTime);
+        if (reverseTime)
+            LineageMarks.retainMarked(itraj.getStartNodes(), marked);
         
         // Remove any remaining unmarked root nodes:
-        List<Node> oldRootNodes = new ArrayList<Node>();
-        oldRootNodes.addAll(rootNodes);
-        for (Node root : oldRootNodes) {
-            if (!isMarked(root, markAnnotation))
-                rootNodes.remove(root);
-        }
+        LineageMarks.retainMarked(rootNodes, marked);
         
         // Clean graph of singleton nodes that don't represent state changes:
         if (!noClean)
-            for (Node node : rootNodes)
-                cleanSubGraph(node, reverseTime, markAnnotation);
-
-        // Remove marks:
-        for (Node root : rootNodes)
-            unMark(root, reverseTime, markAnnotation);
-    }
-
-    /**
-     * Determine whether node belongs to a sampled lineage.
-     * 
-     * @param node
-     * @return true if lineage has been sampled
-     */
-    private static boolean isMarked(Node node, String markAnnotation) {
-        Boolean mark = (Boolean) node.getAttribute(markAnnotation);
-        return mark != null && mark;
-    }
-
-    /**
-     * Mark node and its ancestors as belonging to a sampled lineage.
-     * 
-     * @param node 
-     * @param reverseTime 
-     */
-    private static void mark(Node node, boolean reverseTime, String markAnnotation) {
-
-        node.setAttribute(markAnnotation, true);
-        List<Node> prevNodes = getPrev(node, reverseTime);
-        for (Node prev : prevNodes)
-            mark(prev, reverseTime, markAnnotation);
-    }
-    
-    /**
-     * Remove mark from node and its ancestors.
-     * 
-     * @param node 
-     * @param reverseTime 
-     */
-    private static void unMark(Node node, boolean reverseTime, String markAnnotation) {
-
-        if (node.getAttributeNames().contains(markAnnotation)) {
-            node.removeAttribute(markAnnotation);
-        }
-
-        List<Node> prevNodes = getNext(node, reverseTime);
-        for (Node prev : prevNodes)
-            unMark(prev, reverseTime, markAnnotation);
-    }
-    
-    /**
-     * Explicitly unmark node and its descendents which do not
-     * belong to sampled lineages.
-     * 
-     * @param node
-     * @param reverseTime 
-     */
-    private static void markFalse(Node node, boolean reverseTime, String markAnnotation) {
-        if (!isMarked(node, markAnnotation))
-            node.setAttribute(markAnnotation, false);
-        
-        List<Node> nextNodes = getNext(node, reverseTime);
-        for (Node next : nextNodes)
-            markFalse(next, reverseTime, markAnnotation);
-    }
-
-    /**
-     * Discard ancestral nodes until a node marked as belonging to a
-     * sampled lineage is encountered.
-     * 
-     * @param node
-     * @param reverseTime 
-     */
-    private static void pruneLineage(Node node, boolean reverseTime, String markAnnotation) {
-        List<Node> prevNodes = new ArrayList<Node>();
-        prevNodes.addAll(getPrev(node, reverseTime));
-        
-        for (Node prev : prevNodes) {
-            getNext(prev, reverseTime).remove(node);
-            if (!isMarked(prev, markAnnotation))
-                pruneLineage(prev, reverseTime, markAnnotation);
-        }
+            LineageMarks.clean(rootNodes, null, reverseTime);
     }
 
     /**
      * Assemble a list of nodes terminating lineages at the sampling time.
+     * Nodes are visited in depth-first order using an explicit stack.
      * 
-     * @param node
+     * @param root
      * @param samplingTime
      * @param nodesAtSamplingTime 
+     * @param reverseTime
      */
-    private static void collectNodes(Node node, double samplingTime,
-            List<Node> nodesAtSamplingTime, boolean reverseTime,
-            InheritanceTrajectory itraj) {
+    private static void collectNodes(Node root, double samplingTime,
+            List<Node> nodesAtSamplingTime, boolean reverseTime) {
 
         double timeFactor = reverseTime ? -1.0 : 1.0;
+
+        // Stack of nodes being processed and their remaining next nodes:
+        List<Node> nodeStack = new ArrayList<Node>();
+        List<Iterator<Node>> nextStack = new ArrayList<Iterator<Node>>();
+        nodeStack.add(root);
+        nextStack.add(new ArrayList<Node>(
+                LineageMarks.getNext(root, reverseTime)).iterator());
         
-        List<Node> nextNodes = new ArrayList<Node>();
-        nextNodes.addAll(getNext(node, reverseTime));
-        
-        for (Node next : nextNodes) {
+        while (!nodeStack.isEmpty()) {
+            int top = nodeStack.size()-1;
+            Node node = nodeStack.get(top);
+            Iterator<Node> nextNodes = nextStack.get(top);
+
+            if (!nextNodes.hasNext()) {
+                nodeStack.remove(top);
+                nextStack.remove(top);
+                continue;
+            }
+
+            Node next = nextNodes.next();
             if (next.getTime()*timeFactor >= samplingTime*timeFactor) {
-                Node newNode = new Node(next.getPopulation(), samplingTime);
-                getNext(node, reverseTime).remove(next);
-                getPrev(next, reverseTime).remove(node);
-                getNext(node, reverseTime).add(newNode);
-                getPrev(newNode, reverseTime).add(node);
+                Node newNode = next.getGraph().addNode(next.getPopulation(), samplingTime);
+                LineageMarks.getNext(node, reverseTime).remove(next);
+                LineageMarks.getPrev(next, reverseTime).remove(node);
+                LineageMarks.getNext(node, reverseTime).add(newNode);
+                LineageMarks.getPrev(newNode, reverseTime).add(node);
                 nodesAtSamplingTime.add(newNode);
+
+                // Discard graph beyond sampling time:
+                LineageMarks.detach(next, reverseTime);
             } else {
-                collectNodes(next, samplingTime, nodesAtSamplingTime, reverseTime,
-                        itraj);
+                nodeStack.add(next);
+                nextStack.add(new ArrayList<Node>(
+                        LineageMarks.getNext(next, reverseTime)).iterator());
             }
         }
     }
@@ -293,12 +227,14 @@ public class LineageSampler extends BEASTObject implements InheritancePostProces
      * 
      * @param nodesToSample
      * @param nSamples
+     * @param rng
      * @return list of sampled nodes
      */
-    private static List<Node> getSampledLineages(List<Node> nodesToSample, int nSamples) {
+    private static List<Node> getSampledLineages(List<Node> nodesToSample, int nSamples,
+            RandomGenerator rng) {
         List<Node> sampledNodes = Lists.newArrayList();
         while (nSamples > 0 && !nodesToSample.isEmpty()) {
-            int index = Randomizer.nextInt(nodesToSample.size());
+            int index = rng.nextInt(nodesToSample.size());
             Node sampledNode = nodesToSample.remove(index);
             sampledNodes.add(sampledNode);
             nSamples -= 1;
@@ -313,12 +249,14 @@ public class LineageSampler extends BEASTObject implements InheritancePostProces
      *
      * @param nodesToSample
      * @param rho the probability with which each of the nodes is sampled
+     * @param rng
      * @return list of sampled nodes
      */
-    private static List<Node> getSampledLineages(List<Node> nodesToSample, double rho) {
+    private static List<Node> getSampledLineages(List<Node> nodesToSample, double rho,
+            RandomGenerator rng) {
         List<Node> sampledNodes = Lists.newArrayList();
         for (Node node : nodesToSample) {
-            if (Randomizer.nextDouble() < rho) {
+            if (rng.nextDouble() < rho) {
                 Node sampledNode = node;
                 sampledNodes.add(sampledNode);
             }
@@ -333,11 +271,12 @@ public class LineageSampler extends BEASTObject implements InheritancePostProces
      * @param nodesToSample list of nodes from which to sample
      * @param populationSizes multiset specifying number of nodes
      * corresponding to each population to sample.
+     * @param rng
      * 
      * @return list of sampled nodes
      */
     private static List<Node> getSampledLineages(List<Node> nodesToSample,
-            Multiset<Population> populationSizes) {
+            Multiset<Population> populationSizes, RandomGenerator rng) {
         
         // Sort node list by population
         Map<Population, List<Node>> nodeMap = Maps.newHashMap();
@@ -353,72 +292,12 @@ public class LineageSampler extends BEASTObject implements InheritancePostProces
         List<Node> sampledNodes = Lists.newArrayList();
         for (Population pop : populationSizes.elementSet()) {
             int nSamples = populationSizes.count(pop);
-            sampledNodes.addAll(getSampledLineages(nodeMap.get(pop), nSamples));
+            sampledNodes.addAll(getSampledLineages(nodeMap.get(pop), nSamples, rng));
         }
         
         return sampledNodes;
     }
     
-    /**
-     * Obtain nodes descending from node, respecting chosen time direction.
-     * 
-     * @param node
-     * @param reverseTime
-     * @return parents or children, depending on reverseTime
-     */
-    private static List<Node> getNext(Node node, boolean reverseTime) {
-        if (reverseTime)
-            return node.getParents();
-        else
-            return node.getChildren();
-    }
-    
-    /**
-     * Obtain direct ancestors of node, respecting chosen time direction.
-     * 
-     * @param node
-     * @param reverseTime
-     * @return parents or children, depending on reverseTime
-     */
-    private static List<Node> getPrev(Node node, boolean reverseTime) {
-        if (reverseTime)
-            return node.getChildren();
-        else
-            return node.getParents();
-    }
-    
-    /**
-     * Clean graph below node of any unmarked singleton nodes which do not represent
-     * state changes.
-     * 
-     * @param node
-     * @param reverseTime 
-     */
-    private static void cleanSubGraph(Node node, boolean reverseTime, String markAnnotation) {
-        List<Node> nextNodes = getNext(node, reverseTime);
-        List<Node> prevNodes = getPrev(node, reverseTime);
-        
-        if (nextNodes.size() == 1 && prevNodes.size() == 1) {
-            Node parent = prevNodes.get(0);
-            Node child = nextNodes.get(0);
-            
-            if (node.getPopulation().equals(child.getPopulation())) {
-                
-                getPrev(child, reverseTime).remove(node);
-                getPrev(child, reverseTime).add(parent);
-                
-                getNext(parent, reverseTime).remove(node);
-                getNext(parent, reverseTime).add(child);
-            }
-        }
-        
-        List<Node> nextNodesCopy = new ArrayList<Node>();
-        nextNodesCopy.addAll(nextNodes);
-
-        for (Node child : nextNodesCopy)
-            cleanSubGraph(child, reverseTime, markAnnotation);
-    }
-
     @Override
     public void process(InheritanceTrajectory itraj) {
         LineageSampler.process(itraj,
@@ -429,5 +308,21 @@ public class LineageSampler extends BEASTObject implements InheritancePostProces
                 markAnnotationInput.get(), noCleanInput.get(),
                 reverseTimeInput.get());
     }
+
+    @Override
+    public boolean retainsLeaf(Node leaf) {
+        // Without marking, unsampled leaves are pruned:
+        if (markAnnotationInput.get() == null)
+            return false;
+
+        // Marking otherwise leaves the graph unchanged, apart from the
+        // truncation at the sampling time.  This only ever cuts lineages
+        // leading away from the roots, which in reverse time are the
+        // terminal nodes themselves.
+        if (samplingTimeInput.get() == null || reverseTimeInput.get())
+            return true;
+
+        return leaf.getTime() < samplingTimeInput.get();
+    }
     
 }
@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package master.rng;
+
+import beast.core.Description;
+import beast.util.Randomizer;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Counter-based Philox4x32-10 generator (Salmon et al. 2011).  Each
+ * output block is a keyed bijection of a 128-bit counter, the upper 64
+ * bits of which select the stream and the lower 64 bits the position
+ * within it.  Jumping to any stream (or position) is therefore O(1).
+ *
+ * Unless seeded explicitly, the key is drawn from the BEAST Randomizer.
+ *
+ * @author agent <agent@local>
+ */
+@Description("Counter-based Philox4x32-10 random number generator with "
+        + "independent per-trajectory streams.")
+public class PhiloxGenerator extends RandomGenerator {
+
+    private static final long M0 = 0xD2511F53L, M1 = 0xCD9E8D57L;
+    private static final long W0 = 0x9E3779B9L, W1 = 0xBB67AE85L;
+    private static final long MASK = 0xFFFFFFFFL;
+
+    // Key:
+    private long k0, k1;
+    private boolean keySet = false;
+
+    // Stream and position within stream (in blocks):
+    private long stream, position;
+
+    // Most recently generated block and number of words consumed:
+    private final long[] block = new long[4];
+    private int used = 4;
+
+    public PhiloxGenerator() { }
+
+    @Override
+    public void initAndValidate() {
+        if (!keySet)
+            setKey(Randomizer.nextLong());
+    }
+
+    @Override
+    public void setSeed(long seed) {
+        setKey(seed);
+        setStream(0);
+    }
+
+    private void setKey(long key) {
+        k0 = key & MASK;
+        k1 = (key >>> 32) & MASK;
+        keySet = true;
+    }
+
+    @Override
+    public void setStream(long stream) {
+        this.stream = stream;
+        this.position = 0;
+        this.used = 4;
+    }
+
+    @Override
+    public boolean hasStreams() {
+        return true;
+    }
+
+    @Override
+    public void writeState(DataOutput out) throws IOException {
+        out.writeLong(k0);
+        out.writeLong(k1);
+        out.writeLong(stream);
+        out.writeLong(position);
+        for (long word : block)
+            out.writeLong(word);
+        out.writeInt(used);
+    }
+
+    @Override
+    public void readState(DataInput in) throws IOException {
+        k0 = in.readLong();
+        k1 = in.readLong();
+        keySet = true;
+        stream = in.readLong();
+        position = in.readLong();
+        for (int i=0; i<block.length; i++)
+            block[i] = in.readLong();
+        used = in.readInt();
+    }
+
+    @Override
+    public RandomGenerator getCopy() {
+        if (!keySet)
+            setKey(Randomizer.nextLong());
+
+        PhiloxGenerator copy = new PhiloxGenerator();
+        copy.k0 = k0;
+        copy.k1 = k1;
+        copy.keySet = true;
+
+        return copy;
+    }
+
+    /**
+     * Jump to given block within the current stream.  Each block supplies
+     * two doubles or four 32-bit words.
+     *
+     * @param position block index
+     */
+    public void setPosition(long position) {
+        this.position = position;
+        this.used = 4;
+    }
+
+    /**
+     * Generate next block of four 32-bit words.
+     */
+    private void generateBlock() {
+        if (!keySet)
+            setKey(Randomizer.nextLong());
+
+        long c0 = position & MASK, c1 = (position >>> 32) & MASK;
+        long c2 = stream & MASK, c3 = (stream >>> 32) & MASK;
+        long key0 = k0, key1 = k1;
+
+        for (int round=0; round<10; round++) {
+            long p0 = M0*c0, p1 = M1*c2;
+
+            // Products fit in 64 bits, but may be negative when viewed
+            // as signed longs; only the bit patterns matter here.
+            long hi0 = p0 >>> 32, lo0 = p0 & MASK;
+            long hi1 = p1 >>> 32, lo1 = p1 & MASK;
+
+            c0 = (hi1 ^ c1 ^ key0) & MASK;
+            c1 = lo1;
+            c2 = (hi0 ^ c3 ^ key1) & MASK;
+            c3 = lo0;
+
+            key0 = (key0 + W0) & MASK;
+            key1 = (key1 + W1) & MASK;
+        }
+
+        block[0] = c0;
+        block[1] = c1;
+        block[2] = c2;
+        block[3] = c3;
+        used = 0;
+        position += 1;
+    }
+
+    /**
+     * @return next 32 random bits as a non-negative long
+     */
+    private long nextWord() {
+        if (used>=4)
+            generateBlock();
+
+        return block[used++];
+    }
+
+    @Override
+    public long nextLong() {
+        return (nextWord() << 32) | nextWord();
+    }
+
+    @Override
+    public double nextDouble() {
+        return ((nextWord() >>> 5)*67108864.0 + (nextWord() >>> 6))
+                * (1.0/9007199254740992.0);
+    }
+
+    @Override
+    public int nextInt(int n) {
+        // Multiply-shift with rejection to remove bias (Lemire 2019):
+        long m = nextWord()*n;
+        long l = m & MASK;
+        if (l<n) {
+            long t = ((1L << 32) - n) % n;
+            while (l<t) {
+                m = nextWord()*n;
+                l = m & MASK;
+            }
+        }
+        return (int)(m >>> 32);
+    }
+
+    @Override
+    public String getGeneratorName() {
+        return "Philox4x32-10";
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package master.rng;
+
+import beast.core.BEASTObject;
+import com.fasterxml.jackson.annotation.JsonValue;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import org.apache.commons.math.special.Gamma;
+
+/**
+ * Abstract base class for the random number generators used by steppers
+ * and simulation classes.  Subclasses need only supply uniform variates;
+ * exponential and normal variates are then drawn using the ziggurat
+ * method and Poisson variates using multiplication (small means) or
+ * Hormann's PTRS transformed rejection method (large means).
+ *
+ * Generators may provide multiple independent streams.  Simulations
+ * select stream k before generating trajectory k, so that results
+ * depend only on the seed and not on the order in which trajectories
+ * are generated.
+ *
+ * @author agent <agent@local>
+ */
+public abstract class RandomGenerator extends BEASTObject {
+
+    @Override
+    public void initAndValidate() { }
+
+    /**
+     * Seed the generator.
+     *
+     * @param seed
+     */
+    public abstract void setSeed(long seed);
+
+    /**
+     * Select the stream from which subsequent variates are drawn,
+     * positioned at its start.  Generators which do not support multiple
+     * streams ignore this.
+     *
+     * @param stream stream index
+     */
+    public void setStream(long stream) { }
+
+    /**
+     * @return true if setStream() selects independent streams.
+     */
+    public boolean hasStreams() {
+        return false;
+    }
+
+    /**
+     * Write the state of the generator to a checkpoint.  Checkpointing
+     * requires a generator with streams whose state can be recorded
+     * exactly, so that a resumed calculation draws the same variates as
+     * an uninterrupted one.  Such generators override this method.
+     *
+     * @param out checkpoint being written
+     * @throws IOException
+     */
+    public void writeState(DataOutput out) throws IOException {
+        throw new IllegalStateException("Generator " + getGeneratorName()
+                + " does not support checkpointing.");
+    }
+
+    /**
+     * Restore state of generator from a checkpoint written by
+     * writeState().
+     *
+     * @param in checkpoint being read
+     * @throws IOException
+     */
+    public void readState(DataInput in) throws IOException {
+        throw new IllegalStateException("Generator " + getGeneratorName()
+                + " does not support checkpointing.");
+    }
+
+    /**
+     * Obtain an independent copy of this generator with the same seed,
+     * so that streams can be drawn from concurrently by separate
+     * threads.  Only generators with streams can be copied in this way;
+     * such generators override this method.
+     *
+     * @return copy of generator
+     */
+    public RandomGenerator getCopy() {
+        throw new IllegalStateException("Generator " + getGeneratorName()
+                + " cannot be used by multiple threads.");
+    }
+
+    /**
+     * @return uniform variate on [0,1)
+     */
+    public abstract double nextDouble();
+
+    /**
+     * @return 64 uniformly random bits
+     */
+    public abstract long nextLong();
+
+    /**
+     * @param n upper bound (exclusive)
+     * @return uniform integer variate on [0,n)
+     */
+    public int nextInt(int n) {
+        return (int)(nextDouble()*n);
+    }
+
+    /**
+     * @param rate rate parameter
+     * @return exponential variate with given rate
+     */
+    public double nextExponential(double rate) {
+        return Ziggurat.exponential(this)/rate;
+    }
+
+    /**
+     * @return standard normal variate
+     */
+    public double nextGaussian() {
+        return Ziggurat.normal(this);
+    }
+
+    /**
+     * @param mean Poisson mean
+     * @return Poisson variate with given mean
+     */
+    public double nextPoisson(double mean) {
+        if (mean<=0.0)
+            return 0.0;
+
+        if (mean<10.0) {
+            // Multiplication method:
+            double limit = Math.exp(-mean);
+            double prod = nextDouble();
+            int k = 0;
+            while (prod>limit) {
+                prod *= nextDouble();
+                k += 1;
+            }
+            return k;
+        }
+
+        // PTRS (Hormann 1993):
+        double slam = Math.sqrt(mean);
+        double loglam = Math.log(mean);
+        double b = 0.931 + 2.53*slam;
+        double a = -0.059 + 0.02483*b;
+        double invalpha = 1.1239 + 1.1328/(b - 3.4);
+        double vr = 0.9277 - 3.6224/(b - 2);
+
+        while (true) {
+            double U = nextDouble() - 0.5;
+            double V = nextDouble();
+            double us = 0.5 - Math.abs(U);
+            double k = Math.floor((2*a/us + b)*U + mean + 0.43);
+
+            if (us>=0.07 && V<=vr)
+                return k;
+
+            if (k<0 || (us<0.013 && V>us))
+                continue;
+
+            if (Math.log(V) + Math.log(invalpha) - Math.log(a/(us*us) + b)
+                    <= -mean + k*loglam - Gamma.logGamma(k + 1))
+                return k;
+        }
+    }
+
+    /**
+     * @return descriptive name of generator
+     */
+    public abstract String getGeneratorName();
+
+    @Override
+    @JsonValue
+    public String toString() {
+        return getGeneratorName();
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package master.rng;
+
+import beast.util.Randomizer;
+
+/**
+ * Default generator, which simply delegates to the global BEAST
+ * Randomizer.  Has only a single stream.
+ *
+ * @author agent <agent@local>
+ */
+public class RandomizerGenerator extends RandomGenerator {
+
+    public RandomizerGenerator() { }
+
+    @Override
+    public void setSeed(long seed) {
+        Randomizer.setSeed(seed);
+    }
+
+    @Override
+    public double nextDouble() {
+        return Randomizer.nextDouble();
+    }
+
+    @Override
+    public long nextLong() {
+        return Randomizer.nextLong();
+    }
+
+    @Override
+    public int nextInt(int n) {
+        return Randomizer.nextInt(n);
+    }
+
+    @Override
+    public double nextExponential(double rate) {
+        return Randomizer.nextExponential(rate);
+    }
+
+    @Override
+    public double nextGaussian() {
+        return Randomizer.nextGaussian();
+    }
+
+    @Override
+    public double nextPoisson(double mean) {
+        return Randomizer.nextPoisson(mean);
+    }
+
+    @Override
+    public String getGeneratorName() {
+        return "BEAST Randomizer";
+    }
+}
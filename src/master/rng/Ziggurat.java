@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package master.rng;
+
+/**
+ * Ziggurat samplers for the exponential (256 layers) and standard normal
+ * (128 layers) distributions, following Marsaglia and Tsang (2000).
+ * Separate random bits are used for the layer index and the abscissa
+ * to avoid the correlation present in the original implementation.
+ *
+ * @author agent <agent@local>
+ */
+final class Ziggurat {
+
+    private static final double NORMAL_R = 3.442619855899;
+    private static final double EXP_R = 7.697117470131487;
+
+    private static final long[] kn = new long[128];
+    private static final double[] wn = new double[128], fn = new double[128];
+    private static final long[] ke = new long[256];
+    private static final double[] we = new double[256], fe = new double[256];
+
+    static {
+        final double m1 = 2147483648.0, m2 = 4294967296.0;
+
+        double dn = NORMAL_R, tn = dn, vn = 9.91256303526217e-3;
+        double q = vn/Math.exp(-0.5*dn*dn);
+        kn[0] = (long)((dn/q)*m1);
+        kn[1] = 0;
+        wn[0] = q/m1;
+        wn[127] = dn/m1;
+        fn[0] = 1.0;
+        fn[127] = Math.exp(-0.5*dn*dn);
+        for (int i=126; i>=1; i--) {
+            dn = Math.sqrt(-2.0*Math.log(vn/dn + Math.exp(-0.5*dn*dn)));
+            kn[i+1] = (long)((dn/tn)*m1);
+            tn = dn;
+            fn[i] = Math.exp(-0.5*dn*dn);
+            wn[i] = dn/m1;
+        }
+
+        double de = EXP_R, te = de, ve = 3.949659822581572e-3;
+        q = ve/Math.exp(-de);
+        ke[0] = (long)((de/q)*m2);
+        ke[1] = 0;
+        we[0] = q/m2;
+        we[255] = de/m2;
+        fe[0] = 1.0;
+        fe[255] = Math.exp(-de);
+        for (int i=254; i>=1; i--) {
+            de = -Math.log(ve/de + Math.exp(-de));
+            ke[i+1] = (long)((de/te)*m2);
+            te = de;
+            fe[i] = Math.exp(-de);
+            we[i] = de/m2;
+        }
+    }
+
+    private Ziggurat() { }
+
+    /**
+     * @param rng source of uniform bits
+     * @return unit-rate exponential variate
+     */
+    static double exponential(RandomGenerator rng) {
+        while (true) {
+            long bits = rng.nextLong();
+            long jz = bits & 0xFFFFFFFFL;
+            int iz = (int)((bits >>> 32) & 255);
+
+            if (jz<ke[iz])
+                return jz*we[iz];
+
+            if (iz==0)
+                return EXP_R - Math.log(1.0 - rng.nextDouble());
+
+            double x = jz*we[iz];
+            if (fe[iz] + rng.nextDouble()*(fe[iz-1]-fe[iz]) < Math.exp(-x))
+                return x;
+        }
+    }
+
+    /**
+     * @param rng source of uniform bits
+     * @return standard normal variate
+     */
+    static double normal(RandomGenerator rng) {
+        while (true) {
+            long bits = rng.nextLong();
+            long hz = (int)bits;
+            int iz = (int)((bits >>> 32) & 127);
+
+            if (Math.abs(hz)<kn[iz])
+                return hz*wn[iz];
+
+            if (iz==0) {
+                // Sample from the tail:
+                double x, y;
+                do {
+                    x = -Math.log(1.0 - rng.nextDouble())/NORMAL_R;
+                    y = -Math.log(1.0 - rng.nextDouble());
+                } while (y+y<x*x);
+                return hz>0 ? NORMAL_R+x : -NORMAL_R-x;
+            }
+
+            double x = hz*wn[iz];
+            if (fn[iz] + rng.nextDouble()*(fn[iz-1]-fn[iz]) < Math.exp(-0.5*x*x))
+                return x;
+        }
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package master.sampling;
+
+import beast.core.Input;
+import java.util.ArrayList;
+import java.util.List;
+import master.Trajectory;
+import master.model.Population;
+import master.model.PopulationState;
+
+/**
+ * Sampling policy which simplifies the recorded trajectory online, in the
+ * spirit of the Douglas-Peucker line simplification algorithm: states are
+ * discarded provided linear interpolation between the recorded states
+ * reproduces the size of each chosen population at every discarded step
+ * to within a given tolerance.
+ *
+ * Each new segment starts at the last recorded state.  For every step
+ * following it, the tolerance defines a range of gradients the segment
+ * may take while passing within the tolerance of that step.  A step is
+ * provisionally accepted as the end of the segment if the gradient
+ * leading to it lies within the intersection of the ranges for all
+ * earlier steps.  Once a step falls outside this intersection, the
+ * previously accepted step is recorded and begins the next segment.  Each
+ * step is therefore processed in constant time and only the most recent
+ * state is held in memory.
+ *
+ * @author agent <agent@local>
+ */
+public class AdaptiveSimplification extends SamplingPolicy {
+
+    public Input<List<Population>> populationInput = new Input<>(
+            "population",
+            "Population whose size must be reproduced. (Default all populations.)",
+            new ArrayList<>());
+
+    public Input<Double> toleranceInput = new Input<>(
+            "tolerance",
+            "Maximum absolute error in interpolated population sizes.",
+            Input.Validate.REQUIRED);
+
+    private double tolerance;
+    private List<Population> pops;
+
+    // Start of current segment:
+    private double anchorTime;
+    private double[] anchorSizes;
+
+    // Admissible range of segment gradients for each population:
+    private double[] minGradients, maxGradients;
+
+    // Most recent state accepted as end of segment:
+    private PopulationState pendingState;
+    private double pendingTime;
+    private boolean hasPending;
+
+    public AdaptiveSimplification() { }
+
+    @Override
+    public void initAndValidate() {
+        tolerance = toleranceInput.get();
+        if (tolerance<0.0)
+            throw new IllegalArgumentException("AdaptiveSimplification"
+                    + " tolerance must be non-negative.");
+    }
+
+    @Override
+    public void initialise(Trajectory traj, PopulationState state, double t) {
+        pops = getTrackedPopulations(populationInput.get(),
+                traj.getSpec().getModel());
+
+        if (anchorSizes == null || anchorSizes.length != pops.size()) {
+            anchorSizes = new double[pops.size()];
+            minGradients = new double[pops.size()];
+            maxGradients = new double[pops.size()];
+        }
+
+        pendingState = new PopulationState();
+        setAnchor(state, t);
+    }
+
+    @Override
+    public void offer(Trajectory traj, PopulationState state, double t) {
+        if (hasPending) {
+            if (isWithinTolerance(state, t)) {
+                narrowGradients(state, t);
+                setPending(state, t);
+                return;
+            }
+
+            // Segment can't be extended: record its end and start anew.
+            traj.sampleState(pendingState, pendingTime);
+            setAnchor(pendingState, pendingTime);
+        }
+
+        if (t>anchorTime) {
+            for (int i=0; i<pops.size(); i++) {
+                minGradients[i] = Double.NEGATIVE_INFINITY;
+                maxGradients[i] = Double.POSITIVE_INFINITY;
+            }
+            narrowGradients(state, t);
+            setPending(state, t);
+        } else {
+            // Simultaneous steps can't be interpolated between.
+            traj.sampleState(state, t);
+            setAnchor(state, t);
+        }
+    }
+
+    @Override
+    public void finish(Trajectory traj, PopulationState state, double t) {
+        if (hasPending) {
+            traj.sampleState(pendingState, pendingTime);
+            setAnchor(pendingState, pendingTime);
+        }
+
+        super.finish(traj, state, t);
+    }
+
+    /**
+     * Determine whether the segment joining the anchor to the given state
+     * passes within the tolerance of every intermediate step.
+     *
+     * @param state candidate end state of segment
+     * @param t time of candidate end state
+     * @return true if segment is admissible
+     */
+    private boolean isWithinTolerance(PopulationState state, double t) {
+        double dt = t - anchorTime;
+        for (int i=0; i<pops.size(); i++) {
+            double gradient = (state.get(pops.get(i)) - anchorSizes[i])/dt;
+            if (gradient<minGradients[i] || gradient>maxGradients[i])
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Restrict admissible gradients to those passing within the tolerance
+     * of the given state.
+     *
+     * @param state state to approximate
+     * @param t time of state
+     */
+    private void narrowGradients(PopulationState state, double t) {
+        double dt = t - anchorTime;
+        for (int i=0; i<pops.size(); i++) {
+            double delta = state.get(pops.get(i)) - anchorSizes[i];
+            minGradients[i] = Math.max(minGradients[i], (delta-tolerance)/dt);
+            maxGradients[i] = Math.min(maxGradients[i], (delta+tolerance)/dt);
+        }
+    }
+
+    /**
+     * Begin new segment at given (recorded) state.
+     *
+     * @param state state at start of segment
+     * @param t time at start of segment
+     */
+    private void setAnchor(PopulationState state, double t) {
+        anchorTime = t;
+        for (int i=0; i<pops.size(); i++)
+            anchorSizes[i] = state.get(pops.get(i));
+        hasPending = false;
+    }
+
+    /**
+     * Hold on to state as the provisional end of current segment.  The
+     * same PopulationState object is reused to avoid allocating a copy
+     * at every step.
+     *
+     * @param state state to hold
+     * @param t time of state
+     */
+    private void setPending(PopulationState state, double t) {
+        for (Population pop : state.getPopSet())
+            pendingState.set(pop, state.get(pop));
+        pendingTime = t;
+        hasPending = true;
+    }
+
+    @Override
+    public String getPolicyDescription() {
+        StringBuilder sb = new StringBuilder("Record states needed to "
+                + "interpolate ");
+        if (populationInput.get().isEmpty())
+            sb.append("all populations");
+        else {
+            for (int i=0; i<populationInput.get().size(); i++) {
+                if (i>0)
+                    sb.append(", ");
+                sb.append(populationInput.get().get(i));
+            }
+        }
+        sb.append(" to within ").append(tolerance);
+        return sb.toString();
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package master.sampling;
+
+import beast.core.Input;
+import master.Trajectory;
+import master.model.PopulationState;
+
+/**
+ * Sampling policy which records the state following every k-th
+ * simulation step.
+ *
+ * @author agent <agent@local>
+ */
+public class EventThinning extends SamplingPolicy {
+
+    public Input<Integer> intervalInput = new Input<>(
+            "interval",
+            "Number of simulation steps between recorded states.",
+            Input.Validate.REQUIRED);
+
+    private int interval, count;
+
+    public EventThinning() { }
+
+    @Override
+    public void initAndValidate() {
+        interval = intervalInput.get();
+        if (interval<1)
+            throw new IllegalArgumentException("EventThinning interval must"
+                    + " be at least 1.");
+    }
+
+    @Override
+    public void initialise(Trajectory traj, PopulationState state, double t) {
+        count = 0;
+    }
+
+    @Override
+    public void offer(Trajectory traj, PopulationState state, double t) {
+        count += 1;
+        if (count == interval) {
+            traj.sampleState(state, t);
+            count = 0;
+        }
+    }
+
+    @Override
+    public String getPolicyDescription() {
+        return "Record state following every " + interval + " steps";
+    }
+}
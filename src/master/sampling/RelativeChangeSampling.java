@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package master.sampling;
+
+import beast.core.Input;
+import java.util.ArrayList;
+import java.util.List;
+import master.Trajectory;
+import master.model.Population;
+import master.model.PopulationState;
+
+/**
+ * Sampling policy which records the state only when the size of one of
+ * the chosen populations has moved away from its last recorded value by
+ * more than a given fraction of that value.  Sizes below 1 are treated
+ * as 1 when computing the change, so that populations growing from zero
+ * are not recorded at every step.
+ *
+ * @author agent <agent@local>
+ */
+public class RelativeChangeSampling extends SamplingPolicy {
+
+    public Input<List<Population>> populationInput = new Input<>(
+            "population",
+            "Population whose size is monitored. (Default all populations.)",
+            new ArrayList<>());
+
+    public Input<Double> thresholdInput = new Input<>(
+            "threshold",
+            "Relative change in population size which triggers recording.",
+            Input.Validate.REQUIRED);
+
+    private double threshold;
+    private List<Population> pops;
+    private double[] lastSizes;
+
+    public RelativeChangeSampling() { }
+
+    @Override
+    public void initAndValidate() {
+        threshold = thresholdInput.get();
+        if (threshold<0.0)
+            throw new IllegalArgumentException("RelativeChangeSampling"
+                    + " threshold must be non-negative.");
+    }
+
+    @Override
+    public void initialise(Trajectory traj, PopulationState state, double t) {
+        pops = getTrackedPopulations(populationInput.get(),
+                traj.getSpec().getModel());
+
+        if (lastSizes == null || lastSizes.length != pops.size())
+            lastSizes = new double[pops.size()];
+
+        for (int i=0; i<pops.size(); i++)
+            lastSizes[i] = state.get(pops.get(i));
+    }
+
+    @Override
+    public void offer(Trajectory traj, PopulationState state, double t) {
+        boolean changed = false;
+        for (int i=0; i<pops.size(); i++) {
+            double size = state.get(pops.get(i));
+            if (Math.abs(size-lastSizes[i])
+                    > threshold*Math.max(Math.abs(lastSizes[i]), 1.0)) {
+                changed = true;
+                break;
+            }
+        }
+
+        if (changed) {
+            traj.sampleState(state, t);
+            for (int i=0; i<pops.size(); i++)
+                lastSizes[i] = state.get(pops.get(i));
+        }
+    }
+
+    @Override
+    public String getPolicyDescription() {
+        StringBuilder sb = new StringBuilder("Record state when ");
+        if (populationInput.get().isEmpty())
+            sb.append("any population");
+        else {
+            for (int i=0; i<populationInput.get().size(); i++) {
+                if (i>0)
+                    sb.append(" or ");
+                sb.append(populationInput.get().get(i));
+            }
+        }
+        sb.append(" changes by more than a fraction ").append(threshold);
+        return sb.toString();
+    }
+}
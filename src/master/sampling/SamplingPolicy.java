@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package master.sampling;
+
+import beast.core.BEASTObject;
+import com.fasterxml.jackson.annotation.JsonValue;
+import com.google.common.collect.Lists;
+import java.util.List;
+import master.Trajectory;
+import master.model.Model;
+import master.model.Population;
+import master.model.PopulationState;
+import master.model.PopulationType;
+
+/**
+ * Abstract base class for policies which decide which of the states
+ * visited by an unevenly sampled trajectory are recorded.  The initial
+ * and final states of a trajectory are always recorded.
+ *
+ * A single policy object is shared by every trajectory simulated under a
+ * given specification, so implementations must reset any state they
+ * hold in initialise().
+ *
+ * @author agent <agent@local>
+ */
+public abstract class SamplingPolicy extends BEASTObject {
+
+    public SamplingPolicy() { }
+
+    @Override
+    public void initAndValidate() { }
+
+    /**
+     * Prepare policy for a new (or restarted) trajectory whose initial
+     * state has just been recorded.
+     *
+     * @param traj trajectory being simulated
+     * @param state initial state
+     * @param t initial time
+     */
+    public abstract void initialise(Trajectory traj, PopulationState state,
+            double t);
+
+    /**
+     * Consider the state following a simulation step for recording.
+     * States chosen for recording are passed to traj.sampleState().
+     *
+     * @param traj trajectory being simulated
+     * @param state current state
+     * @param t current time
+     */
+    public abstract void offer(Trajectory traj, PopulationState state,
+            double t);
+
+    /**
+     * Record any states held back by the policy, followed by the final
+     * state of the trajectory if this has not already been recorded.
+     *
+     * @param traj trajectory being simulated
+     * @param state final state
+     * @param t final time
+     */
+    public void finish(Trajectory traj, PopulationState state, double t) {
+        List<Double> times = traj.getSampledTimes();
+        if (times.isEmpty() || times.get(times.size()-1) != t)
+            traj.sampleState(state, t);
+    }
+
+    /**
+     * Assemble list of populations whose sizes a policy should track.
+     *
+     * @param pops populations specified by user (may be empty)
+     * @param model model being simulated
+     * @return pops, or every population in model if pops is empty
+     */
+    protected static List<Population> getTrackedPopulations(
+            List<Population> pops, Model model) {
+        if (!pops.isEmpty())
+            return pops;
+
+        List<Population> allPops = Lists.newArrayList();
+        for (PopulationType type : model.getPopulationTypes()) {
+            for (Population pop : type)
+                allPops.add(pop);
+        }
+        return allPops;
+    }
+
+    /**
+     * Retrieve descriptive name of this policy as a string.
+     *
+     * @return policy description
+     */
+    public abstract String getPolicyDescription();
+
+    @Override
+    @JsonValue
+    public String toString() {
+        return getPolicyDescription();
+    }
+}
@@ -16,10 +16,10 @@
  */
 package master.steppers;
 
-import beast.util.Randomizer;
 import master.model.Model;
 import master.model.PopulationState;
 import master.model.Reaction;
+import master.rng.RandomGenerator;
 
 /**
  * Implementation of Gillespie's foundational SSA.
@@ -29,13 +29,18 @@ import master.model.Reaction;
 public class GillespieStepper extends Stepper {
     
     private double eventCount = 0;
+
+    // Index of reaction implemented by most recent step:
+    private int lastReactionIdx = -1;
     
     @Override
     public double step(PopulationState state, Model model, boolean calcLogP,
-            double t, double maxDt) {
+            double t, double maxDt, RandomGenerator rng) {
         
         if (calcLogP)
             stepLogP = 0.0;
+
+        lastReactionIdx = -1;
         
         // Increment time until next event or maxDt exceeded
         double tprime = t;
@@ -53,7 +58,7 @@ public class GillespieStepper extends Stepper {
             // Draw time of next reaction
             double dt;
             if (totalPropensity>0.0)
-                dt = Randomizer.nextExponential(totalPropensity);
+                dt = rng.nextExponential(totalPropensity);
             else
                 dt = Double.POSITIVE_INFINITY;
             
@@ -85,15 +90,17 @@ public class GillespieStepper extends Stepper {
         }
             
         // Choose reaction to implement
-        double u = Randomizer.nextDouble()*totalPropensity;
+        double u = rng.nextDouble()*totalPropensity;
 
         Reaction chosenReaction = null;
+        int chosenIdx = 0;
         for (Reaction reaction : model.getReactions()) {                
             u -= reaction.getPropensity();
             if (u<0) { 
                 chosenReaction = reaction;
                 break;
             }
+            chosenIdx += 1;
         }
         
         // Include event probability in step density
@@ -102,6 +109,7 @@ public class GillespieStepper extends Stepper {
             
         // Implement chosen reaction:
         state.implementReaction(chosenReaction, 1);
+        lastReactionIdx = chosenIdx;
         
         // Increment event counter:
         eventCount += 1;
@@ -109,6 +117,11 @@ public class GillespieStepper extends Stepper {
         return tprime-t;
     }
 
+    @Override
+    public Stepper getCopy() {
+        return new GillespieStepper();
+    }
+
     @Override
     public String getAlgorithmName() {
         return "Gillespie's stochastic simulation algorithm";
@@ -122,5 +135,15 @@ public class GillespieStepper extends Stepper {
     public double getEventCount() {
         return eventCount;
     }
+
+    /**
+     * Retrieve the reaction implemented by the most recent step.
+     *
+     * @return index of reaction in model, or -1 if the step ended
+     * without a reaction occurring.
+     */
+    public int getLastReactionIndex() {
+        return lastReactionIdx;
+    }
     
 }
@@ -18,6 +18,7 @@ package master.steppers;
 
 import master.model.Model;
 import master.model.PopulationState;
+import master.rng.RandomGenerator;
 import master.steppers.Stepper;
 
 /**
@@ -32,7 +33,7 @@ public class InheritanceTrajectoryStepper extends Stepper {
 
     @Override
     public double step(PopulationState state, Model model, boolean calcLogP,
-            double t, double maxStepSize) {
+            double t, double maxStepSize, RandomGenerator rng) {
         throw new UnsupportedOperationException("Not supported yet.");
     }
 
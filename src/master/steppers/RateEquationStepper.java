@@ -20,6 +20,7 @@ import beast.core.Input;
 import master.model.Model;
 import master.model.PopulationState;
 import master.model.Reaction;
+import master.rng.RandomGenerator;
 
 /**
  * Deterministic rate equation stepper.  Currently uses a semi-implicit method.
@@ -62,7 +63,7 @@ public class RateEquationStepper extends Stepper {
     
     @Override
     public double step(PopulationState state, Model model, boolean calcLogP,
-            double t, double maxStepSize) {
+            double t, double maxStepSize, RandomGenerator rng) {
         
         double tend = t + Math.min(dt, maxStepSize);
         double tprime = t;
@@ -97,6 +98,11 @@ public class RateEquationStepper extends Stepper {
         return tend-t;
     }
 
+    @Override
+    public Stepper getCopy() {
+        return new RateEquationStepper(dt, maxIter);
+    }
+
     @Override
     public String getAlgorithmName() {
         return "Deterministic integrator.";
@@ -17,13 +17,13 @@
 package master.steppers;
 
 import beast.core.Input;
-import beast.util.Randomizer;
 import com.google.common.collect.Maps;
 import java.util.HashMap;
 import master.model.Model;
 import master.model.Population;
 import master.model.PopulationState;
 import master.model.Reaction;
+import master.rng.RandomGenerator;
 import org.apache.commons.math.special.Gamma;
 
 /**
@@ -75,16 +75,18 @@ public class SALStepper extends Stepper {
      * @param model
      * @param calcLogP
      * @param thisdt
+     * @param rng
      */
     public void leap(Reaction reaction, PopulationState state,
-            Model model, boolean calcLogP, double thisdt) {
+            Model model, boolean calcLogP, double thisdt,
+            RandomGenerator rng) {
         
         // Calculate corrected rate
         double rho = reaction.getPropensity()*thisdt
                 + 0.5*corrections.get(reaction)*thisdt*thisdt;
 
         // Draw number of reactions to fire within time tau:
-        double q = Randomizer.nextPoisson(rho);
+        double q = rng.nextPoisson(rho);
         
         if (calcLogP) {
             if (rho>0)
@@ -101,7 +103,7 @@ public class SALStepper extends Stepper {
     
     @Override
     public double step(PopulationState state, Model model, boolean calcLogP,
-            double t, double maxStepSize) {
+            double t, double maxStepSize, RandomGenerator rng) {
         
         if (calcLogP)
             stepLogP = 0.0;
@@ -122,7 +124,7 @@ public class SALStepper extends Stepper {
         
             // Update state according to these rates:
             for (Reaction reaction : model.getReactions())
-                leap(reaction, state, model, calcLogP, smallerdt);
+                leap(reaction, state, model, calcLogP, smallerdt, rng);
             
             tprime += smallerdt;
             
@@ -227,6 +229,11 @@ public class SALStepper extends Stepper {
     }
     
     
+    @Override
+    public Stepper getCopy() {
+        return new SALStepper(dt);
+    }
+
     @Override
     public String getAlgorithmName() {
         return "Fixed time-step SAL algorithm";
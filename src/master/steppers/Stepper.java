@@ -19,6 +19,8 @@ package master.steppers;
 import beast.core.BEASTObject;
 import master.model.Model;
 import master.model.PopulationState;
+import master.rng.RandomGenerator;
+import master.rng.RandomizerGenerator;
 import com.fasterxml.jackson.annotation.JsonValue;
 
 /**
@@ -30,6 +32,9 @@ import com.fasterxml.jackson.annotation.JsonValue;
 public abstract class Stepper extends BEASTObject {
     
     protected double stepLogP;
+
+    private static final RandomGenerator defaultRandomGenerator
+            = new RandomizerGenerator();
     
     public Stepper() { }
     
@@ -45,12 +50,41 @@ public abstract class Stepper extends BEASTObject {
      * @param calcLogP whether to calculate logP of step
      * @param t
      * @param maxStepSize 
+     * @param rng source of random variates
      * @return Length of time increment.
      */
     public abstract double step (PopulationState state, Model model,
             boolean calcLogP,
-            double t, double maxStepSize);
+            double t, double maxStepSize, RandomGenerator rng);
+
+    /**
+     * Increment state using variates drawn from the BEAST Randomizer.
+     * 
+     * @param state
+     * @param model
+     * @param calcLogP whether to calculate logP of step
+     * @param t
+     * @param maxStepSize 
+     * @return Length of time increment.
+     */
+    public double step (PopulationState state, Model model,
+            boolean calcLogP,
+            double t, double maxStepSize) {
+        return step(state, model, calcLogP, t, maxStepSize,
+                defaultRandomGenerator);
+    }
     
+    /**
+     * Obtain a copy of this stepper with the same configuration but its
+     * own working state, for use by a separate thread.
+     *
+     * @return copy of stepper
+     */
+    public Stepper getCopy() {
+        throw new UnsupportedOperationException("Stepper "
+                + getAlgorithmName() + " cannot be used by multiple threads.");
+    }
+
     /**
      * Retrieve the trajectory log probability contribution of the
      * previous step.
@@ -17,10 +17,10 @@
 package master.steppers;
 
 import beast.core.Input;
-import beast.util.Randomizer;
 import master.model.Model;
 import master.model.PopulationState;
 import master.model.Reaction;
+import master.rng.RandomGenerator;
 import org.apache.commons.math.special.Gamma;
 
 /**
@@ -66,12 +66,14 @@ public class TauLeapingStepper extends Stepper {
      * @param model
      * @param calcLogP
      * @param thisdt
+     * @param rng
      */
-    public void leap(Reaction reaction, PopulationState state, Model model, boolean calcLogP, double thisdt) {
+    public void leap(Reaction reaction, PopulationState state, Model model, boolean calcLogP, double thisdt,
+            RandomGenerator rng) {
         
         // Draw number of reactions to fire within time tau:
         double rho = reaction.getPropensity()*thisdt;
-        double q = Randomizer.nextPoisson(rho);
+        double q = rng.nextPoisson(rho);
 
         if (calcLogP) {
             if (rho>0)
@@ -88,7 +90,7 @@ public class TauLeapingStepper extends Stepper {
     
     @Override
     public double step(PopulationState state, Model model, boolean calcLogP,
-            double t, double maxStepSize) {
+            double t, double maxStepSize, RandomGenerator rng) {
         
         if (calcLogP)
             stepLogP = 0.0;
@@ -107,7 +109,7 @@ public class TauLeapingStepper extends Stepper {
             
             // Update state according to these rates:
             for (Reaction reaction : model.getReactions())
-                leap(reaction, state, model, calcLogP, smallerdt);
+                leap(reaction, state, model, calcLogP, smallerdt, rng);
           
             tprime += smallerdt;
             
@@ -116,6 +118,11 @@ public class TauLeapingStepper extends Stepper {
         return tend-t;
     }
 
+    @Override
+    public Stepper getCopy() {
+        return new TauLeapingStepper(dt);
+    }
+
     @Override
     public String getAlgorithmName() {
         return "Fixed time-step tau-leaping algorithm";
@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package master.utilities;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Sum of doubles accumulated without rounding error, using the
+ * non-overlapping partial sums of Shewchuk (1997) as in Python's fsum.
+ * The value returned is the exactly summed total rounded once to the
+ * nearest double, so it does not depend on the order in which terms
+ * were added or on how partial sums were combined.  This allows the
+ * partial results of separate processes to be merged to give exactly
+ * the result of a single process.
+ *
+ * Non-finite terms are accumulated separately using ordinary addition.
+ *
+ * @author agent <agent@local>
+ */
+public class ExactSum {
+
+    // Non-overlapping partial sums in order of increasing magnitude:
+    private double[] partials;
+    private int nPartials;
+
+    private double nonFinite;
+
+    /**
+     * Create sum with value zero.
+     */
+    public ExactSum() {
+        partials = new double[4];
+    }
+
+    /**
+     * Add term to sum.
+     *
+     * @param x term to add
+     */
+    public void add(double x) {
+        if (Double.isInfinite(x) || Double.isNaN(x)) {
+            nonFinite += x;
+            return;
+        }
+
+        int i = 0;
+        for (int j=0; j<nPartials; j++) {
+            double y = partials[j];
+            if (Math.abs(x)<Math.abs(y)) {
+                double tmp = x;
+                x = y;
+                y = tmp;
+            }
+            double hi = x + y;
+            double lo = y - (hi - x);
+            if (lo != 0.0)
+                partials[i++] = lo;
+            x = hi;
+        }
+
+        if (i == partials.length)
+            partials = Arrays.copyOf(partials, 2*i);
+        partials[i] = x;
+        nPartials = i + 1;
+    }
+
+    /**
+     * Add another sum, scaled by a constant, to this one.  The addition
+     * is exact when the factor is 1, but otherwise rounds each partial
+     * sum of other.
+     *
+     * @param other sum to add
+     * @param factor factor by which to scale other
+     */
+    public void add(ExactSum other, double factor) {
+        for (int j=0; j<other.nPartials; j++)
+            add(factor*other.partials[j]);
+        nonFinite += factor*other.nonFinite;
+    }
+
+    /**
+     * Multiply sum by a constant.  Unlike addition, this rounds each
+     * partial sum.
+     *
+     * @param factor scale factor
+     */
+    public void scale(double factor) {
+        double[] scaled = Arrays.copyOf(partials, nPartials);
+        nPartials = 0;
+        for (double partial : scaled)
+            add(factor*partial);
+        nonFinite *= factor;
+    }
+
+    /**
+     * @return sum, correctly rounded to the nearest double
+     */
+    public double doubleValue() {
+        if (nonFinite != 0.0 || Double.isNaN(nonFinite))
+            return nonFinite;
+
+        if (nPartials == 0)
+            return 0.0;
+
+        // Sum partials from the top down until the result is inexact:
+        int j = nPartials-1;
+        double hi = partials[j];
+        double lo = 0.0;
+        while (j>0) {
+            double x = hi;
+            double y = partials[--j];
+            hi = x + y;
+            lo = y - (hi - x);
+            if (lo != 0.0)
+                break;
+        }
+
+        // Correct ties broken the wrong way by the remaining partials:
+        if (j>0 && ((lo<0.0 && partials[j-1]<0.0)
+                || (lo>0.0 && partials[j-1]>0.0))) {
+            double y = 2.0*lo;
+            double x = hi + y;
+            if (y == x - hi)
+                hi = x;
+        }
+
+        return hi;
+    }
+
+    /**
+     * Write sum to a checkpoint.
+     *
+     * @param out checkpoint being written
+     * @throws IOException
+     */
+    public void writeState(DataOutput out) throws IOException {
+        out.writeInt(nPartials);
+        for (int j=0; j<nPartials; j++)
+            out.writeDouble(partials[j]);
+        out.writeDouble(nonFinite);
+    }
+
+    /**
+     * Restore sum from a checkpoint written by writeState().
+     *
+     * @param in checkpoint being read
+     * @throws IOException
+     */
+    public void readState(DataInput in) throws IOException {
+        nPartials = in.readInt();
+        if (partials.length<nPartials)
+            partials = new double[nPartials];
+        for (int j=0; j<nPartials; j++)
+            partials[j] = in.readDouble();
+        nonFinite = in.readDouble();
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package master.utilities;
+
+import java.util.Arrays;
+
+/**
+ * Piecewise-constant population size trajectory together with the
+ * coalescent intensities obtained by integrating its inverse, used by
+ * population functions built from MASTER trajectories.  All lookups
+ * take times in the forward (simulation) time scale.  Tables are held
+ * in primitive arrays and are immutable once built.
+ *
+ * When the sample times are evenly spaced the interval containing a
+ * given time is found directly from its offset into the grid, otherwise
+ * a binary search is used.  A reversed copy of the (decreasing)
+ * intensities is precomputed for the inverse intensity lookup.
+ *
+ * @author agent <agent@local>
+ */
+public class IntensityTable {
+
+    private final double[] times, popSizes, intensities, intensitiesRev;
+    private final int peakIdx;
+
+    private final boolean evenGrid;
+    private final double gridStart, gridDt;
+
+    /**
+     * Build table from sampled population sizes.
+     *
+     * @param times sample times (increasing)
+     * @param popSizes population sizes at sample times
+     */
+    public IntensityTable(double[] times, double[] popSizes) {
+
+        if (times.length != popSizes.length || times.length == 0)
+            throw new IllegalArgumentException("Population size trajectory"
+                    + " must contain one or more samples.");
+
+        this.times = times;
+        this.popSizes = popSizes;
+        int n = times.length;
+
+        // Find peak population size
+        int peak = -1;
+        double peakVal = 0.0;
+        for (int i=0; i<n; i++) {
+            if (popSizes[i]>peakVal) {
+                peak = i;
+                peakVal = popSizes[i];
+            }
+        }
+        peakIdx = peak;
+
+        // Numerically integrate intensities from peak population size
+        intensities = new double[n];
+        intensities[peakIdx] = 0.0;
+        for (int i=peakIdx; i>0; i--) {
+            intensities[i-1] = intensities[i]
+                    + (times[i]-times[i-1])/popSizes[i-1];
+        }
+        for (int i=peakIdx; i<n-1; i++) {
+            intensities[i+1] = intensities[i]
+                    + (times[i]-times[i+1])/popSizes[i];
+        }
+
+        // Reversed intensities are increasing, as needed for binary search
+        intensitiesRev = new double[n];
+        for (int i=0; i<n; i++)
+            intensitiesRev[i] = intensities[n-1-i];
+
+        // Detect evenly spaced sample times
+        gridStart = times[0];
+        gridDt = n>1 ? (times[n-1]-times[0])/(n-1) : 0.0;
+        boolean even = gridDt>0.0;
+        for (int i=1; i<n && even; i++) {
+            if (Math.abs(times[i] - (gridStart + i*gridDt)) > 1e-6*gridDt)
+                even = false;
+        }
+        evenGrid = even;
+    }
+
+    /**
+     * @return number of samples in table
+     */
+    public int size() {
+        return times.length;
+    }
+
+    /**
+     * @return true if sample times are evenly spaced
+     */
+    public boolean isEvenlySpaced() {
+        return evenGrid;
+    }
+
+    /**
+     * Find the last sample at or before a given time.  On an even grid
+     * the result of the direct calculation is corrected against the
+     * stored times, so it always agrees with a binary search.
+     *
+     * @param t forward time
+     * @return index of last sample time &lt;= t, or -1 if there is none
+     */
+    private int floorIndex(double t) {
+        int n = times.length;
+
+        if (!evenGrid) {
+            int idx = Arrays.binarySearch(times, t);
+            return idx<0 ? -(idx + 1) - 1 : idx;
+        }
+
+        double offset = Math.floor((t - gridStart)/gridDt);
+        int idx = offset < -1 ? -1 : (offset > n-1 ? n-1 : (int)offset);
+        while (idx+1<n && times[idx+1]<=t)
+            idx += 1;
+        while (idx>=0 && times[idx]>t)
+            idx -= 1;
+
+        return idx;
+    }
+
+    /**
+     * @param t forward time
+     * @param popSizeStart population size before first sample
+     * @param popSizeEnd population size after final sample
+     * @return population size at t
+     */
+    public double getPopSize(double t, double popSizeStart, double popSizeEnd) {
+        if (t>times[times.length-1])
+            return popSizeEnd;
+
+        if (t<0)
+            return popSizeStart;
+
+        return popSizes[floorIndex(t)];
+    }
+
+    /**
+     * @param t forward time
+     * @param popSizeStart population size before first sample
+     * @param popSizeEnd population size after final sample
+     * @return intensity at t
+     */
+    public double getIntensity(double t, double popSizeStart, double popSizeEnd) {
+        int n = times.length;
+
+        if (t>times[n-1]) {
+            if (popSizeEnd>0.0)
+                return intensities[n-1] + (times[n-1]-t)/popSizeEnd;
+            else
+                return Double.NEGATIVE_INFINITY;
+        }
+
+        if (t<0.0) {
+            if (popSizeStart>0.0)
+                return intensities[0] + (-t)/popSizeStart;
+            else
+                return Double.POSITIVE_INFINITY;
+        }
+
+        int idx = floorIndex(t);
+        if (idx>=0 && times[idx] == t)
+            return intensities[idx]; // Exact match can happen at boundaries.
+
+        // Index of first sample time greater than t
+        int tidx = idx + 1;
+
+        // Integrate from different sides depending on location wrt peakIdx
+        if (tidx<=peakIdx)
+            return (times[tidx]-t)/(popSizes[tidx-1]) + intensities[tidx];
+        else
+            return intensities[tidx-1] - (t-times[tidx-1])/popSizes[tidx-1];
+    }
+
+    /**
+     * Compute the time before the origin at which the intensity takes a
+     * given value.  Values outside of the range of intensities spanned by
+     * the samples are extrapolated using the start and end population
+     * sizes.
+     *
+     * @param intensity intensity to invert
+     * @param origin forward time corresponding to the most recent sample
+     * @param popSizeStart population size before first sample
+     * @param popSizeEnd population size after final sample
+     * @return time before origin
+     */
+    public double getInverseIntensity(double intensity, double origin,
+            double popSizeStart, double popSizeEnd) {
+        int n = times.length;
+
+        if (intensity<intensities[n-1])
+            return (origin - times[n-1]) + popSizeEnd*(intensity-intensities[n-1]);
+
+        if (intensity>intensities[0])
+            return (origin - times[0]) + popSizeStart*(intensity-intensities[0]);
+
+        int idx = Arrays.binarySearch(intensitiesRev, intensity);
+        if (idx<0) {
+            idx = -(idx+1);
+            int tidx = n - 1 - idx;  // index into forward-time array
+            return (origin - times[tidx]) + (intensity-intensities[tidx])*popSizes[tidx];
+        } else
+            return origin - times[n-1-idx];
+    }
+}
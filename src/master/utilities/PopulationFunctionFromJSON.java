@@ -31,7 +31,6 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
@@ -77,11 +76,7 @@ public class PopulationFunctionFromJSON extends PopulationFunction.Abstract {
             "The index of the trajectory to use if the JSON file contains an"
             + " ensemble of trajectories, but ignored otherwise.  Default 0.", 0);
 
-    Double [] times, popSizes, intensities, intensitiesRev;
-    
-    double tIntensityTrajStart, dt;
-    
-    int peakIdx;
+    IntensityTable table;
     
     @Override
     public void initAndValidate() throws Exception {
@@ -98,7 +93,7 @@ public class PopulationFunctionFromJSON extends PopulationFunction.Abstract {
             trajRootNode = rootNode;
         
         // Read in times
-        times = new Double[trajRootNode.get("t").size()];
+        double[] times = new double[trajRootNode.get("t").size()];
         for (int i=0; i<times.length; i++)
             times[i] = trajRootNode.get("t").get(i).asDouble();
         
@@ -111,47 +106,13 @@ public class PopulationFunctionFromJSON extends PopulationFunction.Abstract {
         
         // Calculate population sizes
         PFEJSONVisitor visitor = new PFEJSONVisitor(trajRootNode);
-        popSizes = visitor.visit(tree);
+        Double[] popSizes = visitor.visit(tree);
         
-        // Numerically integrate to get intensities:
-//        intensities = new Double[times.length];
-//        intensities[times.length-1] = 0.0;
-//        for (int i=times.length-1; i>0; i--) {
-//            intensities[i-1] = intensities[i]
-//                    + (times[i]-times[i-1])/popSizes[i-1];
-//        }
-        
-        // Find peak population size
-        peakIdx=-1;
-        double peakVal = 0.0;
-        for (int i=0; i<times.length; i++) {
-            if (popSizes[i]>peakVal) {
-                peakIdx = i;
-                peakVal = popSizes[i];
-            }
-        }
-
-        // Numerically integrate intensities from peak population size
-        intensities = new Double[times.length];
-        intensities[peakIdx] = 0.0;
-        for (int i=peakIdx; i>0; i--) {
-            intensities[i-1] = intensities[i]
-                    + (times[i]-times[i-1])/popSizes[i-1];
-        }
-        for (int i=peakIdx; i<times.length-1; i++) {
-            intensities[i+1] = intensities[i]
-                    + (times[i]-times[i+1])/popSizes[i];
-        }
-        
-        // Copy to reversed intensities array needed for binary search
-        intensitiesRev = new Double[times.length];
-        for (int i=0; i<times.length/2; i++) {
-            int j = times.length-1-i;
-            intensitiesRev[i] = intensities[j];
-            intensitiesRev[j] = intensities[i];
-        }
-        if (times.length%2>0)
-            intensitiesRev[times.length/2] = intensities[times.length/2];
+        // Tabulate population sizes and intensities
+        double[] popSizeValues = new double[popSizes.length];
+        for (int i=0; i<popSizes.length; i++)
+            popSizeValues[i] = popSizes[i];
+        table = new IntensityTable(times, popSizeValues);
     }
 
     @Override
@@ -161,74 +122,21 @@ public class PopulationFunctionFromJSON extends PopulationFunction.Abstract {
 
     @Override
     public double getPopSize(double t) {
-        
-        double tforward = convertTime(t);
-        
-        if (tforward>times[times.length-1])
-            return popSizeEndInput.get();
-        
-        if (tforward<0)
-            return popSizeStartInput.get();
-        
-        // Choose which index into integration lattice to use:
-        int tidx = Arrays.binarySearch(times, tforward);
-        if (tidx<0)
-            tidx = -(tidx + 1) - 1;
-
-        return popSizes[tidx];
+        return table.getPopSize(convertTime(t),
+                popSizeStartInput.get(), popSizeEndInput.get());
     }
 
     @Override
     public double getIntensity(double t) {
-        
-        double tforward = convertTime(t);
-        
-        if (tforward>times[times.length-1]) {
-            if (popSizeEndInput.get()>0.0) {
-                return intensities[times.length-1] + (times[times.length-1]-tforward)/popSizeEndInput.get();
-            } else
-                return Double.NEGATIVE_INFINITY;
-        }
-        
-        if (tforward<0.0) {
-            if (popSizeStartInput.get()>0.0) {
-                return intensities[0]
-                        + (-tforward)/popSizeStartInput.get();
-            } else
-                return Double.POSITIVE_INFINITY;
-        }
-        
-        int tidx = Arrays.binarySearch(times, tforward);
-        if (tidx<0) {
-            tidx = -(tidx + 1);  // index of first element greater than key
-            
-            // Integrate from different sides depending on location wrt peakIdx
-            if (tidx<=peakIdx) {
-                return (times[tidx]-tforward)/(popSizes[tidx-1]) + intensities[tidx];
-            } else {
-                return intensities[tidx-1] - (tforward-times[tidx-1])/popSizes[tidx-1];
-            }
-        } else
-            return intensities[tidx]; // Exact match can happen at boundaries.
-        
+        return table.getIntensity(convertTime(t),
+                popSizeStartInput.get(), popSizeEndInput.get());
     }
 
     @Override
     public double getInverseIntensity(double intensity) {
-
-        if (intensity<intensities[times.length-1])
-            return convertTime(times[times.length-1]) + popSizeEndInput.get()*(intensity-intensities[times.length-1]);
-
-        if (intensity>intensities[0])
-            return convertTime(times[0]) + popSizeStartInput.get()*(intensity-intensities[0]);
-        
-        int idx = Arrays.binarySearch(intensitiesRev, intensity);
-        if (idx<0) {
-            idx = -(idx+1);
-            int tidx = times.length - 1 - idx;  // index into forward-time array
-            return convertTime(times[tidx]) + (intensity-intensities[tidx])*popSizes[tidx];
-        } else
-            return convertTime(times[times.length-1-idx]);
+        return table.getInverseIntensity(intensity,
+                originInput.get().getValue(),
+                popSizeStartInput.get(), popSizeEndInput.get());
     }
     
     /**
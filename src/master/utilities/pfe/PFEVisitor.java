@@ -103,8 +103,9 @@ public class PFEVisitor extends PFExpressionBaseVisitor<Double[]> {
             locStr = "";
         Population pop = getPop(popTypeStr, locStr);
         
+        double[] sizes = traj.getSampledSizes(pop);
         for (int i=0; i<n; i++)
-            vec[i] = traj.getSampledStates().get(i).get(pop);
+            vec[i] = sizes[i];
         
         return vec;
     }
@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package master;
+
+import beast.math.distributions.Uniform;
+import java.util.Random;
+import master.model.*;
+import master.rng.PhiloxGenerator;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Check approximate Bayesian computation against the known posterior of
+ * the rate of an immigration process, and check that abandoning
+ * simulations early never rejects proposals which would have been
+ * accepted.
+ *
+ * @author agent <agent@local>
+ */
+public class ApproximateBayesianComputationTest {
+
+    /**
+     * Assemble ABC of the rate of an immigration process 0 -&gt; X with a
+     * flat prior on [0, 20], observing the number of immigrants.
+     */
+    private ApproximateBayesianComputation getABC(String times,
+            String values, int nThreads) throws Exception {
+        Population X = new Population();
+        X.initByName("populationName", "X");
+
+        Reaction immigration = new Reaction();
+        immigration.initByName("reactionName", "Immigration", "rate", "1.0",
+                "value", "0 -> X");
+
+        Model model = new Model();
+        model.initByName("population", X, "reaction", immigration);
+
+        PopulationSize size = new PopulationSize();
+        size.initByName("population", X, "size", 0.0);
+        InitState initState = new InitState();
+        initState.initByName("populationSize", size);
+
+        Uniform prior = new Uniform();
+        prior.initByName("lower", 0.0, "upper", 20.0);
+        RatePrior ratePrior = new RatePrior();
+        ratePrior.initByName("reaction", immigration, "prior", prior);
+
+        Observations observations = new Observations();
+        observations.initByName("times", times, "values", values,
+                "statistic", "X");
+
+        PhiloxGenerator rng = new PhiloxGenerator();
+        rng.initByName();
+
+        ApproximateBayesianComputation abc = new ApproximateBayesianComputation();
+        abc.initByName("model", model, "initialState", initState,
+                "ratePrior", ratePrior, "observations", observations,
+                "populationSize", 500, "quantile", 0.25, "finalThreshold", 0.0,
+                "randomGenerator", rng, "nThreads", nThreads,
+                "seed", 42, "verbosity", 0);
+
+        return abc;
+    }
+
+    @Test
+    public void testPosterior() throws Exception {
+        // 52 immigrants arrived by time 10.  Exact matches are required
+        // in the final generation, so that under the flat prior the
+        // posterior of the rate is Gamma with shape 53 and rate 10:
+        ApproximateBayesianComputation abc = getABC("10", "52", 1);
+        abc.sample();
+
+        assertEquals(0.0, abc.getThresholds().get(abc.getThresholds().size()-1), 0.0);
+
+        double[][] parameters = abc.getParameters();
+        double[] weights = abc.getWeights();
+        double mean = 0.0, meanSq = 0.0, weightSqSum = 0.0;
+        for (int i=0; i<weights.length; i++) {
+            mean += weights[i]*parameters[i][0];
+            meanSq += weights[i]*parameters[i][0]*parameters[i][0];
+            weightSqSum += weights[i]*weights[i];
+            assertEquals(0.0, abc.getDistances()[i], 0.0);
+        }
+        double std = Math.sqrt(meanSq - mean*mean);
+        double ess = 1.0/weightSqSum;
+
+        double exactMean = 5.3, exactStd = Math.sqrt(53)/10;
+        assertTrue(ess>100);
+        assertEquals(exactMean, mean, 4.0*exactStd/Math.sqrt(ess));
+        assertEquals(exactStd, std, 0.15*exactStd);
+
+        // Accepted rates concentrate around the true rate of 5:
+        assertEquals(5.0, mean, 2.0*exactStd);
+
+        // Results do not depend on the number of threads:
+        ApproximateBayesianComputation parallelABC = getABC("10", "52", 3);
+        parallelABC.sample();
+        assertEquals(abc.getProposalCounts(), parallelABC.getProposalCounts());
+        assertEquals(abc.getAbortedCounts(), parallelABC.getAbortedCounts());
+        assertArrayEquals(weights, parallelABC.getWeights(), 0.0);
+        for (int i=0; i<weights.length; i++)
+            assertArrayEquals(parameters[i], parallelABC.getParameters()[i], 0.0);
+    }
+
+    @Test
+    public void testEarlyAbort() throws Exception {
+        ApproximateBayesianComputation abc = getABC(
+                "1 2 3 4 5 6 7 8 9 10", "5 11 16 20 26 31 37 41 47 52", 1);
+        abc.getSpec().getRandomGenerator().setSeed(42);
+
+        Random random = new Random(42);
+        int nAborted = 0, nAccepted = 0;
+        for (int n=0; n<1000; n++) {
+            abc.batchProposals[0][0] = 3.0 + 4.0*random.nextDouble();
+
+            abc.simulate(0, 0, Double.POSITIVE_INFINITY, n);
+            assertFalse(abc.batchAborted[0]);
+            double distance = abc.batchDistances[0];
+            double threshold = 2.0*distance*random.nextDouble();
+
+            // Repeat simulation using the same stream:
+            abc.simulate(0, 0, threshold, n);
+            if (distance<=threshold) {
+                assertFalse(abc.batchAborted[0]);
+                assertEquals(distance, abc.batchDistances[0], 0.0);
+                nAccepted += 1;
+            } else {
+                assertFalse(abc.batchDistances[0]<=threshold);
+                if (abc.batchAborted[0])
+                    nAborted += 1;
+            }
+        }
+
+        // Both outcomes are exercised:
+        assertTrue(nAccepted>100);
+        assertTrue(nAborted>100);
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package master;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import master.conditions.LineageEndCondition;
+import master.model.*;
+import master.outputs.NewickOutput;
+import master.rng.PhiloxGenerator;
+import master.rng.RandomizerGenerator;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Check that calculations resumed from a checkpoint reproduce those
+ * performed without interruption.
+ *
+ * @author agent <agent@local>
+ */
+public class CheckpointTest {
+
+    /**
+     * Summarise an immigration-death process, taking checkpoints every
+     * 20 trajectories if checkpointFile is not null.
+     */
+    private EnsembleSummary runSummary(File checkpointFile, boolean resume)
+            throws Exception {
+        Population X = new Population();
+        X.initByName("populationName", "X");
+
+        Reaction immigration = new Reaction();
+        immigration.initByName("reactionName", "Immigration", "rate", "5.0", "value", "0 -> X");
+        Reaction death = new Reaction();
+        death.initByName("reactionName", "Death", "rate", "0.5", "value", "X -> 0");
+
+        Model model = new Model();
+        model.initByName("population", X, "reaction", immigration, "reaction", death);
+
+        PopulationSize size = new PopulationSize();
+        size.initByName("population", X, "size", 0.0);
+        InitState initState = new InitState();
+        initState.initByName("populationSize", size);
+
+        Moment moment = new Moment();
+        moment.initByName("momentName", "X", "factor", X);
+
+        PhiloxGenerator rng = new PhiloxGenerator();
+        rng.initByName();
+
+        EnsembleSummary ensemble = new EnsembleSummary();
+        if (checkpointFile == null)
+            ensemble.initByName("model", model, "initialState", initState,
+                    "simulationTime", 4.0, "nSamples", 5, "nTraj", 50,
+                    "moment", moment, "randomGenerator", rng,
+                    "seed", 42, "verbosity", 0);
+        else
+            ensemble.initByName("model", model, "initialState", initState,
+                    "simulationTime", 4.0, "nSamples", 5, "nTraj", 50,
+                    "moment", moment, "randomGenerator", rng,
+                    "seed", 42, "verbosity", 0,
+                    "checkpointInterval", 20,
+                    "checkpointFile", checkpointFile.getPath(),
+                    "resume", resume);
+        ensemble.run();
+
+        return ensemble;
+    }
+
+    @Test
+    public void testSummaryResume() throws Exception {
+        File checkpointFile = File.createTempFile("summary", ".checkpoint");
+        checkpointFile.deleteOnExit();
+        checkpointFile.delete();
+
+        EnsembleSummary uninterrupted = runSummary(null, false);
+
+        // Last checkpoint is taken after 40 of the 50 trajectories:
+        EnsembleSummary checkpointed = runSummary(checkpointFile, false);
+        assertTrue(checkpointFile.exists());
+        EnsembleSummary resumed = runSummary(checkpointFile, true);
+
+        for (int s=0; s<5; s++) {
+            StateSummary expected = uninterrupted.getStateSummaries()[s];
+            for (EnsembleSummary ensemble : new EnsembleSummary[] {checkpointed, resumed}) {
+                StateSummary summary = ensemble.getStateSummaries()[s];
+                // Each calculation has its own single moment:
+                assertEquals(expected.getMeans().values().iterator().next(),
+                        summary.getMeans().values().iterator().next(), 0.0);
+                assertEquals(expected.getStds().values().iterator().next(),
+                        summary.getStds().values().iterator().next(), 0.0);
+            }
+        }
+    }
+
+    /**
+     * Stream trees of an SIR epidemic to a Newick file, taking checkpoints
+     * every 2 trajectories if checkpointFile is not null.
+     */
+    private void runTrees(File outputFile, File checkpointFile, boolean resume)
+            throws Exception {
+        Population S = new Population();
+        S.initByName("populationName", "S");
+        Population I = new Population();
+        I.initByName("populationName", "I");
+        Population R = new Population();
+        R.initByName("populationName", "R");
+
+        Reaction infection = new Reaction();
+        infection.initByName("reactionName", "Infection", "rate", "0.01", "value", "S + I -> 2I");
+        Reaction recovery = new Reaction();
+        recovery.initByName("reactionName", "Recovery", "rate", "0.2", "value", "I -> R");
+        Model model = new Model();
+        model.initByName("population", S, "population", I, "population", R,
+                "reaction", infection, "reaction", recovery);
+
+        PopulationSize size = new PopulationSize();
+        size.initByName("population", S, "size", 49.0);
+        Individual seed = new Individual();
+        seed.initByName("population", I);
+        InitState initState = new InitState();
+        initState.initByName("populationSize", size, "lineageSeed", seed);
+
+        LineageEndCondition endCondition = new LineageEndCondition();
+        endCondition.initByName("nLineages", 0);
+
+        NewickOutput output = new NewickOutput();
+        output.initByName("fileName", outputFile.getPath());
+
+        PhiloxGenerator rng = new PhiloxGenerator();
+        rng.initByName();
+
+        InheritanceEnsemble ensemble = new InheritanceEnsemble();
+        if (checkpointFile == null)
+            ensemble.initByName("model", model, "initialState", initState,
+                    "lineageEndCondition", endCondition, "nTraj", 5,
+                    "randomGenerator", rng, "seed", 42, "verbosity", 0,
+                    "output", output, "streamOutputs", true);
+        else
+            ensemble.initByName("model", model, "initialState", initState,
+                    "lineageEndCondition", endCondition, "nTraj", 5,
+                    "randomGenerator", rng, "seed", 42, "verbosity", 0,
+                    "output", output, "streamOutputs", true,
+                    "checkpointInterval", 2,
+                    "checkpointFile", checkpointFile.getPath(),
+                    "resume", resume);
+        ensemble.run();
+    }
+
+    @Test
+    public void testStreamedOutputResume() throws Exception {
+        File expectedFile = File.createTempFile("uninterrupted", ".newick");
+        expectedFile.deleteOnExit();
+        File outputFile = File.createTempFile("resumed", ".newick");
+        outputFile.deleteOnExit();
+        File checkpointFile = File.createTempFile("trees", ".checkpoint");
+        checkpointFile.deleteOnExit();
+        checkpointFile.delete();
+
+        runTrees(expectedFile, null, false);
+
+        // Last checkpoint is taken after 4 of the 5 trajectories.  Output
+        // written after this by an interrupted calculation is discarded:
+        runTrees(outputFile, checkpointFile, false);
+        try (FileOutputStream out = new FileOutputStream(outputFile, true)) {
+            out.write("(partial".getBytes());
+        }
+        runTrees(outputFile, checkpointFile, true);
+
+        assertArrayEquals(Files.readAllBytes(expectedFile.toPath()),
+                Files.readAllBytes(outputFile.toPath()));
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testCheckpointRequiresStreams() throws Exception {
+        Population X = new Population();
+        X.initByName("populationName", "X");
+        Reaction death = new Reaction();
+        death.initByName("reactionName", "Death", "rate", "0.5", "value", "X -> 0");
+        Model model = new Model();
+        model.initByName("population", X, "reaction", death);
+
+        PopulationSize size = new PopulationSize();
+        size.initByName("population", X, "size", 10.0);
+        InitState initState = new InitState();
+        initState.initByName("populationSize", size);
+
+        Moment moment = new Moment();
+        moment.initByName("momentName", "X", "factor", X);
+
+        EnsembleSummary ensemble = new EnsembleSummary();
+        ensemble.initByName("model", model, "initialState", initState,
+                "simulationTime", 4.0, "nSamples", 5, "nTraj", 50,
+                "moment", moment, "seed", 42, "verbosity", 0,
+                "checkpointInterval", 20, "checkpointFile", "unused.checkpoint");
+    }
+
+    @Test(expected=IllegalStateException.class)
+    public void testGeneratorWithoutStreamsHasNoState() throws Exception {
+        new RandomizerGenerator().writeState(
+                new DataOutputStream(new ByteArrayOutputStream()));
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package master;
+
+import master.model.*;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Compare finite state projection solutions with distributions known
+ * in closed form.
+ *
+ * @author agent <agent@local>
+ */
+public class FiniteStateProjectionTest {
+
+    /**
+     * Pure death process X -> 0 with rate mu starting from n individuals,
+     * for which X(t) ~ Binomial(n, exp(-mu*t)).
+     */
+    @Test
+    public void testDeathProcess() throws Exception {
+        Population X = new Population();
+        X.initByName("populationName", "X");
+
+        Reaction death = new Reaction();
+        death.initByName("reactionName", "Death", "rate", "0.7", "value", "X -> 0");
+
+        Model model = new Model();
+        model.initByName("population", X, "reaction", death);
+
+        PopulationSize size = new PopulationSize();
+        size.initByName("population", X, "size", 20.0);
+        InitState initState = new InitState();
+        initState.initByName("populationSize", size);
+
+        Moment moment = new Moment();
+        moment.initByName("momentName", "X", "factor", X);
+
+        FiniteStateProjection fsp = new FiniteStateProjection();
+        fsp.initByName("model", model, "initialState", initState,
+                "simulationTime", 2.0, "nSamples", 5, "moment", moment,
+                "verbosity", 0);
+        fsp.run();
+
+        double[][] marginals = fsp.getMarginals().get(X);
+        for (int s=0; s<5; s++) {
+            double t = 0.5*s;
+            double p = Math.exp(-0.7*t);
+
+            for (int k=0; k<=20; k++) {
+                double prob = k<marginals[s].length ? marginals[s][k] : 0.0;
+                assertEquals(binomial(20, k, p), prob, 1e-9);
+            }
+
+            assertEquals(20*p, fsp.getStateSummaries()[s].getMeans().get(moment), 1e-7);
+            assertEquals(Math.sqrt(20*p*(1-p)), fsp.getStateSummaries()[s].getStds().get(moment), 1e-7);
+            assertEquals(0.0, fsp.getTruncationErrors()[s], 1e-9);
+        }
+    }
+
+    /**
+     * Immigration-death process 0 -> X (rate lambda), X -> 0 (rate mu)
+     * starting from zero, for which X(t) is Poisson with mean
+     * lambda/mu*(1 - exp(-mu*t)).
+     */
+    @Test
+    public void testImmigrationDeathProcess() throws Exception {
+        Population X = new Population();
+        X.initByName("populationName", "X");
+
+        Reaction immigration = new Reaction();
+        immigration.initByName("reactionName", "Immigration", "rate", "5.0", "value", "0 -> X");
+        Reaction death = new Reaction();
+        death.initByName("reactionName", "Death", "rate", "0.5", "value", "X -> 0");
+
+        Model model = new Model();
+        model.initByName("population", X, "reaction", immigration, "reaction", death);
+
+        PopulationSize size = new PopulationSize();
+        size.initByName("population", X, "size", 0.0);
+        InitState initState = new InitState();
+        initState.initByName("populationSize", size);
+
+        Moment moment = new Moment();
+        moment.initByName("momentName", "X", "factor", X);
+
+        FiniteStateProjection fsp = new FiniteStateProjection();
+        fsp.initByName("model", model, "initialState", initState,
+                "simulationTime", 4.0, "nSamples", 3, "moment", moment,
+                "maxPopulationSize", 60, "verbosity", 0);
+        fsp.run();
+
+        double[][] marginals = fsp.getMarginals().get(X);
+        for (int s=0; s<3; s++) {
+            double t = 2.0*s;
+            double mean = 5.0/0.5*(1.0 - Math.exp(-0.5*t));
+
+            for (int k=0; k<marginals[s].length; k++)
+                assertEquals(poisson(k, mean), marginals[s][k], 1e-8);
+
+            assertEquals(mean, fsp.getStateSummaries()[s].getMeans().get(moment), 1e-6);
+
+            // Mass beyond the projection bound is negligible:
+            assertTrue(fsp.getTruncationErrors()[s]<1e-8);
+        }
+    }
+
+    private static double binomial(int n, int k, double p) {
+        if (p == 1.0)
+            return k == n ? 1.0 : 0.0;
+
+        double logCoeff = 0.0;
+        for (int i=1; i<=k; i++)
+            logCoeff += Math.log(n - k + i) - Math.log(i);
+        return Math.exp(logCoeff + k*Math.log(p) + (n-k)*Math.log(1-p));
+    }
+
+    private static double poisson(int k, double mean) {
+        if (mean == 0.0)
+            return k == 0 ? 1.0 : 0.0;
+
+        double logP = k*Math.log(mean) - mean;
+        for (int i=1; i<=k; i++)
+            logP -= Math.log(i);
+        return Math.exp(logP);
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package master;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Set;
+import master.model.*;
+import master.postprocessors.LineageSampler;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Check that sampled trees traced backward through the lineage event log
+ * have the same distribution as trees obtained by pruning the full
+ * forward inheritance graph.
+ *
+ * @author agent <agent@local>
+ */
+public class LineageEventLogTest {
+
+    private static final int N = 1000;
+
+    /**
+     * Simulate sampled SIR transmission trees, recording the number of
+     * leaves and the total branch length of each.
+     *
+     * @param backwardLineages whether to trace sampled lineages backward
+     * @return means and standard errors of the two statistics
+     */
+    private double[] treeStatistics(boolean backwardLineages) throws Exception {
+        Population S = new Population();
+        S.initByName("populationName", "S");
+        Population I = new Population();
+        I.initByName("populationName", "I");
+        Population R = new Population();
+        R.initByName("populationName", "R");
+        Population Isamp = new Population();
+        Isamp.initByName("populationName", "Isamp");
+
+        Reaction infection = new Reaction();
+        infection.initByName("reactionName", "Infection", "rate", "0.002", "value", "S + I -> 2I");
+        Reaction recovery = new Reaction();
+        recovery.initByName("reactionName", "Recovery", "rate", "0.1", "value", "I -> R");
+        Reaction sampling = new Reaction();
+        sampling.initByName("reactionName", "Sampling", "rate", "0.1", "value", "I:1 -> Isamp:1");
+        Model model = new Model();
+        model.initByName("population", S, "population", I, "population", R,
+                "population", Isamp, "reaction", infection,
+                "reaction", recovery, "reaction", sampling);
+
+        PopulationSize size = new PopulationSize();
+        size.initByName("population", S, "size", 500.0);
+        Individual seed = new Individual();
+        seed.initByName("population", I);
+        InitState initState = new InitState();
+        initState.initByName("populationSize", size, "lineageSeed", seed);
+
+        LineageSampler sampler = new LineageSampler();
+        sampler.initByName("nSamples", 8);
+
+        InheritanceTrajectory itraj = new InheritanceTrajectory();
+        itraj.initByName("model", model, "initialState", initState,
+                "simulationTime", 20.0, "inheritancePostProcessor", sampler,
+                "backwardLineages", backwardLineages,
+                "seed", 42, "verbosity", 0);
+
+        double[] sums = new double[2], sumSqs = new double[2];
+        for (int i=0; i<N; i++) {
+            itraj.run();
+
+            double leaves = 0.0, length = 0.0;
+            Set<Node> visited = new HashSet<>();
+            Deque<Node> stack = new ArrayDeque<>(itraj.getStartNodes());
+            while (!stack.isEmpty()) {
+                Node node = stack.pop();
+                if (!visited.add(node))
+                    continue;
+
+                if (node.getChildren().isEmpty())
+                    leaves += 1;
+
+                for (Node child : node.getChildren()) {
+                    length += child.getTime() - node.getTime();
+                    stack.push(child);
+                }
+            }
+
+            sums[0] += leaves;
+            sumSqs[0] += leaves*leaves;
+            sums[1] += length;
+            sumSqs[1] += length*length;
+        }
+
+        double[] stats = new double[4];
+        for (int k=0; k<2; k++) {
+            stats[2*k] = sums[k]/N;
+            stats[2*k+1] = Math.sqrt((sumSqs[k]/N - stats[2*k]*stats[2*k])/N);
+        }
+
+        return stats;
+    }
+
+    @Test
+    public void test() throws Exception {
+        double[] forward = treeStatistics(false);
+        double[] backward = treeStatistics(true);
+
+        for (int k=0; k<2; k++) {
+            double se = Math.sqrt(forward[2*k+1]*forward[2*k+1]
+                    + backward[2*k+1]*backward[2*k+1]);
+            assertEquals(forward[2*k], backward[2*k], 4.0*se);
+        }
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package master;
+
+import java.util.Random;
+import master.model.*;
+import master.rng.PhiloxGenerator;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Check particle filter likelihood estimates against the exact
+ * likelihood of a pure death process observed with Poisson noise, and
+ * systematic resampling against known weights.
+ *
+ * @author agent <agent@local>
+ */
+public class ParticleFilterTest {
+
+    private static final int N0 = 10;
+    private static final double MU = 0.3;
+    private static final double[] TIMES = {1.0, 2.0, 3.0, 4.0};
+    private static final int[] VALUES = {7, 5, 4, 2};
+
+    /**
+     * Assemble particle filter for a pure death process X -&gt; 0 with
+     * rate MU starting from N0 individuals, observed with Poisson noise
+     * with mean 0.8*X + 0.1 at each observation time.
+     */
+    private ParticleFilter getParticleFilter(int nParticles, int nThreads)
+            throws Exception {
+        Population X = new Population();
+        X.initByName("populationName", "X");
+
+        Reaction death = new Reaction();
+        death.initByName("reactionName", "Death", "rate", String.valueOf(MU),
+                "value", "X -> 0");
+
+        Model model = new Model();
+        model.initByName("population", X, "reaction", death);
+
+        PopulationSize size = new PopulationSize();
+        size.initByName("population", X, "size", (double)N0);
+        InitState initState = new InitState();
+        initState.initByName("populationSize", size);
+
+        Observations observations = new Observations();
+        observations.initByName("times", "1 2 3 4", "values", "7 5 4 2",
+                "logDensity", "y*log(0.8*X + 0.1) - (0.8*X + 0.1) - log((y)!)");
+
+        PhiloxGenerator rng = new PhiloxGenerator();
+        rng.initByName();
+
+        ParticleFilter filter = new ParticleFilter();
+        filter.initByName("model", model, "initialState", initState,
+                "observations", observations, "nParticles", nParticles,
+                "randomGenerator", rng, "nThreads", nThreads,
+                "seed", 42, "verbosity", 0);
+
+        return filter;
+    }
+
+    /**
+     * Compute the exact log likelihood using the forward algorithm, with
+     * transition probabilities between observations obtained by finite
+     * state projection.
+     */
+    private double getExactLogLikelihood() throws Exception {
+        Population X = new Population();
+        X.initByName("populationName", "X");
+
+        Reaction death = new Reaction();
+        death.initByName("reactionName", "Death", "rate", String.valueOf(MU),
+                "value", "X -> 0");
+
+        Model model = new Model();
+        model.initByName("population", X, "reaction", death);
+
+        Moment moment = new Moment();
+        moment.initByName("momentName", "X", "factor", X);
+
+        // Observations are evenly spaced, so a single transition matrix
+        // suffices:
+        double[][] transitions = new double[N0+1][N0+1];
+        for (int i=0; i<=N0; i++) {
+            PopulationSize size = new PopulationSize();
+            size.initByName("population", X, "size", (double)i);
+            InitState initState = new InitState();
+            initState.initByName("populationSize", size);
+
+            FiniteStateProjection fsp = new FiniteStateProjection();
+            fsp.initByName("model", model, "initialState", initState,
+                    "simulationTime", 1.0, "nSamples", 2, "moment", moment,
+                    "verbosity", 0);
+            fsp.run();
+
+            double[] marginal = fsp.getMarginals().get(X)[1];
+            for (int j=0; j<marginal.length && j<=N0; j++)
+                transitions[i][j] = marginal[j];
+        }
+
+        double[] probs = new double[N0+1];
+        probs[N0] = 1.0;
+        double logLikelihood = 0.0;
+        for (int k=0; k<TIMES.length; k++) {
+            double[] newProbs = new double[N0+1];
+            double total = 0.0;
+            for (int j=0; j<=N0; j++) {
+                for (int i=0; i<=N0; i++)
+                    newProbs[j] += probs[i]*transitions[i][j];
+                newProbs[j] *= poisson(VALUES[k], 0.8*j + 0.1);
+                total += newProbs[j];
+            }
+
+            for (int j=0; j<=N0; j++)
+                probs[j] = newProbs[j]/total;
+            logLikelihood += Math.log(total);
+        }
+
+        return logLikelihood;
+    }
+
+    @Test
+    public void testLikelihood() throws Exception {
+        double exact = getExactLogLikelihood();
+
+        // Estimates of the likelihood itself are unbiased:
+        ParticleFilter filter = getParticleFilter(1000, 1);
+        int nEvaluations = 20;
+        double sum = 0.0, sumSq = 0.0;
+        for (int n=0; n<nEvaluations; n++) {
+            double ratio = Math.exp(filter.computeLogLikelihood() - exact);
+            sum += ratio;
+            sumSq += ratio*ratio;
+        }
+        double mean = sum/nEvaluations;
+        double stdErr = Math.sqrt((sumSq/nEvaluations - mean*mean)/nEvaluations);
+        assertTrue(stdErr<0.01);
+        assertEquals(1.0, mean, 4.0*stdErr);
+
+        // Estimates do not depend on the number of threads used:
+        ParticleFilter serialFilter = getParticleFilter(1000, 1);
+        ParticleFilter parallelFilter = getParticleFilter(1000, 4);
+        for (int n=0; n<3; n++) {
+            assertEquals(serialFilter.computeLogLikelihood(),
+                    parallelFilter.computeLogLikelihood(), 0.0);
+            assertArrayEquals(serialFilter.getEffectiveSampleSizes(),
+                    parallelFilter.getEffectiveSampleSizes(), 0.0);
+        }
+    }
+
+    @Test
+    public void testSystematicResample() {
+        int[] ancestors = new int[4];
+
+        ParticleFilter.systematicResample(
+                new double[] {0.1, 0.2, 0.3, 0.4}, 0.2, ancestors);
+        assertArrayEquals(new int[] {0, 1, 2, 3}, ancestors);
+
+        ParticleFilter.systematicResample(
+                new double[] {0.5, 0.0, 0.0, 0.5}, 0.8, ancestors);
+        assertArrayEquals(new int[] {0, 0, 3, 3}, ancestors);
+
+        // Particles with zero weight are never chosen, even when a
+        // point falls on the boundary of their empty interval:
+        ParticleFilter.systematicResample(
+                new double[] {0.0, 0.5, 0.5, 0.0}, 0.0, ancestors);
+        assertArrayEquals(new int[] {1, 1, 2, 2}, ancestors);
+
+        ParticleFilter.systematicResample(
+                new double[] {0.0, 0.0, 1.0, 0.0}, 0.999, ancestors);
+        assertArrayEquals(new int[] {2, 2, 2, 2}, ancestors);
+
+        // Each particle has floor(n*w) or ceil(n*w) offspring:
+        Random random = new Random(42);
+        int n = 100;
+        double[] weights = new double[n];
+        double total = 0.0;
+        for (int i=0; i<n; i++) {
+            weights[i] = random.nextInt(3)==0 ? 0.0 : random.nextDouble();
+            total += weights[i];
+        }
+        for (int i=0; i<n; i++)
+            weights[i] /= total;
+
+        ancestors = new int[n];
+        for (int rep=0; rep<100; rep++) {
+            ParticleFilter.systematicResample(weights, random.nextDouble(),
+                    ancestors);
+
+            int[] counts = new int[n];
+            for (int i=0; i<n; i++) {
+                counts[ancestors[i]] += 1;
+                if (i>0)
+                    assertTrue(ancestors[i]>=ancestors[i-1]);
+            }
+
+            for (int i=0; i<n; i++) {
+                assertTrue(counts[i]>=Math.floor(n*weights[i] - 1e-9));
+                assertTrue(counts[i]<=Math.ceil(n*weights[i] + 1e-9));
+            }
+        }
+    }
+
+    private static double poisson(int k, double mean) {
+        double logP = k*Math.log(mean) - mean;
+        for (int i=1; i<=k; i++)
+            logP -= Math.log(i);
+        return Math.exp(logP);
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package master;
+
+import beast.core.parameter.RealParameter;
+import master.model.*;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Check that population functions follow changes to the origin
+ * parameter, matching functions built afresh with the new origin.
+ *
+ * @author agent <agent@local>
+ */
+public class PopulationFunctionFromMasterTest {
+
+    /**
+     * Build population function from an immigration-death trajectory.
+     *
+     * @param origin origin parameter
+     * @return population function
+     */
+    private PopulationFunctionFromMaster buildFunction(RealParameter origin)
+            throws Exception {
+        Population X = new Population();
+        X.initByName("populationName", "X");
+
+        Reaction immigration = new Reaction();
+        immigration.initByName("reactionName", "Immigration", "rate", "10.0", "value", "0 -> X");
+        Reaction death = new Reaction();
+        death.initByName("reactionName", "Death", "rate", "0.5", "value", "X -> 0");
+        Model model = new Model();
+        model.initByName("population", X, "reaction", immigration, "reaction", death);
+
+        PopulationSize size = new PopulationSize();
+        size.initByName("population", X, "size", 1.0);
+        InitState initState = new InitState();
+        initState.initByName("populationSize", size);
+
+        PopulationFunctionFromMaster popFunc = new PopulationFunctionFromMaster();
+        popFunc.initByName("model", model, "initialState", initState,
+                "simulationTime", 10.0, "nSamples", 101,
+                "popSizeExpression", "X", "origin", origin,
+                "popSizeStart", 1.0, "popSizeEnd", 20.0,
+                "seed", 42, "verbosity", 0);
+
+        return popFunc;
+    }
+
+    @Test
+    public void test() throws Exception {
+        RealParameter origin = new RealParameter("10.0");
+        PopulationFunctionFromMaster popFunc = buildFunction(origin);
+
+        double[] ages = new double[200];
+        double[] popSizes = new double[ages.length];
+        double[] intensities = new double[ages.length];
+        for (int i=0; i<ages.length; i++) {
+            ages[i] = -1.0 + 0.0617*i;
+            popSizes[i] = popFunc.getPopSize(ages[i]);
+            intensities[i] = popFunc.getIntensity(ages[i]);
+        }
+
+        origin.setValue(12.0);
+        popFunc.prepare();
+        PopulationFunctionFromMaster expected = buildFunction(
+                new RealParameter("12.0"));
+
+        for (int i=0; i<ages.length; i++) {
+            double t = ages[i];
+            assertEquals(expected.getPopSize(t), popFunc.getPopSize(t), 0.0);
+            assertEquals(expected.getIntensity(t), popFunc.getIntensity(t), 0.0);
+            double intensity = expected.getIntensity(t);
+            if (!Double.isInfinite(intensity))
+                assertEquals(expected.getInverseIntensity(intensity),
+                        popFunc.getInverseIntensity(intensity), 0.0);
+
+            // The trajectory itself is unchanged, only shifted:
+            assertEquals(popSizes[i], popFunc.getPopSize(t + 2.0), 0.0);
+            assertEquals(intensities[i], popFunc.getIntensity(t + 2.0), 1e-9);
+        }
+    }
+}
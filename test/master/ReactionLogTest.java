@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package master;
+
+import java.io.File;
+import master.model.*;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Check that replaying a reaction log reproduces the moments of the
+ * calculation which recorded it.
+ *
+ * @author agent <agent@local>
+ */
+public class ReactionLogTest {
+
+    /**
+     * Summarise an SIR epidemic, recording its reactions to or replaying
+     * them from the given log.
+     */
+    private EnsembleSummary runSummary(File logFile, boolean replay)
+            throws Exception {
+        Population S = new Population();
+        S.initByName("populationName", "S");
+        Population I = new Population();
+        I.initByName("populationName", "I");
+        Population R = new Population();
+        R.initByName("populationName", "R");
+
+        Reaction infection = new Reaction();
+        infection.initByName("reactionName", "Infection", "rate", "0.005", "value", "S + I -> 2I");
+        Reaction recovery = new Reaction();
+        recovery.initByName("reactionName", "Recovery", "rate", "0.2", "value", "I -> R");
+        Model model = new Model();
+        model.initByName("population", S, "population", I, "population", R,
+                "reaction", infection, "reaction", recovery);
+
+        PopulationSize sizeS = new PopulationSize();
+        sizeS.initByName("population", S, "size", 199.0);
+        PopulationSize sizeI = new PopulationSize();
+        sizeI.initByName("population", I, "size", 1.0);
+        InitState initState = new InitState();
+        initState.initByName("populationSize", sizeS, "populationSize", sizeI);
+
+        Moment momentS = new Moment();
+        momentS.initByName("momentName", "S", "factor", S);
+        Moment momentI = new Moment();
+        momentI.initByName("momentName", "I", "factor", I);
+
+        ReactionLog log = new ReactionLog();
+        log.initByName("fileName", logFile.getPath());
+
+        EnsembleSummary ensemble = new EnsembleSummary();
+        ensemble.initByName("model", model, "initialState", initState,
+                "simulationTime", 30.0, "nSamples", 31, "nTraj", 50,
+                "moment", momentS, "moment", momentI,
+                replay ? "replayLog" : "reactionLog", log,
+                "seed", 42, "verbosity", 0);
+        ensemble.run();
+
+        return ensemble;
+    }
+
+    @Test
+    public void testReplay() throws Exception {
+        File logFile = File.createTempFile("SIR", ".log");
+        logFile.deleteOnExit();
+
+        EnsembleSummary recorded = runSummary(logFile, false);
+        assertTrue(logFile.length()>0);
+        EnsembleSummary replayed = runSummary(logFile, true);
+
+        // Moments of each calculation are distinct objects, so compare
+        // them by name:
+        for (int s=0; s<31; s++) {
+            StateSummary expected = recorded.getStateSummaries()[s];
+            StateSummary summary = replayed.getStateSummaries()[s];
+            int nCompared = 0;
+            for (Moment expectedMoment : expected.getMeans().keySet()) {
+                for (Moment moment : summary.getMeans().keySet()) {
+                    if (!moment.getName().equals(expectedMoment.getName()))
+                        continue;
+
+                    assertEquals(expected.getMeans().get(expectedMoment),
+                            summary.getMeans().get(moment), 0.0);
+                    assertEquals(expected.getStds().get(expectedMoment),
+                            summary.getStds().get(moment), 0.0);
+                    nCompared += 1;
+                }
+            }
+            assertEquals(2, nCompared);
+        }
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package master;
+
+import java.io.File;
+import java.nio.file.Files;
+import master.conditions.LineageEndCondition;
+import master.model.*;
+import master.outputs.NewickOutput;
+import master.rng.PhiloxGenerator;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Check that merging the partial results of sharded calculations
+ * matches a single-process calculation with the same seed.
+ *
+ * @author agent <agent@local>
+ */
+public class ShardsTest {
+
+    /**
+     * Summarise an immigration process, simulating (or merging) the given
+     * shard of the calculation.  The population starts from a fractional
+     * size so that sums of its moments are rounded when accumulated.
+     */
+    private EnsembleSummary runSummary(String shardFile, int nShards,
+            int shard, boolean merge) throws Exception {
+        Population X = new Population();
+        X.initByName("populationName", "X");
+
+        Reaction immigration = new Reaction();
+        immigration.initByName("reactionName", "Immigration", "rate", "5.0", "value", "0 -> X");
+
+        Model model = new Model();
+        model.initByName("population", X, "reaction", immigration);
+
+        PopulationSize size = new PopulationSize();
+        size.initByName("population", X, "size", 0.1);
+        InitState initState = new InitState();
+        initState.initByName("populationSize", size);
+
+        Moment moment = new Moment();
+        moment.initByName("momentName", "X", "factor", X);
+
+        PhiloxGenerator rng = new PhiloxGenerator();
+        rng.initByName();
+
+        EnsembleSummary ensemble = new EnsembleSummary();
+        if (shardFile == null)
+            ensemble.initByName("model", model, "initialState", initState,
+                    "simulationTime", 4.0, "nSamples", 5, "nTraj", 1000,
+                    "moment", moment, "randomGenerator", rng,
+                    "seed", 42, "verbosity", 0);
+        else
+            ensemble.initByName("model", model, "initialState", initState,
+                    "simulationTime", 4.0, "nSamples", 5, "nTraj", 1000,
+                    "moment", moment, "randomGenerator", rng,
+                    "seed", 42, "verbosity", 0,
+                    "nShards", nShards, "shard", shard,
+                    "shardFile", shardFile, "mergeShards", merge);
+        ensemble.run();
+
+        return ensemble;
+    }
+
+    @Test
+    public void testSummaryMerge() throws Exception {
+        File dir = Files.createTempDirectory("shards").toFile();
+        String shardFile = new File(dir, "partial").getPath();
+
+        EnsembleSummary single = runSummary(null, 1, 0, false);
+
+        for (int shard=0; shard<3; shard++)
+            runSummary(shardFile, 3, shard, false);
+        EnsembleSummary merged = runSummary(shardFile, 3, 0, true);
+
+        // Moment sums are exact, so merging shards reproduces the single
+        // process exactly:
+        for (int s=0; s<5; s++) {
+            StateSummary expected = single.getStateSummaries()[s];
+            StateSummary summary = merged.getStateSummaries()[s];
+            assertEquals(expected.getMeans().values().iterator().next(),
+                    summary.getMeans().values().iterator().next(), 0.0);
+            assertEquals(expected.getStds().values().iterator().next(),
+                    summary.getStds().values().iterator().next(), 0.0);
+        }
+
+        for (int shard=0; shard<3; shard++)
+            new File(Shards.getFileName(shardFile, shard)).delete();
+        dir.delete();
+    }
+
+    /**
+     * Stream trees of an SIR epidemic to a Newick file, simulating (or
+     * merging) the given shard of the calculation.
+     */
+    private void runTrees(File outputFile, int nShards, int shard,
+            boolean merge) throws Exception {
+        Population S = new Population();
+        S.initByName("populationName", "S");
+        Population I = new Population();
+        I.initByName("populationName", "I");
+        Population R = new Population();
+        R.initByName("populationName", "R");
+
+        Reaction infection = new Reaction();
+        infection.initByName("reactionName", "Infection", "rate", "0.01", "value", "S + I -> 2I");
+        Reaction recovery = new Reaction();
+        recovery.initByName("reactionName", "Recovery", "rate", "0.2", "value", "I -> R");
+        Model model = new Model();
+        model.initByName("population", S, "population", I, "population", R,
+                "reaction", infection, "reaction", recovery);
+
+        PopulationSize size = new PopulationSize();
+        size.initByName("population", S, "size", 49.0);
+        Individual seed = new Individual();
+        seed.initByName("population", I);
+        InitState initState = new InitState();
+        initState.initByName("populationSize", size, "lineageSeed", seed);
+
+        LineageEndCondition endCondition = new LineageEndCondition();
+        endCondition.initByName("nLineages", 0);
+
+        NewickOutput output = new NewickOutput();
+        output.initByName("fileName", outputFile.getPath());
+
+        PhiloxGenerator rng = new PhiloxGenerator();
+        rng.initByName();
+
+        InheritanceEnsemble ensemble = new InheritanceEnsemble();
+        ensemble.initByName("model", model, "initialState", initState,
+                "lineageEndCondition", endCondition, "nTraj", 7,
+                "randomGenerator", rng, "seed", 42, "verbosity", 0,
+                "output", output, "streamOutputs", true,
+                "nShards", nShards, "shard", shard, "mergeShards", merge);
+        ensemble.run();
+    }
+
+    @Test
+    public void testStreamedOutputMerge() throws Exception {
+        File dir = Files.createTempDirectory("shards").toFile();
+        File expectedFile = new File(dir, "single.newick");
+        File outputFile = new File(dir, "merged.newick");
+
+        runTrees(expectedFile, 1, 0, false);
+        assertTrue(expectedFile.length()>0);
+
+        for (int shard=0; shard<3; shard++)
+            runTrees(outputFile, 3, shard, false);
+        runTrees(outputFile, 3, 0, true);
+
+        // Concatenated trajectory outputs are identical:
+        assertArrayEquals(Files.readAllBytes(expectedFile.toPath()),
+                Files.readAllBytes(outputFile.toPath()));
+
+        for (File file : dir.listFiles())
+            file.delete();
+        dir.delete();
+    }
+}
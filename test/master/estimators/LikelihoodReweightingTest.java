@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package master.estimators;
+
+import java.io.File;
+import master.EnsembleSummary;
+import master.ReactionLog;
+import master.model.*;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Check moments of replayed immigration-death trajectories reweighted to
+ * alternative immigration rates.
+ *
+ * @author agent <agent@local>
+ */
+public class LikelihoodReweightingTest {
+
+    /**
+     * Summarise an immigration-death process, recording its reactions to
+     * or replaying them from the given log.  Replayed trajectories are
+     * reweighted using the given immigration rate factors.
+     */
+    private EnsembleSummary runSummary(File logFile, String factors)
+            throws Exception {
+        Population X = new Population();
+        X.initByName("populationName", "X");
+
+        Reaction immigration = new Reaction();
+        immigration.initByName("reactionName", "Immigration", "rate", "5.0", "value", "0 -> X");
+        Reaction death = new Reaction();
+        death.initByName("reactionName", "Death", "rate", "0.5", "value", "X -> 0");
+
+        Model model = new Model();
+        model.initByName("population", X, "reaction", immigration, "reaction", death);
+
+        PopulationSize size = new PopulationSize();
+        size.initByName("population", X, "size", 0.0);
+        InitState initState = new InitState();
+        initState.initByName("populationSize", size);
+
+        Moment moment = new Moment();
+        moment.initByName("momentName", "X", "factor", X);
+
+        ReactionLog log = new ReactionLog();
+        log.initByName("fileName", logFile.getPath());
+
+        EnsembleSummary ensemble = new EnsembleSummary();
+        if (factors == null)
+            ensemble.initByName("model", model, "initialState", initState,
+                    "simulationTime", 4.0, "nSamples", 5, "nTraj", 1000,
+                    "moment", moment, "reactionLog", log,
+                    "seed", 42, "verbosity", 0);
+        else {
+            RateScaling scaling = new RateScaling();
+            scaling.initByName("reaction", immigration, "factors", factors);
+            LikelihoodReweighting reweighting = new LikelihoodReweighting();
+            reweighting.initByName("rateScaling", scaling);
+
+            ensemble.initByName("model", model, "initialState", initState,
+                    "simulationTime", 4.0, "nSamples", 5, "nTraj", 1000,
+                    "moment", moment, "replayLog", log,
+                    "reweighting", reweighting,
+                    "seed", 42, "verbosity", 0);
+        }
+        ensemble.run();
+
+        return ensemble;
+    }
+
+    @Test
+    public void test() throws Exception {
+        File logFile = File.createTempFile("immigrationDeath", ".log");
+        logFile.deleteOnExit();
+
+        EnsembleSummary recorded = runSummary(logFile, null);
+        EnsembleSummary replayed = runSummary(logFile, "1.0 1.2");
+        LikelihoodReweighting reweighting = replayed.getSpec()
+                .getLikelihoodReweighting();
+
+        // Unit factors weight every trajectory equally, so the original
+        // moments are recovered:
+        assertEquals(1000.0, reweighting.getEffectiveSampleSize(0), 1e-9);
+        for (int s=0; s<5; s++) {
+            StateSummary expected = recorded.getStateSummaries()[s];
+            StateSummary summary = reweighting.getStateSummaries(0)[s];
+            assertEquals(expected.getMeans().values().iterator().next(),
+                    summary.getMeans().values().iterator().next(), 1e-9);
+            assertEquals(expected.getStds().values().iterator().next(),
+                    summary.getStds().values().iterator().next(), 1e-9);
+        }
+
+        // Log weights are n log(1.2) - 4, where the number n of
+        // immigrations is Poisson with mean 20, giving an effective
+        // sample size of about 1000 exp(-0.8).  The reweighted mean is
+        // that of the process with the scaled immigration rate:
+        assertTrue(reweighting.getEffectiveSampleSize(1)>300.0);
+        for (int s=0; s<5; s++) {
+            double t = 1.0*s;
+            double mean = 1.2*5.0/0.5*(1.0 - Math.exp(-0.5*t));
+            assertEquals(mean, reweighting.getStateSummaries(1)[s]
+                    .getMeans().values().iterator().next(), 0.5);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package master.estimators;
+
+import master.EnsembleSummary;
+import master.model.*;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Check multilevel Monte Carlo moment estimates against the exact mean
+ * of an immigration-death process.
+ *
+ * @author agent <agent@local>
+ */
+public class MultilevelEstimatorTest {
+
+    @Test
+    public void test() throws Exception {
+        Population X = new Population();
+        X.initByName("populationName", "X");
+
+        Reaction immigration = new Reaction();
+        immigration.initByName("reactionName", "Immigration", "rate", "20.0", "value", "0 -> X");
+        Reaction death = new Reaction();
+        death.initByName("reactionName", "Death", "rate", "0.5", "value", "X -> 0");
+
+        Model model = new Model();
+        model.initByName("population", X, "reaction", immigration, "reaction", death);
+
+        PopulationSize size = new PopulationSize();
+        size.initByName("population", X, "size", 0.0);
+        InitState initState = new InitState();
+        initState.initByName("populationSize", size);
+
+        Moment moment = new Moment();
+        moment.initByName("momentName", "X", "factor", X);
+
+        MultilevelEstimator multilevel = new MultilevelEstimator();
+        multilevel.initByName("targetRMSE", 0.1, "coarseStepSize", 1.0,
+                "nLevels", 3);
+
+        EnsembleSummary ensemble = new EnsembleSummary();
+        ensemble.initByName("model", model, "initialState", initState,
+                "simulationTime", 4.0, "nSamples", 5, "nTraj", 100,
+                "moment", moment, "multilevel", multilevel,
+                "seed", 42, "verbosity", 0);
+        ensemble.run();
+
+        // Estimates have RMSE 0.1 and no discretization bias:
+        for (int s=0; s<5; s++) {
+            double t = 1.0*s;
+            double mean = 20.0/0.5*(1.0 - Math.exp(-0.5*t));
+            assertEquals(mean, ensemble.getStateSummaries()[s].getMeans().get(moment), 0.5);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package master.estimators;
+
+import master.EnsembleSummary;
+import master.model.*;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Check multilevel splitting estimates for a subcritical birth-death
+ * process against exact results.
+ *
+ * @author agent <agent@local>
+ */
+public class RareEventSplittingTest {
+
+    /**
+     * Estimate moments of a birth-death process started from a single
+     * individual, splitting trajectories as the population grows
+     * towards 10.
+     */
+    private EnsembleSummary runSummary(RareEventSplitting splitting,
+            double simulationTime) throws Exception {
+        Population X = new Population();
+        X.initByName("populationName", "X");
+
+        Reaction birth = new Reaction();
+        birth.initByName("reactionName", "Birth", "rate", "0.5", "value", "X -> 2X");
+        Reaction death = new Reaction();
+        death.initByName("reactionName", "Death", "rate", "1.0", "value", "X -> 0");
+
+        Model model = new Model();
+        model.initByName("population", X, "reaction", birth, "reaction", death);
+
+        PopulationSize size = new PopulationSize();
+        size.initByName("population", X, "size", 1.0);
+        InitState initState = new InitState();
+        initState.initByName("populationSize", size);
+
+        Moment moment = new Moment();
+        moment.initByName("momentName", "X", "factor", X);
+
+        EnsembleSummary ensemble = new EnsembleSummary();
+        ensemble.initByName("model", model, "initialState", initState,
+                "simulationTime", simulationTime, "nSamples", 5, "nTraj", 2000,
+                "moment", moment, "splitting", splitting,
+                "seed", 42, "verbosity", 0);
+        ensemble.run();
+
+        return ensemble;
+    }
+
+    @Test
+    public void testProbability() throws Exception {
+        RareEventSplitting splitting = new RareEventSplitting();
+        splitting.initByName("progress", "X", "levels", "2 3 4 5 6 7 8 9 10",
+                "nSplit", 3);
+        runSummary(splitting, 100.0);
+
+        // Probability of reaching 10 before extinction, by gambler's ruin
+        // with down/up ratio 2.  Almost every path is absorbed or reaches
+        // 10 well before the end of the simulation:
+        double p = 1.0/1023.0;
+        assertTrue(splitting.getProbabilityStdErr()<0.2*p);
+        assertEquals(p, splitting.getProbability(),
+                4.0*splitting.getProbabilityStdErr() + 0.02*p);
+    }
+
+    @Test
+    public void testUnconditionalMean() throws Exception {
+        RareEventSplitting splitting = new RareEventSplitting();
+        splitting.initByName("progress", "X", "levels", "2 3 4",
+                "nSplit", 2, "conditional", false);
+        EnsembleSummary ensemble = runSummary(splitting, 4.0);
+
+        // Weights are conserved, so the weighted ensemble has the mean of
+        // the unconditioned process:
+        for (int s=0; s<5; s++) {
+            double t = 1.0*s;
+            assertEquals(Math.exp(-0.5*t), ensemble.getStateSummaries()[s]
+                    .getMeans().values().iterator().next(), 0.1);
+        }
+    }
+}
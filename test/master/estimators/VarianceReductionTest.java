@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package master.estimators;
+
+import master.EnsembleSummary;
+import master.model.*;
+import master.steppers.TauLeapingStepper;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Check that Poisson variates used by the antithetic and quasi-Monte
+ * Carlo tau-leaping estimators are exact inversions of the Poisson CDF,
+ * and that variance-reduced estimates are unbiased.
+ *
+ * @author agent <agent@local>
+ */
+public class VarianceReductionTest {
+
+    @Test
+    public void testPoissonInverse() {
+        double[] means = {0.3, 12.0, 499.5, 500.0, 750.0, 1234.5, 20000.0};
+        double[] us = {1e-6, 0.001, 0.05, 0.3, 0.5, 0.7, 0.95, 0.999, 1.0-1e-6};
+
+        for (double mean : means) {
+            double[] cdf = poissonCDF(mean);
+
+            for (double u : us) {
+                int k = (int)VarianceReduction.poissonInverse(u, mean);
+
+                // k must be the smallest value whose CDF reaches u:
+                double below = k>0 ? cdf[k-1] : 0.0;
+                assertTrue("mean " + mean + " u " + u + " k " + k,
+                        below<u+1e-10 && u<=cdf[k]+1e-10);
+                assertTrue("mean " + mean + " u " + u + " k " + k,
+                        k==0 || u>cdf[k-1]-1e-10);
+            }
+        }
+    }
+
+    /**
+     * Leap counts of an immigration-death process with large mean.  For
+     * this linear model the expected tau-leaping trajectory satisfies
+     * m(t+dt) = m(t)*(1 - mu*dt) + lambda*dt exactly.
+     */
+    @Test
+    public void testLargeMeanLeaps() throws Exception {
+        String[][] options = {
+            {"antithetic", "true"},
+            {"quasiRandom", "true"},
+            {"controlVariates", "true"}};
+
+        for (String[] option : options) {
+            Population X = new Population();
+            X.initByName("populationName", "X");
+
+            Reaction immigration = new Reaction();
+            immigration.initByName("reactionName", "Immigration", "rate", "2000.0", "value", "0 -> X");
+            Reaction death = new Reaction();
+            death.initByName("reactionName", "Death", "rate", "0.5", "value", "X -> 0");
+
+            Model model = new Model();
+            model.initByName("population", X, "reaction", immigration, "reaction", death);
+
+            PopulationSize size = new PopulationSize();
+            size.initByName("population", X, "size", 0.0);
+            InitState initState = new InitState();
+            initState.initByName("populationSize", size);
+
+            Moment moment = new Moment();
+            moment.initByName("momentName", "X", "factor", X);
+
+            TauLeapingStepper stepper = new TauLeapingStepper();
+            stepper.initByName("stepSize", 0.5);
+
+            VarianceReduction varianceReduction = new VarianceReduction();
+            varianceReduction.initByName(option[0], Boolean.valueOf(option[1]));
+
+            EnsembleSummary ensemble = new EnsembleSummary();
+            ensemble.initByName("model", model, "initialState", initState,
+                    "simulationTime", 4.0, "nSamples", 5, "nTraj", 200,
+                    "stepper", stepper, "moment", moment,
+                    "varianceReduction", varianceReduction,
+                    "seed", 42, "verbosity", 0);
+            ensemble.run();
+
+            // Leap means are 1000 for immigration and up to 1000 for
+            // death.  The standard error of the plain estimator is below
+            // 5, which variance reduction only improves on:
+            double mean = 0.0;
+            for (int s=0; s<5; s++) {
+                assertEquals(option[0] + " sample " + s, mean,
+                        ensemble.getStateSummaries()[s].getMeans().get(moment), 20.0);
+
+                for (int step=0; step<2; step++)
+                    mean = mean*(1.0 - 0.5*0.5) + 2000.0*0.5;
+            }
+        }
+    }
+
+    /**
+     * Poisson CDF tabulated up to well beyond the mean.
+     */
+    private static double[] poissonCDF(double mean) {
+        int kMax = (int)(mean + 20*Math.sqrt(mean) + 20);
+        double[] cdf = new double[kMax+1];
+
+        double logFactorial = 0.0;
+        double sum = 0.0;
+        for (int k=0; k<=kMax; k++) {
+            if (k>0)
+                logFactorial += Math.log(k);
+            sum += Math.exp(k*Math.log(mean) - mean - logFactorial);
+            cdf[k] = sum;
+        }
+
+        return cdf;
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package master.model;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Check histogram binning against known distributions, and that merged
+ * and checkpointed histograms agree with those built directly.
+ *
+ * @author agent <agent@local>
+ */
+public class HistogramTest {
+
+    @Test
+    public void testBinning() throws Exception {
+        Histogram linear = new Histogram(0.0, 1.0, 4, false);
+        assertArrayEquals(new double[] {0.0, 0.25, 0.5, 0.75, 1.0},
+                linear.getBinEdges(), 1e-15);
+
+        linear.add(-0.5, 1.0);
+        linear.add(0.1, 2.0);
+        linear.add(0.3, 1.0);
+        linear.add(0.9, 3.0);
+        linear.add(1.0, 1.0);
+        linear.add(1.5, 2.0);
+        assertArrayEquals(new double[] {0.2, 0.1, 0.0, 0.4},
+                linear.getFrequencies(), 1e-15);
+        assertEquals(0.1, linear.getUnderflowFrequency(), 1e-15);
+        assertEquals(0.2, linear.getOverflowFrequency(), 1e-15);
+
+        // Log-uniform values fill logarithmic bins evenly:
+        Random random = new Random(42);
+        Histogram log = new Histogram(1.0, 1000.0, 3, true);
+        assertArrayEquals(new double[] {1.0, 10.0, 100.0, 1000.0},
+                log.getBinEdges(), 1e-12);
+        for (int i=0; i<30000; i++)
+            log.add(Math.pow(1000.0, random.nextDouble()), 1.0);
+        for (double f : log.getFrequencies())
+            assertEquals(1.0/3.0, f, 0.01);
+        assertEquals(0.0, log.getUnderflowFrequency(), 0.0);
+        assertEquals(0.0, log.getOverflowFrequency(), 0.0);
+    }
+
+    @Test
+    public void testMerge() throws Exception {
+        Random random = new Random(42);
+
+        Histogram single = new Histogram(-2.0, 2.0, 20, false);
+        Histogram[] parts = new Histogram[3];
+        for (int p=0; p<parts.length; p++)
+            parts[p] = new Histogram(-2.0, 2.0, 20, false);
+        for (int i=0; i<3000; i++) {
+            double x = random.nextGaussian();
+            single.add(x, 1.0);
+            parts[i%3].add(x, 1.0);
+        }
+
+        Histogram merged = new Histogram(-2.0, 2.0, 20, false);
+        for (Histogram part : parts)
+            merged.add(part, 2.0);
+
+        assertArrayEquals(single.getFrequencies(), merged.getFrequencies(), 1e-12);
+        assertEquals(single.getUnderflowFrequency(),
+                merged.getUnderflowFrequency(), 1e-12);
+        assertEquals(single.getOverflowFrequency(),
+                merged.getOverflowFrequency(), 1e-12);
+    }
+
+    @Test
+    public void testCheckpoint() throws Exception {
+        Random random = new Random(42);
+
+        Histogram histogram = new Histogram(0.1, 10.0, 10, true);
+        for (int i=0; i<1000; i++)
+            histogram.add(Math.exp(2.0*random.nextGaussian()), random.nextDouble());
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        histogram.writeState(new DataOutputStream(bytes));
+        Histogram restored = new Histogram(0.1, 10.0, 10, true);
+        restored.readState(new DataInputStream(
+                new ByteArrayInputStream(bytes.toByteArray())));
+
+        assertArrayEquals(histogram.getFrequencies(),
+                restored.getFrequencies(), 0.0);
+        assertEquals(histogram.getUnderflowFrequency(),
+                restored.getUnderflowFrequency(), 0.0);
+        assertEquals(histogram.getOverflowFrequency(),
+                restored.getOverflowFrequency(), 0.0);
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package master.model;
+
+import java.util.List;
+import master.InheritanceTrajectory;
+import master.conditions.LineageEndCondition;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Check that individuals specified together with their descendants are
+ * assembled into a single connected inheritance graph.
+ *
+ * @author agent <agent@local>
+ */
+public class IndividualTest {
+
+    @Test
+    public void testNestedIndividuals() throws Exception {
+        Population S = new Population();
+        S.initByName("populationName", "S");
+        Population I = new Population();
+        I.initByName("populationName", "I");
+        Population R = new Population();
+        R.initByName("populationName", "R");
+
+        // Initialisation proceeds from the leaves, as when parsing XML:
+        Individual grandchild = new Individual();
+        grandchild.initByName("population", R, "time", 2.0, "label", "grandchild");
+        Individual child = new Individual();
+        child.initByName("population", I, "time", 1.0, "label", "child",
+                "child", grandchild);
+        Individual other = new Individual();
+        other.initByName("population", R, "time", 1.5, "label", "other");
+        Individual seed = new Individual();
+        seed.initByName("population", I, "label", "seed",
+                "child", child, "child", other);
+
+        Node root = seed.getNode();
+        List<Node> children = root.getChildren();
+        assertEquals(2, children.size());
+        assertEquals("child", children.get(0).getName());
+        assertEquals("other", children.get(1).getName());
+        assertEquals(1.0, children.get(0).getTime(), 0.0);
+        assertEquals(R, children.get(1).getPopulation());
+
+        Node grandchildNode = children.get(0).getChildren().get(0);
+        assertEquals("grandchild", grandchildNode.getName());
+        assertEquals(children.get(0), grandchildNode.getParents().get(0));
+
+        // Views held by the individuals refer to the same graph:
+        assertEquals(children.get(0), child.getNode());
+        assertEquals(grandchildNode, grandchild.getNode());
+        assertTrue(root.getGraph() == grandchild.getNode().getGraph());
+
+        // The nested individual can seed a simulation:
+        Reaction infection = new Reaction();
+        infection.initByName("reactionName", "Infection", "rate", "0.005", "value", "S + I -> 2I");
+        Reaction recovery = new Reaction();
+        recovery.initByName("reactionName", "Recovery", "rate", "0.2", "value", "I -> R");
+        Model model = new Model();
+        model.initByName("population", S, "population", I, "population", R,
+                "reaction", infection, "reaction", recovery);
+
+        PopulationSize size = new PopulationSize();
+        size.initByName("population", S, "size", 199.0);
+        InitState initState = new InitState();
+        initState.initByName("populationSize", size, "lineageSeed", seed);
+
+        LineageEndCondition endCondition = new LineageEndCondition();
+        endCondition.initByName("nLineages", 0);
+
+        InheritanceTrajectory trajectory = new InheritanceTrajectory();
+        trajectory.initByName("model", model, "initialState", initState,
+                "lineageEndCondition", endCondition, "seed", 1,
+                "verbosity", 0);
+        trajectory.run();
+
+        assertEquals(1, trajectory.getStartNodes().size());
+        assertEquals("seed", trajectory.getStartNodes().get(0).getName());
+    }
+}
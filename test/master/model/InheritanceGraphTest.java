@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package master.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Check edge lists and attributes of inheritance graph nodes against a
+ * straightforward list-based representation, under random edits which
+ * exceed the edges held inline.
+ *
+ * @author agent <agent@local>
+ */
+public class InheritanceGraphTest {
+
+    @Test
+    public void testEdgeLists() throws Exception {
+        Random random = new Random(42);
+
+        Population X = new Population();
+        X.initByName("populationName", "X");
+
+        // Start small so that storage must grow:
+        InheritanceGraph graph = new InheritanceGraph(4);
+        int n = 50;
+        List<Node> nodes = new ArrayList<>();
+        List<List<Node>> parents = new ArrayList<>();
+        List<List<Node>> children = new ArrayList<>();
+        for (int i=0; i<n; i++) {
+            nodes.add(graph.addNode(X, 1.0*i));
+            parents.add(new ArrayList<>());
+            children.add(new ArrayList<>());
+        }
+        assertEquals(n, graph.getNodeCount());
+
+        for (int step=0; step<20000; step++) {
+            int i = random.nextInt(n);
+            boolean editParents = random.nextBoolean();
+            List<Node> view = editParents
+                    ? nodes.get(i).getParents()
+                    : nodes.get(i).getChildren();
+            List<Node> expected = editParents
+                    ? parents.get(i)
+                    : children.get(i);
+
+            int op = random.nextInt(10);
+            Node other = nodes.get(random.nextInt(n));
+            if (op<5) {
+                int index = random.nextInt(expected.size()+1);
+                view.add(index, other);
+                expected.add(index, other);
+            } else if (op<8 && !expected.isEmpty()) {
+                int index = random.nextInt(expected.size());
+                assertEquals(expected.remove(index), view.remove(index));
+            } else if (op<9 && !expected.isEmpty()) {
+                int index = random.nextInt(expected.size());
+                assertEquals(expected.set(index, other), view.set(index, other));
+            } else if (random.nextInt(10)==0) {
+                view.clear();
+                expected.clear();
+            }
+
+            assertEquals(expected, view);
+        }
+
+        List<Node> leaves = new ArrayList<>();
+        for (int i=0; i<n; i++) {
+            assertEquals(parents.get(i), nodes.get(i).getParents());
+            assertEquals(children.get(i), nodes.get(i).getChildren());
+            assertEquals(1.0*i, nodes.get(i).getTime(), 0.0);
+            if (children.get(i).isEmpty() && !parents.get(i).isEmpty())
+                leaves.add(nodes.get(i));
+        }
+        assertEquals(leaves, graph.getLeaves());
+        assertEquals(leaves.size(), graph.getLeafCount());
+    }
+
+    @Test
+    public void testAttributes() throws Exception {
+        Population X = new Population();
+        X.initByName("populationName", "X");
+
+        InheritanceGraph graph = new InheritanceGraph();
+        Node a = graph.addNode(X);
+        Node b = graph.addNode(X);
+
+        assertNull(a.getAttribute("colour"));
+        assertNull(a.getAttributeNames());
+
+        a.setAttribute("colour", "red");
+        a.setAttribute("weight", 2.0);
+        b.setAttribute("colour", "blue");
+        assertEquals("red", a.getAttribute("colour"));
+        assertEquals(2.0, a.getAttribute("weight"));
+        assertEquals("blue", b.getAttribute("colour"));
+        assertNull(b.getAttribute("weight"));
+        assertEquals(2, a.getAttributeNames().size());
+
+        a.removeAttribute("colour");
+        assertNull(a.getAttribute("colour"));
+        assertEquals("blue", b.getAttribute("colour"));
+
+        // Views of the same graph entry are equal, but entries of other
+        // graphs are not:
+        a.addChild(b);
+        Node child = a.getChildren().get(0);
+        assertEquals(b, child);
+        assertEquals(b.hashCode(), child.hashCode());
+        assertEquals(a, child.getParents().get(0));
+        assertFalse(b.equals(new InheritanceGraph().addNode(X)));
+    }
+}
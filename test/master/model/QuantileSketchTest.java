@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package master.model;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Check quantile sketches against a known distribution, and that merged
+ * and checkpointed sketches agree with those built directly.
+ *
+ * @author agent <agent@local>
+ */
+public class QuantileSketchTest {
+
+    private static final double[] PROBS = {
+        0.001, 0.01, 0.1, 0.25, 0.5, 0.75, 0.9, 0.99, 0.999};
+
+    @Test
+    public void testAccuracy() throws Exception {
+        Random random = new Random(42);
+
+        QuantileSketch sketch = new QuantileSketch(100);
+        double min = Double.POSITIVE_INFINITY, max = 0.0;
+        for (int i=0; i<100000; i++) {
+            double x = -Math.log(1.0 - random.nextDouble());
+            sketch.add(x, 1.0);
+            min = Math.min(min, x);
+            max = Math.max(max, x);
+        }
+        assertEquals(100000.0, sketch.getTotalWeight(), 0.0);
+
+        // Compare the exponential CDF at each estimated quantile with the
+        // probability requested.  Errors are relative in the tails:
+        for (double q : PROBS) {
+            double F = 1.0 - Math.exp(-sketch.getQuantile(q));
+            assertEquals(q, F, 0.01*Math.min(q, 1.0-q) + 0.002);
+        }
+
+        assertEquals(min, sketch.getQuantile(0.0), 0.0);
+        assertEquals(max, sketch.getQuantile(1.0), 0.0);
+    }
+
+    @Test
+    public void testMerge() throws Exception {
+        Random random = new Random(42);
+
+        // Sample split between shards, with the extremes in the last:
+        double[] sample = new double[30002];
+        QuantileSketch single = new QuantileSketch(100);
+        QuantileSketch[] parts = new QuantileSketch[3];
+        for (int p=0; p<parts.length; p++)
+            parts[p] = new QuantileSketch(100);
+        for (int i=0; i<30000; i++) {
+            sample[i] = random.nextGaussian();
+            parts[i%3].add(sample[i], 1.0);
+        }
+        sample[30000] = -10.0;
+        sample[30001] = 10.0;
+        parts[2].add(-10.0, 1.0);
+        parts[2].add(10.0, 1.0);
+        for (double x : sample)
+            single.add(x, 1.0);
+        Arrays.sort(sample);
+
+        QuantileSketch merged = new QuantileSketch(100);
+        for (QuantileSketch part : parts)
+            merged.add(part, 1.0);
+
+        // Merged estimates are as accurate as those of a single sketch,
+        // judged by their ranks within the sample:
+        assertEquals(single.getTotalWeight(), merged.getTotalWeight(), 1e-9);
+        for (double q : PROBS) {
+            double tol = 0.01*Math.min(q, 1.0-q) + 0.002;
+            assertEquals(q, rank(sample, single.getQuantile(q)), tol);
+            assertEquals(q, rank(sample, merged.getQuantile(q)), tol);
+        }
+        assertEquals(-10.0, merged.getQuantile(0.0), 0.0);
+        assertEquals(10.0, merged.getQuantile(1.0), 0.0);
+
+        // Scaled merges change weights but not quantiles, and sketches
+        // merged with zero weight contribute nothing:
+        QuantileSketch scaled = new QuantileSketch(100);
+        scaled.add(single, 2.0);
+        QuantileSketch outlier = new QuantileSketch(100);
+        outlier.add(100.0, 1.0);
+        scaled.add(outlier, 0.0);
+        assertEquals(2.0*single.getTotalWeight(), scaled.getTotalWeight(), 1e-9);
+        for (double q : PROBS)
+            assertEquals(single.getQuantile(q), scaled.getQuantile(q), 1e-9);
+        assertEquals(10.0, scaled.getQuantile(1.0), 0.0);
+    }
+
+    /**
+     * @return fraction of sorted sample lying below x
+     */
+    private double rank(double[] sample, double x) {
+        int idx = Arrays.binarySearch(sample, x);
+        return (idx>=0 ? idx : -(idx + 1))/(double)sample.length;
+    }
+
+    @Test
+    public void testCheckpoint() throws Exception {
+        Random random = new Random(42);
+
+        QuantileSketch sketch = new QuantileSketch(50);
+        for (int i=0; i<1234; i++)
+            sketch.add(random.nextGaussian(), random.nextDouble());
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        sketch.writeState(new DataOutputStream(bytes));
+        QuantileSketch restored = new QuantileSketch(50);
+        restored.readState(new DataInputStream(
+                new ByteArrayInputStream(bytes.toByteArray())));
+
+        // Restored sketches continue exactly as the original:
+        for (int i=0; i<1000; i++) {
+            double x = random.nextGaussian(), w = random.nextDouble();
+            sketch.add(x, w);
+            restored.add(x, w);
+        }
+
+        assertEquals(sketch.getTotalWeight(), restored.getTotalWeight(), 0.0);
+        assertEquals(sketch.getQuantile(0.0), restored.getQuantile(0.0), 0.0);
+        assertEquals(sketch.getQuantile(1.0), restored.getQuantile(1.0), 0.0);
+        for (double q : PROBS)
+            assertEquals(sketch.getQuantile(q), restored.getQuantile(q), 0.0);
+    }
+}
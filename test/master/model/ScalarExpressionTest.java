@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package master.model;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import master.model.parsers.MASTERGrammarLexer;
+import master.model.parsers.MASTERGrammarParser;
+import org.antlr.v4.runtime.ANTLRInputStream;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Check that compiled expressions agree exactly with those evaluated by
+ * ExpressionEvaluator, and that expressions which cannot be compiled
+ * are identified.
+ *
+ * @author agent <agent@local>
+ */
+public class ScalarExpressionTest {
+
+    private static ParseTree parse(String expression) {
+        MASTERGrammarLexer lexer = new MASTERGrammarLexer(
+                new ANTLRInputStream(expression));
+        MASTERGrammarParser parser = new MASTERGrammarParser(
+                new CommonTokenStream(lexer));
+        return parser.expression();
+    }
+
+    @Test
+    public void testAgreement() {
+        String[] expressions = {
+            "y*log(0.5*C + 0.1) - (0.5*C + 0.1) - log((y)!)",
+            "-I^2/3 + 2^-y % 1.5",
+            "exp(-abs(I - y)) + sqrt(C) + sum(I)",
+            "theta(I - 2*C)*(I>C) + (I<C) + (I>=y) + (I<=y)",
+            "(I==C) + 2*(I!=C) + 4*(I && C) + 8*(I || C)",
+            "I > 3 ? C + 1 : (C > 2 ? y : -y)",
+            "{I*y}"
+        };
+
+        Map<String, Integer> varIndices = new HashMap<>();
+        varIndices.put("I", 0);
+        varIndices.put("C", 1);
+        varIndices.put("y", 2);
+
+        Random random = new Random(42);
+        double[] vars = new double[3];
+        for (String expression : expressions) {
+            ParseTree tree = parse(expression);
+            ScalarExpression compiled = ScalarExpression.compile(tree, varIndices);
+            assertNotNull(expression, compiled);
+
+            ExpressionEvaluator evaluator = new ExpressionEvaluator(tree,
+                    null, null);
+            for (int n=0; n<200; n++) {
+                for (int i=0; i<vars.length; i++)
+                    vars[i] = random.nextInt(3)==0
+                            ? random.nextInt(5)
+                            : 10.0*random.nextDouble();
+
+                evaluator.setVectorVar("I", new Double[] {vars[0]});
+                evaluator.setVectorVar("C", new Double[] {vars[1]});
+                evaluator.setVectorVar("y", new Double[] {vars[2]});
+                Double[] expected = evaluator.evaluate(null);
+
+                assertEquals(1, expected.length);
+                assertEquals(expression, expected[0],
+                        compiled.evaluate(vars), 0.0);
+            }
+        }
+    }
+
+    @Test
+    public void testNotScalar() {
+        Map<String, Integer> varIndices = new HashMap<>();
+        varIndices.put("y", 0);
+
+        // Unknown (e.g. vector) variables, arrays, subscripts and
+        // functions:
+        assertNull(ScalarExpression.compile(parse("y*I"), varIndices));
+        assertNull(ScalarExpression.compile(parse("sum({y, y})"), varIndices));
+        assertNull(ScalarExpression.compile(parse("{y, 1}[0]"), varIndices));
+        assertNull(ScalarExpression.compile(parse("f(y)"), varIndices));
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package master.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Check that states reconstructed from sparse changes and keyframes are
+ * identical to the states recorded.
+ *
+ * @author agent <agent@local>
+ */
+public class StateHistoryTest {
+
+    @Test
+    public void test() throws Exception {
+        Random random = new Random(42);
+
+        int nPops = 20;
+        List<Population> pops = new ArrayList<>();
+        for (int p=0; p<nPops; p++) {
+            Population pop = new Population();
+            pop.initByName("populationName", "X" + p);
+            pops.add(pop);
+        }
+
+        StateHistory history = new StateHistory();
+        for (int repeat=0; repeat<2; repeat++) {
+            history.clear();
+
+            // Record a random walk in which a few populations change at a
+            // time and the last population only appears part way through:
+            List<PopulationState> expected = new ArrayList<>();
+            List<Double> expectedTimes = new ArrayList<>();
+            PopulationState state = new PopulationState();
+            for (int p=0; p<nPops-1; p++)
+                state.set(pops.get(p), 10.0);
+
+            double t = 0.0;
+            for (int i=0; i<1000; i++) {
+                if (i == 500)
+                    state.set(pops.get(nPops-1), 1.0);
+
+                int nChanged = random.nextInt(4);
+                for (int c=0; c<nChanged; c++) {
+                    Population pop = pops.get(random.nextInt(nPops-1));
+                    state.set(pop, state.get(pop) + random.nextGaussian());
+                }
+
+                t += random.nextDouble();
+                history.add(state, t);
+                expected.add(state.getCopy());
+                expectedTimes.add(t);
+            }
+
+            assertEquals(expected.size(), history.size());
+            assertEquals(expectedTimes, history.getTimes());
+
+            // Random access:
+            for (int n=0; n<2000; n++) {
+                int i = random.nextInt(expected.size());
+                PopulationState reconstructed = history.getState(i);
+                for (Population pop : pops)
+                    assertEquals(expected.get(i).get(pop),
+                            reconstructed.get(pop), 0.0);
+            }
+
+            // Sequential access:
+            int i = 0;
+            for (PopulationState reconstructed : history.getStates()) {
+                for (Population pop : pops)
+                    assertEquals(expected.get(i).get(pop),
+                            reconstructed.get(pop), 0.0);
+                i += 1;
+            }
+            assertEquals(expected.size(), i);
+
+            // Sizes of individual populations:
+            for (Population pop : pops) {
+                double[] sizes = history.getSizes(pop);
+                for (i=0; i<expected.size(); i++)
+                    assertEquals(expected.get(i).get(pop), sizes[i], 0.0);
+            }
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package master.postprocessors;
+
+import master.InheritanceEnsemble;
+import master.InheritanceTrajectory;
+import master.conditions.LeafCountPostSimCondition;
+import master.conditions.LineageEndCondition;
+import master.model.Individual;
+import master.model.InitState;
+import master.model.Model;
+import master.model.Node;
+import master.model.Population;
+import master.model.Reaction;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Check that abandoning trajectories early does not alter the distribution
+ * of graphs marked at a given sampling time.
+ *
+ * @author agent <agent@local>
+ */
+public class LineageSamplerTest {
+
+    /**
+     * Mean number of lineages marked at time 1 in accepted birth-death
+     * graphs conditioned on having at most 3 leaves.  Each of these
+     * lineages leaves many descendants which die after the sampling time,
+     * but these deaths are removed by the truncation so must not cause
+     * trajectories to be abandoned.
+     *
+     * @param earlyRejection whether to abandon trajectories early
+     * @return mean number of lineages at the sampling time
+     */
+    private double meanSampledLineages(boolean earlyRejection) throws Exception {
+        Population X = new Population();
+        X.initByName("populationName", "X");
+
+        Reaction birth = new Reaction();
+        birth.initByName("reactionName", "Birth", "rate", "0.9", "value", "X -> 2X");
+        Reaction death = new Reaction();
+        death.initByName("reactionName", "Death", "rate", "1.0", "value", "X -> 0");
+        Model model = new Model();
+        model.initByName("population", X, "reaction", birth, "reaction", death);
+
+        Individual seed = new Individual();
+        seed.initByName("population", X);
+        InitState initState = new InitState();
+        initState.initByName("lineageSeed", seed);
+
+        LineageEndCondition endCondition = new LineageEndCondition();
+        endCondition.initByName("nLineages", 0);
+
+        LineageSampler sampler = new LineageSampler();
+        sampler.initByName("pSample", 1.0, "samplingTime", 1.0,
+                "markAnnotation", "sampled");
+
+        LeafCountPostSimCondition condition = new LeafCountPostSimCondition();
+        condition.initByName("nLeaves", 3, "exceedCondition", false);
+
+        InheritanceEnsemble ensemble = new InheritanceEnsemble();
+        ensemble.initByName("model", model, "initialState", initState,
+                "simulationTime", 30.0, "nTraj", 2000, "seed", 42,
+                "lineageEndCondition", endCondition,
+                "inheritancePostProcessor", sampler,
+                "postSimCondition", condition,
+                "earlyRejection", earlyRejection,
+                "verbosity", 0);
+        ensemble.run();
+
+        double mean = 0.0;
+        for (InheritanceTrajectory itraj : ensemble.getTrajectories()) {
+            assertTrue(itraj.getLeafCount()<=3);
+            for (Node leaf : itraj.getLeafNodes()) {
+                if (leaf.getTime() == 1.0)
+                    mean += 1;
+            }
+        }
+
+        return mean/ensemble.getTrajectories().size();
+    }
+
+    @Test
+    public void testEarlyRejectionWithSamplingTime() throws Exception {
+        assertEquals(meanSampledLineages(false), meanSampledLineages(true), 0.1);
+    }
+}
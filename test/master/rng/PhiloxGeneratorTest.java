@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package master.rng;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Check Philox4x32-10 output against the known-answer vectors
+ * distributed with the Random123 library.
+ *
+ * @author agent <agent@local>
+ */
+public class PhiloxGeneratorTest {
+
+    @Test
+    public void testKnownAnswers() {
+        // Counter words, key words and expected output words:
+        long[][][] vectors = {
+            {{0x00000000L, 0x00000000L, 0x00000000L, 0x00000000L},
+             {0x00000000L, 0x00000000L},
+             {0x6627e8d5L, 0xe169c58dL, 0xbc57ac4cL, 0x9b00dbd8L}},
+            {{0xffffffffL, 0xffffffffL, 0xffffffffL, 0xffffffffL},
+             {0xffffffffL, 0xffffffffL},
+             {0x408f276dL, 0x41c83b0eL, 0xa20bc7c6L, 0x6d5451fdL}},
+            {{0x243f6a88L, 0x85a308d3L, 0x13198a2eL, 0x03707344L},
+             {0xa4093822L, 0x299f31d0L},
+             {0xd16cfe09L, 0x94fdccebL, 0x5001e420L, 0x24126ea1L}}};
+
+        for (long[][] vector : vectors) {
+            long[] ctr = vector[0], key = vector[1], expected = vector[2];
+
+            // The lower half of the counter is the position within the
+            // stream and the upper half the stream index:
+            PhiloxGenerator rng = new PhiloxGenerator();
+            rng.setSeed((key[1] << 32) | key[0]);
+            rng.setStream((ctr[3] << 32) | ctr[2]);
+            rng.setPosition((ctr[1] << 32) | ctr[0]);
+
+            long first = rng.nextLong(), second = rng.nextLong();
+            assertEquals(expected[0], first >>> 32);
+            assertEquals(expected[1], first & 0xffffffffL);
+            assertEquals(expected[2], second >>> 32);
+            assertEquals(expected[3], second & 0xffffffffL);
+        }
+    }
+
+    @Test
+    public void testStreams() throws Exception {
+        PhiloxGenerator rng = new PhiloxGenerator();
+        rng.setSeed(53);
+
+        // Returning to a stream reproduces its variates:
+        rng.setStream(7);
+        double[] first = new double[5];
+        for (int i=0; i<first.length; i++)
+            first[i] = rng.nextDouble();
+
+        rng.setStream(8);
+        double other = rng.nextDouble();
+
+        rng.setStream(7);
+        for (int i=0; i<first.length; i++)
+            assertEquals(first[i], rng.nextDouble(), 0.0);
+
+        assertTrue(other != first[0]);
+
+        // Saved state resumes mid-block:
+        rng.setStream(7);
+        rng.nextDouble();
+        rng.nextLong();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        rng.writeState(new DataOutputStream(bytes));
+        double expected = rng.nextDouble();
+
+        PhiloxGenerator restored = new PhiloxGenerator();
+        restored.readState(new DataInputStream(
+                new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals(expected, restored.nextDouble(), 0.0);
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package master.utilities;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.math.BigDecimal;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Check that exact sums are correctly rounded and independent of the
+ * order and grouping of their terms.
+ *
+ * @author agent <agent@local>
+ */
+public class ExactSumTest {
+
+    @Test
+    public void test() throws Exception {
+        Random random = new Random(42);
+
+        for (int repeat=0; repeat<100; repeat++) {
+
+            // Terms of widely varying magnitude and sign, which ordinary
+            // summation rounds heavily:
+            int n = 1 + random.nextInt(200);
+            double[] terms = new double[n];
+            BigDecimal exact = BigDecimal.ZERO;
+            for (int i=0; i<n; i++) {
+                terms[i] = random.nextGaussian()*Math.pow(10, random.nextInt(30) - 15);
+                exact = exact.add(new BigDecimal(terms[i]));
+            }
+
+            ExactSum sum = new ExactSum();
+            for (double term : terms)
+                sum.add(term);
+            assertEquals(exact.doubleValue(), sum.doubleValue(), 0.0);
+
+            // Terms added in reverse order, split between partial sums:
+            ExactSum[] parts = new ExactSum[3];
+            for (int p=0; p<parts.length; p++)
+                parts[p] = new ExactSum();
+            for (int i=n-1; i>=0; i--)
+                parts[random.nextInt(3)].add(terms[i]);
+
+            ExactSum merged = new ExactSum();
+            for (ExactSum part : parts) {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                part.writeState(new DataOutputStream(bytes));
+                ExactSum restored = new ExactSum();
+                restored.readState(new DataInputStream(
+                        new ByteArrayInputStream(bytes.toByteArray())));
+                merged.add(restored, 1.0);
+            }
+            assertEquals(sum.doubleValue(), merged.doubleValue(), 0.0);
+        }
+
+        // Cancellation leaves only the smallest term:
+        ExactSum sum = new ExactSum();
+        sum.add(1e100);
+        sum.add(1.0);
+        sum.add(-1e100);
+        assertEquals(1.0, sum.doubleValue(), 0.0);
+
+        sum.scale(3.0);
+        assertEquals(3.0, sum.doubleValue(), 0.0);
+
+        sum.add(Double.POSITIVE_INFINITY);
+        assertEquals(Double.POSITIVE_INFINITY, sum.doubleValue(), 0.0);
+    }
+}
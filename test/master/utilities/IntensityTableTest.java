@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package master.utilities;
+
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Check that lookups on evenly spaced sample times agree exactly with
+ * those located by binary search.
+ *
+ * @author agent <agent@local>
+ */
+public class IntensityTableTest {
+
+    @Test
+    public void test() throws Exception {
+        Random random = new Random(42);
+
+        // Sample times accumulate rounding error, as when sampling a
+        // trajectory at multiples of a fixed interval:
+        int n = 1001;
+        double dt = 0.1;
+        double[] times = new double[n];
+        double[] popSizes = new double[n];
+        for (int i=0; i<n; i++) {
+            times[i] = i*dt;
+            popSizes[i] = 1.0 + 100.0*random.nextDouble();
+        }
+
+        IntensityTable table = new IntensityTable(times, popSizes);
+        assertTrue(table.isEvenlySpaced());
+
+        // Intensities integrated from the peak, as in the table:
+        int peakIdx = 0;
+        for (int i=1; i<n; i++) {
+            if (popSizes[i]>popSizes[peakIdx])
+                peakIdx = i;
+        }
+        double[] intensities = new double[n];
+        for (int i=peakIdx; i>0; i--)
+            intensities[i-1] = intensities[i] + (times[i]-times[i-1])/popSizes[i-1];
+        for (int i=peakIdx; i<n-1; i++)
+            intensities[i+1] = intensities[i] + (times[i]-times[i+1])/popSizes[i];
+
+        // Query sample times themselves, their neighbouring doubles and
+        // random times in between:
+        double[] queries = new double[4*n];
+        for (int i=0; i<n; i++) {
+            queries[4*i] = times[i];
+            queries[4*i+1] = Math.nextUp(times[i]);
+            queries[4*i+2] = Math.nextDown(times[i]);
+            queries[4*i+3] = times[n-1]*random.nextDouble();
+        }
+
+        for (double t : queries) {
+            if (t<0.0 || t>times[n-1])
+                continue;
+
+            int idx = Arrays.binarySearch(times, t);
+            double popSize, intensity;
+            if (idx>=0) {
+                popSize = popSizes[idx];
+                intensity = intensities[idx];
+            } else {
+                int tidx = -(idx + 1);
+                popSize = popSizes[tidx-1];
+                if (tidx<=peakIdx)
+                    intensity = (times[tidx]-t)/popSizes[tidx-1] + intensities[tidx];
+                else
+                    intensity = intensities[tidx-1] - (t-times[tidx-1])/popSizes[tidx-1];
+            }
+
+            assertEquals(popSize, table.getPopSize(t, 0.0, 0.0), 0.0);
+            assertEquals(intensity, table.getIntensity(t, 0.0, 0.0), 0.0);
+
+            // Inverse intensity recovers the time before the origin:
+            assertEquals(times[n-1] - t, table.getInverseIntensity(intensity,
+                    times[n-1], 0.0, 0.0), 1e-9);
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package master.xmltests;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Check that the approximate Bayesian computation example runs.  The
+ * outputs are only required to exist.
+ *
+ * @author agent <agent@local>
+ */
+public class SIRABCTest extends XMLTestCase {
+
+    @Override
+    public String getXMLFileName() {
+        return "examples/SIRABC.xml";
+    }
+
+    @Override
+    public Map<File, String> getOutputFileHashes() {
+        Map<File, String> map = new HashMap<>();
+        map.put(new File("SIRABC_output.json"), null);
+        map.put(new File("SIRABC.log"), null);
+        return map;
+    }
+}
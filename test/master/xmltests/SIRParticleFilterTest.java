@@ -0,0 +1,26 @@
+package master.xmltests;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Check that the particle filter example runs.  The output is only
+ * required to exist.
+ *
+ * @author agent <agent@local>
+ */
+public class SIRParticleFilterTest extends XMLTestCase {
+
+    @Override
+    public String getXMLFileName() {
+        return "examples/SIRParticleFilter.xml";
+    }
+
+    @Override
+    public Map<File, String> getOutputFileHashes() {
+        Map<File, String> map = new HashMap<>();
+        map.put(new File("SIRParticleFilter_output.json"), null);
+        return map;
+    }
+}
@@ -0,0 +1,27 @@
+package master.xmltests;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Check that an initial state containing an individual with nested child
+ * individuals can be loaded and simulated.  The output is only required
+ * to exist.
+ *
+ * @author agent <agent@local>
+ */
+public class SIRTreeNestedSeedTest extends XMLTestCase {
+
+    @Override
+    public String getXMLFileName() {
+        return "test/master/xmltests/SIRTreeNestedSeed.xml";
+    }
+
+    @Override
+    public Map<File, String> getOutputFileHashes() {
+        Map<File, String> map = new HashMap<>();
+        map.put(new File("SIRTreeNestedSeed_output.newick"), null);
+        return map;
+    }
+}